@@ -0,0 +1,190 @@
+/**
+ *
+ */
+package org.theseed.subsystems.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.theseed.subsystems.ColumnData;
+import org.theseed.subsystems.FunctionSnapshot;
+import org.theseed.subsystems.GenomeFunctionCache;
+import org.theseed.subsystems.RowData;
+import org.theseed.subsystems.SubsystemData;
+
+/**
+ * Throughput benchmarks for subsystem loading and validation.  Each trial generates a synthetic coreSEED in a
+ * temporary directory using {@link SyntheticCoreSeed}, and the benchmarks measure the following operations
+ * against it.
+ *
+ * loadSubsystem		load a subsystem spreadsheet with {@link SubsystemData#load(File, String)}
+ * readFunctions		read the functions of a genome with {@link RowData#readFunctions(File, String, Set)}
+ * matchColumns			match every function of a genome against every column of a subsystem
+ * validateCold			load and validate a subsystem with an empty genome function cache and no function snapshots
+ * validateWarm			load and validate a subsystem with the genome functions already cached
+ * validateAndSave		load and validate a subsystem with the genome functions already cached, and save the results
+ *
+ * The two plain validation benchmarks turn off result saving, so they measure the validation alone.
+ * validateAndSave includes the writing of the error-count file and the validation results.
+ *
+ * Use {@link BenchmarkRunner} to run them with allocation profiling.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SubsystemBenchmark {
+
+    // FIELDS
+    /** number of genomes in the synthetic coreSEED */
+    @Param({ "100", "500" })
+    public int genomes;
+    /** number of columns in each subsystem */
+    @Param({ "20" })
+    public int width;
+    /** number of subsystems in the synthetic coreSEED */
+    @Param({ "10" })
+    public int subsystems;
+    /** fraction of cell pegs with the wrong function */
+    @Param({ "0.05" })
+    public double errorRate;
+    /** synthetic coreSEED directory */
+    private File coreDir;
+    /** ID of the subsystem to process */
+    private String ssId;
+    /** ID of the genome to process */
+    private String genomeId;
+    /** directory of the genome to process */
+    private File genomeDir;
+    /** columns of the subsystem to process */
+    private ColumnData[] columns;
+    /** functions of the genome to process */
+    private List<String> functions;
+    /** feature types for reading functions */
+    private static final Set<String> TYPES = Set.of("peg");
+    /** number of pegs in each genome */
+    private static final int PEG_COUNT = 4000;
+    /** normal size of the genome function cache */
+    private static final int CACHE_SIZE = 200;
+
+    /**
+     * Generate the synthetic coreSEED and load the test data for the benchmarks.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.coreDir = Files.createTempDirectory("coreseed").toFile();
+        int pegCount = Math.max(PEG_COUNT, this.subsystems * this.width * 2);
+        SyntheticCoreSeed generator = new SyntheticCoreSeed(this.genomes, this.subsystems, this.width, pegCount,
+                this.errorRate, 1234567L);
+        generator.generate(this.coreDir);
+        // Keep the compiled function files in a work directory, as a server would.
+        FunctionSnapshot.setCacheDir(new File(this.coreDir, "Work/functions"));
+        // Make sure every genome fits in the function cache, so the warm benchmarks are really warm.
+        GenomeFunctionCache.setMaxGenomes(Math.max(CACHE_SIZE, this.genomes));
+        this.ssId = SyntheticCoreSeed.subsystemId(0);
+        this.genomeId = SyntheticCoreSeed.genomeId(0);
+        this.genomeDir = new File(this.coreDir, "Organisms/" + this.genomeId);
+        this.columns = SubsystemData.load(this.coreDir, this.ssId).getColumns();
+        Map<String, String> funMap = RowData.readFunctions(this.genomeDir, this.genomeId, TYPES);
+        this.functions = new ArrayList<String>(funMap.values());
+    }
+
+    /**
+     * Delete the synthetic coreSEED.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        GenomeFunctionCache.clear();
+        GenomeFunctionCache.setMaxGenomes(CACHE_SIZE);
+        FunctionSnapshot.setCacheDir(null);
+        FileUtils.deleteDirectory(this.coreDir);
+    }
+
+    /**
+     * This state is used to clear the genome function cache and delete the function snapshots before each
+     * cold validation, so the functions are parsed from the original files.
+     */
+    @State(Scope.Thread)
+    public static class ColdCache {
+
+        @Setup(Level.Invocation)
+        public void clearCache(SubsystemBenchmark bench) {
+            GenomeFunctionCache.clear();
+            for (int i = 0; i < bench.genomes; i++)
+                FunctionSnapshot.snapshotFile(SyntheticCoreSeed.genomeId(i)).delete();
+        }
+
+    }
+
+    @Benchmark
+    public SubsystemData loadSubsystem() {
+        return SubsystemData.load(this.coreDir, this.ssId);
+    }
+
+    @Benchmark
+    public Map<String, String> readFunctions() throws IOException {
+        return RowData.readFunctions(this.genomeDir, this.genomeId, TYPES);
+    }
+
+    @Benchmark
+    public void matchColumns(Blackhole bh) {
+        for (String function : this.functions) {
+            for (ColumnData column : this.columns)
+                bh.consume(column.matches(function));
+        }
+    }
+
+    @Benchmark
+    public int validateCold(ColdCache cache) throws IOException {
+        SubsystemData subsystem = SubsystemData.load(this.coreDir, this.ssId);
+        subsystem.setSaveResults(false);
+        subsystem.validateRows();
+        return subsystem.getErrorCount();
+    }
+
+    @Benchmark
+    public int validateWarm() throws IOException {
+        SubsystemData subsystem = SubsystemData.load(this.coreDir, this.ssId);
+        subsystem.setSaveResults(false);
+        subsystem.validateRows();
+        return subsystem.getErrorCount();
+    }
+
+    @Benchmark
+    public int validateAndSave() throws IOException {
+        SubsystemData subsystem = SubsystemData.load(this.coreDir, this.ssId);
+        subsystem.validateRows();
+        return subsystem.getErrorCount();
+    }
+
+}
@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package org.theseed.subsystems.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object generates a synthetic coreSEED for benchmarking.  The directory layout is the same as the test
+ * fixtures in the "data" directory:  an "Organisms" directory with one subdirectory per genome containing
+ * "GENOME", "assigned_functions" and "Features/<type>/deleted.features", and a "Subsystems" directory with
+ * one subdirectory per subsystem containing "spreadsheet", "CLASSIFICATION" and "EXCHANGABLE".
+ *
+ * Each subsystem has the same number of columns, and each genome has a row in every subsystem.  Most cells
+ * contain a single peg whose function matches the column, but some contain two pegs, some are empty, and a
+ * configurable fraction contain a peg with the wrong function, so that validation has errors to find.  A few
+ * pegs in each genome are deleted, and each subsystem has a row for a genome that does not exist.  The output
+ * depends only on the size parameters and the random seed.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SyntheticCoreSeed {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(SyntheticCoreSeed.class);
+    /** number of genomes to generate */
+    private final int genomeCount;
+    /** number of subsystems to generate */
+    private final int subsystemCount;
+    /** number of columns in each subsystem */
+    private final int width;
+    /** number of pegs in each genome */
+    private final int pegCount;
+    /** fraction of cell pegs whose function is wrong */
+    private final double errorRate;
+    /** random number generator */
+    private final Random rand;
+    /** number of RNAs in each genome */
+    private static final int RNA_COUNT = 10;
+    /** fraction of pegs in each genome that are deleted */
+    private static final double DELETE_RATE = 0.01;
+    /** fraction of cells that are empty */
+    private static final double EMPTY_RATE = 0.1;
+    /** fraction of non-empty cells that have two pegs */
+    private static final double DOUBLE_RATE = 0.05;
+    /** function for pegs not in a subsystem */
+    private static final String HYPOTHETICAL = "hypothetical protein";
+    /** ID of the genome used for the missing-genome rows */
+    public static final String MISSING_GENOME = "999999.1";
+
+    /**
+     * Construct a synthetic coreSEED generator.
+     *
+     * @param genomeCount		number of genomes to generate
+     * @param subsystemCount	number of subsystems to generate
+     * @param width				number of columns in each subsystem
+     * @param pegCount			number of pegs in each genome
+     * @param errorRate			fraction of cell pegs whose function is wrong
+     * @param seed				random number seed
+     */
+    public SyntheticCoreSeed(int genomeCount, int subsystemCount, int width, int pegCount, double errorRate,
+            long seed) {
+        if (pegCount < subsystemCount * width * 2)
+            throw new IllegalArgumentException("Genomes must have at least " + subsystemCount * width * 2
+                    + " pegs to fill the subsystems.");
+        this.genomeCount = genomeCount;
+        this.subsystemCount = subsystemCount;
+        this.width = width;
+        this.pegCount = pegCount;
+        this.errorRate = errorRate;
+        this.rand = new Random(seed);
+    }
+
+    /**
+     * @return the ID of a synthetic genome
+     *
+     * @param idx	index (0-based) of the genome
+     */
+    public static String genomeId(int idx) {
+        return Integer.toString(100000 + idx) + ".1";
+    }
+
+    /**
+     * @return the ID of a synthetic subsystem
+     *
+     * @param idx	index (0-based) of the subsystem
+     */
+    public static String subsystemId(int idx) {
+        return String.format("Synthetic_subsystem_%04d", idx);
+    }
+
+    /**
+     * @return the function of a subsystem column.  Every seventh column has a two-role function.
+     *
+     * @param ssIdx		index (0-based) of the subsystem
+     * @param colIdx	index (0-based) of the column
+     */
+    private static String columnFunction(int ssIdx, int colIdx) {
+        String retVal = String.format("Synthetic protein S%dC%d (EC 1.%d.%d.1)", ssIdx, colIdx, ssIdx + 1,
+                colIdx + 1);
+        if (colIdx % 7 == 6)
+            retVal += " / Synthetic cofactor S" + ssIdx + "C" + colIdx;
+        return retVal;
+    }
+
+    /**
+     * Generate the synthetic coreSEED.  Any existing organism and subsystem directories are erased.
+     *
+     * @param coreDir	output coreSEED directory
+     *
+     * @throws IOException
+     */
+    public void generate(File coreDir) throws IOException {
+        File orgRoot = new File(coreDir, "Organisms");
+        File ssRoot = new File(coreDir, "Subsystems");
+        for (File dir : new File[] { orgRoot, ssRoot }) {
+            if (dir.exists())
+                FileUtils.deleteDirectory(dir);
+            FileUtils.forceMkdir(dir);
+        }
+        // This will hold the cell strings for each subsystem, indexed by genome.
+        String[][][] cells = new String[this.subsystemCount][this.genomeCount][this.width];
+        for (int g = 0; g < this.genomeCount; g++)
+            this.generateGenome(orgRoot, g, cells);
+        for (int s = 0; s < this.subsystemCount; s++)
+            this.writeSubsystem(ssRoot, s, cells[s]);
+        log.info("{} genomes and {} subsystems generated in {}.", this.genomeCount, this.subsystemCount, coreDir);
+    }
+
+    /**
+     * Generate a single genome and fill in its subsystem cells.
+     *
+     * @param orgRoot	organism directory
+     * @param g			index (0-based) of the genome
+     * @param cells		array of cell strings to fill in, indexed by subsystem, genome, and column
+     *
+     * @throws IOException
+     */
+    private void generateGenome(File orgRoot, int g, String[][][] cells) throws IOException {
+        String genomeId = genomeId(g);
+        File orgDir = new File(orgRoot, genomeId);
+        String[] functions = new String[this.pegCount + 1];
+        Arrays.fill(functions, HYPOTHETICAL);
+        // The pegs are assigned to cells in a shuffled order so that cells are not sorted by peg number.
+        List<Integer> pegs = new ArrayList<Integer>(this.pegCount);
+        for (int i = 1; i <= this.pegCount; i++)
+            pegs.add(i);
+        Collections.shuffle(pegs, this.rand);
+        int nextPeg = 0;
+        for (int s = 0; s < this.subsystemCount; s++) {
+            for (int c = 0; c < this.width; c++) {
+                String cell = "";
+                if (this.rand.nextDouble() >= EMPTY_RATE) {
+                    int n = (this.rand.nextDouble() < DOUBLE_RATE ? 2 : 1);
+                    StringBuilder cellText = new StringBuilder(12);
+                    for (int i = 0; i < n; i++) {
+                        int peg = pegs.get(nextPeg++);
+                        if (this.rand.nextDouble() < this.errorRate)
+                            functions[peg] = columnFunction(s, (c + 1) % this.width);
+                        else
+                            functions[peg] = columnFunction(s, c);
+                        if (i > 0)
+                            cellText.append(',');
+                        cellText.append(peg);
+                    }
+                    cell = cellText.toString();
+                }
+                cells[s][g][c] = cell;
+            }
+        }
+        // Write the genome name.
+        FileUtils.forceMkdir(orgDir);
+        FileUtils.writeStringToFile(new File(orgDir, "GENOME"), "Synthetic genome " + g, "UTF-8");
+        // Write the functions.
+        String prefix = "fig|" + genomeId + ".";
+        try (PrintWriter outStream = new PrintWriter(new File(orgDir, "assigned_functions"))) {
+            for (int i = 1; i <= this.pegCount; i++)
+                outStream.println(prefix + "peg." + i + "\t" + functions[i]);
+            for (int i = 1; i <= RNA_COUNT; i++)
+                outStream.println(prefix + "rna." + i + "\tSynthetic rRNA " + i);
+        }
+        // Write the deleted features.
+        for (String type : new String[] { "peg", "rna" }) {
+            File typeDir = new File(orgDir, "Features/" + type);
+            FileUtils.forceMkdir(typeDir);
+            try (PrintWriter outStream = new PrintWriter(new File(typeDir, "deleted.features"))) {
+                if (type.equals("peg")) {
+                    for (int i = 1; i <= this.pegCount; i++) {
+                        if (this.rand.nextDouble() < DELETE_RATE)
+                            outStream.println(prefix + "peg." + i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a subsystem directory.
+     *
+     * @param ssRoot	subsystem directory
+     * @param s			index (0-based) of the subsystem
+     * @param cells		array of cell strings for the subsystem, indexed by genome and column
+     *
+     * @throws IOException
+     */
+    private void writeSubsystem(File ssRoot, int s, String[][] cells) throws IOException {
+        File ssDir = new File(ssRoot, subsystemId(s));
+        FileUtils.forceMkdir(ssDir);
+        try (PrintWriter outStream = new PrintWriter(new File(ssDir, "spreadsheet"))) {
+            // Write the roles.
+            for (int c = 0; c < this.width; c++)
+                outStream.println("R" + (c + 1) + "\t" + columnFunction(s, c));
+            outStream.println("//");
+            // Write the groups.  The last column is auxiliary.
+            if (this.width > 3)
+                outStream.println("AUX\t" + this.width);
+            outStream.println("All");
+            outStream.println();
+            outStream.println("All");
+            outStream.println("//");
+            // Write the rows.
+            for (int g = 0; g < cells.length; g++)
+                outStream.println(genomeId(g) + "\tactive.0\t" + String.join("\t", cells[g]));
+            outStream.println(MISSING_GENOME + "\tactive.0\t1");
+        }
+        FileUtils.writeStringToFile(new File(ssDir, "CLASSIFICATION"), "Benchmark\tSynthetic\n", "UTF-8");
+        FileUtils.writeStringToFile(new File(ssDir, "EXCHANGABLE"), "1\n", "UTF-8");
+    }
+
+}
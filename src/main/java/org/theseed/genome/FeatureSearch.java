@@ -5,29 +5,107 @@ package org.theseed.genome;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.genome.core.OrganismDirectories;
+import org.theseed.metrics.Metrics;
+import org.theseed.metrics.MetricsRecorder;
 import org.theseed.reports.NaturalSort;
-import org.theseed.subsystems.RowData;
+import org.theseed.subsystems.FunctionSnapshot;
+import org.theseed.subsystems.GenomeFunctionCache;
 
 /**
  * This is a utility class to search the entire coreSEED for features with particular assignments.
  * The client specifies a particular coreSEED in the constructor, and then a member method is
  * called to get a list of feature IDs.
  *
+ * For large coreSEEDs, the search can be spread across multiple threads, with the matches streamed to a
+ * consumer as they are found.  A streaming search can be limited to a maximum number of results, and it can
+ * be cancelled from another thread through its {@link SearchHandle}.  Each search has its own handle, so
+ * several searches can run at once on the same object.
+ *
+ * Searches for a role or for a set of words can use the coreSEED's {@link FunctionIndex}, so that only the
+ * candidate functions found in the index need to be checked.  A regular-expression search uses the index
+ * as well when the expression contains literal words that every match must include; the expression is then
+ * only applied to the functions containing those words.  Only an expression with no such words requires a
+ * scan of every feature.
+ *
  * @author Bruce Parrello
  *
  */
 public class FeatureSearch {
 
+    /**
+     * This object controls a single streaming search.  It can be created before the search starts, so that
+     * a cancellation requested early is not lost, and it reports afterward whether the search was cancelled
+     * or stopped because it reached its limit.
+     */
+    public static class SearchHandle {
+
+        /** TRUE if the search has been cancelled */
+        private final AtomicBoolean cancelled;
+        /** TRUE if the search stopped because it reached its limit */
+        private final AtomicBoolean limitReached;
+
+        /**
+         * Create a handle for a new search.
+         */
+        public SearchHandle() {
+            this.cancelled = new AtomicBoolean(false);
+            this.limitReached = new AtomicBoolean(false);
+        }
+
+        /**
+         * Cancel the search.  The search will stop after the genomes currently being searched are
+         * finished, and no further features will be passed to the consumer.  If the search has not
+         * started yet, it will stop immediately when it does.
+         */
+        public void cancel() {
+            this.cancelled.set(true);
+        }
+
+        /**
+         * @return TRUE if the search was cancelled
+         */
+        public boolean isCancelled() {
+            return this.cancelled.get();
+        }
+
+        /**
+         * @return TRUE if the search stopped because it reached its limit
+         */
+        public boolean isLimitReached() {
+            return this.limitReached.get();
+        }
+
+        /**
+         * @return TRUE if the search should stop
+         */
+        protected boolean isStopped() {
+            return this.cancelled.get() || this.limitReached.get();
+        }
+
+    }
+
     // FIELDS
     /** logging facility */
     private static final Logger log = LoggerFactory.getLogger(FeatureSearch.class);
@@ -35,8 +113,18 @@ public class FeatureSearch {
     private OrganismDirectories genomes;
     /** organism root directory */
     private File orgRoot;
+    /** coreSEED data directory */
+    private File coreDir;
+    /** function index, or NULL if it has not been loaded */
+    private FunctionIndex index;
     /** relevant feature types */
     private static Set<String> TYPES = Stream.of("peg", "rna").collect(Collectors.toSet());
+    /** pattern for detecting constructs that prevent extracting index terms from an expression */
+    private static final Pattern UNPARSEABLE = Pattern.compile("\\\\Q|\\(\\?[-a-zA-Z]");
+    /** minimum length of an index term that is not a whole word */
+    private static final int MIN_FRAGMENT = 3;
+    /** expression atom types for term extraction */
+    private static final int LITERAL = 0, BOUNDARY = 1, OTHER = 2;
 
     /**
      * Construct a feature search object.
@@ -44,6 +132,7 @@ public class FeatureSearch {
      * @param coreDir	coreSEED data directory
      */
     public FeatureSearch(File coreDir) {
+        this.coreDir = coreDir;
         this.orgRoot = new File(coreDir, "Organisms");
         log.info("Scanning {} for genomes.", orgRoot);
         this.genomes = new OrganismDirectories(orgRoot);
@@ -59,22 +148,465 @@ public class FeatureSearch {
      * @throws IOException
      */
     public Map<String, String> findFeatures(String regex) throws IOException {
-        // We want the results to go back sorted by feature ID, so we use a tree map.
-        Map<String, String> retVal = new TreeMap<String, String>(new NaturalSort());
-        // Compile the search pattern.
+        return this.findFeatures(regex, 1, 0, true);
+    }
+
+    /**
+     * Search for features with a specified functional assignment, possibly in parallel.
+     *
+     * @param regex			regular expression string describing the desired assignments
+     * @param maxThreads	maximum number of threads to use
+     * @param limit			maximum number of features to return, or 0 for no limit
+     * @param sorted		TRUE to sort the results by feature ID, else FALSE to return them in the order found
+     *
+     * @return a map from feature IDs to functional assignments
+     *
+     * @throws IOException
+     */
+    public Map<String, String> findFeatures(String regex, int maxThreads, int limit, boolean sorted) throws IOException {
+        // Collect the features as they are found.  The sort, if any, is applied at the end.
+        Map<String, String> found = new LinkedHashMap<>();
+        this.findFeatures(regex, maxThreads, limit, (fid, function) -> found.put(fid, function));
+        Map<String, String> retVal;
+        if (! sorted)
+            retVal = found;
+        else {
+            retVal = new TreeMap<String, String>(new NaturalSort());
+            retVal.putAll(found);
+        }
+        log.info("{} features found with search pattern.", retVal.size());
+        return retVal;
+    }
+
+    /**
+     * Search for features with a specified functional assignment, passing each one to a consumer as it
+     * is found.  This is a convenience method for searches that are never cancelled.
+     *
+     * @param regex			regular expression string describing the desired assignments
+     * @param maxThreads	maximum number of threads to use
+     * @param limit			maximum number of features to return, or 0 for no limit
+     * @param consumer		consumer to receive each feature ID and its functional assignment
+     *
+     * @return the number of features passed to the consumer
+     *
+     * @throws IOException
+     */
+    public int findFeatures(String regex, int maxThreads, int limit, BiConsumer<String, String> consumer)
+            throws IOException {
+        return this.findFeatures(regex, maxThreads, limit, consumer, new SearchHandle());
+    }
+
+    /**
+     * Search for features with a specified functional assignment, passing each one to a consumer as it
+     * is found.  The genomes are spread across a bounded fork-join pool, so the features arrive in no
+     * particular order; however, the consumer is never called by more than one thread at a time.  The
+     * search stops early if the limit is reached or the handle is cancelled.
+     *
+     * @param regex			regular expression string describing the desired assignments
+     * @param maxThreads	maximum number of threads to use
+     * @param limit			maximum number of features to return, or 0 for no limit
+     * @param consumer		consumer to receive each feature ID and its functional assignment
+     * @param handle		handle for cancelling this search and checking how it ended
+     *
+     * @return the number of features passed to the consumer
+     *
+     * @throws IOException
+     */
+    public int findFeatures(String regex, int maxThreads, int limit, BiConsumer<String, String> consumer,
+            SearchHandle handle) throws IOException {
+        MetricsRecorder metrics = Metrics.get();
+        long start = System.nanoTime();
+        // Compile the search pattern and look for index terms.
         Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-        // Loop through the genomes.
-        for (String genomeId : genomes) {
-            File genomeDir = new File(this.orgRoot, genomeId);
-            log.info("Searching {} in directory {}.", genomeId, genomeDir);
-            Map<String, String> funMap = RowData.readFunctions(genomeDir, genomeId, TYPES);
-            for (Map.Entry<String, String> funEntry : funMap.entrySet()) {
+        List<String> terms = indexTerms(regex);
+        // This will count the features found.  It is only updated while holding the lock.
+        int[] count = new int[] { 0 };
+        // Create the method that delivers a feature to the consumer.  It returns FALSE if the search
+        // should stop.
+        BiPredicate<String, String> sink = (fid, function) -> {
+            synchronized (count) {
+                boolean retVal = ! handle.isStopped();
+                if (retVal) {
+                    consumer.accept(fid, function);
+                    count[0]++;
+                    if (limit > 0 && count[0] >= limit) {
+                        handle.limitReached.set(true);
+                        retVal = false;
+                    }
+                }
+                return retVal;
+            }
+        };
+        List<String> genomeList = new ArrayList<String>(1000);
+        for (String genomeId : this.genomes)
+            genomeList.add(genomeId);
+        if (! terms.isEmpty()) {
+            // The index gives us the candidate functions, and the pattern is only applied to those.
+            log.debug("Searching function index for {}.", terms);
+            FunctionIndex functionIndex = this.getIndex();
+            functionIndex.update();
+            Map<String, String> found = functionIndex.findWords(terms, pattern);
+            Iterator<Map.Entry<String, String>> iter = found.entrySet().iterator();
+            boolean keepGoing = ! handle.isStopped();
+            while (keepGoing && iter.hasNext()) {
+                Map.Entry<String, String> foundEntry = iter.next();
+                keepGoing = sink.test(foundEntry.getKey(), foundEntry.getValue());
+            }
+            metrics.count("search.indexed", 1);
+        } else if (maxThreads <= 1 || genomeList.size() <= 1) {
+            // Loop through the genomes.
+            for (String genomeId : genomeList) {
+                if (handle.isStopped())
+                    break;
+                this.searchGenome(genomeId, pattern, sink);
+            }
+        } else {
+            log.info("Using {} threads to search {} genomes.", maxThreads, genomeList.size());
+            ForkJoinPool pool = new ForkJoinPool(maxThreads);
+            try {
+                pool.submit(() -> genomeList.parallelStream().forEach(genomeId -> {
+                    if (! handle.isStopped())
+                        this.searchGenomeUnchecked(genomeId, pattern, sink);
+                })).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Feature search was interrupted.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) cause).getCause();
+                else if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                else
+                    throw new RuntimeException(cause);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        synchronized (count) {
+            metrics.count("search.matched", count[0]);
+            metrics.timeSince("search.find", start);
+            return count[0];
+        }
+    }
+
+    /**
+     * Search a single genome for features with a matching functional assignment.
+     *
+     * @param genomeId		ID of the genome to search
+     * @param pattern		compiled search pattern
+     * @param sink			method to receive each feature found; returns FALSE to stop the search
+     *
+     * @throws IOException
+     */
+    private void searchGenome(String genomeId, Pattern pattern, BiPredicate<String, String> sink) throws IOException {
+        MetricsRecorder metrics = Metrics.get();
+        long start = System.nanoTime();
+        File genomeDir = new File(this.orgRoot, genomeId);
+        log.debug("Searching {} in directory {}.", genomeId, genomeDir);
+        // A scan does not add genomes to the function cache, so that it does not evict the ones in use elsewhere.
+        FunctionSnapshot snapshot = GenomeFunctionCache.scanGenome(genomeDir, genomeId);
+        boolean keepGoing = true;
+        for (Iterator<String> typeIter = TYPES.iterator(); keepGoing && typeIter.hasNext(); ) {
+            Iterator<Map.Entry<String, String>> iter = snapshot.getFunctions(typeIter.next()).entrySet().iterator();
+            while (keepGoing && iter.hasNext()) {
+                Map.Entry<String, String> funEntry = iter.next();
                 String function = funEntry.getValue();
                 if (pattern.matcher(function).find())
-                    retVal.put(funEntry.getKey(), function);
+                    keepGoing = sink.test(funEntry.getKey(), function);
             }
         }
-        log.info("{} features found with search pattern.", retVal.size());
+        metrics.count("search.genomes", 1);
+        metrics.timeSince("search.genome", start);
+    }
+
+    /**
+     * Search a single genome, converting IO errors to unchecked exceptions for use in a stream.
+     *
+     * @param genomeId		ID of the genome to search
+     * @param pattern		compiled search pattern
+     * @param sink			method to receive each feature found; returns FALSE to stop the search
+     */
+    private void searchGenomeUnchecked(String genomeId, Pattern pattern, BiPredicate<String, String> sink) {
+        try {
+            this.searchGenome(genomeId, pattern, sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Extract the index terms from a regular expression.  An index term is a run of literal letters and digits
+     * that every match of the expression must contain, in the word syntax of {@link FunctionIndex#findWords}:
+     * if the run is not known to start at a word boundary, it gets a leading asterisk, and if it is not known to
+     * end at one, it gets a trailing asterisk.  Groups, character classes, and other constructs are skipped, so
+     * the terms found are only a filter; the expression itself must still be applied to the candidates.  If the
+     * expression has an alternation at the top level or cannot be safely parsed, no terms are returned.
+     *
+     * @param regex		regular expression to examine; it must be valid
+     *
+     * @return a list of the index terms, or an empty list if a full scan is needed
+     */
+    protected static List<String> indexTerms(String regex) {
+        List<String> retVal = new ArrayList<String>();
+        boolean ok = ! UNPARSEABLE.matcher(regex).find();
+        // This is the current literal run, and a flag indicating whether it starts at a word boundary.
+        StringBuilder run = new StringBuilder();
+        boolean leftBound = false;
+        final int n = regex.length();
+        int i = 0;
+        while (ok && i < n) {
+            // Parse the next atom.
+            char c = regex.charAt(i);
+            int type = LITERAL;
+            int next = i + 1;
+            switch (c) {
+            case '|' :
+                ok = false;
+                break;
+            case '^' :
+            case '$' :
+                type = BOUNDARY;
+                break;
+            case '.' :
+                type = OTHER;
+                break;
+            case '[' :
+                type = OTHER;
+                next = skipClass(regex, i);
+                break;
+            case '(' :
+                type = OTHER;
+                next = skipGroup(regex, i);
+                break;
+            case '\\' :
+                c = regex.charAt(i + 1);
+                next = skipEscape(regex, i);
+                if (c == 'b' || c == 'A' || c == 'z' || c == 'Z')
+                    type = BOUNDARY;
+                else if (Character.isLetterOrDigit(c))
+                    type = OTHER;
+                break;
+            }
+            // A non-ASCII literal may or may not be a word character, so we do not use it.
+            if (type == LITERAL && c > 0x7F)
+                type = OTHER;
+            // Parse the quantifier, if any.
+            int min = 1;
+            int max = 1;
+            char q = (next < n ? regex.charAt(next) : ' ');
+            if (q == '?' || q == '*' || q == '+' || q == '{') {
+                if (q == '{') {
+                    int close = regex.indexOf('}', next);
+                    String[] bounds = StringUtils.split(regex.substring(next + 1, close), ',');
+                    min = Integer.parseInt(bounds[0].trim());
+                    max = (bounds.length > 1 ? Integer.parseInt(bounds[1].trim())
+                            : (regex.charAt(close - 1) == ',' ? Integer.MAX_VALUE : min));
+                    next = close + 1;
+                } else {
+                    min = (q == '+' ? 1 : 0);
+                    max = (q == '?' ? 1 : Integer.MAX_VALUE);
+                    next++;
+                }
+                // Skip the lazy or possessive marker, if any.
+                if (next < n && (regex.charAt(next) == '?' || regex.charAt(next) == '+'))
+                    next++;
+            }
+            if (ok) {
+                boolean required = (min > 0);
+                if (type == LITERAL && isWordChar(c)) {
+                    // A required word character extends the run.  If it is optional or repeated, the run ends
+                    // here and we do not know what follows.
+                    if (required)
+                        run.append(Character.toLowerCase(c));
+                    if (! required || max > 1) {
+                        addTerm(retVal, run, leftBound, false);
+                        leftBound = false;
+                    }
+                } else if (type != OTHER) {
+                    // A required boundary or non-word character ends the run at a word boundary.
+                    addTerm(retVal, run, leftBound, required);
+                    leftBound = required;
+                } else {
+                    addTerm(retVal, run, leftBound, false);
+                    leftBound = false;
+                }
+            }
+            i = next;
+        }
+        if (! ok)
+            retVal.clear();
+        else
+            addTerm(retVal, run, leftBound, false);
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a character is an ASCII letter or digit
+     *
+     * @param c		character to check
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Add the current literal run to a list of index terms and clear it.  Fragments that are too short to be
+     * useful are skipped.
+     *
+     * @param terms			list of index terms to update
+     * @param run			current literal run
+     * @param leftBound		TRUE if the run is known to start at a word boundary
+     * @param rightBound	TRUE if the run is known to end at a word boundary
+     */
+    private static void addTerm(List<String> terms, StringBuilder run, boolean leftBound, boolean rightBound) {
+        if (run.length() > 0) {
+            if ((leftBound && rightBound) || run.length() >= MIN_FRAGMENT)
+                terms.add((leftBound ? "" : "*") + run + (rightBound ? "" : "*"));
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * @return the position after a character class in a regular expression
+     *
+     * @param regex		regular expression to parse
+     * @param i			position of the opening bracket
+     */
+    private static int skipClass(String regex, int i) {
+        final int n = regex.length();
+        int retVal = i + 1;
+        if (retVal < n && regex.charAt(retVal) == '^')
+            retVal++;
+        // A closing bracket at the start of the class is a literal.
+        if (retVal < n && regex.charAt(retVal) == ']')
+            retVal++;
+        int depth = 1;
+        while (depth > 0 && retVal < n) {
+            char c = regex.charAt(retVal);
+            if (c == '\\')
+                retVal = skipEscape(regex, retVal);
+            else {
+                if (c == '[')
+                    depth++;
+                else if (c == ']')
+                    depth--;
+                retVal++;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the position after a group in a regular expression
+     *
+     * @param regex		regular expression to parse
+     * @param i			position of the opening parenthesis
+     */
+    private static int skipGroup(String regex, int i) {
+        final int n = regex.length();
+        int retVal = i + 1;
+        int depth = 1;
+        while (depth > 0 && retVal < n) {
+            char c = regex.charAt(retVal);
+            if (c == '\\')
+                retVal = skipEscape(regex, retVal);
+            else if (c == '[')
+                retVal = skipClass(regex, retVal);
+            else {
+                if (c == '(')
+                    depth++;
+                else if (c == ')')
+                    depth--;
+                retVal++;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the position after an escape sequence in a regular expression
+     *
+     * @param regex		regular expression to parse
+     * @param i			position of the backslash
+     */
+    private static int skipEscape(String regex, int i) {
+        final int n = regex.length();
+        int retVal = i + 2;
+        char c = regex.charAt(i + 1);
+        switch (c) {
+        case 'p' :
+        case 'P' :
+        case 'N' :
+        case 'x' :
+            if (retVal < n && regex.charAt(retVal) == '{')
+                retVal = regex.indexOf('}', retVal) + 1;
+            else if (c == 'x')
+                retVal += 2;
+            else
+                retVal++;
+            break;
+        case 'u' :
+            retVal += 4;
+            break;
+        case 'c' :
+            retVal++;
+            break;
+        case 'k' :
+            retVal = regex.indexOf('>', retVal) + 1;
+            break;
+        default :
+            // Octal escapes and back references are followed by more digits.
+            if (c >= '0' && c <= '9') {
+                while (retVal < n && Character.isDigit(regex.charAt(retVal)))
+                    retVal++;
+            }
+        }
+        return Math.min(retVal, n);
+    }
+
+    /**
+     * @return the function index for this coreSEED, loading and updating it if necessary
+     *
+     * @throws IOException
+     */
+    public synchronized FunctionIndex getIndex() throws IOException {
+        if (this.index == null)
+            this.index = FunctionIndex.load(this.coreDir);
+        return this.index;
+    }
+
+    /**
+     * Search for all features whose function contains a specified role.  This uses the function index.
+     *
+     * @param role		role to find
+     *
+     * @return a map from feature IDs to functional assignments, sorted by feature ID
+     *
+     * @throws IOException
+     */
+    public Map<String, String> findRole(String role) throws IOException {
+        Map<String, String> retVal = this.getIndex().findRole(role);
+        log.info("{} features found with role.", retVal.size());
+        return retVal;
+    }
+
+    /**
+     * Search for all features whose function contains a specified set of words.  This uses the function
+     * index to find the candidate functions, and the regular expression (if any) is only applied to those.
+     *
+     * @param words		space-delimited list of words to find; a word ending in an asterisk is a prefix
+     * @param regex		if not NULL, a regular expression string the functions must also match
+     *
+     * @return a map from feature IDs to functional assignments, sorted by feature ID
+     *
+     * @throws IOException
+     */
+    public Map<String, String> findWords(String words, String regex) throws IOException {
+        Pattern pattern = (regex == null ? null : Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+        List<String> wordList = Arrays.asList(StringUtils.split(words));
+        Map<String, String> retVal = this.getIndex().findWords(wordList, pattern);
+        log.info("{} features found with search words.", retVal.size());
         return retVal;
     }
 
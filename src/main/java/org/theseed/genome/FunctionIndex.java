@@ -0,0 +1,713 @@
+/**
+ *
+ */
+package org.theseed.genome;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.core.OrganismDirectories;
+import org.theseed.reports.NaturalSort;
+import org.theseed.subsystems.FunctionSnapshot;
+import org.theseed.subsystems.GenomeFunctionCache;
+
+/**
+ * This object is an inverted index of the functional assignments in a coreSEED.  Each distinct function
+ * is assigned an ID number, and the index maps each role and each function word to the IDs of the functions
+ * containing it.  For each genome, we keep the feature numbers of each type along with the function ID of
+ * each feature.  From these, a reverse table is built in memory that maps each function ID to the features
+ * having that function.  A search finds the candidate functions through the index, optionally confirms them
+ * with a regular expression, and then reads the features of the confirmed functions from the reverse table,
+ * so it only touches the features it returns.
+ *
+ * The index is kept in the file "function.idx" in the coreSEED directory.  Each genome's entry is stamped
+ * with the modification times of its function and deleted-feature files, and when the index is updated only
+ * the genomes that have changed are re-read.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class FunctionIndex {
+
+    /**
+     * This object contains the index data for a single genome.
+     */
+    protected static class GenomeEntry {
+
+        /** genome stamp */
+        private final long stamp;
+        /** feature types */
+        private final String[] types;
+        /** feature numbers for each type, sorted */
+        private final int[][] numbers;
+        /** function IDs for each type, parallel to the feature numbers */
+        private final int[][] funIds;
+
+        /**
+         * Construct a genome entry.
+         *
+         * @param stamp		genome stamp
+         * @param types		feature types
+         * @param numbers	feature numbers for each type
+         * @param funIds	function IDs for each type
+         */
+        protected GenomeEntry(long stamp, String[] types, int[][] numbers, int[][] funIds) {
+            this.stamp = stamp;
+            this.types = types;
+            this.numbers = numbers;
+            this.funIds = funIds;
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(FunctionIndex.class);
+    /** coreSEED data directory */
+    private final File coreDir;
+    /** function dictionary, indexed by function ID */
+    private List<String> functions;
+    /** map of functions to function IDs */
+    private Map<String, Integer> functionIds;
+    /** map of lower-case words to sorted function ID lists */
+    private SortedMap<String, int[]> wordMap;
+    /** map of roles to sorted function ID lists */
+    private Map<String, int[]> roleMap;
+    /** map of genome IDs to genome entries */
+    private Map<String, GenomeEntry> genomeMap;
+    /** feature ID prefix for each genome and feature type slot in the reverse table */
+    private String[] slotPrefixes;
+    /** reverse table mapping each function ID to its features, or NULL if it must be rebuilt; each feature is
+     *  encoded with its slot number in the high-order half and its feature number in the low-order half */
+    private long[][] featureTable;
+    /** feature types to index */
+    private static final Set<String> TYPES = Set.of("peg", "rna");
+    /** name of the index file */
+    public static final String FILE_NAME = "function.idx";
+    /** file type marker */
+    private static final int MAGIC = 0x53454649;
+    /** file format version */
+    private static final int VERSION = 2;
+    /** pattern for splitting a function into words; the word characters are the letters and digits, as for
+     *  a regular-expression word boundary, so that a boundary before a letter or digit always starts a word */
+    private static final Pattern WORD_SPLITTER = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    /** empty function ID list */
+    private static final int[] NO_FUNCTIONS = new int[0];
+
+    /**
+     * Construct an empty function index for a coreSEED.
+     *
+     * @param coreDir	coreSEED data directory
+     */
+    protected FunctionIndex(File coreDir) {
+        this.coreDir = coreDir;
+        this.functions = new ArrayList<String>(100000);
+        this.functionIds = new HashMap<String, Integer>(150000);
+        this.wordMap = new TreeMap<String, int[]>();
+        this.roleMap = new HashMap<String, int[]>(150000);
+        this.genomeMap = new HashMap<String, GenomeEntry>(1500);
+        this.featureTable = null;
+    }
+
+    /**
+     * Load the function index for a coreSEED and bring it up to date.  If the index file does not exist
+     * or is invalid, it will be built from scratch.
+     *
+     * @param coreDir	coreSEED data directory
+     *
+     * @return the updated function index
+     *
+     * @throws IOException
+     */
+    public static FunctionIndex load(File coreDir) throws IOException {
+        FunctionIndex retVal = new FunctionIndex(coreDir);
+        File indexFile = new File(coreDir, FILE_NAME);
+        if (indexFile.exists()) {
+            try {
+                retVal.read(indexFile);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Function index {} is invalid and will be rebuilt: {}", indexFile, e.toString());
+                retVal = new FunctionIndex(coreDir);
+            }
+        }
+        if (retVal.update()) {
+            try {
+                retVal.save(indexFile);
+            } catch (IOException e) {
+                log.warn("Could not save function index {}: {}", indexFile, e.toString());
+            }
+        }
+        // Build the reverse table now, so the first query does not pay for it.
+        retVal.getFeatureTable();
+        return retVal;
+    }
+
+    /**
+     * Bring this index up to date with the genomes in the coreSEED.
+     *
+     * @return TRUE if the index changed, else FALSE
+     *
+     * @throws IOException
+     */
+    public synchronized boolean update() throws IOException {
+        File orgRoot = new File(this.coreDir, "Organisms");
+        OrganismDirectories genomes = new OrganismDirectories(orgRoot);
+        Set<String> found = new HashSet<String>(this.genomeMap.size() * 2);
+        // New words and roles are collected here and merged into the index at the end.
+        Map<String, List<Integer>> newWords = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> newRoles = new HashMap<String, List<Integer>>();
+        int changed = 0;
+        for (String genomeId : genomes) {
+            found.add(genomeId);
+            File genomeDir = new File(orgRoot, genomeId);
+            long stamp = genomeStamp(genomeDir);
+            GenomeEntry old = this.genomeMap.get(genomeId);
+            if (old == null || old.stamp != stamp) {
+                log.debug("Indexing functions of {}.", genomeId);
+                this.genomeMap.put(genomeId, this.indexGenome(genomeDir, genomeId, stamp, newWords, newRoles));
+                changed++;
+            }
+        }
+        // Remove the genomes that are gone.
+        int removed = 0;
+        Iterator<String> iter = this.genomeMap.keySet().iterator();
+        while (iter.hasNext()) {
+            if (! found.contains(iter.next())) {
+                iter.remove();
+                removed++;
+            }
+        }
+        boolean retVal = (changed > 0 || removed > 0);
+        if (retVal) {
+            this.featureTable = null;
+            log.info("{} genomes indexed and {} removed from function index.", changed, removed);
+            mergePostings(this.wordMap, newWords);
+            mergePostings(this.roleMap, newRoles);
+            // If many functions are no longer in use, rebuild the dictionary.
+            int used = this.countUsedFunctions();
+            if (used * 2 < this.functions.size())
+                this.compact();
+        }
+        return retVal;
+    }
+
+    /**
+     * Index the features of a single genome.
+     *
+     * @param genomeDir		directory containing the genome
+     * @param genomeId		ID of the genome
+     * @param stamp			genome stamp
+     * @param newWords		map of words to new function IDs, to be updated
+     * @param newRoles		map of roles to new function IDs, to be updated
+     *
+     * @return the genome entry for the genome
+     *
+     * @throws IOException
+     */
+    private GenomeEntry indexGenome(File genomeDir, String genomeId, long stamp, Map<String, List<Integer>> newWords,
+            Map<String, List<Integer>> newRoles) throws IOException {
+        String prefix = "fig|" + genomeId + ".";
+        String[] types = TYPES.stream().sorted().toArray(String[]::new);
+        int[][] numbers = new int[types.length][];
+        int[][] funIds = new int[types.length][];
+        // Indexing is a scan of every genome, so the genome is not added to the function cache.
+        FunctionSnapshot snapshot = GenomeFunctionCache.scanGenome(genomeDir, genomeId);
+        for (int t = 0; t < types.length; t++) {
+            // The snapshot only keeps features with numeric IDs, and returns them in numeric order.
+            Map<String, String> funMap = snapshot.getFunctions(types[t]);
+            numbers[t] = new int[funMap.size()];
+            funIds[t] = new int[funMap.size()];
+            int i = 0;
+            for (Map.Entry<String, String> funEntry : funMap.entrySet()) {
+                String suffix = StringUtils.removeStart(funEntry.getKey(), prefix + types[t] + ".");
+                numbers[t][i] = Integer.parseInt(suffix);
+                funIds[t][i] = this.findFunction(funEntry.getValue(), newWords, newRoles);
+                i++;
+            }
+        }
+        return new GenomeEntry(stamp, types, numbers, funIds);
+    }
+
+    /**
+     * Find the ID of a function, adding it to the dictionary if it is new.
+     *
+     * @param function		function to find
+     * @param newWords		map of words to new function IDs, to be updated
+     * @param newRoles		map of roles to new function IDs, to be updated
+     *
+     * @return the function ID
+     */
+    private int findFunction(String function, Map<String, List<Integer>> newWords, Map<String, List<Integer>> newRoles) {
+        Integer retVal = this.functionIds.get(function);
+        if (retVal == null) {
+            retVal = this.functions.size();
+            this.functions.add(function);
+            this.functionIds.put(function, retVal);
+            for (String word : wordsOf(function))
+                newWords.computeIfAbsent(word, x -> new ArrayList<Integer>()).add(retVal);
+            for (String role : Feature.rolesOfFunction(function))
+                newRoles.computeIfAbsent(role, x -> new ArrayList<Integer>()).add(retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Merge new function IDs into a posting map.  The new function IDs are always higher than the old ones,
+     * so they can simply be appended.
+     *
+     * @param postings		posting map to update
+     * @param additions		map of keys to new function IDs
+     */
+    private static void mergePostings(Map<String, int[]> postings, Map<String, List<Integer>> additions) {
+        for (Map.Entry<String, List<Integer>> addEntry : additions.entrySet()) {
+            int[] old = postings.getOrDefault(addEntry.getKey(), NO_FUNCTIONS);
+            List<Integer> added = addEntry.getValue();
+            int[] merged = Arrays.copyOf(old, old.length + added.size());
+            for (int i = 0; i < added.size(); i++)
+                merged[old.length + i] = added.get(i);
+            postings.put(addEntry.getKey(), merged);
+        }
+    }
+
+    /**
+     * @return the number of functions in use by at least one feature
+     */
+    private int countUsedFunctions() {
+        boolean[] used = new boolean[this.functions.size()];
+        for (GenomeEntry entry : this.genomeMap.values()) {
+            for (int[] typeIds : entry.funIds) {
+                for (int funId : typeIds)
+                    used[funId] = true;
+            }
+        }
+        int retVal = 0;
+        for (boolean flag : used)
+            if (flag) retVal++;
+        return retVal;
+    }
+
+    /**
+     * Rebuild the function dictionary and the posting maps so that they only contain functions in use.
+     */
+    private void compact() {
+        log.info("Compacting function index.");
+        List<String> oldFunctions = this.functions;
+        this.functions = new ArrayList<String>(oldFunctions.size());
+        this.functionIds = new HashMap<String, Integer>(oldFunctions.size() * 2);
+        Map<String, List<Integer>> newWords = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> newRoles = new HashMap<String, List<Integer>>();
+        for (GenomeEntry entry : this.genomeMap.values()) {
+            for (int[] typeIds : entry.funIds) {
+                for (int i = 0; i < typeIds.length; i++)
+                    typeIds[i] = this.findFunction(oldFunctions.get(typeIds[i]), newWords, newRoles);
+            }
+        }
+        this.wordMap = new TreeMap<String, int[]>();
+        this.roleMap = new HashMap<String, int[]>(this.functions.size() * 2);
+        mergePostings(this.wordMap, newWords);
+        mergePostings(this.roleMap, newRoles);
+    }
+
+    /**
+     * Find all the features having a function that contains the specified role.
+     *
+     * @param role		role of interest
+     *
+     * @return a map from feature IDs to functions, sorted by feature ID
+     */
+    public synchronized Map<String, String> findRole(String role) {
+        int[] funIds = this.roleMap.getOrDefault(role, NO_FUNCTIONS);
+        return this.collectFeatures(funIds, null);
+    }
+
+    /**
+     * Find all the features having a function that contains all of the specified words.  The match is
+     * case-insensitive.  A word ending in an asterisk matches any word with the specified prefix, a word
+     * starting with an asterisk matches any word with the specified suffix, and a word with an asterisk at
+     * both ends matches any word containing it.  If a pattern is specified, only the functions it matches
+     * are returned.
+     *
+     * @param words		collection of words to find
+     * @param confirm	if not NULL, a pattern that each function must contain
+     *
+     * @return a map from feature IDs to functions, sorted by feature ID
+     */
+    public synchronized Map<String, String> findWords(Collection<String> words, Pattern confirm) {
+        int[] funIds = null;
+        for (String word : words) {
+            int[] wordIds = this.findWord(word);
+            funIds = (funIds == null ? wordIds : intersect(funIds, wordIds));
+        }
+        if (funIds == null)
+            throw new IllegalArgumentException("At least one search word is required.");
+        return this.collectFeatures(funIds, confirm);
+    }
+
+    /**
+     * @return the IDs of the functions containing a word or word fragment, in ascending order
+     *
+     * @param word		word to find; if it ends with an asterisk, it is treated as a prefix, and if it
+     * 					starts with one, it is treated as a suffix
+     */
+    private int[] findWord(String word) {
+        int[] retVal;
+        String normalized = word.toLowerCase(Locale.ROOT);
+        boolean prefix = normalized.endsWith("*");
+        boolean suffix = (normalized.length() > 1 && normalized.startsWith("*"));
+        if (! prefix && ! suffix)
+            retVal = this.wordMap.getOrDefault(normalized, NO_FUNCTIONS);
+        else {
+            String fragment = StringUtils.strip(normalized, "*");
+            Collection<int[]> lists;
+            if (! suffix) {
+                // Get all the words starting with the prefix.
+                lists = this.wordMap.subMap(fragment, fragment + Character.MAX_VALUE).values();
+            } else {
+                // The fragment can be anywhere but the start of the word, so every word must be checked.
+                lists = new ArrayList<int[]>();
+                for (Map.Entry<String, int[]> wordEntry : this.wordMap.entrySet()) {
+                    String key = wordEntry.getKey();
+                    if (prefix ? key.contains(fragment) : key.endsWith(fragment))
+                        lists.add(wordEntry.getValue());
+                }
+            }
+            // Merge the function lists of the matching words.
+            retVal = lists.stream().flatMapToInt(Arrays::stream).sorted().distinct().toArray();
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the intersection of two sorted function ID lists
+     *
+     * @param ids1		first list
+     * @param ids2		second list
+     */
+    private static int[] intersect(int[] ids1, int[] ids2) {
+        int[] retVal = new int[Math.min(ids1.length, ids2.length)];
+        int n = 0;
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < ids1.length && i2 < ids2.length) {
+            if (ids1[i1] < ids2[i2])
+                i1++;
+            else if (ids1[i1] > ids2[i2])
+                i2++;
+            else {
+                retVal[n++] = ids1[i1];
+                i1++;
+                i2++;
+            }
+        }
+        return Arrays.copyOf(retVal, n);
+    }
+
+    /**
+     * Collect the features having the specified functions.
+     *
+     * @param funIds	IDs of the candidate functions
+     * @param confirm	if not NULL, a pattern that each function must contain
+     *
+     * @return a map from feature IDs to functions, sorted by feature ID
+     */
+    private Map<String, String> collectFeatures(int[] funIds, Pattern confirm) {
+        Map<String, String> retVal = new TreeMap<String, String>(new NaturalSort());
+        long[][] table = this.getFeatureTable();
+        for (int funId : funIds) {
+            String function = this.functions.get(funId);
+            if (confirm == null || confirm.matcher(function).find()) {
+                for (long feature : table[funId])
+                    retVal.put(this.slotPrefixes[(int) (feature >>> 32)] + (int) feature, function);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the reverse table mapping function IDs to features, building it if necessary
+     */
+    private long[][] getFeatureTable() {
+        if (this.featureTable == null) {
+            // Assign the slot numbers and count the features for each function.
+            int slotCount = 0;
+            for (GenomeEntry entry : this.genomeMap.values())
+                slotCount += entry.types.length;
+            String[] prefixes = new String[slotCount];
+            int[] counts = new int[this.functions.size()];
+            for (GenomeEntry entry : this.genomeMap.values()) {
+                for (int[] typeIds : entry.funIds) {
+                    for (int funId : typeIds)
+                        counts[funId]++;
+                }
+            }
+            long[][] table = new long[counts.length][];
+            for (int funId = 0; funId < counts.length; funId++)
+                table[funId] = new long[counts[funId]];
+            // Fill in the features.  We re-use the counts as fill positions.
+            Arrays.fill(counts, 0);
+            int slot = 0;
+            for (Map.Entry<String, GenomeEntry> genomeEntry : this.genomeMap.entrySet()) {
+                GenomeEntry entry = genomeEntry.getValue();
+                for (int t = 0; t < entry.types.length; t++) {
+                    prefixes[slot] = "fig|" + genomeEntry.getKey() + "." + entry.types[t] + ".";
+                    int[] typeIds = entry.funIds[t];
+                    int[] numbers = entry.numbers[t];
+                    for (int i = 0; i < typeIds.length; i++) {
+                        int funId = typeIds[i];
+                        table[funId][counts[funId]++] = ((long) slot << 32) | (numbers[i] & 0xFFFFFFFFL);
+                    }
+                    slot++;
+                }
+            }
+            this.slotPrefixes = prefixes;
+            this.featureTable = table;
+        }
+        return this.featureTable;
+    }
+
+    /**
+     * @return the lower-case words in a function
+     *
+     * @param function	function to parse
+     */
+    public static Set<String> wordsOf(String function) {
+        Set<String> retVal = new HashSet<String>();
+        for (String word : WORD_SPLITTER.split(function.toLowerCase(Locale.ROOT))) {
+            if (! word.isEmpty())
+                retVal.add(word);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a stamp that changes whenever the functions of a genome might have changed
+     *
+     * @param genomeDir		directory containing the genome
+     */
+    protected static long genomeStamp(File genomeDir) {
+        long retVal = new File(genomeDir, "assigned_functions").lastModified();
+        File featureDir = new File(genomeDir, "Features");
+        for (String type : TYPES.stream().sorted().toList())
+            retVal = retVal * 31 + new File(featureDir, type + "/deleted.features").lastModified();
+        return retVal;
+    }
+
+    /**
+     * Read this index from a file.  Every count is checked against the file length and every function ID
+     * against the dictionary size, so that a corrupt file fails with an IOException and is rebuilt.
+     *
+     * @param indexFile		index file to read
+     *
+     * @throws IOException
+     */
+    private void read(File indexFile) throws IOException {
+        final long fileLength = indexFile.length();
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (inStream.readInt() != MAGIC || inStream.readInt() != VERSION)
+                throw new IOException("Incorrect file format.");
+            int funCount = readCount(inStream, fileLength, 2);
+            for (int i = 0; i < funCount; i++) {
+                String function = inStream.readUTF();
+                this.functions.add(function);
+                this.functionIds.put(function, i);
+            }
+            readPostings(inStream, this.wordMap, fileLength, funCount);
+            readPostings(inStream, this.roleMap, fileLength, funCount);
+            // A genome has an ID, a stamp, and a type count; a type has a name and two array lengths.
+            int genomeCount = readCount(inStream, fileLength, 14);
+            for (int g = 0; g < genomeCount; g++) {
+                String genomeId = inStream.readUTF();
+                long stamp = inStream.readLong();
+                int typeCount = readCount(inStream, fileLength, 10);
+                String[] types = new String[typeCount];
+                int[][] numbers = new int[typeCount][];
+                int[][] funIds = new int[typeCount][];
+                for (int t = 0; t < typeCount; t++) {
+                    types[t] = inStream.readUTF();
+                    numbers[t] = readInts(inStream, fileLength);
+                    funIds[t] = readFunIds(inStream, fileLength, funCount);
+                    if (numbers[t].length != funIds[t].length)
+                        throw new IOException("Mismatched feature lists for " + genomeId + ".");
+                }
+                this.genomeMap.put(genomeId, new GenomeEntry(stamp, types, numbers, funIds));
+            }
+        }
+        log.info("{} genomes and {} functions read from {}.", this.genomeMap.size(), this.functions.size(), indexFile);
+    }
+
+    /**
+     * Save this index to a file.  The file is written under a temporary name and then renamed, so that
+     * other processes never see a partial file.
+     *
+     * @param indexFile		index file to write
+     *
+     * @throws IOException
+     */
+    public synchronized void save(File indexFile) throws IOException {
+        File tempFile = File.createTempFile("fidx", ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                outStream.writeInt(MAGIC);
+                outStream.writeInt(VERSION);
+                outStream.writeInt(this.functions.size());
+                for (String function : this.functions)
+                    outStream.writeUTF(function);
+                writePostings(outStream, this.wordMap);
+                writePostings(outStream, this.roleMap);
+                outStream.writeInt(this.genomeMap.size());
+                for (Map.Entry<String, GenomeEntry> genomeEntry : this.genomeMap.entrySet()) {
+                    GenomeEntry entry = genomeEntry.getValue();
+                    outStream.writeUTF(genomeEntry.getKey());
+                    outStream.writeLong(entry.stamp);
+                    outStream.writeInt(entry.types.length);
+                    for (int t = 0; t < entry.types.length; t++) {
+                        outStream.writeUTF(entry.types[t]);
+                        writeInts(outStream, entry.numbers[t]);
+                        writeInts(outStream, entry.funIds[t]);
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Read a posting map from an input stream.
+     *
+     * @param inStream		input stream
+     * @param postings		posting map to fill
+     * @param fileLength	length of the input file, in bytes
+     * @param funCount		number of functions in the dictionary
+     *
+     * @throws IOException
+     */
+    private static void readPostings(DataInputStream inStream, Map<String, int[]> postings, long fileLength,
+            int funCount) throws IOException {
+        int count = readCount(inStream, fileLength, 6);
+        for (int i = 0; i < count; i++) {
+            String key = inStream.readUTF();
+            postings.put(key, readFunIds(inStream, fileLength, funCount));
+        }
+    }
+
+    /**
+     * Write a posting map to an output stream.
+     *
+     * @param outStream		output stream
+     * @param postings		posting map to write
+     *
+     * @throws IOException
+     */
+    private static void writePostings(DataOutputStream outStream, Map<String, int[]> postings) throws IOException {
+        outStream.writeInt(postings.size());
+        for (Map.Entry<String, int[]> postEntry : postings.entrySet()) {
+            outStream.writeUTF(postEntry.getKey());
+            writeInts(outStream, postEntry.getValue());
+        }
+    }
+
+    /**
+     * @return a count read from an input stream
+     *
+     * @param inStream		input stream
+     * @param fileLength	length of the input file, in bytes
+     * @param itemSize		minimum number of bytes in each counted item
+     *
+     * @throws IOException if the count could not fit in the file
+     */
+    private static int readCount(DataInputStream inStream, long fileLength, int itemSize) throws IOException {
+        int retVal = inStream.readInt();
+        if (retVal < 0 || (long) retVal * itemSize > fileLength)
+            throw new IOException("Invalid count " + retVal + " in function index.");
+        return retVal;
+    }
+
+    /**
+     * @return a length-prefixed integer array read from an input stream
+     *
+     * @param inStream		input stream
+     * @param fileLength	length of the input file, in bytes
+     *
+     * @throws IOException
+     */
+    private static int[] readInts(DataInputStream inStream, long fileLength) throws IOException {
+        int[] retVal = new int[readCount(inStream, fileLength, 4)];
+        for (int i = 0; i < retVal.length; i++)
+            retVal[i] = inStream.readInt();
+        return retVal;
+    }
+
+    /**
+     * @return a length-prefixed function ID array read from an input stream
+     *
+     * @param inStream		input stream
+     * @param fileLength	length of the input file, in bytes
+     * @param funCount		number of functions in the dictionary
+     *
+     * @throws IOException if a function ID is out of range
+     */
+    private static int[] readFunIds(DataInputStream inStream, long fileLength, int funCount) throws IOException {
+        int[] retVal = readInts(inStream, fileLength);
+        for (int funId : retVal) {
+            if (funId < 0 || funId >= funCount)
+                throw new IOException("Invalid function ID " + funId + " in function index.");
+        }
+        return retVal;
+    }
+
+    /**
+     * Write a length-prefixed integer array to an output stream.
+     *
+     * @param outStream		output stream
+     * @param values		array to write
+     *
+     * @throws IOException
+     */
+    private static void writeInts(DataOutputStream outStream, int[] values) throws IOException {
+        outStream.writeInt(values.length);
+        for (int value : values)
+            outStream.writeInt(value);
+    }
+
+    /**
+     * @return the number of genomes in the index
+     */
+    public synchronized int getGenomeCount() {
+        return this.genomeMap.size();
+    }
+
+    /**
+     * @return the number of distinct functions in the index
+     */
+    public synchronized int getFunctionCount() {
+        return this.functions.size();
+    }
+
+}
@@ -0,0 +1,500 @@
+/**
+ *
+ */
+package org.theseed.genome.coupling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object is an index of a couple file.  For each family pair, it contains the byte offset of the first
+ * line in the couple file describing that pair.  The index is kept in a sidecar file with the same name as the
+ * couple file plus an ".idx" suffix.  The sidecar records the size and modification time of the couple file,
+ * and if either changes, the index is rebuilt.
+ *
+ * The sidecar is a fixed-width table of 64-bit family-pair hashes and line offsets, sorted by hash.  It is
+ * memory-mapped and binary-searched in place, so a loaded index takes almost no heap.  Because different pairs
+ * can have the same hash, the line found is always checked against the requested families.
+ *
+ * Loaded indexes are kept in memory, since the same couple file is generally used for many lookups.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CoupleFileIndex {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(CoupleFileIndex.class);
+    /** couple file */
+    private final File coupleFile;
+    /** size of the couple file when indexed */
+    private final long fileSize;
+    /** modification time of the couple file when indexed */
+    private final long fileModified;
+    /** table of hash/offset pairs, sorted by hash and then offset */
+    private final ByteBuffer table;
+    /** number of entries in the table */
+    private final int count;
+    /** map of couple files to loaded indexes */
+    private static final Map<File, CoupleFileIndex> indexCache = new HashMap<File, CoupleFileIndex>();
+    /** file type marker */
+    private static final int MAGIC = 0x53454358;
+    /** file format version */
+    private static final int VERSION = 2;
+    /** size of the sidecar file header */
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+    /** size of a table entry */
+    private static final int ENTRY_SIZE = 2 * Long.BYTES;
+    /** size of the buffer used to scan the couple file */
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+    /** FNV-1a hash offset basis */
+    private static final long HASH_BASIS = 0xcbf29ce484222325L;
+    /** FNV-1a hash prime */
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    /**
+     * Construct an index for a couple file.
+     *
+     * @param coupleFile		couple file being indexed
+     * @param fileSize			size of the couple file
+     * @param fileModified		modification time of the couple file
+     * @param table				table of hash/offset pairs, sorted by hash and then offset
+     * @param count				number of entries in the table
+     */
+    private CoupleFileIndex(File coupleFile, long fileSize, long fileModified, ByteBuffer table, int count) {
+        this.coupleFile = coupleFile;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+        this.table = table;
+        this.count = count;
+    }
+
+    /**
+     * Get the index for a couple file.  If the index is not in memory, it will be read from the sidecar
+     * file; and if the sidecar file is missing or stale, it will be rebuilt.
+     *
+     * @param coupleFile	couple file of interest
+     *
+     * @return the index for the couple file
+     *
+     * @throws IOException
+     */
+    public static CoupleFileIndex load(File coupleFile) throws IOException {
+        File key = coupleFile.getAbsoluteFile();
+        CoupleFileIndex retVal;
+        synchronized (indexCache) {
+            retVal = indexCache.get(key);
+            if (retVal == null || ! retVal.isCurrent()) {
+                File indexFile = indexFile(coupleFile);
+                retVal = null;
+                if (indexFile.exists())
+                    retVal = read(key, indexFile);
+                if (retVal == null) {
+                    retVal = build(key);
+                    try {
+                        retVal.save(indexFile);
+                    } catch (IOException e) {
+                        log.warn("Could not save couple file index {}: {}", indexFile, e.toString());
+                    }
+                }
+                indexCache.put(key, retVal);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the sidecar index file for a couple file
+     *
+     * @param coupleFile	couple file of interest
+     */
+    public static File indexFile(File coupleFile) {
+        return new File(coupleFile.getPath() + SUFFIX);
+    }
+
+    /** suffix for index files */
+    public static final String SUFFIX = ".idx";
+
+    /**
+     * @return TRUE if the couple file has not changed since it was indexed
+     */
+    public boolean isCurrent() {
+        return (this.coupleFile.length() == this.fileSize && this.coupleFile.lastModified() == this.fileModified);
+    }
+
+    /**
+     * Read an index from its sidecar file.  The table is left in the mapped file.
+     *
+     * @param coupleFile	couple file being indexed
+     * @param indexFile		sidecar index file
+     *
+     * @return the index read, or NULL if the index is stale or invalid
+     *
+     * @throws IOException
+     */
+    private static CoupleFileIndex read(File coupleFile, File indexFile) throws IOException {
+        CoupleFileIndex retVal = null;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+                log.info("Couple file index {} is truncated.", indexFile);
+            else {
+                // The mapping remains valid after the channel is closed.
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                    log.info("Couple file index {} has an invalid format.", indexFile);
+                else {
+                    long fileSize = buffer.getLong();
+                    long fileModified = buffer.getLong();
+                    int count = buffer.getInt();
+                    if (coupleFile.length() != fileSize || coupleFile.lastModified() != fileModified)
+                        log.info("Couple file index {} is stale.", indexFile);
+                    else if (count < 0 || size != HEADER_SIZE + (long) count * ENTRY_SIZE)
+                        log.info("Couple file index {} has an invalid size.", indexFile);
+                    else
+                        retVal = new CoupleFileIndex(coupleFile, fileSize, fileModified,
+                                buffer.slice(HEADER_SIZE, count * ENTRY_SIZE), count);
+                }
+            }
+        } catch (IOException e) {
+            log.info("Couple file index {} could not be read: {}", indexFile, e.toString());
+            retVal = null;
+        }
+        return retVal;
+    }
+
+    /**
+     * Build an index by scanning a couple file.  Only the first and third fields of each line are examined,
+     * and they are hashed directly from the file bytes.
+     *
+     * @param coupleFile	couple file to index
+     *
+     * @return the index built
+     *
+     * @throws IOException
+     */
+    protected static CoupleFileIndex build(File coupleFile) throws IOException {
+        log.info("Indexing couple file {}.", coupleFile);
+        long fileSize = coupleFile.length();
+        long fileModified = coupleFile.lastModified();
+        long[] hashes = new long[1024];
+        long[] offsets = new long[1024];
+        int n = 0;
+        try (InputStream inStream = new FileInputStream(coupleFile)) {
+            byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            long bufferStart = 0;
+            long lineStart = 0;
+            int field = 0;
+            long hash = HASH_BASIS;
+            // The first line is the header, so we skip it.
+            boolean header = true;
+            boolean lineOpen = false;
+            for (int len = inStream.read(buffer); len >= 0; len = inStream.read(buffer)) {
+                for (int i = 0; i < len; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        if (! header) {
+                            if (n == hashes.length) {
+                                hashes = Arrays.copyOf(hashes, n * 2);
+                                offsets = Arrays.copyOf(offsets, n * 2);
+                            }
+                            hashes[n] = hash;
+                            offsets[n] = lineStart;
+                            n++;
+                        }
+                        header = false;
+                        lineOpen = false;
+                        lineStart = bufferStart + i + 1;
+                        field = 0;
+                        hash = HASH_BASIS;
+                    } else {
+                        lineOpen = true;
+                        if (b == '\t') {
+                            field++;
+                            // The key is the first and third fields separated by a tab.
+                            if (field == 2)
+                                hash = (hash ^ '\t') * HASH_PRIME;
+                        } else if ((field == 0 || field == 2) && b != '\r')
+                            hash = (hash ^ (b & 0xFF)) * HASH_PRIME;
+                    }
+                }
+                bufferStart += len;
+            }
+            // Check for an unterminated last line.
+            if (! header && lineOpen) {
+                if (field < 2)
+                    hash = (hash ^ '\t') * HASH_PRIME;
+                if (n == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, n + 1);
+                    offsets = Arrays.copyOf(offsets, n + 1);
+                }
+                hashes[n] = hash;
+                offsets[n] = lineStart;
+                n++;
+            }
+        }
+        // Sort by hash.  The sort is stable and the offsets are in ascending order, so within a hash the
+        // earliest line comes first.
+        sortByHash(hashes, offsets, n);
+        ByteBuffer table = ByteBuffer.allocate(n * ENTRY_SIZE);
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(coupleFile.toPath(), StandardOpenOption.READ)) {
+            int i = 0;
+            while (i < n) {
+                int end = i + 1;
+                while (end < n && hashes[end] == hashes[i])
+                    end++;
+                if (end - i == 1) {
+                    table.putLong(hashes[i]).putLong(offsets[i]);
+                    count++;
+                } else {
+                    // Here we have a run of equal hashes.  This is almost always the same pair appearing on
+                    // several lines, in which case only the first is kept.  Distinct pairs are all kept.
+                    List<String> keys = new ArrayList<String>(end - i);
+                    for (int j = i; j < end; j++) {
+                        String[] fields = readLine(channel, offsets[j]);
+                        String key = (fields == null ? null : pairKey(field(fields, 0), field(fields, 2)));
+                        if (key != null && ! keys.contains(key)) {
+                            keys.add(key);
+                            table.putLong(hashes[j]).putLong(offsets[j]);
+                            count++;
+                        }
+                    }
+                }
+                i = end;
+            }
+        }
+        table.flip();
+        log.info("{} family pairs indexed in {}.", count, coupleFile);
+        return new CoupleFileIndex(coupleFile, fileSize, fileModified, table.slice(), count);
+    }
+
+    /**
+     * Sort parallel arrays of hashes and offsets by hash.  This is a stable bottom-up merge sort.
+     *
+     * @param hashes	array of hashes
+     * @param offsets	array of offsets, parallel to the hashes
+     * @param n			number of entries to sort
+     */
+    private static void sortByHash(long[] hashes, long[] offsets, int n) {
+        long[] srcH = hashes;
+        long[] srcO = offsets;
+        long[] dstH = new long[n];
+        long[] dstO = new long[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (i < mid && (j >= hi || srcH[i] <= srcH[j])) {
+                        dstH[k] = srcH[i];
+                        dstO[k] = srcO[i];
+                        i++;
+                    } else {
+                        dstH[k] = srcH[j];
+                        dstO[k] = srcO[j];
+                        j++;
+                    }
+                }
+            }
+            long[] temp = srcH;
+            srcH = dstH;
+            dstH = temp;
+            temp = srcO;
+            srcO = dstO;
+            dstO = temp;
+        }
+        if (srcH != hashes) {
+            System.arraycopy(srcH, 0, hashes, 0, n);
+            System.arraycopy(srcO, 0, offsets, 0, n);
+        }
+    }
+
+    /**
+     * Save this index to its sidecar file.  The file is written under a temporary name and then
+     * renamed, so that other processes never see a partial file.
+     *
+     * @param indexFile		sidecar file to write
+     *
+     * @throws IOException
+     */
+    private void save(File indexFile) throws IOException {
+        File tempFile = File.createTempFile("cidx", ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(this.fileSize).putLong(this.fileModified)
+                        .putInt(this.count);
+                header.flip();
+                while (header.hasRemaining())
+                    channel.write(header);
+                ByteBuffer body = this.table.duplicate();
+                body.clear();
+                while (body.hasRemaining())
+                    channel.write(body);
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Read the couple-file line for a family pair.
+     *
+     * @param p1		first family of pair
+     * @param p2		second family of pair
+     *
+     * @return the fields of the couple-file line for the pair, or NULL if the pair is not in the index
+     *
+     * @throws IOException
+     */
+    public String[] findLine(String p1, String p2) throws IOException {
+        String[] retVal = null;
+        long hash = hash(pairKey(p1, p2));
+        int pos = this.findFirst(hash);
+        if (pos < this.count && this.table.getLong(pos * ENTRY_SIZE) == hash) {
+            try (FileChannel channel = FileChannel.open(this.coupleFile.toPath(), StandardOpenOption.READ)) {
+                // Check each line with the desired hash until we find one for the right pair.
+                while (retVal == null && pos < this.count && this.table.getLong(pos * ENTRY_SIZE) == hash) {
+                    String[] fields = readLine(channel, this.table.getLong(pos * ENTRY_SIZE + Long.BYTES));
+                    if (fields != null && field(fields, 0).equals(p1) && field(fields, 2).equals(p2))
+                        retVal = fields;
+                    pos++;
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the position of the first table entry whose hash is not less than the specified value
+     *
+     * @param hash		hash value to find
+     */
+    private int findFirst(long hash) {
+        int low = 0;
+        int high = this.count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.table.getLong(mid * ENTRY_SIZE) < hash)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Read the line at a specified offset in the couple file.
+     *
+     * @param channel	channel open on the couple file
+     * @param offset	offset of the line
+     *
+     * @return the tab-delimited fields of the line, or NULL if the offset is at the end of the file
+     *
+     * @throws IOException
+     */
+    private static String[] readLine(FileChannel channel, long offset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        long pos = offset;
+        boolean done = false;
+        int len = channel.read(buffer, pos);
+        if (len < 0)
+            done = true;
+        while (! done) {
+            buffer.flip();
+            while (! done && buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n')
+                    done = true;
+                else
+                    line.write(b);
+            }
+            if (! done) {
+                pos += len;
+                buffer.clear();
+                len = channel.read(buffer, pos);
+                done = (len < 0);
+            }
+        }
+        String[] retVal = null;
+        if (len >= 0 || line.size() > 0)
+            retVal = StringUtils.splitPreserveAllTokens(StringUtils.stripEnd(line.toString(StandardCharsets.UTF_8),
+                    "\r"), '\t');
+        return retVal;
+    }
+
+    /**
+     * @return a field from a couple-file line, or an empty string if the line is too short
+     *
+     * @param fields	fields of the line
+     * @param idx		index of the desired field
+     */
+    private static String field(String[] fields, int idx) {
+        return (idx < fields.length ? fields[idx] : "");
+    }
+
+    /**
+     * @return the index key for a family pair
+     *
+     * @param p1		first family of pair
+     * @param p2		second family of pair
+     */
+    private static String pairKey(String p1, String p2) {
+        return p1 + "\t" + p2;
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of the UTF-8 encoding of a pair key
+     *
+     * @param key	key to hash
+     */
+    private static long hash(String key) {
+        long retVal = HASH_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8))
+            retVal = (retVal ^ (b & 0xFF)) * HASH_PRIME;
+        return retVal;
+    }
+
+    /**
+     * @return the number of family pairs in this index
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Erase all the indexes in memory.
+     */
+    public static void clearCache() {
+        synchronized (indexCache) {
+            indexCache.clear();
+        }
+    }
+
+}
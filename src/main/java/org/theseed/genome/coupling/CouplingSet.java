@@ -11,6 +11,8 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.theseed.genome.Feature;
 import org.theseed.genome.Genome;
 import org.theseed.genome.coupling.CouplingSet.FidPair;
@@ -111,6 +113,8 @@ public class CouplingSet implements Iterable<FidPair> {
     }
 
     // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(CouplingSet.class);
     /** protein family IDs */
     private String[] families;
     /** protein family functional roles */
@@ -119,29 +123,58 @@ public class CouplingSet implements Iterable<FidPair> {
     private List<FidPair> pairs;
 
     /**
-     * Extract Search a coupling file for a specified family pair.
+     * Search a coupling file for a specified family pair.  The couple file index is used to find the
+     * line directly.  If the index cannot be used, we scan the whole file.
      *
      * @param p1			first family of pair
      * @param p2			second family of pair
      * @param coupleFile	couple file to search
      *
-     * @return the data line for the specified family
+     * @return the fields of the data line for the specified family
      *
      * @throws IOException
      */
-    private static TabbedLineReader.Line searchCoupleFile(String p1, String p2, File coupleFile) throws IOException {
-        TabbedLineReader.Line retVal = null;
+    private static String[] searchCoupleFile(String p1, String p2, File coupleFile) throws IOException {
+        String[] retVal = null;
+        try {
+            CoupleFileIndex index = CoupleFileIndex.load(coupleFile);
+            retVal = index.findLine(p1, p2);
+            // Verify we got the right line.  If the file changed under us, we fall back to the scan.
+            if (retVal != null && (retVal.length < 5 || ! retVal[0].equals(p1) || ! retVal[2].equals(p2))) {
+                log.warn("Couple file index for {} is out of date.", coupleFile);
+                retVal = scanCoupleFile(p1, p2, coupleFile);
+            }
+        } catch (IOException e) {
+            log.warn("Could not use couple file index for {}: {}", coupleFile, e.toString());
+            retVal = scanCoupleFile(p1, p2, coupleFile);
+        }
+        if (retVal == null)
+            throw new IOException("No coupling data found for " + p1 + " and " + p2 + ".");
+        return retVal;
+    }
+
+    /**
+     * Scan a coupling file for a specified family pair.
+     *
+     * @param p1			first family of pair
+     * @param p2			second family of pair
+     * @param coupleFile	couple file to search
+     *
+     * @return the fields of the data line for the specified family, or NULL if it was not found
+     *
+     * @throws IOException
+     */
+    private static String[] scanCoupleFile(String p1, String p2, File coupleFile) throws IOException {
+        String[] retVal = null;
         try (TabbedLineReader coupleStream = new TabbedLineReader(coupleFile)) {
              Iterator<TabbedLineReader.Line> iter = coupleStream.iterator();
              // Loop until we run out of file or find the coupling.
              while (retVal == null && iter.hasNext()) {
                  TabbedLineReader.Line line = iter.next();
                  if (line.get(0).contentEquals(p1) && line.get(2).contentEquals(p2))
-                     retVal = line;
+                     retVal = new String[] { line.get(0), line.get(1), line.get(2), line.get(3), line.get(4) };
              }
         }
-        if (retVal == null)
-            throw new IOException("No coupling data found for " + p1 + " and " + p2 + ".");
         return retVal;
     }
 
@@ -156,10 +189,10 @@ public class CouplingSet implements Iterable<FidPair> {
      * @throws IOException
      */
     public CouplingSet(File coupleFile, String p1, String p2) throws IOException {
-        TabbedLineReader.Line line = searchCoupleFile(p1, p2, coupleFile);
+        String[] fields = searchCoupleFile(p1, p2, coupleFile);
         this.families = new String[] { p1, p2 };
-        this.functions = new String[] { line.get(1), line.get(3) };
-        String[] pairings = StringUtils.split(line.get(4), ",");
+        this.functions = new String[] { fields[1], fields[3] };
+        String[] pairings = StringUtils.split(fields[4], ",");
         this.pairs = Arrays.stream(pairings).map(x -> new FidPair(x)).collect(Collectors.toList());
     }
 
@@ -0,0 +1,321 @@
+/**
+ *
+ */
+package org.theseed.genome.coupling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.Coupling;
+import org.theseed.genome.Feature;
+import org.theseed.genome.Genome;
+import org.theseed.locations.Location;
+import org.theseed.proteins.Role;
+
+/**
+ * This object finds the best coupling for every pair of neighboring features in a genome.  Two features are
+ * neighbors if they are on the same contig and the gap between them is no greater than a specified maximum.
+ * The best coupling for a pair is the strongest coupling from any useful role of the first feature to any
+ * useful role of the second.  This is the same as the strongest result of {@link PackedCouplingMap#getBestCoupling}
+ * over the first feature's roles; ties in strength go to the larger coupled set.
+ *
+ * The roles of each feature are computed only once, as sorted arrays of role ordinals, and the genome is
+ * scanned in a single pass over its features sorted by location.  The results are returned in a compact table.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeCouplingResolver {
+
+    /**
+     * This is a compact table of resolved feature couplings.  Each row describes a pair of neighboring
+     * features and their best coupling.
+     */
+    public static class Table {
+
+        /** IDs of the features referenced by the table */
+        private final String[] fids;
+        /** coupling map used to resolve the couplings */
+        private final PackedCouplingMap map;
+        /** index of the first feature in each row */
+        private int[] feat1;
+        /** index of the second feature in each row */
+        private int[] feat2;
+        /** role ordinal of the first feature in each row */
+        private int[] role1;
+        /** role ordinal of the second feature in each row */
+        private int[] role2;
+        /** coupling size in each row */
+        private int[] sizes;
+        /** coupling strength in each row */
+        private double[] strengths;
+        /** number of rows */
+        private int count;
+
+        /**
+         * Construct an empty coupling table.
+         *
+         * @param fids		IDs of the features referenced by the table
+         * @param map		coupling map used to resolve the couplings
+         */
+        protected Table(String[] fids, PackedCouplingMap map) {
+            this.fids = fids;
+            this.map = map;
+            int capacity = Math.max(16, fids.length);
+            this.feat1 = new int[capacity];
+            this.feat2 = new int[capacity];
+            this.role1 = new int[capacity];
+            this.role2 = new int[capacity];
+            this.sizes = new int[capacity];
+            this.strengths = new double[capacity];
+            this.count = 0;
+        }
+
+        /**
+         * Add a row to this table.
+         *
+         * @param f1		index of the first feature
+         * @param f2		index of the second feature
+         * @param r1		role ordinal of the first feature
+         * @param r2		role ordinal of the second feature
+         * @param size		coupling size
+         * @param strength	coupling strength
+         */
+        protected void add(int f1, int f2, int r1, int r2, int size, double strength) {
+            if (this.count >= this.feat1.length) {
+                int newLen = this.feat1.length * 2;
+                this.feat1 = Arrays.copyOf(this.feat1, newLen);
+                this.feat2 = Arrays.copyOf(this.feat2, newLen);
+                this.role1 = Arrays.copyOf(this.role1, newLen);
+                this.role2 = Arrays.copyOf(this.role2, newLen);
+                this.sizes = Arrays.copyOf(this.sizes, newLen);
+                this.strengths = Arrays.copyOf(this.strengths, newLen);
+            }
+            this.feat1[this.count] = f1;
+            this.feat2[this.count] = f2;
+            this.role1[this.count] = r1;
+            this.role2[this.count] = r2;
+            this.sizes[this.count] = size;
+            this.strengths[this.count] = strength;
+            this.count++;
+        }
+
+        /**
+         * @return the number of rows in this table
+         */
+        public int size() {
+            return this.count;
+        }
+
+        /**
+         * @return the ID of the first feature in a row
+         *
+         * @param i		index of the row of interest
+         */
+        public String getFid1(int i) {
+            return this.fids[this.feat1[i]];
+        }
+
+        /**
+         * @return the ID of the second feature in a row
+         *
+         * @param i		index of the row of interest
+         */
+        public String getFid2(int i) {
+            return this.fids[this.feat2[i]];
+        }
+
+        /**
+         * @return the ID of the coupled role of the first feature in a row
+         *
+         * @param i		index of the row of interest
+         */
+        public String getRole1(int i) {
+            return this.map.getRoleId(this.role1[i]);
+        }
+
+        /**
+         * @return the ID of the coupled role of the second feature in a row
+         *
+         * @param i		index of the row of interest
+         */
+        public String getRole2(int i) {
+            return this.map.getRoleId(this.role2[i]);
+        }
+
+        /**
+         * @return the coupling size in a row
+         *
+         * @param i		index of the row of interest
+         */
+        public int getSize(int i) {
+            return this.sizes[i];
+        }
+
+        /**
+         * @return the coupling strength in a row
+         *
+         * @param i		index of the row of interest
+         */
+        public double getStrength(int i) {
+            return this.strengths[i];
+        }
+
+        /**
+         * @return the coupling in a row, as seen from the first feature's role
+         *
+         * @param i		index of the row of interest
+         */
+        public Coupling getCoupling(int i) {
+            return new Coupling(this.getRole2(i), this.sizes[i], this.strengths[i]);
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(GenomeCouplingResolver.class);
+    /** coupling map */
+    private final PackedCouplingMap map;
+    /** maximum gap between neighboring features */
+    private final int maxGap;
+    /** empty role list */
+    private static final int[] NO_ROLES = new int[0];
+
+    /**
+     * Construct a coupling resolver.
+     *
+     * @param map		coupling map to use
+     * @param maxGap	maximum gap between neighboring features, in base pairs
+     */
+    public GenomeCouplingResolver(PackedCouplingMap map, int maxGap) {
+        this.map = map;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Construct a coupling resolver from an unpacked role-coupling map.
+     *
+     * @param map		coupling map to use
+     * @param maxGap	maximum gap between neighboring features, in base pairs
+     */
+    public GenomeCouplingResolver(RoleCouplingMap map, int maxGap) {
+        this(PackedCouplingMap.of(map), maxGap);
+    }
+
+    /**
+     * Find the best coupling for every pair of neighboring features in a genome.  Each pair is only
+     * listed once, with the leftmost feature first.  Pairs with no coupling are omitted.
+     *
+     * @param genome	genome to scan
+     *
+     * @return a table of the coupled feature pairs
+     */
+    public Table resolve(Genome genome) {
+        // Get the features with useful roles, and compute their role ordinals.
+        List<Feature> feats = new ArrayList<Feature>(genome.getFeatures().size());
+        List<int[]> roleList = new ArrayList<int[]>(genome.getFeatures().size());
+        for (Feature feat : genome.getFeatures()) {
+            int[] roles = this.rolesOf(feat);
+            if (roles.length > 0) {
+                feats.add(feat);
+                roleList.add(roles);
+            }
+        }
+        // Sort the features by location.
+        final int n = feats.size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparing((Integer i) -> feats.get(i).getLocation().getContigId())
+                .thenComparingInt(i -> feats.get(i).getLocation().getLeft()));
+        String[] fids = new String[n];
+        String[] contigs = new String[n];
+        int[] lefts = new int[n];
+        int[] rights = new int[n];
+        int[][] roles = new int[n][];
+        for (int i = 0; i < n; i++) {
+            Feature feat = feats.get(order[i]);
+            Location loc = feat.getLocation();
+            fids[i] = feat.getId();
+            contigs[i] = loc.getContigId();
+            lefts[i] = loc.getLeft();
+            rights[i] = loc.getRight();
+            roles[i] = roleList.get(order[i]);
+        }
+        // Now scan the neighborhoods.
+        Table retVal = new Table(fids, this.map);
+        long pairCount = 0;
+        for (int i = 0; i < n; i++) {
+            final int limit = rights[i] + this.maxGap;
+            for (int j = i + 1; j < n && contigs[j].equals(contigs[i]) && lefts[j] <= limit; j++) {
+                pairCount++;
+                this.resolvePair(retVal, i, roles[i], j, roles[j]);
+            }
+        }
+        log.debug("{} neighbor pairs checked and {} coupled in {}.", pairCount, retVal.size(), genome.getId());
+        return retVal;
+    }
+
+    /**
+     * Find the best coupling for a pair of features and add it to the result table.
+     *
+     * @param table		result table
+     * @param f1		index of the first feature
+     * @param roles1	sorted role ordinals of the first feature
+     * @param f2		index of the second feature
+     * @param roles2	sorted role ordinals of the second feature
+     */
+    private void resolvePair(Table table, int f1, int[] roles1, int f2, int[] roles2) {
+        int bestPos = -1;
+        int bestRole = -1;
+        for (int r1 : roles1) {
+            // The couplings for each role are sorted by strength, so the first match is the best for the role.
+            final int end = this.map.rowEnd(r1);
+            boolean found = false;
+            for (int pos = this.map.rowStart(r1); pos < end && ! found; pos++) {
+                if (Arrays.binarySearch(roles2, this.map.targetAt(pos)) >= 0) {
+                    found = true;
+                    if (bestPos < 0 || this.isBetter(pos, bestPos)) {
+                        bestPos = pos;
+                        bestRole = r1;
+                    }
+                }
+            }
+        }
+        if (bestPos >= 0)
+            table.add(f1, f2, bestRole, this.map.targetAt(bestPos), this.map.sizeAt(bestPos),
+                    this.map.strengthAt(bestPos));
+    }
+
+    /**
+     * @return TRUE if the coupling in the first position is better than the one in the second
+     *
+     * @param pos1		position of the first coupling
+     * @param pos2		position of the second coupling
+     */
+    private boolean isBetter(int pos1, int pos2) {
+        double diff = this.map.strengthAt(pos1) - this.map.strengthAt(pos2);
+        return (diff > 0 || diff == 0 && this.map.sizeAt(pos1) > this.map.sizeAt(pos2));
+    }
+
+    /**
+     * @return the sorted, distinct role ordinals for the useful roles of a feature
+     *
+     * @param feat		feature of interest
+     */
+    protected int[] rolesOf(Feature feat) {
+        int[] retVal = NO_ROLES;
+        List<Role> useful = feat.getUsefulRoles(this.map.getMap());
+        if (! useful.isEmpty()) {
+            retVal = useful.stream().mapToInt(r -> this.map.getOrdinal(r.getId())).filter(x -> x >= 0)
+                    .sorted().distinct().toArray();
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,763 @@
+/**
+ *
+ */
+package org.theseed.genome.coupling;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.Coupling;
+import org.theseed.genome.Feature;
+import org.theseed.io.TabbedLineReader;
+import org.theseed.proteins.Role;
+import org.theseed.proteins.RoleMap;
+
+/**
+ * This is a read-only, compact form of a role-coupling map.  Each role is assigned an ordinal number, and
+ * the couplings are stored in packed parallel arrays of target ordinals, sizes, and strengths.  The couplings
+ * for each role occupy a contiguous range of the arrays, in the same order as the sorted coupling sets of a
+ * {@link RoleCouplingMap}, and an offset array indicates where each role's range begins.
+ *
+ * The packed map can be saved to a versioned binary file, and loading the file memory-maps it, so that the
+ * coupling arrays are never copied into the heap.  Coupling objects are only created when a client asks for
+ * them.  The file is checked for consistency when it is loaded, and {@link #load(File, File)} rebuilds it from
+ * the coupling report if it is missing, older than the report, or corrupt.  A packed map can also be built directly in memory using a {@link Builder}, which avoids creating a
+ * tree set for every role.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PackedCouplingMap {
+
+    /**
+     * This is a read-only view of the couplings for a single role, in order from strongest to weakest.
+     */
+    public class Couplings extends AbstractList<Coupling> {
+
+        /** position of the first coupling */
+        private final int start;
+        /** number of couplings */
+        private final int n;
+
+        /**
+         * Construct a view of the couplings for a role.
+         *
+         * @param ordinal	ordinal of the source role
+         */
+        protected Couplings(int ordinal) {
+            this.start = PackedCouplingMap.this.offsets.get(ordinal);
+            this.n = PackedCouplingMap.this.offsets.get(ordinal + 1) - this.start;
+        }
+
+        @Override
+        public Coupling get(int index) {
+            if (index < 0 || index >= this.n)
+                throw new IndexOutOfBoundsException(index);
+            int pos = this.start + index;
+            return new Coupling(PackedCouplingMap.this.roleIds[PackedCouplingMap.this.targets.get(pos)],
+                    PackedCouplingMap.this.sizes.get(pos), PackedCouplingMap.this.strengths.get(pos));
+        }
+
+        @Override
+        public int size() {
+            return this.n;
+        }
+
+        /**
+         * @return the ordinal of the target role for the specified coupling
+         *
+         * @param index		index of the coupling of interest
+         */
+        public int getTarget(int index) {
+            return PackedCouplingMap.this.targets.get(this.start + index);
+        }
+
+    }
+
+    /**
+     * This object builds a packed coupling map in memory.  Couplings are accumulated in growable primitive
+     * arrays, and each role's couplings are sorted a single time when the map is frozen.  Once the map is
+     * frozen, the builder cannot be used again.
+     */
+    public static class Builder {
+
+        /** role definition map */
+        private final RoleMap roleMap;
+        /** list of role IDs, indexed by ordinal */
+        private final List<String> roleIds;
+        /** map of role IDs to ordinals */
+        private final Map<String, Integer> ordinals;
+        /** source role ordinal of each coupling */
+        private int[] sources;
+        /** target role ordinal of each coupling */
+        private int[] targets;
+        /** size of each coupling */
+        private int[] sizes;
+        /** strength of each coupling */
+        private double[] strengths;
+        /** number of couplings stored */
+        private int count;
+        /** TRUE if the map has been frozen */
+        private boolean frozen;
+
+        /**
+         * Construct a builder for an empty coupling map.
+         */
+        public Builder() {
+            this(new RoleMap());
+        }
+
+        /**
+         * Construct a builder using an existing role definition map.
+         *
+         * @param roleMap	role definition map to use
+         */
+        public Builder(RoleMap roleMap) {
+            this.roleMap = roleMap;
+            this.roleIds = new ArrayList<String>();
+            this.ordinals = new HashMap<String, Integer>();
+            for (Role role : roleMap)
+                this.ordinal(role.getId());
+            this.sources = new int[1000];
+            this.targets = new int[1000];
+            this.sizes = new int[1000];
+            this.strengths = new double[1000];
+            this.count = 0;
+            this.frozen = false;
+        }
+
+        /**
+         * Read couplings from a kmers.reps coupling report.
+         *
+         * @param inStream		input stream containing a coupling report
+         *
+         * @return this object, for chaining
+         *
+         * @throws IOException
+         */
+        public Builder read(TabbedLineReader inStream) throws IOException {
+            int role1Idx = inStream.findField("role1");
+            int role2Idx = inStream.findField("role2");
+            int sizeIdx = inStream.findField("size");
+            int strengthIdx = inStream.findField("sim_distance");
+            for (TabbedLineReader.Line line : inStream) {
+                Role role1 = this.roleMap.findOrInsert(line.get(role1Idx));
+                Role role2 = this.roleMap.findOrInsert(line.get(role2Idx));
+                this.couple(role1.getId(), role2.getId(), line.getInt(sizeIdx), line.getDouble(strengthIdx));
+            }
+            return this;
+        }
+
+        /**
+         * Establish a coupling of the given size and strength between two roles.
+         *
+         * @param role1		ID of the first role
+         * @param role2		ID of the second role
+         * @param size		size of the coupled set
+         * @param strength	strength of the coupling
+         *
+         * @return this object, for chaining
+         */
+        public Builder couple(String role1, String role2, int size, double strength) {
+            if (this.frozen)
+                throw new IllegalStateException("Cannot add couplings to a frozen map.");
+            int ord1 = this.ordinal(role1);
+            int ord2 = this.ordinal(role2);
+            // Attach the coupling in both directions.
+            this.add(ord1, ord2, size, strength);
+            this.add(ord2, ord1, size, strength);
+            return this;
+        }
+
+        /**
+         * @return the ordinal for a role ID, assigning a new one if necessary
+         *
+         * @param roleId	ID of the role of interest
+         */
+        private int ordinal(String roleId) {
+            Integer retVal = this.ordinals.get(roleId);
+            if (retVal == null) {
+                retVal = this.roleIds.size();
+                this.roleIds.add(roleId);
+                this.ordinals.put(roleId, retVal);
+            }
+            return retVal;
+        }
+
+        /**
+         * Store a one-way coupling.
+         *
+         * @param source	ordinal of the source role
+         * @param target	ordinal of the target role
+         * @param size		size of the coupled set
+         * @param strength	strength of the coupling
+         */
+        private void add(int source, int target, int size, double strength) {
+            if (this.count >= this.sources.length) {
+                int newLen = this.sources.length * 2;
+                this.sources = Arrays.copyOf(this.sources, newLen);
+                this.targets = Arrays.copyOf(this.targets, newLen);
+                this.sizes = Arrays.copyOf(this.sizes, newLen);
+                this.strengths = Arrays.copyOf(this.strengths, newLen);
+            }
+            this.sources[this.count] = source;
+            this.targets[this.count] = target;
+            this.sizes[this.count] = size;
+            this.strengths[this.count] = strength;
+            this.count++;
+        }
+
+        /**
+         * Freeze the couplings into a packed coupling map.  Each role's couplings are sorted in the
+         * natural order of {@link Coupling}, and duplicates are removed, so that the result is the same
+         * as the sorted sets of a {@link RoleCouplingMap}.
+         *
+         * @return the packed coupling map
+         */
+        public PackedCouplingMap freeze() {
+            if (this.frozen)
+                throw new IllegalStateException("Coupling map is already frozen.");
+            this.frozen = true;
+            final int roleCount = this.roleIds.size();
+            String[] roleIdArray = this.roleIds.toArray(new String[roleCount]);
+            // Group the couplings by source role with a counting sort.
+            int[] offsets = new int[roleCount + 1];
+            for (int i = 0; i < this.count; i++)
+                offsets[this.sources[i] + 1]++;
+            for (int i = 0; i < roleCount; i++)
+                offsets[i + 1] += offsets[i];
+            int[] fill = Arrays.copyOf(offsets, roleCount);
+            int[] order = new int[this.count];
+            for (int i = 0; i < this.count; i++)
+                order[fill[this.sources[i]]++] = i;
+            // Now sort each role's couplings and pack them, removing duplicates.
+            int[] newTargets = new int[this.count];
+            int[] newSizes = new int[this.count];
+            double[] newStrengths = new double[this.count];
+            int pos = 0;
+            for (int r = 0; r < roleCount; r++) {
+                int start = offsets[r];
+                int end = offsets[r + 1];
+                offsets[r] = pos;
+                // The row is sorted using temporary coupling objects, so that the order is the same as in
+                // a sorted set.  The objects are discarded as soon as the row is packed.
+                Coupling[] row = new Coupling[end - start];
+                for (int i = start; i < end; i++) {
+                    int idx = order[i];
+                    row[i - start] = new Coupling(roleIdArray[this.targets[idx]], this.sizes[idx], this.strengths[idx]);
+                }
+                Arrays.sort(row);
+                for (int i = 0; i < row.length; i++) {
+                    if (i == 0 || row[i - 1].compareTo(row[i]) != 0) {
+                        newTargets[pos] = this.ordinals.get(row[i].getTarget());
+                        newSizes[pos] = row[i].getSize();
+                        newStrengths[pos] = row[i].getStrength();
+                        pos++;
+                    }
+                }
+            }
+            offsets[roleCount] = pos;
+            // Release the work arrays.
+            this.sources = null;
+            this.targets = null;
+            this.sizes = null;
+            this.strengths = null;
+            return new PackedCouplingMap(this.roleMap, roleIdArray, IntBuffer.wrap(offsets),
+                    IntBuffer.wrap(newTargets, 0, pos).slice(), IntBuffer.wrap(newSizes, 0, pos).slice(),
+                    DoubleBuffer.wrap(newStrengths, 0, pos).slice());
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(PackedCouplingMap.class);
+    /** role definition map */
+    private final RoleMap roleMap;
+    /** array of role IDs, indexed by ordinal */
+    private final String[] roleIds;
+    /** map of role IDs to ordinals */
+    private final Map<String, Integer> ordinalMap;
+    /** offset of each role's first coupling, indexed by ordinal, with a trailing end offset */
+    private final IntBuffer offsets;
+    /** target role ordinal of each coupling */
+    private final IntBuffer targets;
+    /** size of each coupling */
+    private final IntBuffer sizes;
+    /** strength of each coupling */
+    private final DoubleBuffer strengths;
+    /** file type marker */
+    private static final int MAGIC = 0x53454350;
+    /** file format version */
+    private static final int VERSION = 1;
+
+    /**
+     * Construct a packed coupling map from its components.
+     *
+     * @param roleMap		role definition map
+     * @param roleIds		array of role IDs, indexed by ordinal
+     * @param offsets		offset of each role's first coupling, with a trailing end offset
+     * @param targets		target role ordinal of each coupling
+     * @param sizes			size of each coupling
+     * @param strengths		strength of each coupling
+     */
+    protected PackedCouplingMap(RoleMap roleMap, String[] roleIds, IntBuffer offsets, IntBuffer targets,
+            IntBuffer sizes, DoubleBuffer strengths) {
+        this.roleMap = roleMap;
+        this.roleIds = roleIds;
+        this.ordinalMap = new HashMap<String, Integer>(roleIds.length * 4 / 3 + 1);
+        for (int i = 0; i < roleIds.length; i++)
+            this.ordinalMap.put(roleIds[i], i);
+        this.offsets = offsets;
+        this.targets = targets;
+        this.sizes = sizes;
+        this.strengths = strengths;
+    }
+
+    /**
+     * Create a packed coupling map from a role-coupling map.
+     *
+     * @param map	role-coupling map to pack
+     *
+     * @return a packed version of the map
+     */
+    public static PackedCouplingMap of(RoleCouplingMap map) {
+        // Assign ordinals to the roles.  Normally, every role is in the role map, but we allow for
+        // couplings to unknown roles.
+        RoleMap roleMap = map.getMap();
+        Map<String, Integer> ordinals = new HashMap<String, Integer>();
+        List<String> roleIds = new ArrayList<String>();
+        for (Role role : roleMap) {
+            ordinals.put(role.getId(), roleIds.size());
+            roleIds.add(role.getId());
+        }
+        int total = 0;
+        for (String roleId : map.getRoles()) {
+            for (Coupling coupling : map.getCouplings(roleId)) {
+                ordinals.computeIfAbsent(coupling.getTarget(), x -> { roleIds.add(x); return roleIds.size() - 1; });
+                total++;
+            }
+            ordinals.computeIfAbsent(roleId, x -> { roleIds.add(x); return roleIds.size() - 1; });
+        }
+        // Now fill in the arrays.  The coupling sets are already sorted.
+        int[] offsets = new int[roleIds.size() + 1];
+        int[] targets = new int[total];
+        int[] sizes = new int[total];
+        double[] strengths = new double[total];
+        int pos = 0;
+        for (int i = 0; i < roleIds.size(); i++) {
+            offsets[i] = pos;
+            SortedSet<Coupling> couplings = map.getCouplings(roleIds.get(i));
+            for (Coupling coupling : couplings) {
+                targets[pos] = ordinals.get(coupling.getTarget());
+                sizes[pos] = coupling.getSize();
+                strengths[pos] = coupling.getStrength();
+                pos++;
+            }
+        }
+        offsets[roleIds.size()] = pos;
+        return new PackedCouplingMap(roleMap, roleIds.toArray(new String[roleIds.size()]), IntBuffer.wrap(offsets),
+                IntBuffer.wrap(targets), IntBuffer.wrap(sizes), DoubleBuffer.wrap(strengths));
+    }
+
+    /**
+     * Create a packed coupling map directly from a kmers.reps coupling report.
+     *
+     * @param inFile	coupling report containing the role couplings
+     *
+     * @return a frozen packed coupling map
+     *
+     * @throws IOException
+     */
+    public static PackedCouplingMap fromReport(File inFile) throws IOException {
+        try (TabbedLineReader inStream = new TabbedLineReader(inFile)) {
+            return new Builder().read(inStream).freeze();
+        }
+    }
+
+    /**
+     * Load a packed coupling map from a file.  The file is memory-mapped, and the coupling arrays are
+     * accessed directly from the mapped file.  The counts are checked against the file size before anything
+     * is allocated, and the offsets and target ordinals are checked so that a corrupt file cannot cause
+     * errors later.
+     *
+     * @param inFile	file containing the packed coupling map
+     *
+     * @return the packed coupling map read
+     *
+     * @throws IOException if the file cannot be read or is not a valid packed coupling map
+     */
+    public static PackedCouplingMap load(File inFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("File " + inFile + " is not a packed coupling map.");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("File " + inFile + " has unsupported packed coupling map version " + version + ".");
+            int roleCount = buffer.getInt();
+            int total = buffer.getInt();
+            // Each role has two string lengths and an offset, and each coupling has two ints and a double.
+            long needed = (long) roleCount * (2 * Integer.BYTES) + (roleCount + 1L) * Integer.BYTES
+                    + (long) total * (2 * Integer.BYTES + Double.BYTES);
+            if (roleCount < 0 || total < 0 || needed > buffer.remaining())
+                throw new IOException("File " + inFile + " has invalid counts.");
+            // Read the role definitions.  A role with an empty name is not in the role map.
+            RoleMap roleMap = new RoleMap();
+            String[] roleIds = new String[roleCount];
+            for (int i = 0; i < roleCount; i++) {
+                roleIds[i] = readString(buffer);
+                String name = readString(buffer);
+                if (! name.isEmpty())
+                    roleMap.put(new Role(roleIds[i], name));
+            }
+            // Now create the views of the arrays.
+            IntBuffer offsets = slice(buffer, (roleCount + 1) * Integer.BYTES).asIntBuffer();
+            IntBuffer targets = slice(buffer, total * Integer.BYTES).asIntBuffer();
+            IntBuffer sizes = slice(buffer, total * Integer.BYTES).asIntBuffer();
+            DoubleBuffer strengths = slice(buffer, total * Double.BYTES).asDoubleBuffer();
+            // The offsets must run in order from the start of the arrays to the end, and every target must be a role.
+            int prev = 0;
+            for (int i = 0; i <= roleCount; i++) {
+                int offset = offsets.get(i);
+                if (offset < prev || offset > total || (i == 0 && offset != 0) || (i == roleCount && offset != total))
+                    throw new IOException("File " + inFile + " has invalid coupling offsets.");
+                prev = offset;
+            }
+            for (int i = 0; i < total; i++) {
+                int target = targets.get(i);
+                if (target < 0 || target >= roleCount)
+                    throw new IOException("File " + inFile + " has an invalid coupling target.");
+            }
+            return new PackedCouplingMap(roleMap, roleIds, offsets, targets, sizes, strengths);
+        } catch (RuntimeException e) {
+            // A bad string length or a short file shows up as a buffer exception.
+            throw new IOException("File " + inFile + " is not a valid packed coupling map: " + e.toString());
+        }
+    }
+
+    /**
+     * Load a packed coupling map, rebuilding it from a coupling report if necessary.  If the packed file is
+     * missing, older than the report, or invalid, the map is built from the report and the packed file is
+     * replaced.  A failure to save the packed file is logged, but the map built is still returned.
+     *
+     * @param packFile		file containing the packed coupling map
+     * @param reportFile	kmers.reps coupling report from which the map is built
+     *
+     * @return the packed coupling map
+     *
+     * @throws IOException if the report cannot be read
+     */
+    public static PackedCouplingMap load(File packFile, File reportFile) throws IOException {
+        PackedCouplingMap retVal = null;
+        if (packFile.exists() && packFile.lastModified() >= reportFile.lastModified()) {
+            try {
+                retVal = load(packFile);
+            } catch (IOException e) {
+                log.warn("Packed coupling map {} is invalid and will be rebuilt: {}", packFile, e.toString());
+            }
+        }
+        if (retVal == null) {
+            log.info("Building packed coupling map from {}.", reportFile);
+            retVal = fromReport(reportFile);
+            try {
+                retVal.save(packFile);
+            } catch (IOException e) {
+                log.warn("Could not save packed coupling map {}: {}", packFile, e.toString());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a slice of a byte buffer starting at the current position, and advance the position past it
+     *
+     * @param buffer	source byte buffer
+     * @param length	length of the slice, in bytes
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer retVal = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return retVal;
+    }
+
+    /**
+     * Save this packed coupling map to a file.
+     *
+     * @param outFile	file to contain the packed coupling map
+     *
+     * @throws IOException
+     */
+    public void save(File outFile) throws IOException {
+        // Write to a temporary file and then rename it, so a reader never maps a partial file.
+        File tempFile = File.createTempFile("pcm", ".tmp", outFile.getAbsoluteFile().getParentFile());
+        try {
+            this.write(tempFile);
+            Files.move(tempFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Write this packed coupling map to a file.
+     *
+     * @param outFile	file to contain the packed coupling map
+     *
+     * @throws IOException
+     */
+    private void write(File outFile) throws IOException {
+        int roleCount = this.roleIds.length;
+        int total = this.targets.limit();
+        try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)))) {
+            outStream.writeInt(MAGIC);
+            outStream.writeInt(VERSION);
+            outStream.writeInt(roleCount);
+            outStream.writeInt(total);
+            for (String roleId : this.roleIds) {
+                writeString(outStream, roleId);
+                String name = this.roleMap.getName(roleId);
+                writeString(outStream, (name == null ? "" : name));
+            }
+            for (int i = 0; i <= roleCount; i++)
+                outStream.writeInt(this.offsets.get(i));
+            for (int i = 0; i < total; i++)
+                outStream.writeInt(this.targets.get(i));
+            for (int i = 0; i < total; i++)
+                outStream.writeInt(this.sizes.get(i));
+            for (int i = 0; i < total; i++)
+                outStream.writeDouble(this.strengths.get(i));
+        }
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string to a data output stream.
+     *
+     * @param outStream		output stream
+     * @param string		string to write
+     *
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream outStream, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        outStream.writeInt(bytes.length);
+        outStream.write(bytes);
+    }
+
+    /**
+     * @return a length-prefixed UTF-8 string read from a byte buffer
+     *
+     * @param buffer	source byte buffer, positioned on the string
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid string length " + length + ".");
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the couplings for the specified role ID, from strongest to weakest
+     *
+     * This will never return NULL, but it may return an empty list.
+     *
+     * @param roleId	ID of the role of interest
+     */
+    public List<Coupling> getCouplings(String roleId) {
+        List<Coupling> retVal;
+        Integer ordinal = this.ordinalMap.get(roleId);
+        if (ordinal == null)
+            retVal = Collections.emptyList();
+        else
+            retVal = new Couplings(ordinal);
+        return retVal;
+    }
+
+    /**
+     * @return the highest-strength coupling in the specified coupling list relevant to the specified feature, or NULL if there is none
+     *
+     * @param couplings		list of desired couplings, ordered from strongest to weakest; this is normally the result of
+     * 						{@link #getCouplings(String)}, but any coupling list is accepted
+     * @param feat			feature of interest
+     */
+    public Coupling getBestCoupling(List<Coupling> couplings, Feature feat) {
+        Coupling retVal = null;
+        List<Role> featRoles = feat.getUsefulRoles(this.roleMap);
+        if (couplings instanceof Couplings packed) {
+            // Get the sorted ordinals of the roles in this feature.  A feature has very few roles, so a sorted
+            // array is much cheaper than a hash set.
+            int[] roles = new int[featRoles.size()];
+            int n = 0;
+            for (Role role : featRoles) {
+                Integer ordinal = this.ordinalMap.get(role.getId());
+                if (ordinal != null)
+                    roles[n++] = ordinal;
+            }
+            Arrays.sort(roles, 0, n);
+            // Loop through the couplings.  The first match will be the strongest, because the list is ordered.
+            final int size = (n == 0 ? 0 : packed.size());
+            for (int i = 0; retVal == null && i < size; i++) {
+                if (Arrays.binarySearch(roles, 0, n, packed.getTarget(i)) >= 0)
+                    retVal = packed.get(i);
+            }
+        } else if (! featRoles.isEmpty()) {
+            // Here we have an ordinary list, so we compare role IDs.
+            String[] roles = new String[featRoles.size()];
+            for (int i = 0; i < roles.length; i++)
+                roles[i] = featRoles.get(i).getId();
+            Arrays.sort(roles);
+            Iterator<Coupling> iter = couplings.iterator();
+            while (retVal == null && iter.hasNext()) {
+                Coupling curr = iter.next();
+                if (Arrays.binarySearch(roles, curr.getTarget()) >= 0)
+                    retVal = curr;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the set of role IDs with couplings
+     */
+    public Set<String> getRoles() {
+        Set<String> retVal = new HashSet<String>(this.roleIds.length * 4 / 3 + 1);
+        for (int i = 0; i < this.roleIds.length; i++) {
+            if (this.offsets.get(i + 1) > this.offsets.get(i))
+                retVal.add(this.roleIds[i]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the description of a role
+     *
+     * @param ID of the role of interest
+     */
+    public String getName(String roleId) {
+        return this.roleMap.getName(roleId);
+    }
+
+    /**
+     * @return the ID of the role having a description, or NULL if the role is not in the map
+     *
+     * @param roleDesc	description of interest
+     */
+    public String getRole(String roleDesc) {
+        String retVal = null;
+        Role role = this.roleMap.getByName(roleDesc);
+        if (role != null) {
+            retVal = role.getId();
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the underlying role map
+     */
+    public RoleMap getMap() {
+        return this.roleMap;
+    }
+
+    /**
+     * @return the ordinal of a role ID, or -1 if the role is not in this map
+     *
+     * @param roleId	ID of the role of interest
+     */
+    protected int getOrdinal(String roleId) {
+        Integer retVal = this.ordinalMap.get(roleId);
+        return (retVal == null ? -1 : retVal);
+    }
+
+    /**
+     * @return the ID of the role with the specified ordinal
+     *
+     * @param ordinal	ordinal of the role of interest
+     */
+    protected String getRoleId(int ordinal) {
+        return this.roleIds[ordinal];
+    }
+
+    /**
+     * @return the position of the first coupling for a role
+     *
+     * @param ordinal	ordinal of the role of interest
+     */
+    protected int rowStart(int ordinal) {
+        return this.offsets.get(ordinal);
+    }
+
+    /**
+     * @return the position after the last coupling for a role
+     *
+     * @param ordinal	ordinal of the role of interest
+     */
+    protected int rowEnd(int ordinal) {
+        return this.offsets.get(ordinal + 1);
+    }
+
+    /**
+     * @return the target role ordinal of the coupling at the specified position
+     *
+     * @param pos	position of the coupling of interest
+     */
+    protected int targetAt(int pos) {
+        return this.targets.get(pos);
+    }
+
+    /**
+     * @return the size of the coupling at the specified position
+     *
+     * @param pos	position of the coupling of interest
+     */
+    protected int sizeAt(int pos) {
+        return this.sizes.get(pos);
+    }
+
+    /**
+     * @return the strength of the coupling at the specified position
+     *
+     * @param pos	position of the coupling of interest
+     */
+    protected double strengthAt(int pos) {
+        return this.strengths.get(pos);
+    }
+
+    /**
+     * @return the total number of couplings, counting each direction separately
+     */
+    public int size() {
+        return this.targets.limit();
+    }
+
+}
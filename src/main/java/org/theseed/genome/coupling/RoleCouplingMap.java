@@ -22,6 +22,8 @@ import java.util.stream.Collectors;
 import org.theseed.genome.Coupling;
 import org.theseed.genome.Feature;
 import org.theseed.io.TabbedLineReader;
+import org.theseed.metrics.Metrics;
+import org.theseed.metrics.MetricsRecorder;
 import org.theseed.proteins.Role;
 import org.theseed.proteins.RoleMap;
 
@@ -65,10 +67,14 @@ public class RoleCouplingMap implements Serializable {
      * @throws IOException
      */
     public RoleCouplingMap(File inFile) throws IOException {
+        long start = System.nanoTime();
         this.init();
         try (TabbedLineReader inStream = new TabbedLineReader(inFile)) {
             readFromStream(inStream);
         }
+        MetricsRecorder metrics = Metrics.get();
+        metrics.count("coupling.read.bytes", inFile.length());
+        metrics.timeSince("coupling.read", start);
     }
 
     /**
@@ -115,6 +121,7 @@ public class RoleCouplingMap implements Serializable {
      * @throws ClassNotFoundException
      */
     public static RoleCouplingMap load(File inFile) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
         RoleCouplingMap retVal = null;
         FileInputStream fileStream = new FileInputStream(inFile);
         try (ObjectInputStream oStream = new ObjectInputStream(fileStream)) {
@@ -122,6 +129,10 @@ public class RoleCouplingMap implements Serializable {
         } finally {
             fileStream.close();
         }
+        MetricsRecorder metrics = Metrics.get();
+        metrics.count("coupling.load.bytes", inFile.length());
+        metrics.count("coupling.load.roles", retVal.couplingMap.size());
+        metrics.timeSince("coupling.load", start);
         return retVal;
     }
 
@@ -0,0 +1,48 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+/**
+ * This class holds the process-wide metrics recorder.  The default recorder discards all metrics, so the
+ * instrumented code costs almost nothing unless a real recorder is plugged in.  A typical use is
+ *
+ * 		SummaryMetricsRecorder recorder = new SummaryMetricsRecorder();
+ * 		Metrics.set(recorder);
+ * 		... run a health sweep ...
+ * 		log.info("Metrics for this run:\n{}", recorder.summary());
+ * 		Metrics.reset();
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Metrics {
+
+    // FIELDS
+    /** current metrics recorder */
+    private static volatile MetricsRecorder recorder = NullMetricsRecorder.INSTANCE;
+
+    /**
+     * @return the current metrics recorder
+     */
+    public static MetricsRecorder get() {
+        return recorder;
+    }
+
+    /**
+     * Specify a new metrics recorder.
+     *
+     * @param newRecorder	recorder to use, or NULL to discard metrics
+     */
+    public static void set(MetricsRecorder newRecorder) {
+        recorder = (newRecorder == null ? NullMetricsRecorder.INSTANCE : newRecorder);
+    }
+
+    /**
+     * Restore the default recorder, which discards metrics.
+     */
+    public static void reset() {
+        recorder = NullMetricsRecorder.INSTANCE;
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+/**
+ * This interface describes an object that records performance metrics.  There are two kinds of metrics:  counters,
+ * which accumulate a total (bytes read, rows parsed, cache hits), and timers, which record a latency distribution
+ * for a phase of processing.  Metric names are dotted strings such as "subsystem.load.rows".
+ *
+ * The recorder in use is set process-wide through {@link Metrics}.  Implementations must be thread-safe, since
+ * they are called from inside parallel validations and searches.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface MetricsRecorder {
+
+    /**
+     * Add an amount to a counter.
+     *
+     * @param name		name of the counter
+     * @param amount	amount to add
+     */
+    public void count(String name, long amount);
+
+    /**
+     * Record the duration of one execution of a timed phase.
+     *
+     * @param name		name of the timer
+     * @param nanos		duration, in nanoseconds
+     */
+    public void time(String name, long nanos);
+
+    /**
+     * Record the duration of a timed phase that started at a specified time.
+     *
+     * @param name		name of the timer
+     * @param start		start time of the phase, from {@link System#nanoTime()}
+     */
+    public default void timeSince(String name, long start) {
+        this.time(name, System.nanoTime() - start);
+    }
+
+    /**
+     * @return TRUE if this recorder keeps metrics, FALSE if it discards them
+     */
+    public boolean isEnabled();
+
+}
@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+/**
+ * This is the default metrics recorder.  It discards everything.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class NullMetricsRecorder implements MetricsRecorder {
+
+    /** the one and only instance */
+    public static final NullMetricsRecorder INSTANCE = new NullMetricsRecorder();
+
+    private NullMetricsRecorder() { }
+
+    @Override
+    public void count(String name, long amount) { }
+
+    @Override
+    public void time(String name, long nanos) { }
+
+    @Override
+    public void timeSince(String name, long start) { }
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+}
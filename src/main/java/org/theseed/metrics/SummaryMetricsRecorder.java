@@ -0,0 +1,230 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This metrics recorder keeps totals for each counter and a latency histogram for each timer, and can produce a
+ * summary table for the run.  The histograms use power-of-two buckets, so the percentiles in the summary are
+ * accurate to within a factor of two, which is enough to tell which phase dominates.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SummaryMetricsRecorder implements MetricsRecorder {
+
+    /**
+     * This object is a latency histogram for a single timer.  Bucket N counts the durations whose highest
+     * one-bit is bit N.
+     */
+    protected static class Histogram {
+
+        /** number of durations in each bucket */
+        private final AtomicLongArray buckets;
+        /** number of durations recorded */
+        private final LongAdder count;
+        /** total of all durations */
+        private final LongAdder total;
+        /** longest duration */
+        private final LongAccumulator max;
+
+        /**
+         * Construct an empty histogram.
+         */
+        protected Histogram() {
+            this.buckets = new AtomicLongArray(64);
+            this.count = new LongAdder();
+            this.total = new LongAdder();
+            this.max = new LongAccumulator(Math::max, 0);
+        }
+
+        /**
+         * Record a duration.
+         *
+         * @param nanos		duration to record, in nanoseconds
+         */
+        protected void record(long nanos) {
+            if (nanos < 0)
+                nanos = 0;
+            this.buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+            this.count.increment();
+            this.total.add(nanos);
+            this.max.accumulate(nanos);
+        }
+
+        /**
+         * @return the number of durations recorded
+         */
+        protected long getCount() {
+            return this.count.sum();
+        }
+
+        /**
+         * @return the total of the durations recorded, in nanoseconds
+         */
+        protected long getTotal() {
+            return this.total.sum();
+        }
+
+        /**
+         * @return the longest duration recorded, in nanoseconds
+         */
+        protected long getMax() {
+            return this.max.get();
+        }
+
+        /**
+         * @return an estimate of a percentile of the durations, in nanoseconds
+         *
+         * @param pct	percentile desired (0 to 100)
+         */
+        protected long getPercentile(double pct) {
+            long n = this.getCount();
+            long target = (long) Math.ceil(n * pct / 100.0);
+            long retVal = 0;
+            long seen = 0;
+            for (int i = 0; i < 64 && seen < target; i++) {
+                seen += this.buckets.get(i);
+                // Use the top of the bucket as the estimate.
+                retVal = (i >= 62 ? Long.MAX_VALUE : (2L << i) - 1);
+            }
+            return Math.min(retVal, this.getMax());
+        }
+
+    }
+
+    // FIELDS
+    /** map of counter names to totals */
+    private final Map<String, LongAdder> counters;
+    /** map of timer names to histograms */
+    private final Map<String, Histogram> timers;
+    /** nanoseconds per millisecond */
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    /**
+     * Construct an empty metrics recorder.
+     */
+    public SummaryMetricsRecorder() {
+        this.counters = new ConcurrentHashMap<String, LongAdder>();
+        this.timers = new ConcurrentHashMap<String, Histogram>();
+    }
+
+    @Override
+    public void count(String name, long amount) {
+        this.counters.computeIfAbsent(name, x -> new LongAdder()).add(amount);
+    }
+
+    @Override
+    public void time(String name, long nanos) {
+        this.timers.computeIfAbsent(name, x -> new Histogram()).record(nanos);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @return the total for a counter, or 0 if the counter was never used
+     *
+     * @param name	name of the counter
+     */
+    public long getCount(String name) {
+        LongAdder counter = this.counters.get(name);
+        return (counter == null ? 0 : counter.sum());
+    }
+
+    /**
+     * @return the number of durations recorded for a timer, or 0 if the timer was never used
+     *
+     * @param name	name of the timer
+     */
+    public long getTimerCount(String name) {
+        Histogram timer = this.timers.get(name);
+        return (timer == null ? 0 : timer.getCount());
+    }
+
+    /**
+     * @return the total duration recorded for a timer in nanoseconds, or 0 if the timer was never used
+     *
+     * @param name	name of the timer
+     */
+    public long getTimerTotal(String name) {
+        Histogram timer = this.timers.get(name);
+        return (timer == null ? 0 : timer.getTotal());
+    }
+
+    /**
+     * Erase all the metrics recorded so far.
+     */
+    public void clear() {
+        this.counters.clear();
+        this.timers.clear();
+    }
+
+    /**
+     * @return a summary table of the metrics, with the timers first and then the counters, each sorted by name
+     */
+    public String summary() {
+        StringBuilder retVal = new StringBuilder(80 * (this.timers.size() + this.counters.size() + 4));
+        Map<String, Histogram> sortedTimers = new TreeMap<String, Histogram>(this.timers);
+        if (! sortedTimers.isEmpty()) {
+            int width = nameWidth(sortedTimers.keySet(), "timer");
+            String format = "%-" + width + "s %10s %12s %10s %10s %10s %10s%n";
+            retVal.append(String.format(format, "timer", "count", "total ms", "mean ms", "p50 ms", "p95 ms", "max ms"));
+            for (Map.Entry<String, Histogram> timerEntry : sortedTimers.entrySet()) {
+                Histogram timer = timerEntry.getValue();
+                long n = timer.getCount();
+                retVal.append(String.format(format, timerEntry.getKey(), n, ms(timer.getTotal()),
+                        ms(n == 0 ? 0 : timer.getTotal() / n), ms(timer.getPercentile(50.0)),
+                        ms(timer.getPercentile(95.0)), ms(timer.getMax())));
+            }
+        }
+        Map<String, LongAdder> sortedCounters = new TreeMap<String, LongAdder>(this.counters);
+        if (! sortedCounters.isEmpty()) {
+            if (retVal.length() > 0)
+                retVal.append(System.lineSeparator());
+            int width = nameWidth(sortedCounters.keySet(), "counter");
+            String format = "%-" + width + "s %14s%n";
+            retVal.append(String.format(format, "counter", "total"));
+            for (Map.Entry<String, LongAdder> counterEntry : sortedCounters.entrySet())
+                retVal.append(String.format(format, counterEntry.getKey(), counterEntry.getValue().sum()));
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * @return the width of the name column for a table
+     *
+     * @param names		names to be displayed
+     * @param heading	heading of the name column
+     */
+    private static int nameWidth(Iterable<String> names, String heading) {
+        int retVal = heading.length();
+        for (String name : names)
+            retVal = Math.max(retVal, name.length());
+        return retVal;
+    }
+
+    /**
+     * @return a duration in milliseconds, formatted for the summary table
+     *
+     * @param nanos		duration in nanoseconds
+     */
+    private static String ms(long nanos) {
+        return String.format("%.3f", nanos / NANOS_PER_MS);
+    }
+
+    @Override
+    public String toString() {
+        return this.summary();
+    }
+
+}
@@ -5,6 +5,7 @@ package org.theseed.reports;
 
 import static j2html.TagCreator.*;
 
+import java.io.PrintStream;
 import java.util.stream.Stream;
 
 import j2html.tags.ContainerTag;
@@ -23,12 +24,13 @@ public class FramePageWriter extends PageWriter {
 
     @Override
     protected void writePage(String title, DomContent heading, Stream<DomContent> content) {
-        System.out.println(document().render());
+        PrintStream out = this.getOutput();
+        out.println(document().render());
         ContainerTag body = body().with(content);
         ContainerTag page = html(head(title(title), FRAME_STYLES),
                 body);
-        System.out.println(page.render());
-        System.out.flush();
+        out.println(page.render());
+        out.flush();
     }
 
     @Override
@@ -22,14 +22,14 @@ import j2html.tags.EmptyTag;
 public class FreePageWriter extends PageWriter {
 
     // FIELDS
-    /** output stream */
+    /** output stream, or NULL to use the page writer output stream */
     private PrintWriter writer;
     /** style sheet link */
     public static final EmptyTag SEEDTK_STYLES = link().withRel("stylesheet").withHref("https://rnaseq.theseed.org/css/Basic.css");
 
-    /** Construct a page writer for the system output */
+    /** Construct a page writer for the page writer output stream */
     public FreePageWriter() {
-        this.writer = new PrintWriter(System.out);
+        this.writer = null;
     }
 
     /**
@@ -43,14 +43,15 @@ public class FreePageWriter extends PageWriter {
 
     @Override
     protected void writePage(String title, DomContent heading, Stream<DomContent> content) {
-        this.writer.println(document().render());
+        PrintWriter out = (this.writer == null ? new PrintWriter(this.getOutput()) : this.writer);
+        out.println(document().render());
         ContainerTag body = body().attr("onload", "setup();")
                 .with(h1(heading)).with(content);
         ContainerTag page = html(head(title(title), SEEDTK_STYLES,
                 script().withSrc("https://rnaseq.theseed.org/css/utils.js"), script().withSrc("https://ajax.googleapis.com/ajax/libs/jquery/3.5.1/jquery.min.js"),
                 link().withRel("icon").withType("image/png").withHref("https://rnaseq.theseed.org/favicon.ico")), body);
-        this.writer.println(page.render());
-        this.writer.flush();
+        out.println(page.render());
+        out.flush();
     }
 
     @Override
@@ -3,6 +3,7 @@
  */
 package org.theseed.reports;
 
+import java.io.PrintStream;
 import java.util.stream.Stream;
 import static j2html.TagCreator.*;
 
@@ -20,8 +21,10 @@ public class InternalPageWriter extends PageWriter {
     @Override
     public void writePage(String title, DomContent heading, Stream<DomContent> content) {
         // We are internal to another page, so the title is ignored.
-        System.out.println(h1(heading));
-        content.forEach(x -> System.out.println(x));
+        PrintStream out = this.getOutput();
+        out.println(h1(heading));
+        content.forEach(x -> out.println(x));
+        out.flush();
     }
 
     @Override
@@ -3,6 +3,7 @@
  */
 package org.theseed.reports;
 
+import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -27,6 +28,8 @@ public abstract class PageWriter {
     // FIELDS
     /** map of file patterns to datalist IDs */
     private Map<String, String> dataListMap;
+    /** output stream for the page, or NULL to use the standard output */
+    private PrintStream output;
 
     public PageWriter() {
         // Insure the slash is in empty tags.
@@ -35,11 +38,29 @@ public abstract class PageWriter {
         Config.textEscaper = PageWriter::escape;
         // Initialize the datalist map.
         this.dataListMap = new HashMap<String, String>();
+        this.output = null;
+    }
+
+    /**
+     * Specify the output stream for the page.  Normally the page goes to the standard output, but a server that
+     * runs many requests in one process gives each request its own stream.
+     *
+     * @param output	output stream for the page, or NULL to use the standard output
+     */
+    public void setOutput(PrintStream output) {
+        this.output = output;
+    }
+
+    /**
+     * @return the output stream for the page
+     */
+    protected PrintStream getOutput() {
+        return (this.output == null ? System.out : this.output);
     }
 
     /**
      * This method writes the output.  The client passes in the body of the page, and the
-     * subclass sends it to the standard output with the proper formatting.
+     * subclass sends it to the output stream with the proper formatting.
      *
      * @param title		title to use if this is a standalone web page
      * @param heading	heading element
@@ -51,7 +72,7 @@ public abstract class PageWriter {
 
     /**
      * This method writes the output.  The client passes in the body of the page, and the
-     * subclass sends it to the standard output with the proper formatting.
+     * subclass sends it to the output stream with the proper formatting.
      *
      * @param title		title to use if this is a standalone web page
      * @param content	array of content items to put on the page
@@ -62,7 +83,7 @@ public abstract class PageWriter {
 
     /**
      * This method writes the output.  The client passes in the body of the page, and the
-     * subclass sends it to the standard output with the proper formatting.
+     * subclass sends it to the output stream with the proper formatting.
      *
      * @param title		title to use if this is a standalone web page
      * @param content	stream of content items to put on the page
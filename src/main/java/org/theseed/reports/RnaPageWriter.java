@@ -15,6 +15,7 @@ import static j2html.TagCreator.link;
 import static j2html.TagCreator.script;
 import static j2html.TagCreator.title;
 
+import java.io.PrintStream;
 import java.util.stream.Stream;
 
 import j2html.tags.ContainerTag;
@@ -37,15 +38,16 @@ public class RnaPageWriter extends PageWriter {
 
     @Override
     public void writePage(String title, DomContent heading, Stream<DomContent> content) {
-        System.out.println(document().render());
+        PrintStream out = this.getOutput();
+        out.println(document().render());
         ContainerTag body = body().attr("onload", "setup();")
                 .with(a(img().withSrc("/css/seed-logo-blue.png").withClass("logo").withAlt("SEED logo")).withHref("/"))
                 .with(h1(heading)).with(BREAK).with(content);
         ContainerTag page = html(head(title(title), RNA_STYLES,
                 script().withSrc("/css/utils.js"), script().withSrc("https://ajax.googleapis.com/ajax/libs/jquery/3.5.1/jquery.min.js"),
                 link().withRel("icon").withType("image/png").withHref("/favicon.ico")), body);
-        System.out.println(page.render());
-        System.out.flush();
+        out.println(page.render());
+        out.flush();
     }
 
     @Override
@@ -9,6 +9,7 @@ import j2html.tags.EmptyTag;
 
 import static j2html.TagCreator.*;
 
+import java.io.PrintStream;
 import java.util.stream.Stream;
 
 /**
@@ -25,15 +26,16 @@ public class SeedTkPageWriter extends PageWriter {
 
     @Override
     public void writePage(String title, DomContent heading, Stream<DomContent> content) {
-        System.out.println(document().render());
+        PrintStream out = this.getOutput();
+        out.println(document().render());
         ContainerTag body = body().attr("onload", "setup();")
                 .with(a(img().withSrc("/SEEDtk/css/seed-logo-blue.png").withClass("logo").withAlt("SEED logo")).withHref("/SEEDtk/"))
                 .with(h1(heading)).with(BREAK).with(content);
         ContainerTag page = html(head(title(title), SEEDTK_STYLES,
                 script().withSrc("/SEEDtk/css/utils.js"), script().withSrc("https://ajax.googleapis.com/ajax/libs/jquery/3.5.1/jquery.min.js"),
                 link().withRel("icon").withType("image/png").withHref("/SEEDtk/favicon.ico")), body);
-        System.out.println(page.render());
-        System.out.flush();
+        out.println(page.render());
+        out.flush();
     }
 
     @Override
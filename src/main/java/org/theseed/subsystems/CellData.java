@@ -3,13 +3,20 @@
  */
 package org.theseed.subsystems;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.theseed.reports.HtmlUtilities;
 
 import static j2html.TagCreator.br;
@@ -21,15 +28,84 @@ import j2html.tags.DomContent;
  * to the same genome, and each possessing a particular state.  The features should implement all of the
  * roles in the function defining the cell's column.
  *
+ * Because a large subsystem has hundreds of thousands of cells, the cell is stored compactly.  Each feature
+ * is represented by a feature type code and a feature number, and its state is packed into a byte.  The
+ * full feature IDs are only built on demand.  The features are kept in the same order as their feature ID
+ * strings.  A {@link FeatureStatus} object is only created for a feature when a client asks for one, and
+ * it reads and writes through to the cell.
+ *
  * @author Bruce Parrello
  *
  */
 public class CellData {
 
+    /**
+     * This is a feature status that is backed by the cell.  It locates its feature by type and number,
+     * so it remains valid when other features are added to the cell.
+     */
+    private class StatusView extends FeatureStatus {
+
+        /** type code of the feature */
+        private final byte type;
+        /** feature number */
+        private final int number;
+
+        /**
+         * Construct a status view for a feature in this cell.
+         *
+         * @param type		type code of the feature
+         * @param number	feature number
+         */
+        private StatusView(byte type, int number) {
+            this.type = type;
+            this.number = number;
+        }
+
+        @Override
+        public void setState(PegState newState, String function) {
+            CellData.this.putState(CellData.this.find(this.type, this.number), newState, function);
+        }
+
+        @Override
+        public PegState getState() {
+            return CellData.this.getState(CellData.this.find(this.type, this.number));
+        }
+
+        @Override
+        public String getFunction() {
+            return CellData.this.getFunction(CellData.this.find(this.type, this.number));
+        }
+
+    }
+
     // FIELDS
-    /** map of features in this cell */
-    private final Map<String, FeatureStatus> features;
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(CellData.class);
+    /** ID of the genome for this cell's features */
+    private final String genomeId;
+    /** type codes of the features */
+    private byte[] types;
+    /** numbers of the features */
+    private int[] numbers;
+    /** state ordinals of the features */
+    private byte[] states;
+    /** bad-role functions of the features, or NULL if there are no bad roles */
+    private String[] functions;
+    /** status views for the features, or NULL if none have been requested */
+    private FeatureStatus[] views;
+    /** list of feature types, indexed by type code; new types are rare, so reads need no locking */
+    private static final List<String> TYPE_NAMES = new CopyOnWriteArrayList<String>();
+    /** array of peg states, by ordinal */
+    private static final PegState[] STATES = PegState.values();
+    /** empty type code array */
+    private static final byte[] NO_BYTES = new byte[0];
+    /** empty number array */
+    private static final int[] NO_INTS = new int[0];
 
+    static {
+        // Insure the most common type gets the first code.
+        TYPE_NAMES.add("peg");
+    }
 
     /**
      * Construct a cell from a spreadsheet cell string.
@@ -38,28 +114,195 @@ public class CellData {
      * @param cellString	cell definition string
      */
     public CellData(RowData rowData, String cellString) {
-        // We use a tree map because the number of entries is generally one or two.
-        this.features = new TreeMap<>();
-        // Compute the feature prefix.
-        String prefix = "fig|" + rowData.getGenomeId() + ".";
+        this.genomeId = rowData.getGenomeId();
+        this.types = NO_BYTES;
+        this.numbers = NO_INTS;
+        this.states = NO_BYTES;
         // Split on commas.
         for (String pegNum : StringUtils.split(cellString, ',')) {
             int idx = pegNum.indexOf('.');
-            if (idx >= 0) {
-                this.features.put(prefix + pegNum, new FeatureStatus());
-                rowData.addType(pegNum.substring(0, idx));
-            } else {
-                this.features.put(prefix + "peg." + pegNum, new FeatureStatus());
-                rowData.addType("peg");
+            String type = "peg";
+            if (idx >= 0)
+                type = pegNum.substring(0, idx);
+            rowData.addType(type);
+            int number = parseNumber(pegNum, idx + 1);
+            if (number < 0)
+                log.warn("Invalid feature specification \"{}\" in row for {}.", pegNum, this.genomeId);
+            else
+                this.insert(typeCode(type), number, PegState.MISSING);
+        }
+    }
+
+    /**
+     * @return the code for a feature type, creating a new code if necessary
+     *
+     * @param type		feature type of interest
+     */
+    private static byte typeCode(String type) {
+        synchronized (TYPE_NAMES) {
+            int retVal = TYPE_NAMES.indexOf(type);
+            if (retVal < 0) {
+                retVal = TYPE_NAMES.size();
+                if (retVal > Byte.MAX_VALUE)
+                    throw new IllegalStateException("Too many feature types in subsystem cells.");
+                TYPE_NAMES.add(type);
             }
+            return (byte) retVal;
+        }
+    }
+
+    /**
+     * @return the feature type for a type code
+     *
+     * @param code		type code of interest
+     */
+    private static String typeName(byte code) {
+        return TYPE_NAMES.get(code);
+    }
+
+    /**
+     * @return the position of a feature in this cell, or -1 if it is not present
+     *
+     * @param type		type code of the feature
+     * @param number	feature number
+     */
+    private int find(byte type, int number) {
+        int retVal = -1;
+        for (int i = 0; i < this.numbers.length && retVal < 0; i++) {
+            if (this.numbers[i] == number && this.types[i] == type)
+                retVal = i;
         }
+        return retVal;
+    }
+
+    /**
+     * @return the position of a feature in this cell, or -1 if it is not present or is from another genome
+     *
+     * @param fid		ID of the feature of interest
+     */
+    private int find(String fid) {
+        int retVal = -1;
+        // The feature ID must be "fig|" + genomeId + "." + type + "." + number.
+        final int typeStart = this.genomeId.length() + 5;
+        final int dot = fid.lastIndexOf('.');
+        if (dot > typeStart && fid.startsWith("fig|") && fid.startsWith(this.genomeId, 4)
+                && fid.charAt(typeStart - 1) == '.') {
+            int number = parseNumber(fid, dot + 1);
+            if (number >= 0) {
+                int code = TYPE_NAMES.indexOf(fid.substring(typeStart, dot));
+                if (code >= 0)
+                    retVal = this.find((byte) code, number);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number at the end of a string, or -1 if there is not a valid number there
+     *
+     * @param string	string to parse
+     * @param start		position of the number
+     */
+    protected static int parseNumber(String string, int start) {
+        int retVal = -1;
+        final int n = string.length();
+        if (start < n && n - start < 10) {
+            retVal = 0;
+            for (int i = start; i < n && retVal >= 0; i++) {
+                char c = string.charAt(i);
+                if (c >= '0' && c <= '9')
+                    retVal = retVal * 10 + (c - '0');
+                else
+                    retVal = -1;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Add a new feature to this cell in feature ID order.
+     *
+     * @param type		type code of the feature
+     * @param number	feature number
+     * @param state		initial state of the feature
+     *
+     * @return the position of the new feature
+     */
+    private int insert(byte type, int number, PegState state) {
+        int retVal = this.find(type, number);
+        if (retVal < 0) {
+            // All the feature IDs have the same prefix, so we only need to compare the type and number.
+            String suffix = typeName(type) + "." + number;
+            final int n = this.numbers.length;
+            retVal = 0;
+            while (retVal < n && this.suffix(retVal).compareTo(suffix) < 0)
+                retVal++;
+            this.types = insertByte(this.types, retVal, type);
+            this.numbers = Arrays.copyOf(this.numbers, n + 1);
+            System.arraycopy(this.numbers, retVal, this.numbers, retVal + 1, n - retVal);
+            this.numbers[retVal] = number;
+            this.states = insertByte(this.states, retVal, (byte) state.ordinal());
+            if (this.functions != null) {
+                this.functions = Arrays.copyOf(this.functions, n + 1);
+                System.arraycopy(this.functions, retVal, this.functions, retVal + 1, n - retVal);
+                this.functions[retVal] = null;
+            }
+            if (this.views != null) {
+                this.views = Arrays.copyOf(this.views, n + 1);
+                System.arraycopy(this.views, retVal, this.views, retVal + 1, n - retVal);
+                this.views[retVal] = null;
+            }
+        } else
+            this.putState(retVal, state, null);
+        return retVal;
+    }
+
+    /**
+     * @return a copy of a byte array with a new value inserted
+     *
+     * @param array		original array
+     * @param pos		position for the new value
+     * @param value		value to insert
+     */
+    private static byte[] insertByte(byte[] array, int pos, byte value) {
+        byte[] retVal = new byte[array.length + 1];
+        System.arraycopy(array, 0, retVal, 0, pos);
+        retVal[pos] = value;
+        System.arraycopy(array, pos, retVal, pos + 1, array.length - pos);
+        return retVal;
+    }
+
+    /**
+     * @return the part of a feature ID after the genome ID
+     *
+     * @param i		position of the feature of interest
+     */
+    private String suffix(int i) {
+        return typeName(this.types[i]) + "." + this.numbers[i];
+    }
+
+    /**
+     * Store the state of a feature.  The function is only kept if the state is BAD_ROLE.
+     *
+     * @param i			position of the feature
+     * @param state		new state
+     * @param function	function of the feature
+     */
+    private void putState(int i, PegState state, String function) {
+        this.states[i] = (byte) state.ordinal();
+        if (state == PegState.BAD_ROLE) {
+            if (this.functions == null)
+                this.functions = new String[this.numbers.length];
+            this.functions[i] = function;
+        } else if (this.functions != null)
+            this.functions[i] = null;
     }
 
     /**
      * @return TRUE if there are no features in this cell
      */
     public boolean isEmpty() {
-        return this.features.isEmpty();
+        return this.numbers.length == 0;
     }
 
     /**
@@ -68,7 +311,72 @@ public class CellData {
      * @param the ID of the feature of interest
      */
     public FeatureStatus getStatus(String fid) {
-        return this.features.get(fid);
+        FeatureStatus retVal = null;
+        int i = this.find(fid);
+        if (i >= 0)
+            retVal = this.getView(i);
+        return retVal;
+    }
+
+    /**
+     * @return the status view for a feature, creating it if necessary
+     *
+     * @param i		position of the feature of interest
+     */
+    private FeatureStatus getView(int i) {
+        if (this.views == null)
+            this.views = new FeatureStatus[this.numbers.length];
+        FeatureStatus retVal = this.views[i];
+        if (retVal == null) {
+            retVal = new StatusView(this.types[i], this.numbers[i]);
+            this.views[i] = retVal;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ID of a feature in this cell
+     *
+     * @param i		position of the feature of interest (features are in ID order)
+     */
+    public String getFid(int i) {
+        return "fig|" + this.genomeId + "." + this.suffix(i);
+    }
+
+    /**
+     * @return the type of a feature in this cell
+     *
+     * @param i		position of the feature of interest (features are in ID order)
+     */
+    protected String getType(int i) {
+        return typeName(this.types[i]);
+    }
+
+    /**
+     * @return the index number of a feature in this cell
+     *
+     * @param i		position of the feature of interest (features are in ID order)
+     */
+    protected int getNumber(int i) {
+        return this.numbers[i];
+    }
+
+    /**
+     * @return the state of a feature in this cell
+     *
+     * @param i		position of the feature of interest (features are in ID order)
+     */
+    public PegState getState(int i) {
+        return STATES[this.states[i]];
+    }
+
+    /**
+     * @return the function of a bad-role feature in this cell, or NULL if the feature does not have a bad role
+     *
+     * @param i		position of the feature of interest (features are in ID order)
+     */
+    public String getFunction(int i) {
+        return (this.functions == null ? null : this.functions[i]);
     }
 
     /**
@@ -79,19 +387,66 @@ public class CellData {
      * @param column	column containing this cell
      */
     public void setState(String fid, String function, ColumnData column) {
-        FeatureStatus status = this.getStatus(fid);
-        if (column.matches(function)) {
+        this.setState(fid, function, column.matches(function));
+    }
+
+    /**
+     * Compute the status of a feature for this cell when we already know whether or not the feature's
+     * function matches the cell's column.
+     *
+     * @param fid		feature ID
+     * @param function	function of the feature
+     * @param matched	TRUE if the function matches the column, else FALSE
+     */
+    public void setState(String fid, String function, boolean matched) {
+        int i = this.find(fid);
+        if (matched) {
             // Here the feature belongs in the column.
-            if (status == null) {
+            if (i < 0) {
                 // This means we are disconnected.  The feature belongs, but is not present.
-                this.features.put(fid, new FeatureStatus(PegState.DISCONNECTED));
+                this.add(fid, PegState.DISCONNECTED, null);
             } else {
                 // This means we are good.
-                status.setState(PegState.GOOD, null);
+                this.putState(i, PegState.GOOD, null);
             }
-        } else if (status != null) {
+        } else if (i >= 0) {
             // This means we have a bad role.  The feature is present, but does not belong.
-            status.setState(PegState.BAD_ROLE, function);
+            this.putState(i, PegState.BAD_ROLE, function);
+        }
+    }
+
+    /**
+     * Restore the status of a feature from saved validation results.  If the feature is not in the cell, it
+     * will be added.
+     *
+     * @param fid		feature ID
+     * @param state		saved state of the feature
+     * @param function	saved function of the feature (only used for bad roles)
+     */
+    protected void restoreState(String fid, PegState state, String function) {
+        int i = this.find(fid);
+        if (i < 0)
+            this.add(fid, state, function);
+        else
+            this.putState(i, state, function);
+    }
+
+    /**
+     * Add a feature to this cell by ID.  Feature IDs that do not belong to this cell's genome are ignored.
+     *
+     * @param fid		feature ID
+     * @param state		state of the feature
+     * @param function	function of the feature (only used for bad roles)
+     */
+    private void add(String fid, PegState state, String function) {
+        String prefix = "fig|" + this.genomeId + ".";
+        int dot = fid.lastIndexOf('.');
+        int number = parseNumber(fid, dot + 1);
+        if (! fid.startsWith(prefix) || dot <= prefix.length() || number < 0)
+            log.warn("Cannot add feature {} to a cell for genome {}.", fid, this.genomeId);
+        else {
+            int i = this.insert(typeCode(fid.substring(prefix.length(), dot)), number, state);
+            this.putState(i, state, function);
         }
     }
 
@@ -103,8 +458,9 @@ public class CellData {
         if (this.isEmpty())
             retVal = rawHtml("&nbsp;");
         else {
-            List<DomContent> list = this.features.entrySet().stream().map(k -> k.getValue().display(k.getKey()))
-                    .collect(Collectors.toList());
+            List<DomContent> list = new ArrayList<DomContent>(this.numbers.length);
+            for (int i = 0; i < this.numbers.length; i++)
+                list.add(this.getState(i).display(this.getFid(i)));
             retVal = HtmlUtilities.joinDelimited(list, br());
         }
         return retVal;
@@ -116,22 +472,52 @@ public class CellData {
      * @param fid	ID of the feature of interest
      */
     public boolean contains(String fid) {
-        return this.features.containsKey(fid);
+        return this.find(fid) >= 0;
     }
 
     /**
      * @return the number of features in this cell
      */
     public int size() {
-        return this.features.size();
+        return this.numbers.length;
     }
 
     /**
-     * @return the feature information from this cell
+     * @return the feature information from this cell, in feature ID order
      */
     public Set<Map.Entry<String, FeatureStatus>> getFeatures() {
-        return this.features.entrySet();
-    }
+        return new AbstractSet<Map.Entry<String, FeatureStatus>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, FeatureStatus>> iterator() {
+                return new Iterator<Map.Entry<String, FeatureStatus>>() {
 
+                    /** position of the next feature */
+                    private int pos = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.pos < CellData.this.numbers.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, FeatureStatus> next() {
+                        if (! this.hasNext())
+                            throw new NoSuchElementException();
+                        int i = this.pos++;
+                        return new AbstractMap.SimpleImmutableEntry<String, FeatureStatus>(CellData.this.getFid(i),
+                                CellData.this.getView(i));
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return CellData.this.numbers.length;
+            }
+
+        };
+    }
 
 }
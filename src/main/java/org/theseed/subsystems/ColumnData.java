@@ -158,6 +158,13 @@ public class ColumnData {
         return this.colIdx;
     }
 
+    /**
+     * @return the roles in this column's function
+     */
+    public String[] getRoles() {
+        return this.roles;
+    }
+
     /**
      * @return TRUE if the specified function matches this column, else FALSE
      *
@@ -172,15 +179,43 @@ public class ColumnData {
         } else if (idx >= 0) {
             // Here we are a substring of the other function.  Verify that this is a role match.
             String[] oRoles = Feature.rolesOfFunction(oFunction);
-            // oRoles must contain everything in roles.  These are usually very small arrays,
-            // at most 3, and almost always length 1, so we use brute force.
+            retVal = this.hasRoles(oRoles);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified function matches this column, else FALSE
+     *
+     * This version is used when the function has already been split into roles.
+     *
+     * @param oFunction	function of a feature being considered for the role
+     * @param oRoles	array of roles in the function
+     */
+    public boolean matches(String oFunction, String[] oRoles) {
+        int idx = oFunction.indexOf(this.function);
+        boolean retVal = false;
+        if (idx == 0 && this.function.length() == oFunction.length())
             retVal = true;
-            for (String role : this.roles) {
-                int count = 0;
-                for (String oRole : oRoles)
-                    if (oRole.contentEquals(role)) count++;
-                if (count == 0) retVal = false;
-            }
+        else if (idx >= 0)
+            retVal = this.hasRoles(oRoles);
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified role array contains all of this column's roles
+     *
+     * @param oRoles	array of roles from a feature's function
+     */
+    private boolean hasRoles(String[] oRoles) {
+        // oRoles must contain everything in roles.  These are usually very small arrays,
+        // at most 3, and almost always length 1, so we use brute force.
+        boolean retVal = true;
+        for (String role : this.roles) {
+            int count = 0;
+            for (String oRole : oRoles)
+                if (oRole.contentEquals(role)) count++;
+            if (count == 0) retVal = false;
         }
         return retVal;
     }
@@ -205,17 +240,18 @@ public class ColumnData {
      */
     public void countCell(CellData cell) {
         // Loop through the features here.
-        for (Map.Entry<String, FeatureStatus> featData : cell.getFeatures()) {
-            FeatureStatus status = featData.getValue();
+        final int n = cell.size();
+        for (int i = 0; i < n; i++) {
+            PegState state = cell.getState(i);
             // Bad roles are organized by feature within improper functional assignment.
-            if (status.getState() == PegState.BAD_ROLE) {
-                String function = status.getFunction();
+            if (state == PegState.BAD_ROLE) {
+                String function = cell.getFunction(i);
                 SortedSet<String> badFidSet = this.badRoleFeatures.computeIfAbsent(function, k -> new TreeSet<String>());
-                badFidSet.add(featData.getKey());
+                badFidSet.add(cell.getFid(i));
                 this.counts[PegState.BAD_ROLE.ordinal()]++;
             } else {
                 // Everything else is simply counted.
-                this.counts[status.getState().ordinal()]++;
+                this.counts[state.ordinal()]++;
             }
         }
     }
@@ -0,0 +1,620 @@
+/**
+ *
+ */
+package org.theseed.subsystems;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.Feature;
+import org.theseed.io.LineReader;
+
+/**
+ * This object is an index of subsystem membership for the features in a coreSEED.  For each feature, it lists the
+ * subsystem columns whose cells contain the feature.  The index is keyed by genome ID and then by the feature's
+ * type and number, so all the memberships for a genome can be retrieved at once.
+ *
+ * The index is kept in the file "subsystem_features.idx" in the coreSEED directory.  For each subsystem, it contains
+ * the modification time of the spreadsheet, the genome ID of every row, and the row index, feature type, feature
+ * number, and column index of every cell entry.  As with {@link SubsystemData#stream(File, String, SubsystemData.RowHandler)},
+ * only the last row for each genome is used.  Unlike a stream, however, the rows for missing and deleted genomes
+ * are indexed as well, so that the index depends only on the spreadsheets.  The genome status is checked when the
+ * index is queried, and memberships are only returned for live genomes.  When the index is updated, only the
+ * subsystems whose spreadsheets have changed are re-read.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class FeatureMembershipIndex {
+
+    /**
+     * This object describes a subsystem column containing a feature.
+     */
+    public static class Membership implements Comparable<Membership> {
+
+        /** ID of the subsystem */
+        private final String ssId;
+        /** index of the column (0-based) */
+        private final int colIdx;
+
+        /**
+         * Construct a membership descriptor.
+         *
+         * @param ssId		ID of the subsystem
+         * @param colIdx	index of the column (0-based)
+         */
+        protected Membership(String ssId, int colIdx) {
+            this.ssId = ssId;
+            this.colIdx = colIdx;
+        }
+
+        /**
+         * @return the ID of the subsystem
+         */
+        public String getSubsystemId() {
+            return this.ssId;
+        }
+
+        /**
+         * @return the index (0-based) of the column
+         */
+        public int getColIdx() {
+            return this.colIdx;
+        }
+
+        @Override
+        public int compareTo(Membership o) {
+            int retVal = this.ssId.compareTo(o.ssId);
+            if (retVal == 0)
+                retVal = this.colIdx - o.colIdx;
+            return retVal;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.ssId.hashCode() * 31 + this.colIdx;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (! (obj instanceof Membership))
+                return false;
+            Membership other = (Membership) obj;
+            return (this.colIdx == other.colIdx && this.ssId.equals(other.ssId));
+        }
+
+        @Override
+        public String toString() {
+            return this.ssId + "[" + this.colIdx + "]";
+        }
+
+    }
+
+    /**
+     * This object contains the index data for a single subsystem.  The cell entries are stored in parallel
+     * arrays.  Each entry refers to its row's genome by position in the genome array, and to its feature
+     * type by code in the index's type list.
+     */
+    protected static class SubsystemEntry {
+
+        /** modification time of the spreadsheet */
+        private final long ssModified;
+        /** IDs of the genomes for the subsystem rows */
+        private final String[] genomes;
+        /** row (genome) index for each cell entry */
+        private final int[] rows;
+        /** feature type code for each cell entry */
+        private final byte[] types;
+        /** feature number for each cell entry */
+        private final int[] numbers;
+        /** column index for each cell entry */
+        private final int[] cols;
+
+        /**
+         * Construct a subsystem entry.
+         *
+         * @param ssModified	modification time of the spreadsheet
+         * @param genomes		IDs of the genomes for the subsystem rows
+         * @param rows			row (genome) index for each cell entry
+         * @param types			feature type code for each cell entry
+         * @param numbers		feature number for each cell entry
+         * @param cols			column index for each cell entry
+         */
+        protected SubsystemEntry(long ssModified, String[] genomes, int[] rows, byte[] types, int[] numbers,
+                int[] cols) {
+            this.ssModified = ssModified;
+            this.genomes = genomes;
+            this.rows = rows;
+            this.types = types;
+            this.numbers = numbers;
+            this.cols = cols;
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(FeatureMembershipIndex.class);
+    /** coreSEED data directory */
+    private final File coreDir;
+    /** map of subsystem IDs to subsystem entries */
+    private final Map<String, SubsystemEntry> subsystemMap;
+    /** map of genome IDs to maps of feature keys (type code and number) to memberships */
+    private final Map<String, Map<Long, List<Membership>>> genomeMap;
+    /** list of feature types, indexed by type code */
+    private final List<String> typeNames;
+    /** name of the index file */
+    public static final String FILE_NAME = "subsystem_features.idx";
+    /** file type marker */
+    private static final int MAGIC = 0x5345464d;
+    /** file format version */
+    private static final int VERSION = 2;
+
+    /**
+     * Construct an empty membership index for a coreSEED.
+     *
+     * @param coreDir	coreSEED data directory
+     */
+    protected FeatureMembershipIndex(File coreDir) {
+        this.coreDir = coreDir;
+        this.subsystemMap = new TreeMap<String, SubsystemEntry>();
+        this.genomeMap = new HashMap<String, Map<Long, List<Membership>>>();
+        this.typeNames = new ArrayList<String>();
+    }
+
+    /**
+     * Load the membership index for a coreSEED and bring it up to date.  If the index file does not exist
+     * or is invalid, it will be built from scratch.
+     *
+     * @param coreDir	coreSEED data directory
+     *
+     * @return the updated membership index
+     *
+     * @throws IOException
+     */
+    public static FeatureMembershipIndex load(File coreDir) throws IOException {
+        FeatureMembershipIndex retVal = new FeatureMembershipIndex(coreDir);
+        File indexFile = new File(coreDir, FILE_NAME);
+        if (indexFile.exists()) {
+            try {
+                retVal.read(indexFile);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Feature membership index {} is invalid and will be rebuilt: {}", indexFile, e.toString());
+                retVal = new FeatureMembershipIndex(coreDir);
+            }
+        }
+        if (retVal.update()) {
+            try {
+                retVal.save(indexFile);
+            } catch (IOException e) {
+                log.warn("Could not save feature membership index {}: {}", indexFile, e.toString());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Bring this index up to date with the subsystems in the coreSEED.  Changes to the genomes do not
+     * require an update, since the genome status is checked when the index is queried.
+     *
+     * @return TRUE if the index changed, else FALSE
+     *
+     * @throws IOException
+     */
+    public synchronized boolean update() throws IOException {
+        File ssRoot = new File(this.coreDir, "Subsystems");
+        String[] ssIds = ssRoot.list();
+        if (ssIds == null)
+            throw new IOException("Cannot read subsystem directory " + ssRoot + ".");
+        Set<String> found = new HashSet<String>(ssIds.length * 4 / 3 + 1);
+        int changed = 0;
+        for (String ssId : ssIds) {
+            File ssFile = SubsystemData.getSpreadsheet(this.coreDir, ssId);
+            long ssModified = ssFile.lastModified();
+            // A modification time of 0 means the spreadsheet does not exist.
+            if (ssModified != 0) {
+                SubsystemEntry old = this.subsystemMap.get(ssId);
+                if (old != null && old.ssModified == ssModified)
+                    found.add(ssId);
+                else {
+                    log.debug("Indexing features of {}.", ssId);
+                    // An unreadable or malformed spreadsheet is left out of the index, so it will be retried
+                    // on the next update.
+                    try {
+                        this.replace(ssId, this.readSubsystem(ssFile, ssModified));
+                        found.add(ssId);
+                        changed++;
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Skipping unreadable subsystem {} in feature membership index: {}", ssId,
+                                e.toString());
+                    }
+                }
+            }
+        }
+        // Remove the subsystems that are gone.
+        int removed = 0;
+        Iterator<Map.Entry<String, SubsystemEntry>> iter = this.subsystemMap.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, SubsystemEntry> ssEntry = iter.next();
+            if (! found.contains(ssEntry.getKey())) {
+                this.unindex(ssEntry.getKey(), ssEntry.getValue());
+                iter.remove();
+                removed++;
+            }
+        }
+        boolean retVal = (changed > 0 || removed > 0);
+        if (retVal)
+            log.info("{} subsystems indexed and {} removed from feature membership index.", changed, removed);
+        return retVal;
+    }
+
+    /**
+     * Read the cell entries of a subsystem.  The last row for each genome is used, whether or not the genome
+     * is live.
+     *
+     * @param ssFile		spreadsheet file
+     * @param ssModified	modification time of the spreadsheet
+     *
+     * @return the subsystem entry
+     *
+     * @throws IOException
+     */
+    private SubsystemEntry readSubsystem(File ssFile, long ssModified) throws IOException {
+        Map<String, Integer> lastRows = SubsystemData.findLastRows(ssFile);
+        String[] genomes = new String[lastRows.size()];
+        List<Integer> rows = new ArrayList<Integer>();
+        List<Byte> types = new ArrayList<Byte>();
+        List<Integer> numbers = new ArrayList<Integer>();
+        List<Integer> cols = new ArrayList<Integer>();
+        try (LineReader ssStream = new LineReader(ssFile)) {
+            final int width = SubsystemData.readColumns(ssStream).length;
+            GenomeCatalog catalog = GenomeCatalog.get(this.coreDir);
+            int rowIdx = 0;
+            int lineIdx = 0;
+            for (String ssRow : ssStream) {
+                String genomeId = StringUtils.substringBefore(ssRow, '\t');
+                Integer lastIdx = lastRows.get(genomeId);
+                if (lastIdx != null && lastIdx == lineIdx) {
+                    RowData row = RowData.load(this.coreDir, catalog, ssRow, width);
+                    genomes[rowIdx] = genomeId;
+                    for (int i = 0; i < width; i++) {
+                        CellData cell = row.getCell(i);
+                        for (int j = 0; j < cell.size(); j++) {
+                            rows.add(rowIdx);
+                            types.add(this.typeCode(cell.getType(j)));
+                            numbers.add(cell.getNumber(j));
+                            cols.add(i);
+                        }
+                    }
+                    rowIdx++;
+                }
+                lineIdx++;
+            }
+        }
+        final int n = cols.size();
+        int[] rowArray = new int[n];
+        byte[] typeArray = new byte[n];
+        int[] numberArray = new int[n];
+        int[] colArray = new int[n];
+        for (int i = 0; i < n; i++) {
+            rowArray[i] = rows.get(i);
+            typeArray[i] = types.get(i);
+            numberArray[i] = numbers.get(i);
+            colArray[i] = cols.get(i);
+        }
+        return new SubsystemEntry(ssModified, genomes, rowArray, typeArray, numberArray, colArray);
+    }
+
+    /**
+     * @return the code for a feature type, creating a new code if necessary
+     *
+     * @param type		feature type of interest
+     */
+    private byte typeCode(String type) {
+        int retVal = this.typeNames.indexOf(type);
+        if (retVal < 0) {
+            retVal = this.typeNames.size();
+            if (retVal > Byte.MAX_VALUE)
+                throw new IllegalStateException("Too many feature types in subsystem cells.");
+            this.typeNames.add(type);
+        }
+        return (byte) retVal;
+    }
+
+    /**
+     * @return the key for a feature in the genome map
+     *
+     * @param type		feature type code
+     * @param number	feature number
+     */
+    private static long featureKey(byte type, int number) {
+        return ((long) type << 32) | (number & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the key for a feature in the genome map, or -1 if the feature ID is invalid or its type is
+     * 		   not in the index
+     *
+     * @param fid		feature ID
+     * @param genomeId	ID of the feature's genome
+     */
+    private long featureKey(String fid, String genomeId) {
+        long retVal = -1;
+        // The feature ID is "fig|", the genome ID, a period, the type, a period, and the number.
+        final int typeStart = genomeId.length() + 5;
+        final int dot = fid.lastIndexOf('.');
+        if (dot > typeStart) {
+            int number = CellData.parseNumber(fid, dot + 1);
+            int code = this.typeNames.indexOf(fid.substring(typeStart, dot));
+            if (number >= 0 && code >= 0)
+                retVal = featureKey((byte) code, number);
+        }
+        return retVal;
+    }
+
+    /**
+     * Replace the entry for a subsystem and update the membership map to match.
+     *
+     * @param ssId		ID of the subsystem
+     * @param entry		new entry for the subsystem
+     */
+    private void replace(String ssId, SubsystemEntry entry) {
+        SubsystemEntry old = this.subsystemMap.put(ssId, entry);
+        if (old != null)
+            this.unindex(ssId, old);
+        // We use a single membership object for each column.
+        Map<Integer, Membership> colMap = new HashMap<Integer, Membership>();
+        for (int i = 0; i < entry.cols.length; i++) {
+            Membership member = colMap.computeIfAbsent(entry.cols[i], x -> new Membership(ssId, x));
+            List<Membership> members = this.genomeMap.computeIfAbsent(entry.genomes[entry.rows[i]],
+                    x -> new HashMap<Long, List<Membership>>())
+                    .computeIfAbsent(featureKey(entry.types[i], entry.numbers[i]), x -> new ArrayList<Membership>(2));
+            if (! members.contains(member))
+                members.add(member);
+        }
+    }
+
+    /**
+     * Remove a subsystem's entries from the membership map.
+     *
+     * @param ssId		ID of the subsystem
+     * @param entry		entry for the subsystem
+     */
+    private void unindex(String ssId, SubsystemEntry entry) {
+        for (int i = 0; i < entry.cols.length; i++) {
+            String genomeId = entry.genomes[entry.rows[i]];
+            Map<Long, List<Membership>> featureMap = this.genomeMap.get(genomeId);
+            if (featureMap != null) {
+                Long key = featureKey(entry.types[i], entry.numbers[i]);
+                List<Membership> members = featureMap.get(key);
+                if (members != null) {
+                    members.remove(new Membership(ssId, entry.cols[i]));
+                    if (members.isEmpty()) {
+                        featureMap.remove(key);
+                        if (featureMap.isEmpty())
+                            this.genomeMap.remove(genomeId);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a count read from an index file, after verifying it is possible for a file of the given length
+     *
+     * @param inStream		input stream for the index file
+     * @param fileLength	length of the index file
+     * @param itemSize		minimum number of bytes used by each counted item
+     *
+     * @throws IOException
+     */
+    private static int readCount(DataInputStream inStream, long fileLength, int itemSize) throws IOException {
+        int retVal = inStream.readInt();
+        if (retVal < 0 || (long) retVal * itemSize > fileLength)
+            throw new IOException("Invalid count " + retVal + " in feature membership index.");
+        return retVal;
+    }
+
+    /**
+     * Read this index from a file.
+     *
+     * @param indexFile		file containing the index
+     *
+     * @throws IOException
+     */
+    private void read(File indexFile) throws IOException {
+        final long fileLength = indexFile.length();
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (inStream.readInt() != MAGIC || inStream.readInt() != VERSION)
+                throw new IOException("Incorrect file format.");
+            final int typeCount = readCount(inStream, fileLength, 2);
+            if (typeCount > Byte.MAX_VALUE + 1)
+                throw new IOException("Too many feature types in feature membership index.");
+            for (int i = 0; i < typeCount; i++)
+                this.typeNames.add(inStream.readUTF());
+            final int count = readCount(inStream, fileLength, 18);
+            for (int i = 0; i < count; i++) {
+                String ssId = inStream.readUTF();
+                long ssModified = inStream.readLong();
+                String[] genomes = new String[readCount(inStream, fileLength, 2)];
+                for (int j = 0; j < genomes.length; j++)
+                    genomes[j] = inStream.readUTF();
+                final int n = readCount(inStream, fileLength, 13);
+                int[] rows = new int[n];
+                byte[] types = new byte[n];
+                int[] numbers = new int[n];
+                int[] cols = new int[n];
+                for (int j = 0; j < n; j++) {
+                    rows[j] = inStream.readInt();
+                    types[j] = inStream.readByte();
+                    numbers[j] = inStream.readInt();
+                    cols[j] = inStream.readInt();
+                    if (rows[j] < 0 || rows[j] >= genomes.length || types[j] < 0 || types[j] >= typeCount
+                            || numbers[j] < 0 || cols[j] < 0)
+                        throw new IOException("Invalid cell entry in feature membership index.");
+                }
+                this.replace(ssId, new SubsystemEntry(ssModified, genomes, rows, types, numbers, cols));
+            }
+        }
+    }
+
+    /**
+     * Save this index to a file.  The file is written under a temporary name and then renamed, so that other
+     * processes never see a partial file.
+     *
+     * @param indexFile		file to contain the index
+     *
+     * @throws IOException
+     */
+    public synchronized void save(File indexFile) throws IOException {
+        File tempFile = File.createTempFile("fidx", ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                outStream.writeInt(MAGIC);
+                outStream.writeInt(VERSION);
+                outStream.writeInt(this.typeNames.size());
+                for (String type : this.typeNames)
+                    outStream.writeUTF(type);
+                outStream.writeInt(this.subsystemMap.size());
+                for (Map.Entry<String, SubsystemEntry> ssEntry : this.subsystemMap.entrySet()) {
+                    outStream.writeUTF(ssEntry.getKey());
+                    SubsystemEntry entry = ssEntry.getValue();
+                    outStream.writeLong(entry.ssModified);
+                    outStream.writeInt(entry.genomes.length);
+                    for (String genomeId : entry.genomes)
+                        outStream.writeUTF(genomeId);
+                    outStream.writeInt(entry.cols.length);
+                    for (int i = 0; i < entry.cols.length; i++) {
+                        outStream.writeInt(entry.rows[i]);
+                        outStream.writeByte(entry.types[i]);
+                        outStream.writeInt(entry.numbers[i]);
+                        outStream.writeInt(entry.cols[i]);
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * @return the feature map for a genome, or NULL if the genome has no subsystem features or is not live
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    private Map<Long, List<Membership>> getFeatureMap(String genomeId) {
+        Map<Long, List<Membership>> retVal = this.genomeMap.get(genomeId);
+        if (retVal != null && ! GenomeCatalog.get(this.coreDir).isLive(genomeId))
+            retVal = null;
+        return retVal;
+    }
+
+    /**
+     * @return the subsystem columns containing a feature, sorted by subsystem ID and column index
+     *
+     * @param fid		ID of the feature of interest
+     */
+    public synchronized List<Membership> getMemberships(String fid) {
+        String genomeId = Feature.genomeOf(fid);
+        return this.getMemberships(genomeId, this.featureKey(fid, genomeId));
+    }
+
+    /**
+     * @return the subsystem columns containing a feature, sorted by subsystem ID and column index
+     *
+     * @param genomeId	ID of the feature's genome
+     * @param type		type of the feature (e.g. "peg")
+     * @param number	index number of the feature
+     */
+    public synchronized List<Membership> getMemberships(String genomeId, String type, int number) {
+        int code = this.typeNames.indexOf(type);
+        long key = (code < 0 ? -1 : featureKey((byte) code, number));
+        return this.getMemberships(genomeId, key);
+    }
+
+    /**
+     * @return the subsystem columns containing a feature, sorted by subsystem ID and column index
+     *
+     * @param genomeId	ID of the feature's genome
+     * @param key		feature key, or -1 if the feature cannot be in the index
+     */
+    private List<Membership> getMemberships(String genomeId, long key) {
+        List<Membership> retVal = Collections.emptyList();
+        if (key >= 0) {
+            Map<Long, List<Membership>> featureMap = this.getFeatureMap(genomeId);
+            if (featureMap != null) {
+                List<Membership> members = featureMap.get(key);
+                if (members != null) {
+                    retVal = new ArrayList<Membership>(members);
+                    Collections.sort(retVal);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a map from the ID of each subsystem feature in a genome to the subsystem columns containing it
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    public synchronized Map<String, List<Membership>> getGenomeMemberships(String genomeId) {
+        Map<String, List<Membership>> retVal = new TreeMap<String, List<Membership>>();
+        Map<Long, List<Membership>> featureMap = this.getFeatureMap(genomeId);
+        if (featureMap != null) {
+            String prefix = "fig|" + genomeId + ".";
+            for (Map.Entry<Long, List<Membership>> featureEntry : featureMap.entrySet()) {
+                long key = featureEntry.getKey();
+                String fid = prefix + this.typeNames.get((int) (key >>> 32)) + "." + (int) key;
+                List<Membership> members = new ArrayList<Membership>(featureEntry.getValue());
+                Collections.sort(members);
+                retVal.put(fid, members);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a feature is in at least one subsystem cell
+     *
+     * @param fid		ID of the feature of interest
+     */
+    public synchronized boolean isInSubsystem(String fid) {
+        String genomeId = Feature.genomeOf(fid);
+        long key = this.featureKey(fid, genomeId);
+        Map<Long, List<Membership>> featureMap = (key < 0 ? null : this.getFeatureMap(genomeId));
+        return (featureMap != null && featureMap.containsKey(key));
+    }
+
+    /**
+     * @return the number of subsystems in this index
+     */
+    public synchronized int size() {
+        return this.subsystemMap.size();
+    }
+
+}
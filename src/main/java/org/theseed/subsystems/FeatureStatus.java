@@ -7,7 +7,8 @@ import j2html.tags.DomContent;
 
 /**
  * This object describes the status of a feature in a subsystem.  It contains the state of the feature,
- * and if the peg is in the bad-role state, its assigned function.
+ * and if the peg is in the bad-role state, its assigned function.  The status objects returned by a
+ * {@link CellData} are views that read and write through to the cell.
  *
  * @author Bruce Parrello
  */
@@ -67,7 +68,7 @@ public class FeatureStatus {
      * @param pegId		ID of the feature having this status
      */
     public DomContent display(String pegId) {
-        return this.state.display(pegId);
+        return this.getState().display(pegId);
     }
 
 
@@ -0,0 +1,668 @@
+/**
+ *
+ */
+package org.theseed.subsystems;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.LineReader;
+import org.theseed.metrics.Metrics;
+import org.theseed.metrics.MetricsRecorder;
+
+/**
+ * This object is a compiled form of a genome's "assigned_functions" file.  It contains a dictionary of the distinct
+ * functions, and for each feature type a sorted list of feature numbers with the dictionary index of each feature's
+ * function.  Deleted features have already been removed.
+ *
+ * The compiled form can be kept in a binary file, one per genome, in a cache directory specified by the client with
+ * {@link #setCacheDir(File)}.  Writing the files is opt-in: if no cache directory is specified, the compiled form is
+ * built in memory and nothing is written, so read-only searches never modify the coreSEED.  A server would normally
+ * put the cache directory in its own work area.
+ *
+ * The binary file is memory-mapped when read, and the feature number and function index arrays are used in place as
+ * views over the mapped buffer.  The function strings are decoded from the buffer the first time each one is needed.
+ * The file records the genome directory and the modification times of the files used to build it, and if any of
+ * these has changed, it is rebuilt from the text files on the fly.  If the binary file cannot be written, the compiled
+ * form is still used, but it will be rebuilt the next time it is needed.
+ *
+ * Feature IDs must have the form "fig|<i>genomeId</i>.<i>type</i>.<i>number</i>".  Any other feature ID in the
+ * function file is skipped.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class FunctionSnapshot {
+
+    /**
+     * This is the function dictionary.  It is either fully decoded (for a snapshot built from the text files) or
+     * a set of string offsets into a mapped buffer, in which case each string is decoded the first time it is used.
+     */
+    protected static class Dictionary {
+
+        /** decoded strings, with NULL for strings not yet decoded */
+        private final String[] strings;
+        /** buffer containing the encoded strings, or NULL if all the strings are decoded */
+        private final ByteBuffer source;
+        /** offset in the buffer of each encoded string's length prefix, or NULL if all the strings are decoded */
+        private final int[] offsets;
+
+        /**
+         * Construct a fully-decoded dictionary.
+         *
+         * @param strings	array of function strings
+         */
+        protected Dictionary(String[] strings) {
+            this.strings = strings;
+            this.source = null;
+            this.offsets = null;
+        }
+
+        /**
+         * Construct a dictionary over encoded strings in a buffer.
+         *
+         * @param source	buffer containing the strings
+         * @param offsets	offset of each string's length prefix in the buffer
+         */
+        protected Dictionary(ByteBuffer source, int[] offsets) {
+            this.strings = new String[offsets.length];
+            this.source = source;
+            this.offsets = offsets;
+        }
+
+        /**
+         * @return the function string at the specified index
+         *
+         * @param idx	index of the desired string
+         */
+        protected String get(int idx) {
+            String retVal = this.strings[idx];
+            if (retVal == null) {
+                // Decode the string using absolute positioning, so that concurrent readers do not interfere.
+                // If two threads decode the same string at once, they produce equal strings, so this is harmless.
+                int offset = this.offsets[idx];
+                byte[] bytes = new byte[this.source.getInt(offset)];
+                this.source.get(offset + Integer.BYTES, bytes);
+                retVal = new String(bytes, StandardCharsets.UTF_8);
+                this.strings[idx] = retVal;
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the number of strings in the dictionary
+         */
+        protected int size() {
+            return this.strings.length;
+        }
+
+    }
+
+    /**
+     * This is a read-only map from feature IDs to functions for a single feature type.  The feature numbers
+     * are kept in a sorted integer buffer and looked up by binary search.  The buffers may be views over a
+     * memory-mapped file.
+     */
+    public static class FunctionMap extends AbstractMap<String, String> {
+
+        /** feature ID prefix, including the type and the trailing period */
+        private final String prefix;
+        /** sorted buffer of feature numbers */
+        private final IntBuffer numbers;
+        /** dictionary indices of the functions, parallel to the feature numbers */
+        private final IntBuffer funIdxes;
+        /** function dictionary */
+        private final Dictionary dictionary;
+        /** entry set view */
+        private Set<Map.Entry<String, String>> entries;
+
+        /**
+         * Construct a function map.
+         *
+         * @param prefix		feature ID prefix, including the type and the trailing period
+         * @param numbers		sorted buffer of feature numbers
+         * @param funIdxes		buffer of dictionary indices, parallel to the feature numbers
+         * @param dictionary	function dictionary
+         */
+        protected FunctionMap(String prefix, IntBuffer numbers, IntBuffer funIdxes, Dictionary dictionary) {
+            this.prefix = prefix;
+            this.numbers = numbers;
+            this.funIdxes = funIdxes;
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * @return the array position of a feature, or -1 if it is not in this map
+         *
+         * @param key	feature ID to find
+         */
+        private int find(Object key) {
+            int retVal = -1;
+            if (key instanceof String fid && fid.startsWith(this.prefix)) {
+                String suffix = fid.substring(this.prefix.length());
+                if (StringUtils.isNumeric(suffix) && suffix.length() < 10) {
+                    int number = Integer.parseInt(suffix);
+                    int pos = this.search(number);
+                    // We must verify the feature ID is in canonical form, since "peg.07" parses as 7.
+                    if (pos >= 0 && fid.length() == this.prefix.length() + Integer.toString(number).length())
+                        retVal = pos;
+                }
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the position of a feature number in the number buffer, or -1 if it is not present
+         *
+         * @param number	feature number to find
+         */
+        private int search(int number) {
+            int retVal = -1;
+            int low = 0;
+            int high = this.numbers.limit() - 1;
+            while (retVal < 0 && low <= high) {
+                int mid = (low + high) >>> 1;
+                int midVal = this.numbers.get(mid);
+                if (midVal < number)
+                    low = mid + 1;
+                else if (midVal > number)
+                    high = mid - 1;
+                else
+                    retVal = mid;
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the function at a position in this map
+         *
+         * @param pos	position of the desired feature
+         */
+        private String function(int pos) {
+            return this.dictionary.get(this.funIdxes.get(pos));
+        }
+
+        @Override
+        public String get(Object key) {
+            int pos = this.find(key);
+            return (pos < 0 ? null : this.function(pos));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return (this.find(key) >= 0);
+        }
+
+        @Override
+        public int size() {
+            return this.numbers.limit();
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            if (this.entries == null) {
+                this.entries = new AbstractSet<Map.Entry<String, String>>() {
+
+                    @Override
+                    public Iterator<Map.Entry<String, String>> iterator() {
+                        return new Iterator<Map.Entry<String, String>>() {
+
+                            private int pos = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return this.pos < FunctionMap.this.numbers.limit();
+                            }
+
+                            @Override
+                            public Map.Entry<String, String> next() {
+                                if (this.pos >= FunctionMap.this.numbers.limit())
+                                    throw new NoSuchElementException();
+                                var retVal = new AbstractMap.SimpleImmutableEntry<String, String>(
+                                        FunctionMap.this.prefix + FunctionMap.this.numbers.get(this.pos),
+                                        FunctionMap.this.function(this.pos));
+                                this.pos++;
+                                return retVal;
+                            }
+
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return FunctionMap.this.numbers.limit();
+                    }
+
+                };
+            }
+            return this.entries;
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(FunctionSnapshot.class);
+    /** absolute path of the genome directory */
+    private final String genomePath;
+    /** modification time of the function file */
+    private final long funModified;
+    /** map of feature types to deleted-feature file modification times */
+    private final Map<String, Long> deleteModified;
+    /** map of feature types to function maps */
+    private final Map<String, FunctionMap> typeMaps;
+    /** suffix for the name of a compiled function file; the name is the genome ID followed by this suffix */
+    public static final String FILE_SUFFIX = ".functions.bin";
+    /** file type marker */
+    private static final int MAGIC = 0x53454446;
+    /** file format version */
+    private static final int VERSION = 2;
+    /** directory for the compiled function files, or NULL if they are not kept */
+    private static volatile File cacheDir = null;
+    /** set of cache directories for which a save failure has been reported */
+    private static final Set<String> unwritableDirs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Construct a function snapshot from its components.
+     *
+     * @param genomePath		absolute path of the genome directory
+     * @param funModified		modification time of the function file
+     * @param deleteModified	map of feature types to deleted-feature file modification times
+     * @param typeMaps			map of feature types to function maps
+     */
+    private FunctionSnapshot(String genomePath, long funModified, Map<String, Long> deleteModified,
+            Map<String, FunctionMap> typeMaps) {
+        this.genomePath = genomePath;
+        this.funModified = funModified;
+        this.deleteModified = deleteModified;
+        this.typeMaps = typeMaps;
+    }
+
+    /**
+     * Specify the directory for the compiled function files.  The directory is created when the first file
+     * is saved.
+     *
+     * @param newDir	directory in which to keep the compiled files, or NULL to build the snapshots in memory
+     * 					without saving them
+     */
+    public static void setCacheDir(File newDir) {
+        cacheDir = newDir;
+    }
+
+    /**
+     * @return the directory for the compiled function files, or NULL if they are not kept
+     */
+    public static File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @return the compiled function file for a genome, or NULL if compiled files are not kept
+     *
+     * @param genomeId		ID of the genome
+     */
+    public static File snapshotFile(String genomeId) {
+        File dir = cacheDir;
+        return (dir == null ? null : new File(dir, genomeId + FILE_SUFFIX));
+    }
+
+    /**
+     * Load the function snapshot for a genome.  If there is a cache directory, the compiled file is used if it is
+     * current, and rebuilt if it is missing or stale; otherwise, the snapshot is built from the text files.
+     *
+     * @param genomeDir		directory containing the genome
+     * @param genomeId		ID of the genome
+     *
+     * @return the function snapshot for the genome
+     *
+     * @throws IOException
+     */
+    public static FunctionSnapshot load(File genomeDir, String genomeId) throws IOException {
+        MetricsRecorder metrics = Metrics.get();
+        long start = System.nanoTime();
+        File snapFile = snapshotFile(genomeId);
+        FunctionSnapshot retVal = null;
+        if (snapFile != null && snapFile.exists()) {
+            retVal = read(snapFile, genomeDir, genomeId);
+            metrics.count("functions.load.bytes", snapFile.length());
+        }
+        if (retVal == null) {
+            metrics.count("functions.load.rebuilds", 1);
+            retVal = build(genomeDir, genomeId);
+            if (snapFile != null) {
+                try {
+                    retVal.save(snapFile);
+                } catch (IOException e) {
+                    // If the cache directory is unusable, this happens for every genome, so we only warn once.
+                    String dir = snapFile.getAbsoluteFile().getParent();
+                    if (unwritableDirs.add(dir))
+                        log.warn("Could not save compiled functions for {} (further failures in {} not reported): {}",
+                                genomeId, dir, e.toString());
+                    else
+                        log.debug("Could not save compiled functions for {}: {}", genomeId, e.toString());
+                }
+            }
+        }
+        metrics.timeSince("functions.load", start);
+        return retVal;
+    }
+
+    /**
+     * Read a compiled function file.  The number and function index arrays are left in the mapped buffer.  The
+     * read stops as soon as the file is found to be stale.
+     *
+     * @param snapFile		compiled function file
+     * @param genomeDir		directory containing the genome
+     * @param genomeId		ID of the genome
+     *
+     * @return the function snapshot, or NULL if the file is stale or invalid
+     *
+     * @throws IOException
+     */
+    private static FunctionSnapshot read(File snapFile, File genomeDir, String genomeId) throws IOException {
+        FunctionSnapshot retVal = null;
+        try (FileChannel channel = FileChannel.open(snapFile.toPath(), StandardOpenOption.READ)) {
+            // The mapping remains valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                log.info("Compiled function file {} has an invalid format.", snapFile);
+            else {
+                // The cache directory may be shared by several coreSEEDs, so the genome directory must match.
+                String genomePath = readString(buffer);
+                long funModified = buffer.getLong();
+                File featureDir = new File(genomeDir, "Features");
+                boolean current = (genomePath.equals(genomeDir.getAbsolutePath())
+                        && new File(genomeDir, "assigned_functions").lastModified() == funModified);
+                if (current) {
+                    // Locate the strings in the function dictionary.
+                    int[] offsets = new int[checkCount(buffer, buffer.getInt(), Integer.BYTES)];
+                    for (int i = 0; i < offsets.length; i++) {
+                        offsets[i] = buffer.position();
+                        buffer.position(buffer.position() + Integer.BYTES + checkCount(buffer, buffer.getInt(), 1));
+                    }
+                    Dictionary dictionary = new Dictionary(buffer, offsets);
+                    // Read the feature types.
+                    String prefix = "fig|" + genomeId + ".";
+                    int typeCount = checkCount(buffer, buffer.getInt(), Integer.BYTES);
+                    Map<String, Long> deleteModified = new HashMap<>(typeCount * 2);
+                    Map<String, FunctionMap> typeMaps = new HashMap<>(typeCount * 2);
+                    for (int t = 0; current && t < typeCount; t++) {
+                        String type = readString(buffer);
+                        long delModified = buffer.getLong();
+                        current = (deleteFile(featureDir, type).lastModified() == delModified);
+                        if (current) {
+                            int n = checkCount(buffer, buffer.getInt(), 2 * Integer.BYTES);
+                            IntBuffer numbers = intView(buffer, n);
+                            IntBuffer funIdxes = intView(buffer, n);
+                            deleteModified.put(type, delModified);
+                            typeMaps.put(type, new FunctionMap(prefix + type + ".", numbers, funIdxes, dictionary));
+                        }
+                    }
+                    if (current)
+                        retVal = new FunctionSnapshot(genomePath, funModified, deleteModified, typeMaps);
+                }
+                if (! current)
+                    log.debug("Compiled function file {} is stale.", snapFile);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            log.info("Compiled function file {} is truncated or corrupt.", snapFile);
+            retVal = null;
+        }
+        return retVal;
+    }
+
+    /**
+     * Verify that a count read from a compiled file is plausible.
+     *
+     * @param buffer	buffer being read
+     * @param count		count to check
+     * @param minBytes	minimum number of bytes in the buffer occupied by each counted item
+     *
+     * @return the count
+     *
+     * @throws BufferUnderflowException if the count is negative or too big for the rest of the buffer
+     */
+    private static int checkCount(ByteBuffer buffer, int count, int minBytes) {
+        if (count < 0 || (long) count * minBytes > buffer.remaining())
+            throw new BufferUnderflowException();
+        return count;
+    }
+
+    /**
+     * @return an integer buffer view over the next section of a byte buffer, and position past it
+     *
+     * @param buffer	source byte buffer, positioned on the integers
+     * @param n			number of integers in the section
+     */
+    private static IntBuffer intView(ByteBuffer buffer, int n) {
+        IntBuffer retVal = buffer.slice(buffer.position(), n * Integer.BYTES).order(buffer.order()).asIntBuffer();
+        buffer.position(buffer.position() + n * Integer.BYTES);
+        return retVal;
+    }
+
+    /**
+     * Build a function snapshot from the text files in a genome directory.
+     *
+     * @param genomeDir		directory containing the genome
+     * @param genomeId		ID of the genome
+     *
+     * @return the function snapshot for the genome
+     *
+     * @throws IOException
+     */
+    public static FunctionSnapshot build(File genomeDir, String genomeId) throws IOException {
+        // Read the assigned functions, sorting them by type and number.  Later assignments override
+        // earlier ones.
+        Map<String, TreeMap<Integer, String>> typeFuns = new HashMap<>(5);
+        MetricsRecorder metrics = Metrics.get();
+        File functionFile = new File(genomeDir, "assigned_functions");
+        long funModified = functionFile.lastModified();
+        String prefix = "fig|" + genomeId + ".";
+        metrics.count("functions.load.bytes", functionFile.length());
+        try (LineReader funStream = new LineReader(functionFile)) {
+            // We use the section protocol to get the fields as an array.
+            for (String[] parts : funStream.new Section(null)) {
+                String type = StringUtils.substringBetween(parts[0], prefix, ".");
+                // A null type means we have an invalid feature ID.  We just skip it.
+                if (type != null) {
+                    String suffix = parts[0].substring(prefix.length() + type.length() + 1);
+                    if (! StringUtils.isNumeric(suffix) || suffix.length() >= 10)
+                        log.warn("Skipping invalid feature ID {} in {}.", parts[0], functionFile);
+                    else
+                        typeFuns.computeIfAbsent(type, x -> new TreeMap<>()).put(Integer.valueOf(suffix), parts[1]);
+                }
+            }
+        }
+        // Remove the deleted features.
+        File featureDir = new File(genomeDir, "Features");
+        Map<String, Long> deleteModified = new HashMap<>(typeFuns.size() * 2);
+        for (Map.Entry<String, TreeMap<Integer, String>> typeEntry : typeFuns.entrySet()) {
+            String type = typeEntry.getKey();
+            File deleteFile = deleteFile(featureDir, type);
+            deleteModified.put(type, deleteFile.lastModified());
+            if (deleteFile.exists()) {
+                metrics.count("functions.load.bytes", deleteFile.length());
+                String typePrefix = prefix + type + ".";
+                TreeMap<Integer, String> funMap = typeEntry.getValue();
+                try (LineReader deleteStream = new LineReader(deleteFile)) {
+                    for (String fid : deleteStream) {
+                        String suffix = StringUtils.removeStart(fid, typePrefix);
+                        if (suffix.length() < fid.length() && StringUtils.isNumeric(suffix) && suffix.length() < 10)
+                            funMap.remove(Integer.valueOf(suffix));
+                    }
+                }
+            }
+        }
+        // Build the function dictionary and the type maps.
+        Map<String, Integer> dictMap = new HashMap<>(3000);
+        Map<String, FunctionMap> typeMaps = new HashMap<>(typeFuns.size() * 2);
+        for (Map.Entry<String, TreeMap<Integer, String>> typeEntry : typeFuns.entrySet()) {
+            TreeMap<Integer, String> funMap = typeEntry.getValue();
+            int[] numbers = new int[funMap.size()];
+            int[] funIdxes = new int[funMap.size()];
+            int i = 0;
+            for (Map.Entry<Integer, String> funEntry : funMap.entrySet()) {
+                numbers[i] = funEntry.getKey();
+                funIdxes[i] = dictMap.computeIfAbsent(funEntry.getValue(), x -> dictMap.size());
+                i++;
+            }
+            typeMaps.put(typeEntry.getKey(), new FunctionMap(prefix + typeEntry.getKey() + ".", IntBuffer.wrap(numbers),
+                    IntBuffer.wrap(funIdxes), null));
+        }
+        String[] strings = new String[dictMap.size()];
+        for (Map.Entry<String, Integer> dictEntry : dictMap.entrySet())
+            strings[dictEntry.getValue()] = dictEntry.getKey();
+        Dictionary dictionary = new Dictionary(strings);
+        // Now we can connect the dictionary to the maps.
+        for (Map.Entry<String, FunctionMap> typeEntry : typeMaps.entrySet()) {
+            FunctionMap old = typeEntry.getValue();
+            typeEntry.setValue(new FunctionMap(old.prefix, old.numbers, old.funIdxes, dictionary));
+        }
+        return new FunctionSnapshot(genomeDir.getAbsolutePath(), funModified, deleteModified, typeMaps);
+    }
+
+    /**
+     * Save this snapshot to a compiled function file.  The file is written under a temporary name and then
+     * renamed, so that other processes never see a partial file.  The output directory is created if necessary.
+     *
+     * @param snapFile	output file
+     *
+     * @throws IOException
+     */
+    public void save(File snapFile) throws IOException {
+        // All the type maps share the same dictionary.
+        Dictionary dictionary = this.typeMaps.values().stream().map(x -> x.dictionary).findFirst()
+                .orElse(new Dictionary(new String[0]));
+        File outDir = snapFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(outDir.toPath());
+        File tempFile = File.createTempFile("funs", ".tmp", outDir);
+        try {
+            try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                outStream.writeInt(MAGIC);
+                outStream.writeInt(VERSION);
+                writeString(outStream, this.genomePath);
+                outStream.writeLong(this.funModified);
+                final int dictSize = dictionary.size();
+                outStream.writeInt(dictSize);
+                for (int i = 0; i < dictSize; i++)
+                    writeString(outStream, dictionary.get(i));
+                outStream.writeInt(this.typeMaps.size());
+                for (Map.Entry<String, FunctionMap> typeEntry : this.typeMaps.entrySet()) {
+                    String type = typeEntry.getKey();
+                    FunctionMap funMap = typeEntry.getValue();
+                    writeString(outStream, type);
+                    outStream.writeLong(this.deleteModified.get(type));
+                    final int n = funMap.size();
+                    outStream.writeInt(n);
+                    for (int i = 0; i < n; i++)
+                        outStream.writeInt(funMap.numbers.get(i));
+                    for (int i = 0; i < n; i++)
+                        outStream.writeInt(funMap.funIdxes.get(i));
+                }
+            }
+            Files.move(tempFile.toPath(), snapFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Write a string to a data output stream.  We use a length-prefixed UTF-8 encoding, since the
+     * standard modified-UTF format is limited to 64K and is awkward to read from a byte buffer.
+     *
+     * @param outStream		output stream
+     * @param string		string to write
+     *
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream outStream, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        outStream.writeInt(bytes.length);
+        outStream.write(bytes);
+    }
+
+    /**
+     * @return a string read from a byte buffer
+     *
+     * @param buffer	source byte buffer, positioned on the string
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[checkCount(buffer, buffer.getInt(), 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return TRUE if the files used to build this snapshot have not changed
+     *
+     * @param genomeDir		directory containing the genome
+     */
+    public boolean isCurrent(File genomeDir) {
+        boolean retVal = (new File(genomeDir, "assigned_functions").lastModified() == this.funModified);
+        if (retVal) {
+            File featureDir = new File(genomeDir, "Features");
+            for (Map.Entry<String, Long> deleteEntry : this.deleteModified.entrySet()) {
+                if (deleteFile(featureDir, deleteEntry.getKey()).lastModified() != deleteEntry.getValue()) {
+                    retVal = false;
+                    break;
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the function map for a single feature type (never NULL)
+     *
+     * @param type		feature type of interest
+     */
+    public Map<String, String> getFunctions(String type) {
+        Map<String, String> retVal = this.typeMaps.get(type);
+        if (retVal == null)
+            retVal = Map.of();
+        return retVal;
+    }
+
+    /**
+     * @return the set of feature types in this snapshot
+     */
+    public Set<String> getTypes() {
+        return this.typeMaps.keySet();
+    }
+
+    /**
+     * @return the deleted-features file for a feature type
+     *
+     * @param featureDir	feature directory of the genome
+     * @param type			feature type of interest
+     */
+    protected static File deleteFile(File featureDir, String type) {
+        return new File(featureDir, type + "/deleted.features");
+    }
+
+}
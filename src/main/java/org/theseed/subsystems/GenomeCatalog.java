@@ -0,0 +1,208 @@
+/**
+ *
+ */
+package org.theseed.subsystems;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.MarkerFile;
+
+/**
+ * This object is a catalog of the genome directories in a coreSEED.  It is built from a single listing of the
+ * organism directory, and records which genomes exist.  The deleted status and name of a genome are read the
+ * first time they are needed and then remembered, so that the same genome is not probed again for every
+ * subsystem row that references it.  The remembered values are re-read if the genome directory's modification
+ * time changes, which happens when the genome is marked as deleted, so this costs one status call instead of
+ * a file probe and a file read.
+ *
+ * There is one catalog per coreSEED, shared by the whole process.  It is rebuilt when the organism directory
+ * changes (which happens when a genome is added or removed) or when it reaches a maximum age.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeCatalog {
+
+    /**
+     * This object contains the cached information about a single genome.
+     */
+    private static class Entry {
+
+        /** TRUE if the entry has been filled in */
+        private boolean loaded;
+        /** modification time of the genome directory when the entry was filled in */
+        private long dirModified;
+        /** TRUE if the genome is deleted */
+        private boolean deleted;
+        /** name of the genome, or an empty string if it is deleted */
+        private String name;
+
+        /**
+         * Fill in this entry from the genome directory if it has not been filled in already or the directory
+         * has changed.
+         *
+         * @param orgDir	genome directory
+         */
+        private synchronized void load(File orgDir) {
+            long modified = orgDir.lastModified();
+            if (! this.loaded || modified != this.dirModified) {
+                // Save the time before reading, so a change during the read causes a re-read next time.
+                this.dirModified = modified;
+                this.deleted = new File(orgDir, "DELETED").exists();
+                this.name = (this.deleted ? "" : MarkerFile.read(new File(orgDir, "GENOME")));
+                this.loaded = true;
+            }
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(GenomeCatalog.class);
+    /** organism directory */
+    private final File orgRoot;
+    /** modification time of the organism directory when it was listed */
+    private final long listModified;
+    /** time at which the catalog was built */
+    private final long created;
+    /** map of genome IDs to entries */
+    private final Map<String, Entry> genomes;
+    /** map of coreSEED directories to catalogs */
+    private static final Map<File, GenomeCatalog> catalogs = new HashMap<File, GenomeCatalog>();
+    /** maximum age of a catalog, in milliseconds */
+    private static volatile long maxAge = 10 * 60 * 1000;
+    /** pattern for genome directory names */
+    private static final Pattern GENOME_ID = Pattern.compile("\\d+\\.\\d+");
+
+    /**
+     * Build a catalog for a coreSEED.
+     *
+     * @param coreDir	coreSEED data directory
+     */
+    private GenomeCatalog(File coreDir) {
+        this.orgRoot = new File(coreDir, "Organisms");
+        // Get the time before the listing, so a change during the listing makes the catalog stale.
+        this.listModified = this.orgRoot.lastModified();
+        this.created = System.currentTimeMillis();
+        File[] orgDirs = this.orgRoot.listFiles(x -> GENOME_ID.matcher(x.getName()).matches() && x.isDirectory());
+        if (orgDirs == null) {
+            log.warn("Could not list organism directory {}.", this.orgRoot);
+            orgDirs = new File[0];
+        }
+        this.genomes = new HashMap<String, Entry>(orgDirs.length * 4 / 3 + 1);
+        for (File orgDir : orgDirs)
+            this.genomes.put(orgDir.getName(), new Entry());
+        log.info("{} genome directories found in {}.", this.genomes.size(), this.orgRoot);
+    }
+
+    /**
+     * @return the shared catalog for a coreSEED, rebuilding it if it is stale
+     *
+     * @param coreDir	coreSEED data directory
+     */
+    public static GenomeCatalog get(File coreDir) {
+        File key = coreDir.getAbsoluteFile();
+        synchronized (catalogs) {
+            GenomeCatalog retVal = catalogs.get(key);
+            if (retVal == null || retVal.isStale()) {
+                retVal = new GenomeCatalog(key);
+                catalogs.put(key, retVal);
+            }
+            return retVal;
+        }
+    }
+
+    /**
+     * @return TRUE if this catalog is too old or the organism directory has changed
+     */
+    private boolean isStale() {
+        return (System.currentTimeMillis() - this.created > maxAge
+                || this.orgRoot.lastModified() != this.listModified);
+    }
+
+    /**
+     * @return the cached entry for a genome, filled in, or NULL if the genome does not exist
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    private Entry getEntry(String genomeId) {
+        Entry retVal = this.genomes.get(genomeId);
+        if (retVal != null)
+            retVal.load(new File(this.orgRoot, genomeId));
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a genome directory exists, whether or not the genome is deleted
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    public boolean exists(String genomeId) {
+        return this.genomes.containsKey(genomeId);
+    }
+
+    /**
+     * @return TRUE if a genome exists and is not deleted
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    public boolean isLive(String genomeId) {
+        Entry entry = this.getEntry(genomeId);
+        return (entry != null && ! entry.deleted);
+    }
+
+    /**
+     * @return the name of a genome, or an empty string if the genome does not exist or is deleted
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    public String getName(String genomeId) {
+        Entry entry = this.getEntry(genomeId);
+        return (entry == null ? "" : entry.name);
+    }
+
+    /**
+     * @return the set of IDs for the live genomes in the coreSEED
+     */
+    public Set<String> getLiveGenomes() {
+        Set<String> retVal = new HashSet<String>(this.genomes.size() * 4 / 3 + 1);
+        for (String genomeId : this.genomes.keySet()) {
+            if (this.isLive(genomeId))
+                retVal.add(genomeId);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of genome directories in the catalog
+     */
+    public int size() {
+        return this.genomes.size();
+    }
+
+    /**
+     * Specify the maximum age of a catalog.
+     *
+     * @param newAge	maximum age of a catalog before it is rebuilt, in milliseconds
+     */
+    public static void setMaxAge(long newAge) {
+        maxAge = newAge;
+    }
+
+    /**
+     * Erase all the catalogs, so they are rebuilt on the next request.
+     */
+    public static void clear() {
+        synchronized (catalogs) {
+            catalogs.clear();
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+/**
+ *
+ */
+package org.theseed.subsystems;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.metrics.Metrics;
+
+/**
+ * This is a process-wide cache of genome functional assignments.  The same coreSEED genomes occur in hundreds
+ * of subsystems, so rather than re-parse a genome's "assigned_functions" file for every subsystem, we parse it
+ * once and keep the result.  The cache is keyed by genome ID and bounded in size, with the least-recently-used
+ * genome discarded when it fills.
+ *
+ * Each cache entry is a compiled form of the genome's functions (see {@link FunctionSnapshot}), and
+ * remembers the modification times of the genome's "assigned_functions" file and of the "deleted.features"
+ * file for each feature type.  If any of these changes, the entry is reloaded.
+ *
+ * A scan of the whole coreSEED, such as a feature search, touches far more genomes than the cache holds, and would
+ * evict every genome in use by subsystem validation.  Scans should use {@link #scanGenome(File, String)}, which uses a
+ * cached genome if there is one, but does not add the genomes it loads to the cache.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeFunctionCache {
+
+    /**
+     * This object contains the functions for a single genome, organized by feature type.  Deleted
+     * features have already been removed.
+     */
+    protected static class GenomeFunctions {
+
+        /** genome directory */
+        private final File genomeDir;
+        /** compiled functions for the genome */
+        private final FunctionSnapshot snapshot;
+
+        /**
+         * Load the functions for a genome.
+         *
+         * @param genomeDir		directory containing the genome
+         * @param genomeId		ID of the genome
+         *
+         * @throws IOException
+         */
+        protected GenomeFunctions(File genomeDir, String genomeId) throws IOException {
+            this.genomeDir = genomeDir;
+            this.snapshot = FunctionSnapshot.load(genomeDir, genomeId);
+        }
+
+        /**
+         * @return TRUE if the files used to build this entry have not changed
+         */
+        protected boolean isCurrent() {
+            return this.snapshot.isCurrent(this.genomeDir);
+        }
+
+        /**
+         * @return the compiled functions for this entry
+         */
+        protected FunctionSnapshot getSnapshot() {
+            return this.snapshot;
+        }
+
+        /**
+         * @return the genome directory for this entry
+         */
+        protected File getGenomeDir() {
+            return this.genomeDir;
+        }
+
+        /**
+         * @return a map of feature IDs to functions for the specified feature types
+         *
+         * @param types		set of feature types of interest, or NULL for all types
+         */
+        protected Map<String, String> getFunctions(Set<String> types) {
+            Map<String, String> retVal;
+            if (types == null)
+                types = this.snapshot.getTypes();
+            if (types.size() == 1) {
+                // Here we can return the type map directly.
+                retVal = this.snapshot.getFunctions(types.iterator().next());
+            } else {
+                Map<String, String> merged = new HashMap<>(3000);
+                for (String type : types)
+                    merged.putAll(this.snapshot.getFunctions(type));
+                retVal = Collections.unmodifiableMap(merged);
+            }
+            return retVal;
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(GenomeFunctionCache.class);
+    /** maximum number of genomes to keep */
+    private static int maxGenomes = 200;
+    /** map of genome IDs to cached functions, in access order */
+    private static final Map<String, GenomeFunctions> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        private static final long serialVersionUID = -5233140960467046315L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GenomeFunctions> eldest) {
+            return this.size() > maxGenomes;
+        }
+
+    };
+    /** number of cache hits */
+    private static long hits = 0;
+    /** number of cache misses */
+    private static long misses = 0;
+
+    /**
+     * Get the functions of the non-deleted features of a genome.
+     *
+     * @param genomeDir		directory containing the genome
+     * @param genomeId		ID of the genome
+     * @param types			set of feature types of interest, or NULL for all types
+     *
+     * @return an unmodifiable map from feature IDs to functions
+     *
+     * @throws IOException
+     */
+    public static Map<String, String> getFunctions(File genomeDir, String genomeId, Set<String> types) throws IOException {
+        GenomeFunctions entry = findCurrent(genomeDir, genomeId);
+        if (entry == null) {
+            // Here we must read the genome.  We do this outside the lock, so that other threads
+            // can proceed.  If two threads load the same genome at once, the last one wins.
+            log.debug("Loading functions for {} from {}.", genomeId, genomeDir);
+            entry = new GenomeFunctions(genomeDir, genomeId);
+            synchronized (cache) {
+                misses++;
+                cache.put(genomeId, entry);
+            }
+            Metrics.get().count("functions.cache.misses", 1);
+        }
+        return entry.getFunctions(types);
+    }
+
+    /**
+     * Get the compiled functions of a genome for a scan of many genomes.  If the genome is in the cache and current,
+     * the cached functions are returned; otherwise, the genome is loaded, but it is not added to the cache.
+     *
+     * @param genomeDir		directory containing the genome
+     * @param genomeId		ID of the genome
+     *
+     * @return the compiled functions of the non-deleted features of the genome
+     *
+     * @throws IOException
+     */
+    public static FunctionSnapshot scanGenome(File genomeDir, String genomeId) throws IOException {
+        FunctionSnapshot retVal;
+        GenomeFunctions entry = findCurrent(genomeDir, genomeId);
+        if (entry != null)
+            retVal = entry.getSnapshot();
+        else {
+            log.debug("Loading functions for {} from {} without caching.", genomeId, genomeDir);
+            retVal = FunctionSnapshot.load(genomeDir, genomeId);
+            Metrics.get().count("functions.cache.bypasses", 1);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the cache entry for a genome, or NULL if the genome is not cached or its entry is stale
+     *
+     * @param genomeDir		directory containing the genome
+     * @param genomeId		ID of the genome
+     */
+    private static GenomeFunctions findCurrent(File genomeDir, String genomeId) {
+        GenomeFunctions retVal;
+        synchronized (cache) {
+            retVal = cache.get(genomeId);
+        }
+        // Verify that the entry is for the right coreSEED and is not stale.
+        if (retVal != null && retVal.getGenomeDir().equals(genomeDir) && retVal.isCurrent()) {
+            synchronized (cache) {
+                hits++;
+            }
+            Metrics.get().count("functions.cache.hits", 1);
+        } else
+            retVal = null;
+        return retVal;
+    }
+
+    /**
+     * Specify the maximum number of genomes to keep in the cache.
+     *
+     * @param newMax	new maximum genome count
+     */
+    public static void setMaxGenomes(int newMax) {
+        synchronized (cache) {
+            maxGenomes = newMax;
+            // Trim the cache down to the new size.
+            Iterator<Map.Entry<String, GenomeFunctions>> iter = cache.entrySet().iterator();
+            while (cache.size() > maxGenomes && iter.hasNext()) {
+                iter.next();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Erase all the genomes in the cache.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return the number of genomes in the cache
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * @return the number of requests satisfied from the cache
+     */
+    public static long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return the number of requests that required reading a genome
+     */
+    public static long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package org.theseed.subsystems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.theseed.genome.Feature;
+
+/**
+ * This object maps the roles of a subsystem's columns to the indices of the columns containing them.  It
+ * is built once when the subsystem is loaded.  A feature's function is then split into roles a single time,
+ * and the roles are used to find the candidate columns, so that we do not have to match the function
+ * against every column in the subsystem.
+ *
+ * Columns whose function contains no roles cannot be found through the map, so they are kept in a separate
+ * list and checked for every function.  In practice this list is always empty.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RoleIndex {
+
+    // FIELDS
+    /** array of subsystem columns */
+    private final ColumnData[] columns;
+    /** map of role strings to column indices */
+    private final Map<String, int[]> roleMap;
+    /** indices of columns without any roles */
+    private final int[] unindexed;
+    /** empty column list */
+    private static final int[] NO_COLUMNS = new int[0];
+
+    /**
+     * Construct a role index for a set of subsystem columns.
+     *
+     * @param columns	array of subsystem columns, in column-index order
+     */
+    public RoleIndex(ColumnData[] columns) {
+        this.columns = columns;
+        this.roleMap = new HashMap<>(columns.length * 2);
+        List<Integer> unindexedList = new ArrayList<>();
+        for (ColumnData column : columns) {
+            String[] roles = column.getRoles();
+            if (roles.length == 0)
+                unindexedList.add(column.getColIdx());
+            else {
+                for (String role : roles) {
+                    int[] old = this.roleMap.getOrDefault(role, NO_COLUMNS);
+                    // A role can occur in more than one column, though it is rare.
+                    if (old.length == 0 || old[old.length - 1] != column.getColIdx()) {
+                        int[] colIdxes = Arrays.copyOf(old, old.length + 1);
+                        colIdxes[old.length] = column.getColIdx();
+                        this.roleMap.put(role, colIdxes);
+                    }
+                }
+            }
+        }
+        this.unindexed = unindexedList.stream().mapToInt(x -> x).toArray();
+    }
+
+    /**
+     * @return the indices of the columns matched by a function, in ascending order
+     *
+     * @param function	functional assignment of a feature
+     */
+    public int[] findColumns(String function) {
+        return this.findColumns(function, Feature.rolesOfFunction(function));
+    }
+
+    /**
+     * @return the indices of the columns matched by a function, in ascending order
+     *
+     * @param function	functional assignment of a feature
+     * @param roles		array of roles in the function
+     */
+    public int[] findColumns(String function, String[] roles) {
+        // We expect zero or one match almost all the time, so we start small.
+        int[] retVal = NO_COLUMNS;
+        int found = 0;
+        for (String role : roles) {
+            int[] colIdxes = this.roleMap.get(role);
+            if (colIdxes != null) {
+                for (int colIdx : colIdxes) {
+                    if (! contains(retVal, found, colIdx) && this.columns[colIdx].matches(function, roles)) {
+                        if (found >= retVal.length)
+                            retVal = Arrays.copyOf(retVal, found + 2);
+                        retVal[found++] = colIdx;
+                    }
+                }
+            }
+        }
+        for (int colIdx : this.unindexed) {
+            if (this.columns[colIdx].matches(function, roles)) {
+                retVal = Arrays.copyOf(retVal, found + 1);
+                retVal[found++] = colIdx;
+            }
+        }
+        if (found < retVal.length)
+            retVal = Arrays.copyOf(retVal, found);
+        if (found > 1)
+            Arrays.sort(retVal);
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the first N positions of an index array contain the specified value
+     *
+     * @param colIdxes	array of column indices
+     * @param n			number of positions filled
+     * @param colIdx	column index to find
+     */
+    protected static boolean contains(int[] colIdxes, int n, int colIdx) {
+        boolean retVal = false;
+        for (int i = 0; ! retVal && i < n; i++)
+            retVal = (colIdxes[i] == colIdx);
+        return retVal;
+    }
+
+    /**
+     * @return the number of distinct roles in the index
+     */
+    public int size() {
+        return this.roleMap.size();
+    }
+
+}
@@ -6,6 +6,7 @@ package org.theseed.subsystems;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -15,7 +16,8 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.io.LineReader;
-import org.theseed.io.MarkerFile;
+import org.theseed.metrics.Metrics;
+import org.theseed.metrics.MetricsRecorder;
 
 import static j2html.TagCreator.a;
 import j2html.tags.ContainerTag;
@@ -43,6 +45,14 @@ public class RowData implements Comparable<RowData> {
     private CellData[] cells;
     /** data directory for this row's genome */
     private File orgDir;
+    /** hash of the spreadsheet line for this row */
+    private long lineHash;
+    /** modification times of the genome files used in validation */
+    private long[] genomeStamps;
+    /** starting value for string hashes */
+    protected static final long HASH_BASIS = 0xcbf29ce484222325L;
+    /** multiplier for string hashes */
+    private static final long HASH_PRIME = 0x100000001b3L;
     /** genome URL format */
     private final static String GENOME_URL = "https://core.theseed.org/FIG/seedviewer.cgi?page=Organism;organism=%s";
 
@@ -67,18 +77,31 @@ public class RowData implements Comparable<RowData> {
      * @return the row created, else NULL
      */
     public static RowData load(File dataDir, String rowString, int cols) {
+        return load(dataDir, GenomeCatalog.get(dataDir), rowString, cols);
+    }
+
+    /**
+     * Construct a row from a spreadsheet string, using a genome catalog to find the genome name.
+     *
+     * @param dataDir		coreSEED data directory
+     * @param catalog		genome catalog for the coreSEED
+     * @param rowString		row definition
+     * @param cols			expected number of columns
+     *
+     * @return the row created, else NULL
+     */
+    public static RowData load(File dataDir, GenomeCatalog catalog, String rowString, int cols) {
         RowData retVal = null;
         // Note we strip the empty cells at the end. This speeds a couple of things.
-        String[] parts = StringUtils.splitPreserveAllTokens(StringUtils.stripEnd(rowString, "\t "), '\t');
+        String stripped = StringUtils.stripEnd(rowString, "\t ");
+        String[] parts = StringUtils.splitPreserveAllTokens(stripped, '\t');
         // Only proceed if the row has nonempty cells.
         if (parts.length > 2) {
-            // Get the genome name. Don't fail if the genome is missing.
+            // Get the genome name. Don't fail if the genome is missing.  The name is empty for a missing
+            // or deleted genome.
             String genomeId = parts[0];
             File orgDir = new File(dataDir, "Organisms/" + genomeId);
-            File deleteFile = new File(orgDir, "DELETED");
-            String name = "";
-            if (orgDir.isDirectory() && ! deleteFile.exists())
-                name = MarkerFile.read(new File(orgDir, "GENOME"));
+            String name = catalog.getName(genomeId);
             // Create the row.
             retVal = new RowData(genomeId, name, parts[1]);
             // Plug in the organism directory.
@@ -92,22 +115,99 @@ public class RowData implements Comparable<RowData> {
                 else
                     retVal.cells[i] = new CellData(retVal, parts[i + 2]);
             }
+            // Save the hash needed to tell if the row has changed since it was validated.
+            retVal.lineHash = hash(HASH_BASIS, stripped);
         }
         return retVal;
     }
 
     /**
-     * Get all the functions for this genome's features of interest.
+     * Rebuild a validated row from saved validation results.  The cells are created empty, and the caller
+     * must fill in the features.
+     *
+     * @param dataDir		coreSEED data directory
+     * @param genomeId		ID of the row's genome
+     * @param name			name of the row's genome
+     * @param variantCode	variant code of the row
+     * @param types			feature types of interest
+     * @param lineHash		hash of the row's spreadsheet line
+     * @param genomeStamps	modification times of the genome files when the row was validated
+     * @param cols			number of columns
+     *
+     * @return the row created
+     */
+    protected static RowData restore(File dataDir, String genomeId, String name, String variantCode,
+            Collection<String> types, long lineHash, long[] genomeStamps, int cols) {
+        RowData retVal = new RowData(genomeId, name, variantCode);
+        retVal.orgDir = new File(dataDir, "Organisms/" + genomeId);
+        retVal.types.addAll(types);
+        retVal.lineHash = lineHash;
+        retVal.genomeStamps = genomeStamps;
+        retVal.cells = new CellData[cols];
+        for (int i = 0; i < cols; i++)
+            retVal.cells[i] = new CellData(retVal, "");
+        return retVal;
+    }
+
+    /**
+     * Compute the modification times of the genome files that affect validation.  These are the DELETED
+     * marker, the assigned-function file, and the deleted-feature file for each type of interest.  A file
+     * that does not exist has a time of 0.
+     *
+     * @param orgDir	genome data directory
+     * @param types		feature types of interest, in sorted order
+     *
+     * @return an array of modification times
+     */
+    public static long[] genomeStamps(File orgDir, Collection<String> types) {
+        long[] retVal = new long[types.size() + 2];
+        retVal[0] = new File(orgDir, "DELETED").lastModified();
+        retVal[1] = new File(orgDir, "assigned_functions").lastModified();
+        int i = 2;
+        for (String type : types)
+            retVal[i++] = new File(orgDir, "Features/" + type + "/deleted.features").lastModified();
+        return retVal;
+    }
+
+    /**
+     * @return a 64-bit hash of a string, continuing from a previous hash value
+     *
+     * @param seed		previous hash value, or {@link #HASH_BASIS} to start a new hash
+     * @param string	string to hash
+     */
+    protected static long hash(long seed, String string) {
+        long retVal = seed;
+        final int n = string.length();
+        for (int i = 0; i < n; i++)
+            retVal = (retVal ^ string.charAt(i)) * HASH_PRIME;
+        return retVal;
+    }
+
+    /**
+     * Get all the functions for this genome's features of interest.  The returned map is a private copy
+     * that the caller may modify.
      *
      * @return a map from feature ID to functional assignment
      *
      * @throws IOException
      */
     public Map<String, String> getFunctions() throws IOException {
-        Map<String, String> retVal = readFunctions(this.orgDir, this.genomeId, this.types);
+        Map<String, String> retVal = new HashMap<>(this.getSharedFunctions());
         return retVal;
     }
 
+    /**
+     * Get all the functions for this genome's features of interest from the shared genome function cache.
+     * The returned map is shared with other rows and cannot be modified.
+     *
+     * @return an unmodifiable map from feature ID to functional assignment
+     *
+     * @throws IOException
+     */
+    Map<String, String> getSharedFunctions() throws IOException {
+        return GenomeFunctionCache.getFunctions(this.orgDir, this.genomeId, this.types);
+    }
+
     /**
      * Read the functions for this genome.  Only non-deleted features are processed.
      *
@@ -120,6 +220,8 @@ public class RowData implements Comparable<RowData> {
      * @throws IOException
      */
     public static Map<String, String> readFunctions(File genomeDir, String genomeId, Set<String> types) throws IOException {
+        MetricsRecorder metrics = Metrics.get();
+        long start = System.nanoTime();
         Map<String, String> retVal = new HashMap<>(3000);
         File featureDir = new File(genomeDir, "Features");
         // Initialize the feature type set if we don't have one.
@@ -130,11 +232,13 @@ public class RowData implements Comparable<RowData> {
         Set<String> deleted = new HashSet<>(100);
         for (String type : types) {
             File deleteFile = new File(featureDir, type + "/deleted.features");
-            if (deleteFile.exists())
+            if (deleteFile.exists()) {
+                metrics.count("functions.read.bytes", deleteFile.length());
                 try (LineReader deleteStream = new LineReader(deleteFile)) {
                     for (String fid : deleteStream)
                         deleted.add(fid);
                 }
+            }
         }
         // Now read the assigned functions.  We only keep the ones of interest that are NOT
         // deleted.
@@ -149,6 +253,9 @@ public class RowData implements Comparable<RowData> {
                     retVal.put(parts[0], parts[1]);
             }
         }
+        metrics.count("functions.read.bytes", functionFile.length());
+        metrics.count("functions.read.features", retVal.size());
+        metrics.timeSince("functions.read", start);
         return retVal;
     }
 
@@ -168,6 +275,25 @@ public class RowData implements Comparable<RowData> {
         this.types.add(type);
     }
 
+    /**
+     * @return the hash of the spreadsheet line for this row
+     */
+    public long getLineHash() {
+        return this.lineHash;
+    }
+
+    /**
+     * @return the modification times of the genome files used in validation
+     *
+     * The times are read the first time this method is called.  Validation calls it before reading the
+     * genome, so that a change made during validation makes the results stale.
+     */
+    public synchronized long[] getGenomeStamps() {
+        if (this.genomeStamps == null)
+            this.genomeStamps = genomeStamps(this.orgDir, this.types);
+        return this.genomeStamps;
+    }
+
     /**
      * @return the types of interest for this genome
      */
@@ -198,6 +324,13 @@ public class RowData implements Comparable<RowData> {
         return this.cells[col];
     }
 
+    /**
+     * @return the number of cells in this row
+     */
+    public int getWidth() {
+        return this.cells.length;
+    }
+
     /**
      * @return TRUE if this genome is missing.
      */
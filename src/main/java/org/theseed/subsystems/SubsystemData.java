@@ -10,12 +10,16 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
@@ -24,6 +28,8 @@ import org.slf4j.LoggerFactory;
 import org.theseed.io.LineReader;
 import org.theseed.io.MarkerFile;
 import org.theseed.io.TabbedLineReader;
+import org.theseed.metrics.Metrics;
+import org.theseed.metrics.MetricsRecorder;
 import org.theseed.reports.LinkObject;
 import org.theseed.reports.PageWriter;
 
@@ -39,11 +45,30 @@ import j2html.tags.ContainerTag;
  */
 public class SubsystemData {
 
+    /**
+     * This interface is used to process the rows of a subsystem as they are streamed from the spreadsheet.
+     */
+    public interface RowHandler {
+
+        /**
+         * Process a single row.  The row is not kept by the subsystem, so it can be discarded when
+         * this method returns.
+         *
+         * @param row	row to process
+         *
+         * @throws IOException
+         */
+        public void processRow(RowData row) throws IOException;
+
+    }
+
     // FIELDS
     /** logging facility */
     private static final Logger log = LoggerFactory.getLogger(SubsystemData.class);
     /** list of columns */
     private ColumnData[] columns;
+    /** map of roles to column indices */
+    private RoleIndex roleIndex;
     /** loaded rows */
     private final Map<String, RowData> rows;
     /** name of this subsystem */
@@ -58,11 +83,23 @@ public class SubsystemData {
     private int errorCount;
     /** TRUE if the subsystem's error count is unknown */
     private boolean ambiguousCount;
+    /** TRUE if the error count was read from saved results rather than computed */
+    private boolean savedCount;
+    /** TRUE if validation should save the error count and results */
+    private boolean saveFlag;
+    /** modification time of the spreadsheet when it was loaded */
+    private long ssModified;
+    /** map of missing genome IDs to the modification times of their genome files */
+    private final Map<String, long[]> missingStamps;
+    /** number of rows in the subsystem */
+    private int rowCount;
     /** spreadsheet section marker */
     private static final String MARKER = "//";
     /** number of milliseconds it takes for an error check to go stale (7 days of 24 hours of 3600 seconds
      * of 1000 milliseconds) */
     private static final long STALE_TIME = 7 * 24 * 3600 * 1000;
+    /** number of rows to validate at once when streaming */
+    private static final int BATCH_SIZE = 200;
     /** format for subsystem page URLs */
     private static final String HEALTH_LINK = "/subsystems.cgi/health?id=%s";
 
@@ -79,10 +116,14 @@ public class SubsystemData {
         this.coreDir = coreDir;
         this.rows = new HashMap<>();
         this.missingGenomes = new TreeSet<>();
+        this.missingStamps = new HashMap<>();
+        this.saveFlag = true;
     }
 
     /**
-     * Get the name and health of a subsystem without loading it.
+     * Get the name and health of a subsystem without loading it.  The error count is flagged as suspect using
+     * only the file times of the error-count file and the spreadsheet.  Use {@link #checkExact()} to check it
+     * against the genomes.
      *
      * @param coreDir	SEED data directory
      * @param id		ID of the subsystem
@@ -103,17 +144,41 @@ public class SubsystemData {
             } else {
                 // Read the error count.
                 retVal.errorCount = MarkerFile.readInt(errorCountFile);
+                retVal.savedCount = true;
                 // It is ambiguous if it is older than the last change to the spreadsheet or
-                // if it has not been checked in a week.  This is a very crude test, since
-                // the truth requires checking all the genomes, which is worse than reloading
-                // the subsystem.
-                retVal.ambiguousCount = (errorCountFile.lastModified() < ssFile.lastModified() ||
-                        errorCountFile.lastModified() < (System.currentTimeMillis() - STALE_TIME));
+                // if it has not been checked in a week.  This is a crude test, since the truth
+                // requires checking all the genomes, which is left to checkExact.
+                retVal.ambiguousCount = isStale(errorCountFile.lastModified(), ssFile.lastModified());
             }
         }
         return retVal;
     }
 
+    /**
+     * @return TRUE if an error count is suspect, based on the modification times of its files
+     *
+     * @param errorModified		modification time of the error-count file
+     * @param ssModified		modification time of the spreadsheet file
+     */
+    protected static boolean isStale(long errorModified, long ssModified) {
+        return (errorModified < ssModified || errorModified < (System.currentTimeMillis() - STALE_TIME));
+    }
+
+    /**
+     * @return the health rating for a subsystem of the specified size (1.00 is perfect)
+     *
+     * @param width			number of columns in the subsystem
+     * @param size			number of rows in the subsystem
+     * @param errorCount	number of errors in the subsystem
+     */
+    protected static double computeHealth(int width, int size, int errorCount) {
+        double total = (width + 1) * size;
+        double retVal = 0.0;
+        if (total > 0)
+            retVal = (total - errorCount) / total;
+        return retVal;
+    }
+
     /**
      * Load a subsystem from the SEED.
      *
@@ -128,37 +193,28 @@ public class SubsystemData {
         if (! ssFile.exists()) {
             log.warn("Subsystem {} not found in {}.", ssId, coreDir);
         } else {
+            MetricsRecorder metrics = Metrics.get();
+            long start = System.nanoTime();
             retVal = new SubsystemData(coreDir, ssId);
+            // Save the spreadsheet time before reading, so a change made during the load makes the validation stale.
+            retVal.ssModified = ssFile.lastModified();
+            int parsed = 0;
             // Open the spreadsheet and start reading sections.
             try (LineReader ssStream = new LineReader(ssFile)) {
                 log.info("Reading spreadsheet file for {} subsystem \"{}\".",
                         coreDir, retVal.name);
-                // Read the roles.
-                List<ColumnData> cols = new ArrayList<>(50);
-                for (String[] roleParts : ssStream.new Section(MARKER))
-                    cols.add(new ColumnData(cols.size(), roleParts[0], roleParts[1]));
-                // Store the roles as an array.
-                retVal.columns = new ColumnData[cols.size()];
-                retVal.columns = cols.toArray(retVal.columns);
-                // Check the groups section for auxiliary roles.
-                for (String[] groupParts : ssStream.new Section(MARKER)) {
-                    if (groupParts.length > 1 && groupParts[0].contentEquals("AUX")) {
-                        // Here we have an auxiliary role specification.  Each is stored as a column index.
-                        for (int i = 1; i < groupParts.length; i++) {
-                            int idx = Integer.parseInt(groupParts[i]);
-                            if (idx <= retVal.columns.length)
-                                retVal.columns[idx-1].setAux(true);
-                        }
-                    }
-                }
+                // Read the roles and index them.
+                retVal.columns = readColumns(ssStream);
+                retVal.roleIndex = new RoleIndex(retVal.columns);
                 // Now we loop through the rows.
+                GenomeCatalog catalog = GenomeCatalog.get(coreDir);
                 for (String ssRow : ssStream) {
-                    RowData row = RowData.load(coreDir, ssRow, cols.size());
+                    RowData row = RowData.load(coreDir, catalog, ssRow, retVal.columns.length);
                     // Empty rows are ignored.
                     if (row != null) {
+                        parsed++;
                         if (row.isMissing())
-                            // Here the genome does not exist in the SEED.
-                            retVal.missingGenomes.add(row.getGenomeId());
+                            retVal.addMissing(row);
                         else
                             retVal.rows.put(row.getGenomeId(), row);
                     }
@@ -166,9 +222,258 @@ public class SubsystemData {
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
+            retVal.rowCount = retVal.rows.size();
             // Denote the error count is unknown.
             retVal.errorCount = 0;
             retVal.ambiguousCount = true;
+            metrics.count("subsystem.load.bytes", ssFile.length());
+            metrics.count("subsystem.load.rows", parsed);
+            metrics.timeSince("subsystem.load", start);
+        }
+        return retVal;
+    }
+
+    /**
+     * Load the saved results of the last validation of a subsystem.  The error count is flagged as suspect
+     * only if the spreadsheet has changed since the validation.
+     *
+     * @param coreDir	SEED data directory
+     * @param ssId		ID of the subsystem
+     *
+     * @return the validated subsystem, or NULL if it has no usable validation results
+     */
+    public static SubsystemData loadResults(File coreDir, String ssId) {
+        return loadResults(coreDir, ssId, false);
+    }
+
+    /**
+     * Load the saved results of the last validation of a subsystem.  The subsystem is rebuilt from the
+     * validation file alone, without reading the spreadsheet or the genomes, and its columns are tallied
+     * as if it had just been validated.  The error count is flagged as suspect if the spreadsheet has
+     * changed since the validation.  If an exact check is requested, it is also flagged if any of the
+     * genomes have changed, which requires examining every genome in the subsystem.
+     *
+     * @param coreDir	SEED data directory
+     * @param ssId		ID of the subsystem
+     * @param exact		TRUE to check the genomes for changes as well as the spreadsheet
+     *
+     * @return the validated subsystem, or NULL if it has no usable validation results
+     */
+    public static SubsystemData loadResults(File coreDir, String ssId, boolean exact) {
+        SubsystemData retVal = null;
+        ValidationStore store = ValidationStore.load(coreDir, ssId);
+        if (store == null)
+            log.info("No validation results found for subsystem {} in {}.", ssId, coreDir);
+        else {
+            retVal = new SubsystemData(coreDir, ssId);
+            retVal.ssModified = store.getSsModified();
+            retVal.columns = store.createColumns();
+            retVal.roleIndex = new RoleIndex(retVal.columns);
+            for (RowData row : store.createRows(coreDir))
+                retVal.rows.put(row.getGenomeId(), row);
+            retVal.rowCount = retVal.rows.size();
+            retVal.missingStamps.putAll(store.getMissingStamps());
+            retVal.missingGenomes.addAll(retVal.missingStamps.keySet());
+            retVal.tallyColumns();
+            retVal.savedCount = true;
+            if (exact)
+                retVal.ambiguousCount = ! store.checkCurrent(coreDir, ssId);
+            else
+                retVal.ambiguousCount = (getSpreadsheet(coreDir, ssId).lastModified() != store.getSsModified());
+        }
+        return retVal;
+    }
+
+    /**
+     * Stream the rows of a subsystem to a handler without keeping them in memory.  As with a full load,
+     * only the last row for each genome is used, and rows for missing genomes are not passed to the
+     * handler.  The subsystem returned contains the columns and the missing genomes, but no rows.
+     *
+     * @param coreDir	SEED data directory
+     * @param ssId		ID of the subsystem
+     * @param handler	handler to process each row
+     *
+     * @return the subsystem, or NULL if the subsystem does not exist
+     *
+     * @throws IOException
+     */
+    public static SubsystemData stream(File coreDir, String ssId, RowHandler handler) throws IOException {
+        return stream(coreDir, ssId, 1, false, handler);
+    }
+
+    /**
+     * Stream the rows of a subsystem to a handler, validating each row before it is passed on.  This is
+     * the same as {@link #stream(File, String, RowHandler)}, except the column tallies and the error count
+     * in the returned subsystem are computed, and the validation results are saved as they would be for
+     * {@link #validateRows(int)}.  The rows are validated in batches, so no more than a batch of rows is
+     * in memory at any one time; but the saved results for each row are kept until the end.
+     *
+     * @param coreDir		SEED data directory
+     * @param ssId			ID of the subsystem
+     * @param maxThreads	maximum number of threads to use for validation
+     * @param handler		handler to process each validated row
+     *
+     * @return the validated subsystem, or NULL if the subsystem does not exist
+     *
+     * @throws IOException
+     */
+    public static SubsystemData streamValidated(File coreDir, String ssId, int maxThreads, RowHandler handler)
+            throws IOException {
+        return stream(coreDir, ssId, maxThreads, true, handler);
+    }
+
+    /**
+     * Stream the rows of a subsystem to a handler.  The spreadsheet is read twice.  The first pass finds the
+     * last row for each genome, and the second builds the rows and processes them.
+     *
+     * @param coreDir		SEED data directory
+     * @param ssId			ID of the subsystem
+     * @param maxThreads	maximum number of threads to use for validation
+     * @param validate		TRUE to validate the rows, else FALSE
+     * @param handler		handler to process each row
+     *
+     * @return the subsystem, or NULL if the subsystem does not exist
+     *
+     * @throws IOException
+     */
+    private static SubsystemData stream(File coreDir, String ssId, int maxThreads, boolean validate,
+            RowHandler handler) throws IOException {
+        SubsystemData retVal = null;
+        File ssFile = getSpreadsheet(coreDir, ssId);
+        if (! ssFile.exists()) {
+            log.warn("Subsystem {} not found in {}.", ssId, coreDir);
+        } else {
+            retVal = new SubsystemData(coreDir, ssId);
+            retVal.ssModified = ssFile.lastModified();
+            Map<String, Integer> lastRows = findLastRows(ssFile);
+            log.info("Streaming {} rows from spreadsheet file for {} subsystem \"{}\".", lastRows.size(),
+                    coreDir, retVal.name);
+            ValidationStore store = null;
+            try (LineReader ssStream = new LineReader(ssFile)) {
+                retVal.columns = readColumns(ssStream);
+                retVal.roleIndex = new RoleIndex(retVal.columns);
+                if (validate)
+                    store = ValidationStore.create(retVal);
+                GenomeCatalog catalog = GenomeCatalog.get(coreDir);
+                List<RowData> batch = new ArrayList<>(BATCH_SIZE);
+                int lineIdx = 0;
+                for (String ssRow : ssStream) {
+                    Integer lastIdx = lastRows.get(StringUtils.substringBefore(ssRow, '\t'));
+                    if (lastIdx != null && lastIdx == lineIdx) {
+                        RowData row = RowData.load(coreDir, catalog, ssRow, retVal.columns.length);
+                        if (row.isMissing())
+                            retVal.addMissing(row);
+                        else {
+                            batch.add(row);
+                            if (batch.size() >= BATCH_SIZE)
+                                retVal.processBatch(batch, maxThreads, store, handler);
+                        }
+                    }
+                    lineIdx++;
+                }
+                retVal.processBatch(batch, maxThreads, store, handler);
+            }
+            if (! validate) {
+                // Denote the error count is unknown.
+                retVal.errorCount = 0;
+                retVal.ambiguousCount = true;
+            } else {
+                retVal.computeErrorCount();
+                for (String genomeId : retVal.missingGenomes)
+                    store.addMissing(genomeId, retVal.getMissingStamps(genomeId));
+                retVal.saveResults(store);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Find the last row for each genome in a subsystem spreadsheet.  Empty rows are skipped.
+     *
+     * @param ssFile	spreadsheet file
+     *
+     * @return a map from each genome ID to the index of its last row
+     *
+     * @throws IOException
+     */
+    protected static Map<String, Integer> findLastRows(File ssFile) throws IOException {
+        Map<String, Integer> retVal = new HashMap<>();
+        try (LineReader ssStream = new LineReader(ssFile)) {
+            readColumns(ssStream);
+            int lineIdx = 0;
+            for (String ssRow : ssStream) {
+                // This is the same test used by RowData.load:  there must be at least one cell.
+                String stripped = StringUtils.stripEnd(ssRow, "\t ");
+                if (StringUtils.countMatches(stripped, '\t') >= 2)
+                    retVal.put(StringUtils.substringBefore(stripped, '\t'), lineIdx);
+                lineIdx++;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Process a batch of streamed rows.  If we are validating, the rows are validated and tallied, and their
+     * results added to the validation store.  Then each row is passed to the handler.  On exit, the batch
+     * will be empty.
+     *
+     * @param batch			list of rows to process
+     * @param maxThreads	maximum number of threads to use for validation
+     * @param store			validation store for the results, or NULL if we are not validating
+     * @param handler		handler to process each row
+     *
+     * @throws IOException
+     */
+    private void processBatch(List<RowData> batch, int maxThreads, ValidationStore store, RowHandler handler)
+            throws IOException {
+        if (store != null) {
+            this.validateRowList(batch, maxThreads);
+            for (RowData row : batch) {
+                this.countRow(row);
+                store.addRow(row);
+            }
+        }
+        for (RowData row : batch)
+            handler.processRow(row);
+        this.rowCount += batch.size();
+        batch.clear();
+    }
+
+    /**
+     * Record a missing genome in this subsystem.
+     *
+     * @param row	row for the missing genome
+     */
+    private void addMissing(RowData row) {
+        this.missingGenomes.add(row.getGenomeId());
+    }
+
+    /**
+     * Read the column definitions from the header sections of a subsystem spreadsheet.  On exit, the
+     * spreadsheet stream will be positioned on the first row.
+     *
+     * @param ssStream	line reader for the spreadsheet, positioned at the beginning
+     *
+     * @return an array of the subsystem columns, with the auxiliary roles marked
+     */
+    protected static ColumnData[] readColumns(LineReader ssStream) {
+        // Read the roles.
+        List<ColumnData> cols = new ArrayList<>(50);
+        for (String[] roleParts : ssStream.new Section(MARKER))
+            cols.add(new ColumnData(cols.size(), roleParts[0], roleParts[1]));
+        // Store the roles as an array.
+        ColumnData[] retVal = new ColumnData[cols.size()];
+        retVal = cols.toArray(retVal);
+        // Check the groups section for auxiliary roles.
+        for (String[] groupParts : ssStream.new Section(MARKER)) {
+            if (groupParts.length > 1 && groupParts[0].contentEquals("AUX")) {
+                // Here we have an auxiliary role specification.  Each is stored as a column index.
+                for (int i = 1; i < groupParts.length; i++) {
+                    int idx = Integer.parseInt(groupParts[i]);
+                    if (idx <= retVal.length)
+                        retVal[idx-1].setAux(true);
+                }
+            }
         }
         return retVal;
     }
@@ -181,7 +486,7 @@ public class SubsystemData {
      *
      * @return a file object for the spreadsheet, or NULL if the subsystem does not exist
      */
-    private static File getSpreadsheet(File coreDir, String ssId) {
+    protected static File getSpreadsheet(File coreDir, String ssId) {
         File retVal = new File(coreDir, "Subsystems/" + ssId + "/spreadsheet");
         return retVal;
     }
@@ -213,7 +518,7 @@ public class SubsystemData {
      * @return the number of rows in this subsystem
      */
     public int size() {
-        return this.rows.size();
+        return this.rowCount;
     }
 
     /**
@@ -244,6 +549,24 @@ public class SubsystemData {
         return this.missingGenomes;
     }
 
+    /**
+     * @return the modification times of a missing genome's files, computing them if necessary
+     *
+     * @param genomeId	ID of the missing genome
+     */
+    protected long[] getMissingStamps(String genomeId) {
+        // The feature types do not matter for a missing genome, only its existence.
+        return this.missingStamps.computeIfAbsent(genomeId,
+                x -> RowData.genomeStamps(new File(this.coreDir, "Organisms/" + x), Collections.emptyList()));
+    }
+
+    /**
+     * @return the modification time of the spreadsheet when this subsystem was loaded
+     */
+    protected long getSsModified() {
+        return this.ssModified;
+    }
+
     /**
      * @return the number of missing genomes in this subsystem
      */
@@ -257,8 +580,20 @@ public class SubsystemData {
      * The curator name is in the middle column of the last record in a 3-column headerless file.
      */
     public String getCurator() throws IOException {
+        return getCurator(this.coreDir, this.id);
+    }
+
+    /**
+     * @return the curator of a subsystem
+     *
+     * The curator name is in the middle column of the last record in a 3-column headerless file.
+     *
+     * @param coreDir	coreSEED data directory
+     * @param ssId		ID of the relevant subsystem
+     */
+    public static String getCurator(File coreDir, String ssId) {
         String retVal = "FIG:unknown";
-        File curatorLog = new File(this.coreDir, "Subsystems/" + this.id + "/curation.log");
+        File curatorLog = new File(coreDir, "Subsystems/" + ssId + "/curation.log");
         if (curatorLog.exists()) {
             try (TabbedLineReader curatorStream = new TabbedLineReader(curatorLog, 3)) {
                 for (TabbedLineReader.Line line : curatorStream)
@@ -304,35 +639,235 @@ public class SubsystemData {
      * @throws IOException
      */
     public void validateRows() throws IOException {
+        this.validateRows(1);
+    }
+
+    /**
+     * Run validation on all rows of this subsystem and tally the results.  The rows do not share
+     * any mutable state until the column summary, so if more than one thread is requested the rows
+     * are spread across a bounded fork-join pool.  This helps a great deal when the genome directories
+     * are on a slow filesystem, since most of the time is spent reading function files.
+     *
+     * @param maxThreads	maximum number of threads to use
+     *
+     * @throws IOException
+     */
+    public void validateRows(int maxThreads) throws IOException {
         log.info("Validating subsystem {}.", this.name);
+        MetricsRecorder metrics = Metrics.get();
+        long start = System.nanoTime();
+        this.validateRowList(this.getRows(), maxThreads);
+        long summaryStart = System.nanoTime();
+        this.summarizeColumns();
+        metrics.timeSince("subsystem.validate.summarize", summaryStart);
+        metrics.count("subsystem.validate.rows", this.rows.size());
+        metrics.timeSince("subsystem.validate", start);
+    }
+
+    /**
+     * Run validation on the rows of this subsystem that have changed since the last validation, and tally the
+     * results.  A row has changed if its spreadsheet line is different or if one of the files in its genome
+     * used by validation has been modified.  The results for the other rows are restored from the saved
+     * validation file.  If there is no usable validation file, all the rows are validated.
+     *
+     * This method must be called on a freshly-loaded subsystem.
+     *
+     * @param maxThreads	maximum number of threads to use
+     *
+     * @return the number of rows actually validated
+     *
+     * @throws IOException
+     */
+    public int revalidateRows(int maxThreads) throws IOException {
         Collection<RowData> allRows = this.getRows();
-        // Loop through the rows, placing each feature.
-        for (RowData row : allRows) {
-            log.debug("Scanning {}.", row.toString());
-            Map<String, String> funMap = row.getFunctions();
-            for (Map.Entry<String, String> feature : funMap.entrySet()) {
-                for (int i = 0; i < this.getWidth(); i++)
-                    row.getCell(i).setState(feature.getKey(), feature.getValue(), this.columns[i]);
+        List<RowData> changed;
+        ValidationStore store = ValidationStore.load(this.coreDir, this.id);
+        if (store == null || ! store.isCompatible(this.columns)) {
+            log.info("No usable validation results for subsystem {}.", this.name);
+            changed = new ArrayList<>(allRows);
+        } else {
+            changed = new ArrayList<>();
+            for (RowData row : allRows) {
+                if (! store.restore(row))
+                    changed.add(row);
             }
+            log.info("Revalidating {} of {} rows in subsystem {}.", changed.size(), allRows.size(), this.name);
         }
-        // Now summarize the columns and compute the error count.
-        log.info("Summarizing columns in {}.", this.name);
-        this.errorCount = this.numGenomesMissing();
-        for (ColumnData col : this.columns) {
-            int idx = col.getColIdx();
-            for (RowData row : allRows)
-                col.countCell(row.getCell(idx));
-            this.errorCount += col.getCount(PegState.MISSING) + col.getCount(PegState.BAD_ROLE) +
-                    col.getCount(PegState.DISCONNECTED);
+        this.validateRowList(changed, maxThreads);
+        this.summarizeColumns();
+        return changed.size();
+    }
+
+    /**
+     * Validate a list of rows.  The rows do not share any mutable state, so if more than one thread is
+     * requested they are spread across a bounded fork-join pool.
+     *
+     * @param rowList		list of rows to validate
+     * @param maxThreads	maximum number of threads to use
+     *
+     * @throws IOException
+     */
+    private void validateRowList(Collection<RowData> rowList, int maxThreads) throws IOException {
+        if (maxThreads <= 1 || rowList.size() <= 1) {
+            // Loop through the rows, placing each feature.
+            for (RowData row : rowList) {
+                log.debug("Scanning {}.", row.toString());
+                this.validateRow(row);
+            }
+        } else {
+            log.info("Using {} threads to validate {} rows.", maxThreads, rowList.size());
+            ForkJoinPool pool = new ForkJoinPool(maxThreads);
+            try {
+                pool.submit(() -> rowList.parallelStream().forEach(row -> this.validateRowUnchecked(row))).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Validation of " + this.name + " was interrupted.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) cause).getCause();
+                else if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                else
+                    throw new RuntimeException(cause);
+            } finally {
+                pool.shutdown();
+            }
         }
+    }
+
+    /**
+     * Tally the validation results for each column, compute the error count, and save the results if
+     * saving is enabled.
+     */
+    private void summarizeColumns() {
+        this.tallyColumns();
+        if (this.saveFlag)
+            this.saveResults(ValidationStore.capture(this));
+        else
+            this.ambiguousCount = false;
+    }
+
+    /**
+     * Specify whether validation saves its results.  Normally, the error count and the validation results are
+     * written to the subsystem directory after each validation.  Turning this off leaves the subsystem
+     * directory untouched.
+     *
+     * @param saveFlag	TRUE to save validation results, FALSE to only keep them in memory
+     */
+    public void setSaveResults(boolean saveFlag) {
+        this.saveFlag = saveFlag;
+    }
+
+    /**
+     * Save the error count and the validation results.
+     *
+     * @param store		validation results to save
+     */
+    private void saveResults(ValidationStore store) {
         // Denote that error count is known and save it.
         this.ambiguousCount = false;
+        this.savedCount = false;
         File errorCountFile = SubsystemData.errorCountFile(this.coreDir, this.id);
         try {
             MarkerFile.write(errorCountFile, this.errorCount);
         } catch (UncheckedIOException e) {
             log.error("Could not update error file for {}.", this.name);
         }
+        try {
+            store.save(this.coreDir, this.id);
+        } catch (IOException e) {
+            log.error("Could not save validation results for {}: {}", this.name, e.toString());
+        }
+    }
+
+    /**
+     * Tally the validation results for each column and compute the error count.
+     */
+    private void tallyColumns() {
+        log.info("Summarizing columns in {}.", this.name);
+        for (RowData row : this.getRows())
+            this.countRow(row);
+        this.computeErrorCount();
+    }
+
+    /**
+     * Add the cells of a validated row to the column tallies.
+     *
+     * @param row	row to count
+     */
+    private void countRow(RowData row) {
+        for (ColumnData col : this.columns)
+            col.countCell(row.getCell(col.getColIdx()));
+    }
+
+    /**
+     * Compute the error count from the missing genomes and the column tallies.
+     */
+    private void computeErrorCount() {
+        this.errorCount = this.numGenomesMissing();
+        for (ColumnData col : this.columns)
+            this.errorCount += col.getCount(PegState.MISSING) + col.getCount(PegState.BAD_ROLE) +
+                    col.getCount(PegState.DISCONNECTED);
+    }
+
+    /**
+     * Compute the state of every feature in a single row.  Each feature's function is split into roles
+     * once, and the role index tells us which columns it belongs in.  The only other cells that
+     * need to be examined are the ones that already contain the feature.
+     *
+     * @param row	row to validate
+     *
+     * @throws IOException
+     */
+    private void validateRow(RowData row) throws IOException {
+        MetricsRecorder metrics = Metrics.get();
+        long start = System.nanoTime();
+        // Record the genome file times before we read the functions.
+        row.getGenomeStamps();
+        Map<String, String> funMap = row.getSharedFunctions();
+        long matchStart = System.nanoTime();
+        metrics.time("subsystem.validate.read", matchStart - start);
+        int matchCount = 0;
+        // Map each feature in the row's cells to the columns containing it.
+        Map<String, List<Integer>> cellMap = new HashMap<>();
+        for (int i = 0; i < this.getWidth(); i++) {
+            CellData cell = row.getCell(i);
+            for (int j = 0; j < cell.size(); j++)
+                cellMap.computeIfAbsent(cell.getFid(j), x -> new ArrayList<>(2)).add(i);
+        }
+        for (Map.Entry<String, String> feature : funMap.entrySet()) {
+            String fid = feature.getKey();
+            String function = feature.getValue();
+            int[] matched = this.roleIndex.findColumns(function);
+            matchCount += matched.length;
+            for (int colIdx : matched)
+                row.getCell(colIdx).setState(fid, function, true);
+            List<Integer> present = cellMap.get(fid);
+            if (present != null) {
+                for (int colIdx : present) {
+                    if (Arrays.binarySearch(matched, colIdx) < 0)
+                        row.getCell(colIdx).setState(fid, function, false);
+                }
+            }
+        }
+        metrics.count("subsystem.validate.features", funMap.size());
+        metrics.count("subsystem.validate.matched", matchCount);
+        metrics.timeSince("subsystem.validate.match", matchStart);
+    }
+
+    /**
+     * Validate a single row from inside a stream.
+     *
+     * @param row	row to validate
+     */
+    private void validateRowUnchecked(RowData row) {
+        log.debug("Scanning {}.", row.toString());
+        try {
+            this.validateRow(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -349,15 +884,25 @@ public class SubsystemData {
         return this.ambiguousCount;
     }
 
+    /**
+     * Check a saved error count against the spreadsheet and genomes.  If the subsystem has saved validation
+     * results, this tells exactly whether or not the spreadsheet or any of the genomes have changed since the
+     * error count was computed, and the suspect flag is updated accordingly.  This examines every genome in
+     * the subsystem, so it is much slower than {@link #isSuspectErrorCount()}.
+     *
+     * @return TRUE if the error count is suspect, else FALSE
+     */
+    public boolean checkExact() {
+        if (this.savedCount && ValidationStore.storeFile(this.coreDir, this.id).exists())
+            this.ambiguousCount = ! ValidationStore.isCurrent(this.coreDir, this.id);
+        return this.ambiguousCount;
+    }
+
     /**
      * @return the subsystem health rating (1.00 is perfect)
      */
     public double getHealth() {
-        double total = (this.getWidth() + 1) * this.size();
-        double retVal = 0.0;
-        if (total > 0)
-            retVal = (total - this.errorCount) / total;
-        return retVal;
+        return computeHealth(this.getWidth(), this.size(), this.errorCount);
     }
 
     /**
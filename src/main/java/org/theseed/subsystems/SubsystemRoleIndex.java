@@ -0,0 +1,435 @@
+/**
+ *
+ */
+package org.theseed.subsystems;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.Feature;
+import org.theseed.io.LineReader;
+
+/**
+ * This object is a reverse index from roles to the subsystem columns containing them, across all the subsystems
+ * in a coreSEED.  The roles are computed from each column's function using {@link Feature#rolesOfFunction(String)},
+ * the same way the subsystem itself matches features to columns.
+ *
+ * The index is kept in the file "subsystem_roles.idx" in the coreSEED directory.  For each subsystem, it contains
+ * the modification time of the spreadsheet along with the function and auxiliary flag of each column.  When the
+ * index is updated, only the role sections of the spreadsheets that have changed are re-read.  The role map itself
+ * is rebuilt in memory from the column definitions.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SubsystemRoleIndex {
+
+    /**
+     * This object describes a single subsystem column found through the index.
+     */
+    public static class ColumnRef implements Comparable<ColumnRef> {
+
+        /** ID of the subsystem */
+        private final String ssId;
+        /** index of the column (0-based) */
+        private final int colIdx;
+        /** function of the column */
+        private final String function;
+        /** roles in the column's function */
+        private final String[] roles;
+        /** TRUE if this is an auxiliary role */
+        private final boolean aux;
+
+        /**
+         * Construct a column reference.
+         *
+         * @param ssId		ID of the subsystem
+         * @param colIdx	index of the column (0-based)
+         * @param function	function of the column
+         * @param aux		TRUE if this is an auxiliary role
+         */
+        protected ColumnRef(String ssId, int colIdx, String function, boolean aux) {
+            this.ssId = ssId;
+            this.colIdx = colIdx;
+            this.function = function;
+            this.roles = Feature.rolesOfFunction(function);
+            this.aux = aux;
+        }
+
+        /**
+         * @return the ID of the subsystem
+         */
+        public String getSubsystemId() {
+            return this.ssId;
+        }
+
+        /**
+         * @return the index (0-based) of the column
+         */
+        public int getColIdx() {
+            return this.colIdx;
+        }
+
+        /**
+         * @return the function of the column
+         */
+        public String getFunction() {
+            return this.function;
+        }
+
+        /**
+         * @return TRUE if the column is an auxiliary role
+         */
+        public boolean isAux() {
+            return this.aux;
+        }
+
+        /**
+         * @return TRUE if all of this column's roles are in the specified role array
+         *
+         * @param oRoles	array of roles from a feature's function
+         */
+        protected boolean isCoveredBy(String[] oRoles) {
+            boolean retVal = true;
+            for (int i = 0; retVal && i < this.roles.length; i++) {
+                boolean found = false;
+                for (int j = 0; ! found && j < oRoles.length; j++)
+                    found = oRoles[j].contentEquals(this.roles[i]);
+                retVal = found;
+            }
+            return retVal;
+        }
+
+        @Override
+        public int compareTo(ColumnRef o) {
+            int retVal = this.ssId.compareTo(o.ssId);
+            if (retVal == 0)
+                retVal = this.colIdx - o.colIdx;
+            return retVal;
+        }
+
+        @Override
+        public String toString() {
+            return this.ssId + "[" + this.colIdx + "]";
+        }
+
+    }
+
+    /**
+     * This object contains the index data for a single subsystem.
+     */
+    protected static class SubsystemEntry {
+
+        /** modification time of the spreadsheet */
+        private final long ssModified;
+        /** column references, in column order */
+        private final ColumnRef[] columns;
+
+        /**
+         * Construct a subsystem entry.
+         *
+         * @param ssModified	modification time of the spreadsheet
+         * @param columns		column references, in column order
+         */
+        protected SubsystemEntry(long ssModified, ColumnRef[] columns) {
+            this.ssModified = ssModified;
+            this.columns = columns;
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(SubsystemRoleIndex.class);
+    /** coreSEED data directory */
+    private final File coreDir;
+    /** map of subsystem IDs to subsystem entries */
+    private final Map<String, SubsystemEntry> subsystemMap;
+    /** map of roles to column references */
+    private Map<String, List<ColumnRef>> roleMap;
+    /** name of the index file */
+    public static final String FILE_NAME = "subsystem_roles.idx";
+    /** file type marker */
+    private static final int MAGIC = 0x53455249;
+    /** file format version */
+    private static final int VERSION = 1;
+
+    /**
+     * Construct an empty role index for a coreSEED.
+     *
+     * @param coreDir	coreSEED data directory
+     */
+    protected SubsystemRoleIndex(File coreDir) {
+        this.coreDir = coreDir;
+        this.subsystemMap = new TreeMap<String, SubsystemEntry>();
+        this.roleMap = Collections.emptyMap();
+    }
+
+    /**
+     * Load the role index for a coreSEED and bring it up to date.  If the index file does not exist
+     * or is invalid, it will be built from scratch.
+     *
+     * @param coreDir	coreSEED data directory
+     *
+     * @return the updated role index
+     *
+     * @throws IOException
+     */
+    public static SubsystemRoleIndex load(File coreDir) throws IOException {
+        SubsystemRoleIndex retVal = new SubsystemRoleIndex(coreDir);
+        File indexFile = new File(coreDir, FILE_NAME);
+        if (indexFile.exists()) {
+            try {
+                retVal.read(indexFile);
+            } catch (IOException e) {
+                log.warn("Subsystem role index {} is invalid and will be rebuilt: {}", indexFile, e.toString());
+                retVal = new SubsystemRoleIndex(coreDir);
+            }
+        }
+        boolean changed = retVal.update();
+        if (changed) {
+            try {
+                retVal.save(indexFile);
+            } catch (IOException e) {
+                log.warn("Could not save subsystem role index {}: {}", indexFile, e.toString());
+            }
+        }
+        // If the index changed, the update already rebuilt the role map.
+        if (! changed)
+            retVal.buildRoleMap();
+        return retVal;
+    }
+
+    /**
+     * Bring this index up to date with the subsystems in the coreSEED.  The role map is rebuilt if anything
+     * changed.
+     *
+     * @return TRUE if the index changed, else FALSE
+     *
+     * @throws IOException
+     */
+    public synchronized boolean update() throws IOException {
+        File ssRoot = new File(this.coreDir, "Subsystems");
+        String[] ssIds = ssRoot.list();
+        if (ssIds == null)
+            throw new IOException("Cannot read subsystem directory " + ssRoot + ".");
+        Set<String> found = new HashSet<String>(ssIds.length * 4 / 3 + 1);
+        int changed = 0;
+        for (String ssId : ssIds) {
+            File ssFile = SubsystemData.getSpreadsheet(this.coreDir, ssId);
+            long ssModified = ssFile.lastModified();
+            // A modification time of 0 means the spreadsheet does not exist.
+            if (ssModified != 0) {
+                SubsystemEntry old = this.subsystemMap.get(ssId);
+                if (old != null && old.ssModified == ssModified)
+                    found.add(ssId);
+                else {
+                    log.debug("Indexing roles of {}.", ssId);
+                    // An unreadable or malformed spreadsheet is left out of the index, so it will be retried
+                    // on the next update.
+                    try {
+                        this.subsystemMap.put(ssId, readSubsystem(ssFile, ssId, ssModified));
+                        found.add(ssId);
+                        changed++;
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Skipping unreadable subsystem {} in role index: {}", ssId, e.toString());
+                    }
+                }
+            }
+        }
+        // Remove the subsystems that are gone.
+        int removed = 0;
+        Iterator<String> iter = this.subsystemMap.keySet().iterator();
+        while (iter.hasNext()) {
+            if (! found.contains(iter.next())) {
+                iter.remove();
+                removed++;
+            }
+        }
+        boolean retVal = (changed > 0 || removed > 0);
+        if (retVal) {
+            log.info("{} subsystems indexed and {} removed from role index.", changed, removed);
+            this.buildRoleMap();
+        }
+        return retVal;
+    }
+
+    /**
+     * Read the column definitions of a subsystem.  Only the header sections of the spreadsheet are read.
+     *
+     * @param ssFile		spreadsheet file
+     * @param ssId			ID of the subsystem
+     * @param ssModified	modification time of the spreadsheet
+     *
+     * @return the subsystem entry
+     *
+     * @throws IOException
+     */
+    private static SubsystemEntry readSubsystem(File ssFile, String ssId, long ssModified) throws IOException {
+        ColumnData[] cols;
+        try (LineReader ssStream = new LineReader(ssFile)) {
+            cols = SubsystemData.readColumns(ssStream);
+        }
+        ColumnRef[] columns = new ColumnRef[cols.length];
+        for (int i = 0; i < cols.length; i++)
+            columns[i] = new ColumnRef(ssId, i, cols[i].getFunction(), cols[i].isAux());
+        return new SubsystemEntry(ssModified, columns);
+    }
+
+    /**
+     * Rebuild the map of roles to column references.  Each list is sorted by subsystem ID and column index.
+     */
+    private synchronized void buildRoleMap() {
+        Map<String, List<ColumnRef>> newMap = new HashMap<String, List<ColumnRef>>(this.subsystemMap.size() * 20);
+        // The subsystem map is sorted, so the lists are built in order.
+        for (SubsystemEntry entry : this.subsystemMap.values()) {
+            for (ColumnRef column : entry.columns) {
+                for (String role : column.roles) {
+                    List<ColumnRef> refs = newMap.computeIfAbsent(role, x -> new ArrayList<ColumnRef>(2));
+                    // A role can occur twice in the same function, but we only want one reference.
+                    if (refs.isEmpty() || refs.get(refs.size() - 1) != column)
+                        refs.add(column);
+                }
+            }
+        }
+        for (Map.Entry<String, List<ColumnRef>> roleEntry : newMap.entrySet())
+            roleEntry.setValue(Collections.unmodifiableList(roleEntry.getValue()));
+        this.roleMap = newMap;
+    }
+
+    /**
+     * Read this index from a file.
+     *
+     * @param indexFile		file containing the index
+     *
+     * @throws IOException
+     */
+    private void read(File indexFile) throws IOException {
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (inStream.readInt() != MAGIC || inStream.readInt() != VERSION)
+                throw new IOException("Incorrect file format.");
+            final int count = inStream.readInt();
+            for (int i = 0; i < count; i++) {
+                String ssId = inStream.readUTF();
+                long ssModified = inStream.readLong();
+                ColumnRef[] columns = new ColumnRef[inStream.readInt()];
+                for (int j = 0; j < columns.length; j++) {
+                    String function = inStream.readUTF();
+                    columns[j] = new ColumnRef(ssId, j, function, inStream.readBoolean());
+                }
+                this.subsystemMap.put(ssId, new SubsystemEntry(ssModified, columns));
+            }
+        }
+    }
+
+    /**
+     * Save this index to a file.  The file is written under a temporary name and then renamed, so that other
+     * processes never see a partial file.
+     *
+     * @param indexFile		file to contain the index
+     *
+     * @throws IOException
+     */
+    public synchronized void save(File indexFile) throws IOException {
+        File tempFile = File.createTempFile("ridx", ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                outStream.writeInt(MAGIC);
+                outStream.writeInt(VERSION);
+                outStream.writeInt(this.subsystemMap.size());
+                for (Map.Entry<String, SubsystemEntry> ssEntry : this.subsystemMap.entrySet()) {
+                    outStream.writeUTF(ssEntry.getKey());
+                    SubsystemEntry entry = ssEntry.getValue();
+                    outStream.writeLong(entry.ssModified);
+                    outStream.writeInt(entry.columns.length);
+                    for (ColumnRef column : entry.columns) {
+                        outStream.writeUTF(column.function);
+                        outStream.writeBoolean(column.aux);
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * @return the subsystem columns containing a role, sorted by subsystem ID and column index
+     *
+     * @param role		role of interest
+     */
+    public synchronized List<ColumnRef> findRole(String role) {
+        return this.roleMap.getOrDefault(role, Collections.emptyList());
+    }
+
+    /**
+     * Find the subsystem columns that a function belongs in.  As in {@link ColumnData#matches(String)}, a
+     * function belongs in a column if it contains the column's function text and all of the column's roles.
+     *
+     * @param function		functional assignment of interest
+     *
+     * @return the matching subsystem columns, sorted by subsystem ID and column index
+     */
+    public synchronized List<ColumnRef> findFunction(String function) {
+        String[] roles = Feature.rolesOfFunction(function);
+        Set<ColumnRef> found = new HashSet<ColumnRef>();
+        List<ColumnRef> retVal = new ArrayList<ColumnRef>();
+        for (String role : roles) {
+            for (ColumnRef column : this.roleMap.getOrDefault(role, Collections.emptyList())) {
+                if (found.add(column) && function.contains(column.function) && column.isCoveredBy(roles))
+                    retVal.add(column);
+            }
+        }
+        Collections.sort(retVal);
+        return retVal;
+    }
+
+    /**
+     * @return the column references for a subsystem, in column order, or NULL if the subsystem is not in the index
+     *
+     * @param ssId		ID of the subsystem of interest
+     */
+    public synchronized List<ColumnRef> getColumns(String ssId) {
+        List<ColumnRef> retVal = null;
+        SubsystemEntry entry = this.subsystemMap.get(ssId);
+        if (entry != null)
+            retVal = List.of(entry.columns);
+        return retVal;
+    }
+
+    /**
+     * @return the number of subsystems in this index
+     */
+    public synchronized int size() {
+        return this.subsystemMap.size();
+    }
+
+    /**
+     * @return the number of distinct roles in this index
+     */
+    public synchronized int getRoleCount() {
+        return this.roleMap.size();
+    }
+
+}
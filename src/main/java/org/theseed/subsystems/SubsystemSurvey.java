@@ -0,0 +1,433 @@
+/**
+ *
+ */
+package org.theseed.subsystems;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.LineReader;
+import org.theseed.io.MarkerFile;
+
+/**
+ * This object maintains a survey of the health of all the subsystems in a coreSEED.  For each subsystem it
+ * keeps the error count, the privacy flag, the curator, and the dimensions needed to compute the health rating.
+ * The survey is kept in memory, one per coreSEED directory.  When it is refreshed, the subsystem directories
+ * are scanned in parallel, and only the subsystems whose directory or error-count file has changed are
+ * re-surveyed.  (The error-count file is rewritten in place by validation, which does not change the
+ * directory's modification time.)  The row counts depend on the set of live genomes.  Each entry remembers the
+ * genomes of its rows, so if that set has changed since the last refresh, the row counts are recomputed in
+ * memory without re-reading the spreadsheets.  The live-genome set itself is only recomputed when the shared
+ * {@link GenomeCatalog} is rebuilt, which happens when the organism directory's modification time changes or
+ * the catalog reaches its maximum age.  A genome that is marked deleted without a change to the organism
+ * directory is therefore noticed when the catalog expires.
+ *
+ * Unlike {@link SubsystemData#survey(File, String)}, the survey reads the spreadsheet to get the column and row
+ * counts, so that the health can be computed without loading the subsystem.  A row counts only if its genome
+ * is present in the coreSEED and not deleted.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SubsystemSurvey {
+
+    /**
+     * This object describes the health of a single subsystem at the time it was surveyed.
+     */
+    public static class Entry implements Comparable<Entry> {
+
+        /** coreSEED data directory */
+        private final File coreDir;
+        /** ID of the subsystem */
+        private final String id;
+        /** modification time of the subsystem directory */
+        private final long dirModified;
+        /** modification time of the error-count file, or 0 if there is none */
+        private final long errorModified;
+        /** generation of the live genome set used to count the rows */
+        private int genomeGeneration;
+        /** modification time of the spreadsheet */
+        private final long ssModified;
+        /** number of errors in the subsystem */
+        private final int errorCount;
+        /** TRUE if the subsystem is private */
+        private final boolean privateFlag;
+        /** curator of the subsystem */
+        private final String curator;
+        /** number of columns in the subsystem */
+        private final int width;
+        /** IDs of the genomes with rows in the subsystem, live or not */
+        private final String[] rowGenomes;
+        /** number of rows in the subsystem for live genomes */
+        private volatile int size;
+        /** TRUE if the subsystem has saved validation results */
+        private final boolean validated;
+        /** index of the saved validation results, or NULL if it has not been read */
+        private ValidationStore results;
+        /** TRUE if the saved validation results have been checked since the last refresh */
+        private boolean resultsChecked;
+        /** TRUE if the saved validation results were stale when last checked */
+        private boolean staleResults;
+
+        /**
+         * Survey a subsystem.
+         *
+         * @param coreDir			coreSEED data directory
+         * @param ssId				ID of the subsystem
+         * @param dirModified		modification time of the subsystem directory
+         * @param errorModified		modification time of the error-count file, or 0 if there is none
+         * @param genomes			set of IDs for the live genomes in the coreSEED
+         * @param genomeGeneration	generation of the live genome set
+         *
+         * @throws IOException
+         */
+        protected Entry(File coreDir, String ssId, long dirModified, long errorModified, Set<String> genomes,
+                int genomeGeneration) throws IOException {
+            this.coreDir = coreDir;
+            this.id = ssId;
+            this.dirModified = dirModified;
+            this.errorModified = errorModified;
+            this.genomeGeneration = genomeGeneration;
+            File ssFile = SubsystemData.getSpreadsheet(coreDir, ssId);
+            this.ssModified = ssFile.lastModified();
+            if (errorModified == 0)
+                this.errorCount = 0;
+            else
+                this.errorCount = MarkerFile.readInt(SubsystemData.errorCountFile(coreDir, ssId));
+            this.privateFlag = SubsystemData.isPrivate(coreDir, ssId);
+            this.curator = SubsystemData.getCurator(coreDir, ssId);
+            this.validated = ValidationStore.storeFile(coreDir, ssId).exists();
+            // The saved results are checked against the genomes when the entry is viewed.
+            this.resultsChecked = false;
+            // Count the columns and find the row genomes.  As with a full load, the last duplicate row
+            // is the one kept, so we keep distinct genomes.
+            try (LineReader ssStream = new LineReader(ssFile)) {
+                this.width = SubsystemData.readColumns(ssStream).length;
+                Set<String> rowGenomes = new HashSet<String>();
+                for (String ssRow : ssStream) {
+                    String[] parts = StringUtils.splitPreserveAllTokens(StringUtils.stripEnd(ssRow, "\t "), '\t');
+                    if (parts.length > 2)
+                        rowGenomes.add(parts[0]);
+                }
+                this.rowGenomes = rowGenomes.toArray(new String[rowGenomes.size()]);
+            }
+            this.size = this.countRows(genomes);
+        }
+
+        /**
+         * @return the number of rows in this subsystem whose genomes are live
+         *
+         * @param genomes	set of IDs for the live genomes in the coreSEED
+         */
+        private int countRows(Set<String> genomes) {
+            int retVal = 0;
+            for (String genomeId : this.rowGenomes) {
+                if (genomes.contains(genomeId))
+                    retVal++;
+            }
+            return retVal;
+        }
+
+        /**
+         * Recompute the row count if the live genome set has changed since it was last computed.
+         *
+         * @param genomes			set of IDs for the live genomes in the coreSEED
+         * @param newGenomeGeneration	generation of the live genome set
+         */
+        protected void recount(Set<String> genomes, int newGenomeGeneration) {
+            if (this.genomeGeneration != newGenomeGeneration) {
+                this.size = this.countRows(genomes);
+                this.genomeGeneration = newGenomeGeneration;
+            }
+        }
+
+        /**
+         * @return the subsystem ID
+         */
+        public String getId() {
+            return this.id;
+        }
+
+        /**
+         * @return the subsystem name
+         */
+        public String getName() {
+            return StringUtils.replaceChars(this.id, '_', ' ');
+        }
+
+        /**
+         * @return the number of errors in the subsystem
+         */
+        public int getErrorCount() {
+            return this.errorCount;
+        }
+
+        /**
+         * @return TRUE if the error count is suspect, else FALSE
+         *
+         * If there are saved validation results, this is an exact check of the spreadsheet and genomes.  The
+         * index of the results is read the first time the entry is viewed, and the check compares the saved
+         * modification times for each row with the genome files.  The answer is kept until the next refresh of
+         * the survey, so a change to a genome's functions is seen after the next refresh.  Callers that need to
+         * see such a change right away should use {@link #checkExact()}.  (The results are written at the same
+         * time as the error-count file, so a new validation causes a re-survey.)
+         */
+        public synchronized boolean isSuspectErrorCount() {
+            boolean retVal;
+            if (this.errorModified == 0)
+                retVal = true;
+            else if (this.validated) {
+                if (! this.resultsChecked) {
+                    if (this.results == null)
+                        this.results = ValidationStore.loadIndex(this.coreDir, this.id);
+                    this.staleResults = (this.results == null || ! this.results.checkCurrent(this.coreDir, this.id));
+                    this.resultsChecked = true;
+                }
+                retVal = this.staleResults;
+            } else
+                retVal = SubsystemData.isStale(this.errorModified, this.ssModified);
+            return retVal;
+        }
+
+        /**
+         * Repeat the exact check of the saved validation results against the spreadsheet and genomes.  This
+         * examines every genome in the subsystem.
+         *
+         * @return TRUE if the error count is suspect, else FALSE
+         */
+        public synchronized boolean checkExact() {
+            this.resultsChecked = false;
+            return this.isSuspectErrorCount();
+        }
+
+        /**
+         * Denote that the saved validation results must be checked again the next time the entry is viewed.
+         */
+        protected synchronized void expireResults() {
+            this.resultsChecked = false;
+        }
+
+        /**
+         * @return TRUE if the subsystem is private
+         */
+        public boolean isPrivate() {
+            return this.privateFlag;
+        }
+
+        /**
+         * @return the curator of the subsystem
+         */
+        public String getCurator() {
+            return this.curator;
+        }
+
+        /**
+         * @return the number of columns in the subsystem
+         */
+        public int getWidth() {
+            return this.width;
+        }
+
+        /**
+         * @return the number of rows in the subsystem
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * @return the subsystem health rating (1.00 is perfect)
+         */
+        public double getHealth() {
+            return SubsystemData.computeHealth(this.width, this.size, this.errorCount);
+        }
+
+        /**
+         * @return TRUE if this entry is still valid for the specified file times
+         *
+         * @param newDirModified		current modification time of the subsystem directory
+         * @param newErrorModified		current modification time of the error-count file
+         */
+        protected boolean isCurrent(long newDirModified, long newErrorModified) {
+            return (this.dirModified == newDirModified && this.errorModified == newErrorModified);
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return this.id.compareTo(o.id);
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(SubsystemSurvey.class);
+    /** coreSEED data directory */
+    private final File coreDir;
+    /** map of subsystem IDs to survey entries */
+    private final Map<String, Entry> entries;
+    /** current snapshot */
+    private List<Entry> snapshot;
+    /** set of live genome IDs as of the last refresh */
+    private Set<String> liveGenomes;
+    /** genome catalog used to compute the live genome set */
+    private GenomeCatalog catalog;
+    /** generation of the live genome set, incremented each time the set changes */
+    private int genomeGeneration;
+    /** map of coreSEED directories to surveys */
+    private static final Map<File, SubsystemSurvey> surveys = new HashMap<File, SubsystemSurvey>();
+
+    /**
+     * Construct an empty survey for a coreSEED.
+     *
+     * @param coreDir	coreSEED data directory
+     */
+    private SubsystemSurvey(File coreDir) {
+        this.coreDir = coreDir;
+        this.entries = new ConcurrentHashMap<String, Entry>(2000);
+        this.snapshot = Collections.emptyList();
+        this.liveGenomes = Collections.emptySet();
+        this.genomeGeneration = 0;
+    }
+
+    /**
+     * @return the shared survey for a coreSEED
+     *
+     * @param coreDir	coreSEED data directory
+     */
+    public static SubsystemSurvey get(File coreDir) {
+        synchronized (surveys) {
+            return surveys.computeIfAbsent(coreDir.getAbsoluteFile(), x -> new SubsystemSurvey(x));
+        }
+    }
+
+    /**
+     * Bring the survey up to date and return a snapshot of it.
+     *
+     * @param maxThreads	maximum number of threads to use
+     *
+     * @return an unmodifiable list of survey entries, sorted by subsystem ID
+     *
+     * @throws IOException
+     */
+    public synchronized List<Entry> refresh(int maxThreads) throws IOException {
+        File ssRoot = new File(this.coreDir, "Subsystems");
+        File[] ssDirs = ssRoot.listFiles(File::isDirectory);
+        if (ssDirs == null)
+            throw new IOException("Cannot read subsystem directory " + ssRoot + ".");
+        List<File> dirList = new ArrayList<File>(ssDirs.length);
+        for (File ssDir : ssDirs)
+            dirList.add(ssDir);
+        // Check the live-genome set.  This is one status call per genome, so it is only done when the catalog
+        // has been rebuilt, that is, when the organism directory has changed or the catalog has expired.
+        GenomeCatalog newCatalog = GenomeCatalog.get(this.coreDir);
+        if (newCatalog != this.catalog) {
+            this.catalog = newCatalog;
+            Set<String> genomes = newCatalog.getLiveGenomes();
+            if (! genomes.equals(this.liveGenomes)) {
+                this.liveGenomes = genomes;
+                this.genomeGeneration++;
+            }
+        }
+        Set<String> found = ConcurrentHashMap.newKeySet(ssDirs.length);
+        if (maxThreads <= 1 || dirList.size() <= 1) {
+            for (File ssDir : dirList)
+                this.surveyDir(ssDir, found);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(maxThreads);
+            try {
+                pool.submit(() -> dirList.parallelStream().forEach(ssDir -> this.surveyDirUnchecked(ssDir, found))).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Subsystem survey was interrupted.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) cause).getCause();
+                else if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                else
+                    throw new RuntimeException(cause);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        // Remove the subsystems that are gone.
+        this.entries.keySet().retainAll(found);
+        List<Entry> newSnapshot = new ArrayList<Entry>(this.entries.values());
+        Collections.sort(newSnapshot);
+        this.snapshot = Collections.unmodifiableList(newSnapshot);
+        return this.snapshot;
+    }
+
+    /**
+     * Survey a single subsystem directory, updating its entry if it has changed.
+     *
+     * @param ssDir		subsystem directory
+     * @param found		set of subsystem IDs found, to be updated
+     *
+     * @throws IOException
+     */
+    private void surveyDir(File ssDir, Set<String> found) throws IOException {
+        String ssId = ssDir.getName();
+        if (SubsystemData.getSpreadsheet(this.coreDir, ssId).exists()) {
+            found.add(ssId);
+            long dirModified = ssDir.lastModified();
+            long errorModified = SubsystemData.errorCountFile(this.coreDir, ssId).lastModified();
+            Entry old = this.entries.get(ssId);
+            if (old == null || ! old.isCurrent(dirModified, errorModified)) {
+                log.debug("Surveying subsystem {}.", ssId);
+                this.entries.put(ssId, new Entry(this.coreDir, ssId, dirModified, errorModified,
+                        this.liveGenomes, this.genomeGeneration));
+            } else {
+                old.recount(this.liveGenomes, this.genomeGeneration);
+                old.expireResults();
+            }
+        }
+    }
+
+    /**
+     * Survey a single subsystem directory from inside a stream.
+     *
+     * @param ssDir		subsystem directory
+     * @param found		set of subsystem IDs found, to be updated
+     */
+    private void surveyDirUnchecked(File ssDir, Set<String> found) {
+        try {
+            this.surveyDir(ssDir, found);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the most recent snapshot, without refreshing it
+     */
+    public synchronized List<Entry> getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * @return the most recent survey entry for a subsystem, or NULL if it is not in the snapshot
+     *
+     * @param ssId		ID of the subsystem of interest
+     */
+    public Entry getEntry(String ssId) {
+        return this.entries.get(ssId);
+    }
+
+}
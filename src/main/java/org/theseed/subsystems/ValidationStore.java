@@ -0,0 +1,609 @@
+/**
+ *
+ */
+package org.theseed.subsystems;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object contains the per-row results of a subsystem validation.  For each row, it records the modification
+ * times of the genome files used in the validation (the DELETED marker, the assigned-function file, and the deleted-feature
+ * file for each feature type in the row), a hash of the spreadsheet line, and the state of every feature in every cell.
+ * Missing genomes are recorded with their modification times, but no cells.
+ *
+ * The results are kept in a binary file in the subsystem directory.  When a subsystem is revalidated, a row whose
+ * genome files and spreadsheet line are unchanged can be restored from the file instead of being validated again.
+ * The file also tells us exactly whether or not the subsystem's error count is current, since the error count only
+ * changes if the spreadsheet or one of the genomes changes.
+ *
+ * The file also contains the column definitions and the genome name and variant code of each row, so that the
+ * validated subsystem can be rebuilt from the file alone (see {@link SubsystemData#loadResults(File, String)}).  The
+ * cell states include the disconnected features and the functions of the bad-role features, so the column tallies
+ * and the bad-role lists can be recomputed without reading the genomes.
+ *
+ * The file begins with the column definitions and an index section containing the row keys, followed by a section
+ * containing the cells.  This allows the currency check to stop reading after the index.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ValidationStore {
+
+    /**
+     * This object contains the validation results for a single row.
+     */
+    protected static class RowState {
+
+        /** ID of the row's genome */
+        private final String genomeId;
+        /** name of the row's genome */
+        private final String name;
+        /** variant code of the row */
+        private final String variantCode;
+        /** feature types of interest, in sorted order */
+        private final String[] types;
+        /** modification times of the genome files */
+        private final long[] stamps;
+        /** hash of the spreadsheet line */
+        private final long lineHash;
+        /** TRUE if the genome is missing */
+        private final boolean missing;
+        /** IDs of the features in each cell */
+        private String[][] fids;
+        /** state ordinals of the features in each cell */
+        private byte[][] states;
+        /** bad-role functions of the features in each cell (NULL if the role is correct) */
+        private String[][] functions;
+
+        /**
+         * Construct a row state with no cells.
+         *
+         * @param genomeId		ID of the row's genome
+         * @param name			name of the row's genome
+         * @param variantCode	variant code of the row
+         * @param types			feature types of interest
+         * @param stamps		modification times of the genome files
+         * @param lineHash		hash of the spreadsheet line
+         * @param missing		TRUE if the genome is missing
+         */
+        protected RowState(String genomeId, String name, String variantCode, String[] types, long[] stamps,
+                long lineHash, boolean missing) {
+            this.genomeId = genomeId;
+            this.name = name;
+            this.variantCode = variantCode;
+            this.types = types;
+            this.stamps = stamps;
+            this.lineHash = lineHash;
+            this.missing = missing;
+        }
+
+        /**
+         * Capture the validation results for a row.
+         *
+         * @param row		validated row
+         * @param width		number of columns in the row
+         */
+        protected RowState(RowData row, int width) {
+            this(row.getGenomeId(), row.getGenomeName(), row.getVariant(),
+                    row.getTypes().toArray(new String[row.getTypes().size()]), row.getGenomeStamps(),
+                    row.getLineHash(), false);
+            this.fids = new String[width][];
+            this.states = new byte[width][];
+            this.functions = new String[width][];
+            for (int i = 0; i < width; i++) {
+                CellData cell = row.getCell(i);
+                final int n = cell.size();
+                this.fids[i] = new String[n];
+                this.states[i] = new byte[n];
+                this.functions[i] = new String[n];
+                for (int j = 0; j < n; j++) {
+                    this.fids[i][j] = cell.getFid(j);
+                    this.states[i][j] = (byte) cell.getState(j).ordinal();
+                    this.functions[i][j] = cell.getFunction(j);
+                }
+            }
+        }
+
+        /**
+         * @return TRUE if this row state is still valid for the specified row
+         *
+         * @param row		row to check
+         */
+        protected boolean matches(RowData row) {
+            return (! this.missing && this.lineHash == row.getLineHash()
+                    && Arrays.equals(this.stamps, row.getGenomeStamps()));
+        }
+
+        /**
+         * Copy the feature states in this row state into a row.
+         *
+         * @param row		row to update
+         */
+        protected void restore(RowData row) {
+            for (int i = 0; i < this.fids.length; i++) {
+                CellData cell = row.getCell(i);
+                for (int j = 0; j < this.fids[i].length; j++)
+                    cell.restoreState(this.fids[i][j], STATES[this.states[i][j]], this.functions[i][j]);
+            }
+        }
+
+        /**
+         * @return a row rebuilt from this row state
+         *
+         * @param coreDir	coreSEED data directory
+         */
+        protected RowData createRow(File coreDir) {
+            RowData retVal = RowData.restore(coreDir, this.genomeId, this.name, this.variantCode,
+                    Arrays.asList(this.types), this.lineHash, this.stamps, this.fids.length);
+            this.restore(retVal);
+            return retVal;
+        }
+
+        /**
+         * @return TRUE if the genome files for this row are unchanged
+         *
+         * @param coreDir	coreSEED data directory
+         */
+        protected boolean isCurrent(File coreDir) {
+            long[] current = RowData.genomeStamps(new File(coreDir, "Organisms/" + this.genomeId),
+                    Arrays.asList(this.types));
+            return Arrays.equals(this.stamps, current);
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(ValidationStore.class);
+    /** modification time of the spreadsheet when it was loaded */
+    private final long ssModified;
+    /** hash of the column definitions */
+    private final long columnHash;
+    /** number of columns */
+    private final int width;
+    /** column abbreviations */
+    private final String[] abbrs;
+    /** column functions */
+    private final String[] functions;
+    /** auxiliary-role flags for the columns */
+    private final boolean[] auxFlags;
+    /** map of genome IDs to row states */
+    private final Map<String, RowState> rowStates;
+    /** array of peg states, by ordinal */
+    private static final PegState[] STATES = PegState.values();
+    /** file type marker */
+    private static final int MAGIC = 0x53455653;
+    /** file format version */
+    private static final int VERSION = 2;
+    /** name of the validation file in the subsystem directory */
+    public static final String FILE_NAME = "VALIDATION";
+
+    /**
+     * Construct an empty validation store.
+     *
+     * @param ssModified	modification time of the spreadsheet when it was loaded
+     * @param columnHash	hash of the column definitions
+     * @param width			number of columns
+     */
+    private ValidationStore(long ssModified, long columnHash, int width) {
+        this.ssModified = ssModified;
+        this.columnHash = columnHash;
+        this.width = width;
+        this.abbrs = new String[width];
+        this.functions = new String[width];
+        this.auxFlags = new boolean[width];
+        this.rowStates = new LinkedHashMap<String, RowState>();
+    }
+
+    /**
+     * Create an empty validation store for a subsystem.  The rows must be added afterward.
+     *
+     * @param subsystem		subsystem being validated, with its columns loaded
+     *
+     * @return an empty validation store for the subsystem's columns
+     */
+    protected static ValidationStore create(SubsystemData subsystem) {
+        ColumnData[] columns = subsystem.getColumns();
+        ValidationStore retVal = new ValidationStore(subsystem.getSsModified(), columnHash(columns), columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            retVal.abbrs[i] = columns[i].getAbbr();
+            retVal.functions[i] = columns[i].getFunction();
+            retVal.auxFlags[i] = columns[i].isAux();
+        }
+        return retVal;
+    }
+
+    /**
+     * Capture the validation results of a subsystem.
+     *
+     * @param subsystem		subsystem that has just been validated
+     *
+     * @return a validation store containing the subsystem's results
+     */
+    protected static ValidationStore capture(SubsystemData subsystem) {
+        ValidationStore retVal = create(subsystem);
+        for (RowData row : subsystem.getRows())
+            retVal.addRow(row);
+        for (String genomeId : subsystem.getMissingGenomes())
+            retVal.addMissing(genomeId, subsystem.getMissingStamps(genomeId));
+        return retVal;
+    }
+
+    /**
+     * Add the results for a validated row.
+     *
+     * @param row		row that has just been validated
+     */
+    protected void addRow(RowData row) {
+        this.rowStates.put(row.getGenomeId(), new RowState(row, this.width));
+    }
+
+    /**
+     * Add a missing genome.
+     *
+     * @param genomeId		ID of the missing genome
+     * @param stamps		modification times of the genome's files when the subsystem was loaded
+     */
+    protected void addMissing(String genomeId, long[] stamps) {
+        this.rowStates.put(genomeId, new RowState(genomeId, "", "", new String[0], stamps, 0, true));
+    }
+
+    /**
+     * @return the validation file for a subsystem
+     *
+     * @param coreDir	coreSEED data directory
+     * @param ssId		ID of the subsystem of interest
+     */
+    public static File storeFile(File coreDir, String ssId) {
+        return new File(coreDir, "Subsystems/" + ssId + "/" + FILE_NAME);
+    }
+
+    /**
+     * Load the validation results for a subsystem.
+     *
+     * @param coreDir	coreSEED data directory
+     * @param ssId		ID of the subsystem of interest
+     *
+     * @return the validation results, or NULL if there are none or the file is invalid
+     */
+    public static ValidationStore load(File coreDir, String ssId) {
+        ValidationStore retVal = null;
+        File storeFile = storeFile(coreDir, ssId);
+        if (storeFile.exists()) {
+            try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)))) {
+                retVal = readIndex(inStream, storeFile);
+                if (retVal != null)
+                    retVal.readCells(inStream, storeFile.length());
+            } catch (IOException | RuntimeException e) {
+                log.info("Validation file {} could not be read: {}", storeFile, e.toString());
+                retVal = null;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Determine whether the validation results for a subsystem are current.  This is the case if the spreadsheet
+     * has not changed since it was validated and none of the subsystem's genomes have changed.  Only the index
+     * section of the validation file is read.
+     *
+     * @param coreDir	coreSEED data directory
+     * @param ssId		ID of the subsystem of interest
+     *
+     * @return TRUE if the subsystem has valid results that are current, FALSE if the subsystem needs to be validated
+     */
+    public static boolean isCurrent(File coreDir, String ssId) {
+        ValidationStore store = loadIndex(coreDir, ssId);
+        return (store != null && store.checkCurrent(coreDir, ssId));
+    }
+
+    /**
+     * Read the index section of the validation file for a subsystem.  The result can be used with
+     * {@link #checkCurrent(File, String)} to check the saved results repeatedly without re-reading the file.
+     *
+     * @param coreDir	coreSEED data directory
+     * @param ssId		ID of the subsystem of interest
+     *
+     * @return a validation store with no cells, or NULL if the subsystem has no valid validation file
+     */
+    protected static ValidationStore loadIndex(File coreDir, String ssId) {
+        ValidationStore retVal = null;
+        File storeFile = storeFile(coreDir, ssId);
+        if (storeFile.exists()) {
+            try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)))) {
+                retVal = readIndex(inStream, storeFile);
+            } catch (IOException | RuntimeException e) {
+                log.info("Validation file {} could not be read: {}", storeFile, e.toString());
+                retVal = null;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the spreadsheet and genomes for this store's subsystem are unchanged
+     *
+     * @param coreDir	coreSEED data directory
+     * @param ssId		ID of the subsystem
+     */
+    protected boolean checkCurrent(File coreDir, String ssId) {
+        boolean retVal = (SubsystemData.getSpreadsheet(coreDir, ssId).lastModified() == this.ssModified);
+        for (Iterator<RowState> iter = this.rowStates.values().iterator(); retVal && iter.hasNext(); )
+            retVal = iter.next().isCurrent(coreDir);
+        return retVal;
+    }
+
+    /**
+     * Read a count from a validation file.  Each counted item takes at least the specified number of bytes, so
+     * a count that could not fit in the file means the file is corrupt.
+     *
+     * @param inStream		input stream for the file
+     * @param fileLength	length of the file, in bytes
+     * @param itemSize		minimum number of bytes in each counted item
+     *
+     * @return the count read
+     *
+     * @throws IOException if the count is invalid
+     */
+    private static int readCount(DataInputStream inStream, long fileLength, int itemSize) throws IOException {
+        int retVal = inStream.readInt();
+        if (retVal < 0 || (long) retVal * itemSize > fileLength)
+            throw new IOException("Invalid count " + retVal + " in validation file.");
+        return retVal;
+    }
+
+    /**
+     * Read the header and the index section of a validation file.  The counts are checked against the file
+     * length, so that a corrupt file fails with an IOException instead of an enormous allocation.
+     *
+     * @param inStream		input stream for the file, positioned at the beginning
+     * @param storeFile		name of the file, for log messages
+     *
+     * @return a validation store with no cells, or NULL if the file is invalid
+     *
+     * @throws IOException
+     */
+    private static ValidationStore readIndex(DataInputStream inStream, File storeFile) throws IOException {
+        ValidationStore retVal = null;
+        if (inStream.readInt() != MAGIC || inStream.readInt() != VERSION)
+            log.info("Validation file {} has an invalid format.", storeFile);
+        else {
+            long ssModified = inStream.readLong();
+            long columnHash = inStream.readLong();
+            final long fileLength = storeFile.length();
+            // A column has two strings and a flag, and a row has three strings, a flag, a hash, and two counts.
+            int width = readCount(inStream, fileLength, 5);
+            retVal = new ValidationStore(ssModified, columnHash, width);
+            for (int i = 0; i < width; i++) {
+                retVal.abbrs[i] = inStream.readUTF();
+                retVal.functions[i] = inStream.readUTF();
+                retVal.auxFlags[i] = inStream.readBoolean();
+            }
+            final int count = readCount(inStream, fileLength, 23);
+            for (int i = 0; i < count; i++) {
+                String genomeId = inStream.readUTF();
+                String name = inStream.readUTF();
+                String variantCode = inStream.readUTF();
+                boolean missing = inStream.readBoolean();
+                long lineHash = inStream.readLong();
+                String[] types = new String[readCount(inStream, fileLength, 2)];
+                for (int j = 0; j < types.length; j++)
+                    types[j] = inStream.readUTF();
+                long[] stamps = new long[readCount(inStream, fileLength, 8)];
+                for (int j = 0; j < stamps.length; j++)
+                    stamps[j] = inStream.readLong();
+                retVal.rowStates.put(genomeId, new RowState(genomeId, name, variantCode, types, stamps, lineHash,
+                        missing));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Read the cell section of a validation file.  There is one set of cells for each row that is not missing,
+     * in the same order as the index.
+     *
+     * @param inStream		input stream for the file, positioned after the index section
+     * @param fileLength	length of the file, in bytes
+     *
+     * @throws IOException
+     */
+    private void readCells(DataInputStream inStream, long fileLength) throws IOException {
+        for (RowState rowState : this.rowStates.values()) {
+            if (! rowState.missing) {
+                rowState.fids = new String[this.width][];
+                rowState.states = new byte[this.width][];
+                rowState.functions = new String[this.width][];
+                for (int i = 0; i < this.width; i++) {
+                    // A feature has two strings and a state byte.
+                    final int n = readCount(inStream, fileLength, 5);
+                    rowState.fids[i] = new String[n];
+                    rowState.states[i] = new byte[n];
+                    rowState.functions[i] = new String[n];
+                    for (int j = 0; j < n; j++) {
+                        rowState.fids[i][j] = inStream.readUTF();
+                        byte state = inStream.readByte();
+                        if (state < 0 || state >= STATES.length)
+                            throw new IOException("Invalid feature state " + state + " in validation file.");
+                        rowState.states[i][j] = state;
+                        String function = inStream.readUTF();
+                        rowState.functions[i][j] = (function.isEmpty() ? null : function);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Save this validation store to a subsystem directory.  The file is written under a temporary name and then
+     * renamed, so that other processes never see a partial file.
+     *
+     * @param coreDir	coreSEED data directory
+     * @param ssId		ID of the subsystem
+     *
+     * @throws IOException
+     */
+    public void save(File coreDir, String ssId) throws IOException {
+        File storeFile = storeFile(coreDir, ssId);
+        File tempFile = File.createTempFile("valid", ".tmp", storeFile.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                outStream.writeInt(MAGIC);
+                outStream.writeInt(VERSION);
+                outStream.writeLong(this.ssModified);
+                outStream.writeLong(this.columnHash);
+                outStream.writeInt(this.width);
+                for (int i = 0; i < this.width; i++) {
+                    outStream.writeUTF(this.abbrs[i]);
+                    outStream.writeUTF(this.functions[i]);
+                    outStream.writeBoolean(this.auxFlags[i]);
+                }
+                outStream.writeInt(this.rowStates.size());
+                for (RowState rowState : this.rowStates.values()) {
+                    outStream.writeUTF(rowState.genomeId);
+                    outStream.writeUTF(rowState.name);
+                    outStream.writeUTF(rowState.variantCode);
+                    outStream.writeBoolean(rowState.missing);
+                    outStream.writeLong(rowState.lineHash);
+                    outStream.writeInt(rowState.types.length);
+                    for (String type : rowState.types)
+                        outStream.writeUTF(type);
+                    outStream.writeInt(rowState.stamps.length);
+                    for (long stamp : rowState.stamps)
+                        outStream.writeLong(stamp);
+                }
+                for (RowState rowState : this.rowStates.values()) {
+                    if (! rowState.missing) {
+                        for (int i = 0; i < this.width; i++) {
+                            outStream.writeInt(rowState.fids[i].length);
+                            for (int j = 0; j < rowState.fids[i].length; j++) {
+                                outStream.writeUTF(rowState.fids[i][j]);
+                                outStream.writeByte(rowState.states[i][j]);
+                                String function = rowState.functions[i][j];
+                                outStream.writeUTF(function == null ? "" : function);
+                            }
+                        }
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * @return TRUE if this store's results can be used for a subsystem with the specified columns
+     *
+     * @param columns	array of column definitions for the subsystem
+     */
+    public boolean isCompatible(ColumnData[] columns) {
+        return (columns.length == this.width && columnHash(columns) == this.columnHash);
+    }
+
+    /**
+     * Restore the validation results for a row if they are still valid.  The row must have just been loaded,
+     * and this store must be compatible with the row's subsystem.
+     *
+     * @param row	row to restore
+     *
+     * @return TRUE if the row was restored, FALSE if it needs to be validated
+     */
+    public boolean restore(RowData row) {
+        boolean retVal = false;
+        RowState rowState = this.rowStates.get(row.getGenomeId());
+        if (rowState != null && rowState.matches(row)) {
+            rowState.restore(row);
+            retVal = true;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the column definitions for this store's subsystem
+     */
+    protected ColumnData[] createColumns() {
+        ColumnData[] retVal = new ColumnData[this.width];
+        for (int i = 0; i < this.width; i++) {
+            retVal[i] = new ColumnData(i, this.abbrs[i], this.functions[i]);
+            retVal[i].setAux(this.auxFlags[i]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the validated rows for this store's subsystem, rebuilt from the saved results
+     *
+     * @param coreDir	coreSEED data directory
+     */
+    protected List<RowData> createRows(File coreDir) {
+        List<RowData> retVal = new ArrayList<RowData>(this.rowStates.size());
+        for (RowState rowState : this.rowStates.values()) {
+            if (! rowState.missing)
+                retVal.add(rowState.createRow(coreDir));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a map from the IDs of the missing genomes to the modification times of their files
+     */
+    protected Map<String, long[]> getMissingStamps() {
+        Map<String, long[]> retVal = new HashMap<String, long[]>();
+        for (RowState rowState : this.rowStates.values()) {
+            if (rowState.missing)
+                retVal.put(rowState.genomeId, rowState.stamps);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the modification time of the spreadsheet when the subsystem was loaded for validation
+     */
+    protected long getSsModified() {
+        return this.ssModified;
+    }
+
+    /**
+     * @return the number of rows (including missing genomes) in this store
+     */
+    public int size() {
+        return this.rowStates.size();
+    }
+
+    /**
+     * @return a hash of the column definitions for a subsystem
+     *
+     * @param columns	array of column definitions
+     */
+    protected static long columnHash(ColumnData[] columns) {
+        long retVal = RowData.HASH_BASIS;
+        for (ColumnData col : columns) {
+            retVal = RowData.hash(retVal, col.getAbbr());
+            retVal = RowData.hash(retVal, col.getFunction());
+            retVal = retVal * 31 + (col.isAux() ? 1 : 0);
+        }
+        return retVal;
+    }
+
+}
@@ -4,20 +4,41 @@
 package org.theseed.web;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.io.LineReader;
 
 /**
  * This object reads named values from a file when it is constructed.  When it is closed, it writes the values
- * back.  Internally, the values are stored as strings.  The client is expected to pull values out once and
- * store them back once, and the number of values is expected to be small, so this is not a performance
- * issue.  The goal is to have something that acts like cookies but stays on the server.
+ * back.  Internally, the values are stored as strings.  The goal is to have something that acts like cookies but
+ * stays on the server.
+ *
+ * Several requests in the same workspace (for example, two browser tabs) can update the same cookie file at once.
+ * To keep them from losing each other's changes, the object remembers which keys it has changed.  When it is flushed,
+ * it locks the file, re-reads the current values, applies only its own changes, and writes the result to a temporary
+ * file that is then renamed over the original.  Readers therefore always see a complete file.  The lock is held on a
+ * separate lock file (the rename replaces the cookie file itself), and is both a file lock for other processes and a
+ * thread lock for this one.
+ *
+ * The most recent contents of each cookie file are cached in memory, and the cache is validated by the file's
+ * modification time and length, so a request that reads an unchanged cookie file does not parse it again.  A
+ * rewrite in the same clock tick with the same length would not be noticed, so the cache is only used for the
+ * initial read.  The re-read during a flush always parses the file.
  *
  * Field names cannot contain spaces.  Values cannot contain line-end characters.
  *
@@ -26,15 +47,61 @@ import org.theseed.io.LineReader;
  */
 public class CookieFile implements AutoCloseable {
 
+    /**
+     * This object is a cached copy of a cookie file.
+     */
+    private static class Snapshot {
+
+        /** modification time of the file */
+        private final long modified;
+        /** length of the file */
+        private final long length;
+        /** map of keys to values */
+        private final Map<String, String> values;
+
+        /**
+         * Construct a cached copy of a cookie file.
+         *
+         * @param modified	modification time of the file
+         * @param length	length of the file
+         * @param values	map of keys to values (will not be modified)
+         */
+        private Snapshot(long modified, long length, Map<String, String> values) {
+            this.modified = modified;
+            this.length = length;
+            this.values = values;
+        }
+
+        /**
+         * @return TRUE if this snapshot is still valid for the specified file
+         *
+         * @param file	cookie file to check
+         */
+        private boolean isCurrent(File file) {
+            return this.modified == file.lastModified() && this.length == file.length();
+        }
+
+    }
+
     // FIELDS
     /** map of named values to strings */
     private Map<String, String> varMap;
+    /** map of changed keys to new values; a NULL value indicates a deletion */
+    private Map<String, String> changes;
+    /** map of keys to default values stored by the get methods */
+    private Map<String, String> defaults;
     /** file containing the data map */
     private File mapFile;
     /** TRUE if the file has changed */
     private boolean changed;
     /** format for file name */
     private static String FILE_NAME = "_%s.cookie.tbl";
+    /** suffix for lock file name */
+    private static final String LOCK_SUFFIX = ".lock";
+    /** cache of cookie file contents, keyed by absolute file name */
+    private static final Map<String, Snapshot> cache = new ConcurrentHashMap<String, Snapshot>();
+    /** map of absolute file names to thread locks */
+    private static final Map<String, ReentrantLock> threadLocks = new ConcurrentHashMap<String, ReentrantLock>();
 
     /**
      * Load the cookie file into memory.
@@ -50,26 +117,14 @@ public class CookieFile implements AutoCloseable {
     }
 
     /**
-     * Read a cookie file from a specified file name.
-     *
-     * @param input file name
+     * Read the cookie file into memory, discarding any unsaved changes.
      *
      * @throws IOException
      */
     public void readMap() throws IOException {
-        // Create the map.
-        this.varMap = new HashMap<String, String>();
-        // Only try to read the file if it exists.  Otherwise, we have an empty map.
-        if (this.mapFile.exists()) {
-            // Each line of the file consists of a field name, a space, and the field value.
-            try (LineReader mapStream = new LineReader(this.mapFile)) {
-                for (String line : mapStream) {
-                    String key = StringUtils.substringBefore(line, " ");
-                    String value = StringUtils.substring(line, key.length() + 1);
-                    this.varMap.put(key, value);
-                }
-            }
-        }
+        this.varMap = new HashMap<String, String>(readValues(this.mapFile));
+        this.changes = new HashMap<String, String>();
+        this.defaults = new HashMap<String, String>();
         // Denote we're unchanged.
         this.changed = false;
     }
@@ -86,6 +141,57 @@ public class CookieFile implements AutoCloseable {
         this.readMap();
     }
 
+    /**
+     * @return the current values in a cookie file, from the cache if the file is unchanged
+     *
+     * @param file	cookie file to read
+     *
+     * @throws IOException
+     */
+    private static Map<String, String> readValues(File file) throws IOException {
+        Map<String, String> retVal;
+        String key = file.getAbsolutePath();
+        if (! file.exists()) {
+            // A missing file is an empty map.
+            cache.remove(key);
+            retVal = Collections.emptyMap();
+        } else {
+            Snapshot snapshot = cache.get(key);
+            if (snapshot != null && snapshot.isCurrent(file))
+                retVal = snapshot.values;
+            else {
+                // Get the file attributes before reading, so a change during the read forces a reload next time.
+                long modified = file.lastModified();
+                long length = file.length();
+                retVal = Collections.unmodifiableMap(parseValues(file));
+                cache.put(key, new Snapshot(modified, length, retVal));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the current values in a cookie file, parsed from the file, or an empty map if the file does not exist
+     *
+     * @param file	cookie file to read
+     *
+     * @throws IOException
+     */
+    private static Map<String, String> parseValues(File file) throws IOException {
+        Map<String, String> retVal = new HashMap<String, String>();
+        if (file.exists()) {
+            // Each line of the file consists of a field name, a space, and the field value.
+            try (LineReader mapStream = new LineReader(file)) {
+                for (String line : mapStream) {
+                    String name = StringUtils.substringBefore(line, " ");
+                    String value = StringUtils.substring(line, name.length() + 1);
+                    retVal.put(name, value);
+                }
+            }
+        }
+        return retVal;
+    }
+
     /**
      * Get a cookie file name.
      *
@@ -114,7 +220,12 @@ public class CookieFile implements AutoCloseable {
      * @param defaultVal	default value to use if the key is not present
      */
     public String get(String key, String defaultVal) {
-        return this.varMap.computeIfAbsent(key, x -> defaultVal);
+        String retVal = this.varMap.get(key);
+        if (retVal == null) {
+            this.putDefault(key, defaultVal);
+            retVal = defaultVal;
+        }
+        return retVal;
     }
 
     /**
@@ -134,7 +245,7 @@ public class CookieFile implements AutoCloseable {
         int retVal;
         String stringVal = this.varMap.get(key);
         if (stringVal == null) {
-            this.put(key, defaultVal);
+            this.putDefault(key, Integer.toString(defaultVal));
             retVal = defaultVal;
         } else {
             retVal = Integer.parseInt(stringVal);
@@ -161,7 +272,7 @@ public class CookieFile implements AutoCloseable {
         String stringVal = this.varMap.get(key);
         if (stringVal == null) {
             retVal = defaultVal;
-            this.put(key, defaultVal);
+            this.putDefault(key, flagString(defaultVal));
         } else {
             retVal = stringVal.contentEquals("Y");
         }
@@ -177,8 +288,16 @@ public class CookieFile implements AutoCloseable {
      * @return this object, for chaining
      */
     public CookieFile put(String key, boolean newVal) {
-        String flagValue = (newVal ? "Y" : " ");
-        return this.put(key, flagValue);
+        return this.put(key, flagString(newVal));
+    }
+
+    /**
+     * @return the string form of a boolean value
+     *
+     * @param flag	value to convert
+     */
+    private static String flagString(boolean flag) {
+        return (flag ? "Y" : " ");
     }
 
     /**
@@ -192,7 +311,7 @@ public class CookieFile implements AutoCloseable {
         double retVal;
         if (stringVal == null) {
             retVal = defaultVal;
-            this.put(key, defaultVal);
+            this.putDefault(key, Double.toString(defaultVal));
         } else {
             retVal = Double.parseDouble(stringVal);
         }
@@ -221,10 +340,24 @@ public class CookieFile implements AutoCloseable {
      */
     public CookieFile put(String key, String newVal) {
         this.varMap.put(key, newVal);
+        this.changes.put(key, newVal);
         this.changed = true;
         return this;
     }
 
+    /**
+     * Store a default value for a key that was not present.  When the file is saved, the default is only stored
+     * if no other request has stored a value for the key in the meantime.
+     *
+     * @param key			key to update
+     * @param defaultVal	default value to store
+     */
+    private void putDefault(String key, String defaultVal) {
+        this.varMap.put(key, defaultVal);
+        this.defaults.put(key, defaultVal);
+        this.changed = true;
+    }
+
     /**
      * Store a new key value (int).
      *
@@ -244,6 +377,8 @@ public class CookieFile implements AutoCloseable {
      */
     public CookieFile delete(String key) {
         this.varMap.remove(key);
+        this.defaults.remove(key);
+        this.changes.put(key, null);
         this.changed = true;
         return this;
     }
@@ -257,28 +392,83 @@ public class CookieFile implements AutoCloseable {
     }
 
     /**
-     * Flush all the current changes to disk.
+     * Flush all the current changes to disk.  The changes are merged with the current contents of the file, so
+     * that changes made by other requests since this object was loaded are kept.  Afterward, this object holds
+     * the merged values.
      *
-     * @throws FileNotFoundException
+     * @throws IOException
      */
-    public void flush() throws FileNotFoundException {
-        flush(this.mapFile);
+    public void flush() throws IOException {
+        String key = this.mapFile.getAbsolutePath();
+        ReentrantLock threadLock = threadLocks.computeIfAbsent(key, x -> new ReentrantLock());
+        File lockFile = new File(this.mapFile.getParentFile(), this.mapFile.getName() + LOCK_SUFFIX);
+        threadLock.lock();
+        try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+                FileLock fileLock = lockChannel.lock()) {
+            // Merge our changes into the current file contents.  We are holding the lock, so we read the file
+            // itself rather than trusting the cache.
+            Map<String, String> merged = parseValues(this.mapFile);
+            for (Map.Entry<String, String> defaultVal : this.defaults.entrySet())
+                merged.putIfAbsent(defaultVal.getKey(), defaultVal.getValue());
+            for (Map.Entry<String, String> change : this.changes.entrySet()) {
+                if (change.getValue() == null)
+                    merged.remove(change.getKey());
+                else
+                    merged.put(change.getKey(), change.getValue());
+            }
+            writeValues(this.mapFile, merged);
+            // Cache the new file contents.  We are still holding the lock, so nobody else could have changed it.
+            cache.put(key, new Snapshot(this.mapFile.lastModified(), this.mapFile.length(),
+                    Collections.unmodifiableMap(new HashMap<String, String>(merged))));
+            this.varMap = merged;
+        } finally {
+            threadLock.unlock();
+        }
+        this.changes.clear();
+        this.defaults.clear();
         this.changed = false;
     }
 
     /**
-     * Flush all current changes to the specified file.
+     * Write all the current values to the specified file.  Unlike {@link #flush()}, this does not merge with
+     * the existing file contents.
      *
      * @param outFile	output cookie file
      *
-     * @throws FileNotFoundException
+     * @throws IOException
      */
-    public void flush(File outFile) throws FileNotFoundException {
-        // Write the values to the output file.
-        try (PrintWriter outStream = new PrintWriter(outFile)) {
-            for (Map.Entry<String, String> keyValue : this.varMap.entrySet()) {
-                outStream.println(keyValue.getKey() + " " + keyValue.getValue());
+    public void flush(File outFile) throws IOException {
+        writeValues(outFile, this.varMap);
+    }
+
+    /**
+     * Write a map of values to a cookie file.  The values are written to a temporary file in the same directory,
+     * which is then renamed over the cookie file.
+     *
+     * @param outFile	output cookie file
+     * @param values	map of keys to values
+     *
+     * @throws IOException
+     */
+    private static void writeValues(File outFile, Map<String, String> values) throws IOException {
+        Path target = outFile.toPath().toAbsolutePath();
+        // File.createTempFile uses the normal file permissions, so the renamed file stays readable by other users.
+        Path tempFile = File.createTempFile(target.getFileName().toString() + ".", ".tmp",
+                target.getParent().toFile()).toPath();
+        try {
+            try (PrintWriter outStream = new PrintWriter(Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, String> keyValue : values.entrySet()) {
+                    outStream.println(keyValue.getKey() + " " + keyValue.getValue());
+                }
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
             }
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
     }
 
@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package org.theseed.web;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.kohsuke.args4j.Option;
+import org.theseed.web.forms.FormBlastElement;
+import org.theseed.web.forms.FormElement;
+import org.theseed.web.forms.FormFileElement;
+import org.theseed.web.forms.FormIntElement;
+import org.theseed.web.forms.FormMapElement;
+
+/**
+ * This object describes the form fields of a web processor class.  The annotations on the class's fields are parsed
+ * once, and each form field gets a variable handle for reading and writing its value.  The descriptors are cached
+ * per class, so repeated form builds and saves (particularly in a resident server) do no further reflection.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class FormDescriptor {
+
+    /**
+     * This object describes a single form field.
+     */
+    protected static class FormField {
+
+        /** option name, without the leading dashes */
+        private final String name;
+        /** usage description from the option */
+        private final String label;
+        /** name of the field */
+        private final String fieldName;
+        /** type of the field */
+        private final Class<?> type;
+        /** form annotation */
+        private final Annotation formAnnotation;
+        /** variable handle for the field, or NULL if it is not accessible */
+        private final VarHandle handle;
+        /** for a BLAST field, the field containing the database type; otherwise NULL */
+        private FormField typeField;
+
+        /**
+         * Construct a form field descriptor.
+         *
+         * @param field				field being described
+         * @param name				option name, without the leading dashes
+         * @param label				usage description from the option
+         * @param formAnnotation	form annotation
+         * @param lookup			lookup object for creating the variable handle
+         */
+        private FormField(Field field, String name, String label, Annotation formAnnotation,
+                MethodHandles.Lookup lookup) {
+            this.name = name;
+            this.label = label;
+            this.fieldName = field.getName();
+            this.type = field.getType();
+            this.formAnnotation = formAnnotation;
+            VarHandle fieldHandle;
+            try {
+                fieldHandle = lookup.unreflectVarHandle(field);
+            } catch (IllegalAccessException e) {
+                fieldHandle = null;
+            }
+            this.handle = fieldHandle;
+            this.typeField = null;
+        }
+
+        /**
+         * @return the option name, without the leading dashes
+         */
+        protected String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the usage description from the option
+         */
+        protected String getLabel() {
+            return this.label;
+        }
+
+        /**
+         * @return the name of the field
+         */
+        protected String getFieldName() {
+            return this.fieldName;
+        }
+
+        /**
+         * @return the type of the field
+         */
+        protected Class<?> getType() {
+            return this.type;
+        }
+
+        /**
+         * @return the form annotation
+         */
+        protected Annotation getFormAnnotation() {
+            return this.formAnnotation;
+        }
+
+        /**
+         * @return the field containing the database type for a BLAST field, or NULL if there is none
+         */
+        protected FormField getTypeField() {
+            return this.typeField;
+        }
+
+        /**
+         * @return TRUE if the field value can be read and written
+         */
+        protected boolean isAccessible() {
+            return this.handle != null;
+        }
+
+        /**
+         * @return the value of this field in a processor, boxed if it is primitive
+         *
+         * @param processor		processor containing the field
+         *
+         * @throws IllegalAccessException
+         */
+        protected Object getValue(Object processor) throws IllegalAccessException {
+            this.checkAccess();
+            return this.handle.get(processor);
+        }
+
+        /**
+         * Store the value of this field in a processor.
+         *
+         * @param processor		processor containing the field
+         * @param value			value to store, boxed if the field is primitive
+         *
+         * @throws IllegalAccessException
+         */
+        protected void setValue(Object processor, Object value) throws IllegalAccessException {
+            this.checkAccess();
+            this.handle.set(processor, value);
+        }
+
+        /**
+         * Insure this field is accessible.
+         *
+         * @throws IllegalAccessException
+         */
+        private void checkAccess() throws IllegalAccessException {
+            if (this.handle == null)
+                throw new IllegalAccessException("Field " + this.fieldName + " is not accessible.");
+        }
+
+    }
+
+    // FIELDS
+    /** form fields, in declaration order */
+    private final List<FormField> fields;
+    /** names of the boolean options in the class and its superclasses, without the leading dashes */
+    private final Set<String> flags;
+    /** cache of descriptors for each class */
+    private static final ClassValue<FormDescriptor> CACHE = new ClassValue<FormDescriptor>() {
+        @Override
+        protected FormDescriptor computeValue(Class<?> type) {
+            return new FormDescriptor(type);
+        }
+    };
+
+    /**
+     * @return the form descriptor for a processor class
+     *
+     * @param processorType		class of the processor
+     */
+    public static FormDescriptor of(Class<?> processorType) {
+        return CACHE.get(processorType);
+    }
+
+    /**
+     * Build the form descriptor for a processor class.  Only the fields declared in the class itself are examined.
+     *
+     * @param processorType		class of the processor
+     */
+    private FormDescriptor(Class<?> processorType) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Field[] declared = processorType.getDeclaredFields();
+        List<FormField> formFields = new ArrayList<FormField>(declared.length);
+        // This maps option names to the form fields for the BLAST type search.  It includes options without form
+        // annotations, since the type field need not be in the form.
+        Map<String, Field> optionFields = new HashMap<String, Field>(declared.length * 2);
+        for (Field field : declared) {
+            Annotation[] annotations = field.getAnnotations();
+            String name = null;
+            String label = null;
+            Annotation formAnnotation = null;
+            for (Annotation annotation : annotations) {
+                if (annotation instanceof Option) {
+                    Option option = (Option) annotation;
+                    if (option.name().startsWith("--"))
+                        name = option.name().substring(2);
+                    label = option.usage();
+                } else if (annotation instanceof FormElement || annotation instanceof FormIntElement ||
+                        annotation instanceof FormBlastElement || annotation instanceof FormFileElement ||
+                        annotation instanceof FormMapElement)
+                    formAnnotation = annotation;
+            }
+            if (name != null)
+                optionFields.putIfAbsent(name, field);
+            if (formAnnotation != null) {
+                // Error out if we have a form annotation without a valid option element.
+                if (name == null)
+                    throw new IllegalArgumentException("Field " + field.getName() + " needs a double-dashed @Option.");
+                formFields.add(new FormField(field, name, label, formAnnotation, lookup));
+            }
+        }
+        // Connect the BLAST fields to their type fields.
+        for (FormField formField : formFields) {
+            if (formField.formAnnotation instanceof FormBlastElement) {
+                String typeName = ((FormBlastElement) formField.formAnnotation).id();
+                Field typeField = optionFields.get(typeName);
+                if (typeField != null)
+                    formField.typeField = new FormField(typeField, typeName, null, null, lookup);
+            }
+        }
+        this.fields = Collections.unmodifiableList(formFields);
+        // Find the boolean options.  Unlike the form fields, these can come from the superclasses.
+        Set<String> flagNames = new HashSet<String>();
+        for (Class<?> type = processorType; type != null; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                Option option = field.getAnnotation(Option.class);
+                if (option != null && option.name().startsWith("--") && field.getType() == Boolean.TYPE)
+                    flagNames.add(option.name().substring(2));
+            }
+        }
+        this.flags = Collections.unmodifiableSet(flagNames);
+    }
+
+    /**
+     * @return the form fields for the processor class, in declaration order
+     */
+    public List<FormField> getFields() {
+        return this.fields;
+    }
+
+    /**
+     * @return TRUE if the specified option is a boolean flag for the processor class
+     *
+     * @param name		option name, without the leading dashes
+     */
+    public boolean isFlag(String name) {
+        return this.flags.contains(name);
+    }
+
+}
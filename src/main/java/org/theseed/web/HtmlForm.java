@@ -10,7 +10,6 @@ import j2html.tags.EmptyTag;
 import static j2html.TagCreator.*;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Arrays;
@@ -18,11 +17,9 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import org.theseed.io.TabbedLineReader;
 import org.theseed.reports.PageWriter;
 import org.theseed.sequence.blast.Source;
 import org.theseed.utils.IDescribable;
@@ -42,8 +39,8 @@ public class HtmlForm {
     private ContainerTag form;
     /** table of input rows */
     private HtmlTable<Key.Null> inputTable;
-    /** list of files in the workspace directory */
-    private List<String> workFiles;
+    /** catalog of files in the workspace directory */
+    private WorkspaceCatalog workFiles;
     /** TRUE if files were used, else FALSE */
     private boolean usedFiles;
     /** page writer for this form */
@@ -67,8 +64,6 @@ public class HtmlForm {
     public static final Pattern READ_FILE_PATTERN = Pattern.compile(READ_FILE_REGEX);
     /** maximum number of files to display in a datalist */
     private static final int MAX_FILES = 40;
-    /** filter for workspace to ignore internal files */
-    private static final FilenameFilter WORK_FILE_FILTER = new WorkFiles();
 
 
     /**
@@ -109,9 +104,8 @@ public class HtmlForm {
         // Get the cookie file.
         String cookieName = formCookieName(program, command);
         this.savedForm = new CookieFile(wsDir, cookieName);
-        // Now load the file list.  We ignore directories and "_" files.
-        File[] workDirFiles = wsDir.listFiles(WORK_FILE_FILTER);
-        this.workFiles = Arrays.stream(workDirFiles).filter(x -> x.isFile() && x.canRead()).map(x -> x.getName()).collect(Collectors.toList());
+        // Now get the file catalog.  This ignores directories and "_" files.
+        this.workFiles = WorkspaceCatalog.of(wsDir);
         // Denote no files were used.
         this.usedFiles = false;
     }
@@ -156,16 +150,6 @@ public class HtmlForm {
         return "form." + program + "." + command;
     }
 
-    /** This is the filename filter used to get all the workspace files. */
-    private static class WorkFiles implements FilenameFilter {
-
-        @Override
-        public boolean accept(File dir, String name) {
-            return name.charAt(0) != '_';
-        }
-
-    }
-
     /**
      * Construct a new HTML form.  This is a shortcut when a WebProcessor is available.
      *
@@ -248,18 +232,18 @@ public class HtmlForm {
      * @param mapFile	mapping file, tab-delimited, with the description in column "description" and the value in column "value"
      */
     private ContainerTag buildMapBox(String name, File mapFile) {
-        // Read the map from the file.
-        Map<String, String> map;
+        // Get the choices for the file.  These are cached, with the option tags already rendered.
+        MapChoices choices;
         try {
-            map = TabbedLineReader.readMap(mapFile, "description", "value");
+            choices = MapChoices.get(mapFile);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
-        if (map.size() < 1)
+        if (choices.size() < 1)
             throw new IllegalArgumentException("File " + mapFile + " has no data.");
-        // Compute the default control value.
-        String defKey = map.values().iterator().next();
-        ContainerTag retVal = buildBoxFromMap(name, map, defKey);
+        // Get the saved value of the control.  The first value is the default.
+        String initVal = this.savedForm.get(name, choices.getDefault());
+        ContainerTag retVal = select().withName(name).with(rawHtml(choices.renderOptions(initVal)));
         return retVal;
     }
 
@@ -501,14 +485,11 @@ public class HtmlForm {
             // Here we have to create and name the data list.
             retVal = this.writer.getListID();
             ContainerTag dataList = datalist().withId(retVal);
-            int used = 0;
-            for (int i = 0; i < this.workFiles.size() && used < MAX_FILES; i++) {
-                String fileName = this.workFiles.get(i);
-                Matcher m = namePattern.matcher(fileName);
-                if (m.matches()) {
-                    dataList.with(option(fileName).withValue(fileName));
-                    used++;
-                }
+            List<String> fileNames = this.workFiles.getFiles(namePattern);
+            int n = Math.min(fileNames.size(), MAX_FILES);
+            for (int i = 0; i < n; i++) {
+                String fileName = fileNames.get(i);
+                dataList.with(option(fileName).withValue(fileName));
             }
             // Store the list name in the map.
             this.writer.putDataList(namePattern.pattern(), retVal);
@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package org.theseed.web;
+
+import static j2html.TagCreator.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.theseed.io.TabbedLineReader;
+
+/**
+ * This object contains the choices for a dropdown box built from a tab-delimited map file.  The "description"
+ * column of the file contains the description to be displayed in the box, and the "value" column contains the
+ * value to return.  Some of these files have tens of thousands of lines, so the choices are loaded once through
+ * the {@link SharedFileCache} and the HTML for the option tags is rendered once when the file is loaded.  Each form
+ * then only needs to mark the option for its saved value as selected.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MapChoices {
+
+    // FIELDS
+    /** value of each choice, in file order */
+    private final String[] values;
+    /** description of each choice, in file order */
+    private final String[] descriptions;
+    /** HTML for all the option tags, with nothing selected */
+    private final String optionHtml;
+    /** offset of each option tag in the HTML; the last entry is the length of the HTML */
+    private final int[] offsets;
+    /** map of values to the indices of the choices with that value */
+    private final Map<String, int[]> valueMap;
+
+    /**
+     * Construct the choices from a map.
+     *
+     * @param map	map of descriptions to values, in display order
+     */
+    public MapChoices(Map<String, String> map) {
+        final int n = map.size();
+        this.values = new String[n];
+        this.descriptions = new String[n];
+        this.offsets = new int[n + 1];
+        Map<String, List<Integer>> indexLists = new HashMap<String, List<Integer>>(n * 4 / 3 + 1);
+        StringBuilder html = new StringBuilder(n * 40);
+        int i = 0;
+        for (Map.Entry<String, String> pair : map.entrySet()) {
+            this.descriptions[i] = pair.getKey();
+            this.values[i] = pair.getValue();
+            this.offsets[i] = html.length();
+            html.append(option(pair.getKey()).withValue(pair.getValue()).render());
+            indexLists.computeIfAbsent(pair.getValue(), x -> new ArrayList<Integer>(1)).add(i);
+            i++;
+        }
+        this.offsets[n] = html.length();
+        this.optionHtml = html.toString();
+        this.valueMap = new HashMap<String, int[]>(indexLists.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<Integer>> indexList : indexLists.entrySet())
+            this.valueMap.put(indexList.getKey(), indexList.getValue().stream().mapToInt(x -> x).toArray());
+    }
+
+    /**
+     * Load the choices from a map file.
+     *
+     * @param mapFile	mapping file, tab-delimited, with the description in column "description" and the value
+     * 					in column "value"
+     *
+     * @throws IOException
+     */
+    public MapChoices(File mapFile) throws IOException {
+        this(TabbedLineReader.readMap(mapFile, "description", "value"));
+    }
+
+    /**
+     * @return the choices for a map file, from the shared cache if the file is unchanged
+     *
+     * @param mapFile	mapping file, tab-delimited, with the description in column "description" and the value
+     * 					in column "value"
+     *
+     * @throws IOException
+     */
+    public static MapChoices get(File mapFile) throws IOException {
+        return SharedFileCache.get(mapFile, MapChoices.class, MapChoices::new);
+    }
+
+    /**
+     * @return the number of choices
+     */
+    public int size() {
+        return this.values.length;
+    }
+
+    /**
+     * @return the default value (the value of the first choice), or NULL if there are no choices
+     */
+    public String getDefault() {
+        return (this.values.length > 0 ? this.values[0] : null);
+    }
+
+    /**
+     * @return the HTML for the option tags, with the options for the specified value selected
+     *
+     * @param selected	value to select
+     */
+    public String renderOptions(String selected) {
+        String retVal;
+        int[] selections = this.valueMap.get(selected);
+        if (selections == null)
+            retVal = this.optionHtml;
+        else {
+            StringBuilder html = new StringBuilder(this.optionHtml.length() + 10 * selections.length);
+            int pos = 0;
+            for (int i : selections) {
+                html.append(this.optionHtml, pos, this.offsets[i]);
+                html.append(option(this.descriptions[i]).withValue(this.values[i]).attr("selected").render());
+                pos = this.offsets[i + 1];
+            }
+            html.append(this.optionHtml, pos, this.optionHtml.length());
+            retVal = html.toString();
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package org.theseed.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object caches read-only data structures loaded from files, such as role maps and coupling maps, so that
+ * in a resident server they are loaded once instead of on every request.  Each entry remembers the modification
+ * time of its file, and the file is reloaded if it changes.  The cached objects are shared by all request threads,
+ * so they must not be modified after loading.
+ *
+ * When each request runs in its own process, the cache simply holds the object for the life of the request.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SharedFileCache {
+
+    /**
+     * This interface describes a method that loads an object from a file.
+     */
+    public interface Loader<T> {
+
+        /**
+         * @return the object loaded from the file
+         *
+         * @param file	file to load
+         *
+         * @throws IOException
+         */
+        public T load(File file) throws IOException;
+
+    }
+
+    /**
+     * This object contains a cached object and the modification time of its file.
+     */
+    private static class Entry {
+
+        /** modification time of the file */
+        private final long modified;
+        /** object loaded from the file */
+        private final Object value;
+
+        /**
+         * Construct a cache entry.
+         *
+         * @param modified	modification time of the file
+         * @param value		object loaded from the file
+         */
+        private Entry(long modified, Object value) {
+            this.modified = modified;
+            this.value = value;
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(SharedFileCache.class);
+    /** map of cache keys to entries */
+    private static final Map<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Get the object for a file, loading it if it is not cached or the file has changed.  The same file can be
+     * cached by different loaders, so the key includes the class of the object.
+     *
+     * @param file		file containing the object
+     * @param type		class of the object
+     * @param loader	method for loading the object from the file
+     *
+     * @return the object loaded from the file
+     *
+     * @throws IOException
+     */
+    public static <T> T get(File file, Class<T> type, Loader<? extends T> loader) throws IOException {
+        String key = type.getName() + ":" + file.getAbsolutePath();
+        // Get the modification time before loading, so a change during the load causes a reload next time.
+        long modified = file.lastModified();
+        Entry entry = cache.get(key);
+        if (entry == null || entry.modified != modified) {
+            log.info("Loading shared {} from {}.", type.getSimpleName(), file);
+            entry = new Entry(modified, loader.load(file));
+            cache.put(key, entry);
+        }
+        return type.cast(entry.value);
+    }
+
+    /**
+     * Remove all the cached objects.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of cached objects
+     */
+    public static int size() {
+        return cache.size();
+    }
+
+}
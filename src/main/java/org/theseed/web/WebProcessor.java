@@ -10,9 +10,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -241,98 +239,6 @@ public abstract class WebProcessor extends BaseProcessor {
      */
     protected abstract void runWebCommand(CookieFile cookies) throws Exception;
 
-    /**
-     * This is a utility structure for extracting useful annotations.
-     *
-     * @author Bruce Parrello
-     */
-    private static class FormThing {
-
-        private String name;
-        private String label;
-        private String fieldName;
-        private Annotation formAnnotation;
-
-        /**
-         * Constructor to set up for processing form annotations.
-         *
-         * @param field		field to analyze
-         */
-        public FormThing(Field field) {
-            Annotation[] annotations = field.getAnnotations();
-            findOption(field, annotations);
-            // Find the form annotation.  This is so very ugly.
-            for (Annotation annotation : annotations) {
-                if (annotation instanceof FormElement || annotation instanceof FormIntElement ||
-                        annotation instanceof FormBlastElement || annotation instanceof FormFileElement ||
-                        annotation instanceof FormMapElement
-                        )
-                    formAnnotation = annotation;
-            }
-            // Error out if we have a form annotation without a valid option element.
-            if (formAnnotation != null && name == null)
-                throw new IllegalArgumentException("Field " + fieldName + " needs a double-dashed @Option.");
-        }
-
-        /**
-         * Default constructor for internal use.
-         */
-        public FormThing() { };
-        /**
-         * @return TRUE if the field has the specified option name.
-         *
-         * @param field		field to analyze
-         */
-        public static boolean hasOptionName(Field field, String name) {
-            FormThing testInstance = new FormThing();
-            Annotation[] annotations = field.getAnnotations();
-            testInstance.findOption(field, annotations);
-            return name.equals(testInstance.getName());
-        }
-
-        /**
-         * Try to find the Option annotation and extract its data.
-         *
-         * @param field			field being processed
-         * @param annotations	annotations on the field
-         */
-        private void findOption(Field field, Annotation[] annotations) {
-            name = null;
-            label = null;
-            formAnnotation = null;
-            fieldName = field.getName();
-            Optional<Annotation> optionElement = Arrays.stream(annotations).filter(x -> x instanceof Option).findFirst();
-            if (optionElement.isPresent()) {
-                Option option = (Option) optionElement.get();
-                if (option.name().startsWith("--"))
-                    name = option.name().substring(2);
-                label = option.usage();
-            }
-        }
-
-        /**
-         * @return the name from the Option annotation
-         */
-        protected String getName() {
-            return this.name;
-        }
-
-        /**
-         * @return the usage description from the Option annotation
-         */
-        protected String getLabel() {
-            return this.label;
-        }
-
-        /**
-         * @return the form annotation
-         */
-        protected Annotation getFormAnnotation() {
-            return formAnnotation;
-        }
-
-    }
-
     /**
      * Build a form for this command using the Form* annotations.  This command is called from
      * the form's webprocessor to build a form for the command processor.
@@ -356,64 +262,60 @@ public abstract class WebProcessor extends BaseProcessor {
         HtmlForm retVal = new HtmlForm(program, command, this.workSpace, this.workSpaceDir, this.pageWriter);
         WebProcessor processor = processorType.getDeclaredConstructor().newInstance();
         processor.setDefaults();
-        Field[] fields = processorType.getDeclaredFields();
         // We will track bad annotations in here.
         List<String> badFields = new ArrayList<String>();
         List<String> badTypes = new ArrayList<String>();
-        for (Field field : fields) {
-            Class<?> type = field.getType();
-            FormThing formThing = new FormThing(field);
+        for (FormDescriptor.FormField formField : FormDescriptor.of(processorType).getFields()) {
+            Class<?> type = formField.getType();
             try {
-                Annotation annotation = formThing.getFormAnnotation();
-                if (annotation != null) {
-                    String name = formThing.getName();
-                    String label = formThing.getLabel();
-                    // Here we have a real form element.
-                    if (annotation instanceof FormElement) {
-                        if (type == java.lang.Boolean.TYPE) {
-                            retVal.addCheckBoxRow(name, label);
-                        } else if (type == java.lang.Double.TYPE) {
-                            retVal.addTextRow(name, label, Double.toString(field.getDouble(processor)));
-                        } else if (type.isEnum()) {
-                            Enum<?> value = (Enum<?>) field.get(processor);
-                            IDescribable[] constants = (IDescribable[]) type.getEnumConstants();
-                            retVal.addEnumRow(name, label, value, constants);
-                        } else if (type == String.class) {
-                            retVal.addTextRow(name, label, (String) field.get(processor));
-                        } else
-                            badTypes.add(field.getName());
-                    } else if (annotation instanceof FormIntElement) {
-                        FormIntElement formAnnotation = (FormIntElement) annotation;
-                        int min = formAnnotation.min();
-                        int max = formAnnotation.max();
-                        if (type == java.lang.Integer.TYPE) {
-                            int init = field.getInt(processor);
-                            retVal.addIntRow(name, label, init, min, max);
-                        } else if (type == java.lang.Double.TYPE) {
-                            int init = (int) field.getDouble(processor);
-                            retVal.addIntRow(name, label, init, min, max);
-                        } else
-                            badTypes.add(field.getName());
-                    } else if (annotation instanceof FormMapElement) {
-                        FormMapElement formAnnotation = (FormMapElement) annotation;
-                        File mapFile = new File(this.coreDir, formAnnotation.file());
-                        retVal.addMapRow(name, label, mapFile);
-                    } else if (annotation instanceof FormBlastElement) {
-                        FormBlastElement formAnnotation = (FormBlastElement) annotation;
-                        if (type == String.class) {
-                            String typeId = formAnnotation.id();
-                            retVal.addBlastRow(typeId, name, label);
-                        } else
-                            badTypes.add(field.getName());
-                    } else if (annotation instanceof FormFileElement) {
-                        FormFileElement formAnnotation = (FormFileElement) annotation;
-                        Pattern filePattern = Pattern.compile(formAnnotation.pattern());
-                        retVal.addFileRow(name, label, filePattern);
-                    }
+                Annotation annotation = formField.getFormAnnotation();
+                String name = formField.getName();
+                String label = formField.getLabel();
+                // Here we have a real form element.
+                if (annotation instanceof FormElement) {
+                    if (type == java.lang.Boolean.TYPE) {
+                        retVal.addCheckBoxRow(name, label);
+                    } else if (type == java.lang.Double.TYPE) {
+                        retVal.addTextRow(name, label, Double.toString((Double) formField.getValue(processor)));
+                    } else if (type.isEnum()) {
+                        Enum<?> value = (Enum<?>) formField.getValue(processor);
+                        IDescribable[] constants = (IDescribable[]) type.getEnumConstants();
+                        retVal.addEnumRow(name, label, value, constants);
+                    } else if (type == String.class) {
+                        retVal.addTextRow(name, label, (String) formField.getValue(processor));
+                    } else
+                        badTypes.add(formField.getFieldName());
+                } else if (annotation instanceof FormIntElement) {
+                    FormIntElement formAnnotation = (FormIntElement) annotation;
+                    int min = formAnnotation.min();
+                    int max = formAnnotation.max();
+                    if (type == java.lang.Integer.TYPE) {
+                        int init = (Integer) formField.getValue(processor);
+                        retVal.addIntRow(name, label, init, min, max);
+                    } else if (type == java.lang.Double.TYPE) {
+                        int init = (int) (double) (Double) formField.getValue(processor);
+                        retVal.addIntRow(name, label, init, min, max);
+                    } else
+                        badTypes.add(formField.getFieldName());
+                } else if (annotation instanceof FormMapElement) {
+                    FormMapElement formAnnotation = (FormMapElement) annotation;
+                    File mapFile = new File(this.coreDir, formAnnotation.file());
+                    retVal.addMapRow(name, label, mapFile);
+                } else if (annotation instanceof FormBlastElement) {
+                    FormBlastElement formAnnotation = (FormBlastElement) annotation;
+                    if (type == String.class) {
+                        String typeId = formAnnotation.id();
+                        retVal.addBlastRow(typeId, name, label);
+                    } else
+                        badTypes.add(formField.getFieldName());
+                } else if (annotation instanceof FormFileElement) {
+                    FormFileElement formAnnotation = (FormFileElement) annotation;
+                    Pattern filePattern = Pattern.compile(formAnnotation.pattern());
+                    retVal.addFileRow(name, label, filePattern);
                 }
             } catch (IllegalAccessException e) {
                 // Remember invalid fields.
-                badFields.add(field.getName());
+                badFields.add(formField.getFieldName());
             }
         }
         if (badFields.size() + badTypes.size() > 0) {
@@ -436,39 +338,32 @@ public abstract class WebProcessor extends BaseProcessor {
      * @throws IllegalAccessException
      */
     public void saveForm(CookieFile cookies) throws IllegalAccessException {
-        Class<? extends WebProcessor> processorType = this.getClass();
-        Field[] fields = processorType.getDeclaredFields();
-        // We will track the blast elements in here.
-        for (Field field : fields) {
-            Class<?> type = field.getType();
-            FormThing formThing = new FormThing(field);
-            Annotation annotation = formThing.getFormAnnotation();
-            if (annotation != null) {
-                if (annotation instanceof FormBlastElement) {
-                    // BLAST fields are tricky, because we have to store two values.
-                    String typeOptionName = ((FormBlastElement) annotation).id();
-                    // Search for the matching type field.
-                    Optional<Field> possibleMatch = Arrays.stream(fields).filter(x -> FormThing.hasOptionName(x, typeOptionName)).findFirst();
-                    if (possibleMatch.isPresent()) {
-                        // Store the file field.
-                        cookies.put(formThing.getName(), (String) field.get(this));
-                        // Store the type field.
-                        Source dbType = (Source) possibleMatch.get().get(this);
-                        cookies.put(typeOptionName, dbType.name());
-                    }
-                } else {
-                    if (type == java.lang.Boolean.TYPE)
-                        cookies.put(formThing.getName(), field.getBoolean(this));
-                    else if (type == java.lang.Integer.TYPE)
-                        cookies.put(formThing.getName(), field.getInt(this));
-                    else if (type == java.lang.Double.TYPE)
-                        cookies.put(formThing.getName(), field.getDouble(this));
-                    else if (type == String.class)
-                        cookies.put(formThing.getName(), (String) field.get(this));
-                    else if (type.isEnum()) {
-                        Enum<?> value = (Enum<?>) field.get(this);
-                        cookies.put(formThing.getName(), value.name());
-                    }
+        for (FormDescriptor.FormField formField : FormDescriptor.of(this.getClass()).getFields()) {
+            Class<?> type = formField.getType();
+            Annotation annotation = formField.getFormAnnotation();
+            if (annotation instanceof FormBlastElement) {
+                // BLAST fields are tricky, because we have to store two values.  The descriptor has already
+                // found the matching type field.
+                FormDescriptor.FormField typeField = formField.getTypeField();
+                if (typeField != null) {
+                    // Store the file field.
+                    cookies.put(formField.getName(), (String) formField.getValue(this));
+                    // Store the type field.
+                    Source dbType = (Source) typeField.getValue(this);
+                    cookies.put(typeField.getName(), dbType.name());
+                }
+            } else {
+                if (type == java.lang.Boolean.TYPE)
+                    cookies.put(formField.getName(), (boolean) (Boolean) formField.getValue(this));
+                else if (type == java.lang.Integer.TYPE)
+                    cookies.put(formField.getName(), (int) (Integer) formField.getValue(this));
+                else if (type == java.lang.Double.TYPE)
+                    cookies.put(formField.getName(), (double) (Double) formField.getValue(this));
+                else if (type == String.class)
+                    cookies.put(formField.getName(), (String) formField.getValue(this));
+                else if (type.isEnum()) {
+                    Enum<?> value = (Enum<?>) formField.getValue(this);
+                    cookies.put(formField.getName(), value.name());
                 }
             }
         }
@@ -0,0 +1,475 @@
+/**
+ *
+ */
+package org.theseed.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.reports.PageWriter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This object is a resident web server for {@link WebProcessor} commands.  Instead of starting a new process for each
+ * request, the commands run inside this server, so the class loading and the shared caches (genome catalogs, function
+ * caches, and anything in {@link SharedFileCache}) survive from one request to the next.
+ *
+ * The server listens on the loopback interface only, and accepts the same URLs that {@link WebProcessor#commandUrl}
+ * produces:  "/program.cgi/command?workspace=name;key=value;...".  Each command is registered with a factory that
+ * creates a new processor instance, so every request has its own processor, page writer, and cookie file.  The
+ * parameters are converted into a command line:  the coreSEED directory and workspace become the positional
+ * arguments, and every other parameter becomes a double-dashed option.  A parameter for a boolean option becomes
+ * a bare flag, and is omitted if its value is empty, "0", "false" or "off".
+ *
+ * Files uploaded in a multipart request are saved in the workspace under their own names, and the option for the
+ * upload field gets the saved file name.  An upload without a workspace or with an invalid file name is rejected.
+ *
+ * Commands for the same workspace run one at a time, so that they do not interfere with each other's cookie files
+ * and work files.  Commands for different workspaces run in parallel.  Each command's page writer is given its own
+ * output stream, and the page output is returned as the response.  The standard output is left alone, so log
+ * messages never end up in a page.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class WebServer {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(WebServer.class);
+    /** coreSEED data directory */
+    private final File coreDir;
+    /** HTTP server */
+    private final HttpServer server;
+    /** thread pool for requests */
+    private final ExecutorService executor;
+    /** map of "program/command" strings to processor factories */
+    private final Map<String, Supplier<? extends WebProcessor>> commands;
+    /** map of workspace names to locks */
+    private final Map<String, ReentrantLock> workspaceLocks;
+    /** output environment for the page writers, or NULL to use the processor default */
+    private PageWriter.Type outputType;
+    /** separator between the headers and the data of a multipart body part */
+    private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    /** pattern for the parameter name in a multipart body part header */
+    private static final Pattern PART_NAME = Pattern.compile("(?:^|[;\\s])name=\"([^\"]*)\"");
+    /** pattern for the file name in a multipart body part header */
+    private static final Pattern PART_FILE_NAME = Pattern.compile("filename=\"([^\"]*)\"");
+
+    /**
+     * Create a web server for a coreSEED.  The server is not started until {@link #start()} is called.
+     *
+     * @param coreDir		coreSEED data directory
+     * @param port			port on which to listen, or 0 to choose a free port
+     * @param maxThreads	maximum number of requests to process at once
+     *
+     * @throws IOException
+     */
+    public WebServer(File coreDir, int port, int maxThreads) throws IOException {
+        this.coreDir = coreDir;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(maxThreads);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", x -> this.handle(x));
+        this.commands = new ConcurrentHashMap<String, Supplier<? extends WebProcessor>>();
+        this.workspaceLocks = new ConcurrentHashMap<String, ReentrantLock>();
+        this.outputType = null;
+    }
+
+    /**
+     * Register a command with this server.
+     *
+     * @param program	program name, as it appears in the URL before ".cgi"
+     * @param command	command name
+     * @param factory	method for creating a new processor for the command
+     */
+    public void register(String program, String command, Supplier<? extends WebProcessor> factory) {
+        this.commands.put(program + "/" + command, factory);
+    }
+
+    /**
+     * Specify the output environment for the page writers.
+     *
+     * @param outputType	output environment to use, or NULL to use the processor default
+     */
+    public void setOutputType(PageWriter.Type outputType) {
+        this.outputType = outputType;
+    }
+
+    /**
+     * Start listening for requests.
+     */
+    public void start() {
+        this.server.start();
+        log.info("Web server listening on port {} with {} commands.", this.getPort(), this.commands.size());
+    }
+
+    /**
+     * Stop the server.
+     *
+     * @param delay		maximum number of seconds to wait for requests in progress to finish
+     */
+    public void stop(int delay) {
+        this.server.stop(delay);
+        this.executor.shutdown();
+        log.info("Web server stopped.");
+    }
+
+    /**
+     * @return the port on which this server is listening
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * This object describes a file uploaded in a multipart request.
+     */
+    private static class Upload {
+
+        /** name of the parameter for the upload */
+        private final String name;
+        /** name under which to save the file in the workspace */
+        private final String fileName;
+        /** request content */
+        private final byte[] content;
+        /** offset of the file data in the content */
+        private final int start;
+        /** offset past the end of the file data in the content */
+        private final int end;
+
+        /**
+         * Construct a file upload descriptor.
+         *
+         * @param name			name of the parameter for the upload
+         * @param fileName		name under which to save the file in the workspace
+         * @param content		request content
+         * @param start			offset of the file data in the content
+         * @param end			offset past the end of the file data in the content
+         */
+        private Upload(String name, String fileName, byte[] content, int start, int end) {
+            this.name = name;
+            this.fileName = fileName;
+            this.content = content;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Save this file in a workspace.  The file is written under a temporary name and then renamed, so that
+         * other requests never see a partial file.
+         *
+         * @param wsDir		workspace directory
+         *
+         * @throws IOException
+         */
+        private void save(File wsDir) throws IOException {
+            Path target = new File(wsDir, this.fileName).toPath();
+            // File.createTempFile uses the normal file permissions, so the saved upload stays readable by other users.
+            Path tempFile = File.createTempFile("_upload.", ".tmp", wsDir).toPath();
+            try {
+                try (OutputStream outStream = Files.newOutputStream(tempFile)) {
+                    outStream.write(this.content, this.start, this.end - this.start);
+                }
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+    }
+
+    /**
+     * Process a single web request.
+     *
+     * @param exchange	HTTP exchange for the request
+     *
+     * @throws IOException
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.currentTimeMillis();
+        int status;
+        byte[] body;
+        // Parse the URL.  The path is "/program.cgi/command".
+        String path = exchange.getRequestURI().getPath();
+        String program = StringUtils.substringBetween(path, "/", ".cgi/");
+        String command = StringUtils.substringAfter(path, ".cgi/");
+        Supplier<? extends WebProcessor> factory = (program == null ? null : this.commands.get(program + "/" + command));
+        if (factory == null) {
+            status = 404;
+            body = ("Command " + path + " not found.").getBytes(StandardCharsets.UTF_8);
+        } else {
+            // Get the parameters from the query string and the request body.
+            Map<String, List<String>> parms = new LinkedHashMap<String, List<String>>();
+            List<Upload> uploads = new ArrayList<Upload>();
+            parseParms(exchange.getRequestURI().getRawQuery(), parms);
+            if (exchange.getRequestMethod().equals("POST"))
+                this.parseBody(exchange, parms, uploads);
+            List<String> wsParms = parms.remove("workspace");
+            String workspace = (wsParms == null || wsParms.isEmpty() ? null : wsParms.get(0));
+            String uploadError = this.checkUploads(workspace, uploads);
+            if (uploadError != null) {
+                status = 400;
+                body = uploadError.getBytes(StandardCharsets.UTF_8);
+            } else {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+                ReentrantLock lock = (workspace == null ? null : this.workspaceLocks.computeIfAbsent(workspace,
+                        x -> new ReentrantLock()));
+                if (lock != null)
+                    lock.lock();
+                try {
+                    // Save the uploaded files and pass their names to the command.
+                    for (Upload upload : uploads) {
+                        upload.save(this.workspaceDir(workspace));
+                        parms.computeIfAbsent(upload.name, x -> new ArrayList<String>(1)).add(upload.fileName);
+                    }
+                    WebProcessor processor = factory.get();
+                    String[] args = this.buildArgs(processor.getClass(), workspace, parms);
+                    if (! processor.parseCommand(args)) {
+                        status = 400;
+                        buffer.writeBytes(("Invalid parameters for " + path + ".").getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        PrintStream pageStream = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+                        processor.getPageWriter().setOutput(pageStream);
+                        processor.runCommand();
+                        pageStream.flush();
+                        status = 200;
+                    }
+                } catch (Exception e) {
+                    log.error("Error processing {}.", path, e);
+                    status = 500;
+                    buffer.reset();
+                    buffer.writeBytes(("Error processing " + path + ": " + e.toString()).getBytes(StandardCharsets.UTF_8));
+                } finally {
+                    if (lock != null)
+                        lock.unlock();
+                }
+                body = buffer.toByteArray();
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", (status == 200 ? "text/html; charset=UTF-8" :
+                "text/plain; charset=UTF-8"));
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outStream = exchange.getResponseBody()) {
+            outStream.write(body);
+        }
+        log.info("{} {} returned {} in {} ms.", exchange.getRequestMethod(), path, status,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return the directory for a workspace
+     *
+     * @param workspace		workspace name
+     */
+    private File workspaceDir(String workspace) {
+        return new File(this.coreDir, "Workspaces/" + workspace);
+    }
+
+    /**
+     * Verify that the uploaded files for a request can be saved.
+     *
+     * @param workspace		workspace name, or NULL if there is none
+     * @param uploads		list of uploaded files
+     *
+     * @return an error message, or NULL if the uploads are valid
+     */
+    private String checkUploads(String workspace, List<Upload> uploads) {
+        String retVal = null;
+        if (! uploads.isEmpty()) {
+            if (workspace == null || workspace.isEmpty() || workspace.startsWith(".")
+                    || ! FilenameUtils.getName(workspace).equals(workspace))
+                retVal = "File uploads require a valid workspace.";
+            else if (! this.workspaceDir(workspace).isDirectory())
+                retVal = "Invalid or unauthorized workspace \"" + workspace + "\" specified.";
+            else {
+                for (Upload upload : uploads) {
+                    // Internal files begin with an underscore, and hidden files with a period.
+                    if (retVal == null && (upload.fileName.isEmpty() || upload.fileName.startsWith("_")
+                            || upload.fileName.startsWith(".")))
+                        retVal = "Invalid upload file name \"" + upload.fileName + "\".";
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Parse URL-encoded parameters.  Both ampersands and semicolons are accepted as separators.
+     *
+     * @param query		URL-encoded parameter string, or NULL if there are no parameters
+     * @param parms		map of parameter names to values, to be updated
+     */
+    protected static void parseParms(String query, Map<String, List<String>> parms) {
+        if (query != null) {
+            for (String parm : StringUtils.split(query, "&;")) {
+                String name = URLDecoder.decode(StringUtils.substringBefore(parm, "="), StandardCharsets.UTF_8);
+                String value = (parm.contains("=") ?
+                        URLDecoder.decode(StringUtils.substringAfter(parm, "="), StandardCharsets.UTF_8) : "");
+                parms.computeIfAbsent(name, x -> new ArrayList<String>(1)).add(value);
+            }
+        }
+    }
+
+    /**
+     * Parse the parameters in the body of a POST request.  URL-encoded and multipart bodies are supported.  In a
+     * multipart body, the uploaded files are returned separately, so they can be saved once the workspace is known.
+     * A file field with no file selected is ignored.
+     *
+     * @param exchange	HTTP exchange for the request
+     * @param parms		map of parameter names to values, to be updated
+     * @param uploads	list of uploaded files, to be updated
+     *
+     * @throws IOException
+     */
+    private void parseBody(HttpExchange exchange, Map<String, List<String>> parms, List<Upload> uploads)
+            throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        byte[] content;
+        try (InputStream inStream = exchange.getRequestBody()) {
+            content = inStream.readAllBytes();
+        }
+        if (contentType == null || contentType.startsWith("application/x-www-form-urlencoded"))
+            parseParms(new String(content, StandardCharsets.ISO_8859_1), parms);
+        else if (contentType.startsWith("multipart/form-data")) {
+            String boundary = StringUtils.substringAfter(contentType, "boundary=");
+            boundary = StringUtils.strip(StringUtils.substringBefore(boundary, ";"), "\"");
+            // The parts are separated by the boundary at the start of a line.  File data can be binary, so we
+            // search the raw bytes.
+            byte[] dashBoundary = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+            byte[] delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+            int pos = indexOf(content, dashBoundary, 0);
+            boolean done = (pos < 0);
+            while (! done) {
+                int partStart = pos + dashBoundary.length;
+                int next = indexOf(content, delimiter, partStart);
+                // A boundary followed by two dashes ends the body.
+                if (next < 0 || partStart + 1 < content.length && content[partStart] == '-'
+                        && content[partStart + 1] == '-')
+                    done = true;
+                else {
+                    int headerEnd = indexOf(content, HEADER_END, partStart);
+                    if (headerEnd >= 0 && headerEnd < next)
+                        parsePart(new String(content, partStart, headerEnd - partStart, StandardCharsets.UTF_8),
+                                content, headerEnd + HEADER_END.length, next, parms, uploads);
+                    // Skip the line break so the next search finds the boundary itself.
+                    pos = next + 2;
+                }
+            }
+        } else
+            log.warn("Unsupported request body type {} ignored.", contentType);
+    }
+
+    /**
+     * Process one part of a multipart request body.
+     *
+     * @param headers	headers of the part
+     * @param content	request content
+     * @param start		offset of the part data in the content
+     * @param end		offset past the end of the part data in the content
+     * @param parms		map of parameter names to values, to be updated
+     * @param uploads	list of uploaded files, to be updated
+     */
+    private static void parsePart(String headers, byte[] content, int start, int end,
+            Map<String, List<String>> parms, List<Upload> uploads) {
+        Matcher m = PART_NAME.matcher(headers);
+        if (m.find()) {
+            String name = m.group(1);
+            m = PART_FILE_NAME.matcher(headers);
+            if (! m.find()) {
+                String value = new String(content, start, end - start, StandardCharsets.UTF_8);
+                parms.computeIfAbsent(name, x -> new ArrayList<String>(1)).add(value);
+            } else {
+                // Browsers may send the client's full path, so we keep only the base name.
+                String fileName = FilenameUtils.getName(m.group(1));
+                if (! m.group(1).isEmpty())
+                    uploads.add(new Upload(name, fileName, content, start, end));
+            }
+        }
+    }
+
+    /**
+     * @return the position of the first occurrence of a byte pattern in an array, or -1 if it is not found
+     *
+     * @param content	array to search
+     * @param pattern	pattern to find
+     * @param from		position at which to start
+     */
+    private static int indexOf(byte[] content, byte[] pattern, int from) {
+        int retVal = -1;
+        final int last = content.length - pattern.length;
+        for (int i = Math.max(from, 0); retVal < 0 && i <= last; i++) {
+            int j = 0;
+            while (j < pattern.length && content[i + j] == pattern[j])
+                j++;
+            if (j == pattern.length)
+                retVal = i;
+        }
+        return retVal;
+    }
+
+    /**
+     * Build the command-line arguments for a processor.
+     *
+     * @param processorType		class of the processor
+     * @param workspace			workspace name, or NULL if there is none
+     * @param parms				map of parameter names to values
+     *
+     * @return the command-line arguments
+     */
+    protected String[] buildArgs(Class<?> processorType, String workspace, Map<String, List<String>> parms) {
+        List<String> retVal = new ArrayList<String>(parms.size() * 2 + 4);
+        FormDescriptor descriptor = FormDescriptor.of(processorType);
+        if (this.outputType != null && ! parms.containsKey("env")) {
+            retVal.add("--env");
+            retVal.add(this.outputType.name());
+        }
+        for (Map.Entry<String, List<String>> parm : parms.entrySet()) {
+            String option = "--" + parm.getKey();
+            if (descriptor.isFlag(parm.getKey())) {
+                String value = parm.getValue().get(0);
+                if (! value.isEmpty() && ! value.equals("0") && ! value.equalsIgnoreCase("false")
+                        && ! value.equalsIgnoreCase("off"))
+                    retVal.add(option);
+            } else {
+                for (String value : parm.getValue()) {
+                    retVal.add(option);
+                    retVal.add(value);
+                }
+            }
+        }
+        retVal.add(this.coreDir.getPath());
+        if (workspace != null)
+            retVal.add(workspace);
+        return retVal.toArray(new String[retVal.size()]);
+    }
+
+}
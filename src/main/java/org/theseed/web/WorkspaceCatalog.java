@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package org.theseed.web;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object is a catalog of the files in a workspace directory.  The catalog contains the sorted names of the
+ * readable files, excluding internal files (whose names begin with an underscore), and classifies them by type
+ * using the file patterns in {@link HtmlForm}.  Building a form used to list the directory and filter the names
+ * once for every file field, which is slow for workspaces with thousands of files.
+ *
+ * Catalogs are cached by directory, and a cached catalog is used only if the directory's modification time is
+ * unchanged.  Adding, deleting, or renaming a file changes the modification time.  Because the modification time
+ * has limited resolution, a catalog built shortly after the directory changed is not trusted on the next call,
+ * since another file could have arrived in the same clock tick.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class WorkspaceCatalog {
+
+    /**
+     * This enumeration describes the types of workspace files.  A file can be of more than one type.
+     */
+    public static enum FileType {
+        /** files that can be used as BLAST sources */
+        BLAST(HtmlForm.BLAST_FILE_PATTERN),
+        /** genome files */
+        GTO(HtmlForm.GTO_FILE_PATTERN),
+        /** FASTA files */
+        FASTA(HtmlForm.FASTA_FILE_PATTERN),
+        /** read files */
+        READS(HtmlForm.READ_FILE_PATTERN),
+        /** text files */
+        TEXT(HtmlForm.TEXT_FILE_PATTERN);
+
+        /** pattern that matches the file names of this type */
+        private final Pattern pattern;
+
+        private FileType(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        /**
+         * @return the pattern that matches the file names of this type
+         */
+        public Pattern getPattern() {
+            return this.pattern;
+        }
+
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(WorkspaceCatalog.class);
+    /** modification time of the directory when it was listed */
+    private final long modified;
+    /** TRUE if the directory had not changed recently when it was listed */
+    private final boolean stable;
+    /** sorted list of all the file names */
+    private final List<String> files;
+    /** map of file types to sorted lists of file names */
+    private final Map<FileType, List<String>> typeMap;
+    /** map of other file name patterns to sorted lists of matching file names */
+    private final Map<String, List<String>> patternMap;
+    /** cache of catalogs, keyed by absolute directory name */
+    private static final Map<String, WorkspaceCatalog> cache = new ConcurrentHashMap<String, WorkspaceCatalog>();
+    /** number of milliseconds a directory must be unchanged before its catalog can be reused */
+    private static final long STABLE_TIME = 2000;
+
+    /**
+     * @return the catalog for a workspace directory, using the cached catalog if the directory is unchanged
+     *
+     * @param wsDir		workspace directory
+     */
+    public static WorkspaceCatalog of(File wsDir) {
+        String key = wsDir.getAbsolutePath();
+        long modified = wsDir.lastModified();
+        WorkspaceCatalog retVal = cache.get(key);
+        if (retVal == null || ! retVal.stable || retVal.modified != modified) {
+            retVal = new WorkspaceCatalog(wsDir, modified);
+            cache.put(key, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Build the catalog for a workspace directory.
+     *
+     * @param wsDir		workspace directory
+     * @param modified	modification time of the directory before listing it
+     */
+    private WorkspaceCatalog(File wsDir, long modified) {
+        this.modified = modified;
+        this.stable = (System.currentTimeMillis() - modified >= STABLE_TIME);
+        File[] workDirFiles = wsDir.listFiles(x -> x.getName().charAt(0) != '_' && x.isFile() && x.canRead());
+        String[] names;
+        if (workDirFiles == null) {
+            log.warn("Could not list workspace directory {}.", wsDir);
+            names = new String[0];
+        } else {
+            names = new String[workDirFiles.length];
+            for (int i = 0; i < names.length; i++)
+                names[i] = workDirFiles[i].getName();
+            Arrays.sort(names);
+        }
+        this.files = Collections.unmodifiableList(Arrays.asList(names));
+        // Classify the files.
+        this.typeMap = new EnumMap<FileType, List<String>>(FileType.class);
+        for (FileType type : FileType.values())
+            this.typeMap.put(type, new ArrayList<String>());
+        for (String name : names) {
+            for (FileType type : FileType.values()) {
+                if (type.pattern.matcher(name).matches())
+                    this.typeMap.get(type).add(name);
+            }
+        }
+        for (FileType type : FileType.values())
+            this.typeMap.put(type, Collections.unmodifiableList(this.typeMap.get(type)));
+        this.patternMap = new ConcurrentHashMap<String, List<String>>();
+    }
+
+    /**
+     * @return the sorted names of all the files in the workspace
+     */
+    public List<String> getFiles() {
+        return this.files;
+    }
+
+    /**
+     * @return the sorted names of the workspace files of the specified type
+     *
+     * @param type		type of file desired
+     */
+    public List<String> getFiles(FileType type) {
+        return this.typeMap.get(type);
+    }
+
+    /**
+     * @return the sorted names of the workspace files matching a pattern
+     *
+     * If the pattern is one of the file type patterns, the classified list is returned.  Otherwise, the matching
+     * names are computed once and cached with the catalog.
+     *
+     * @param namePattern	a pattern the file name must match
+     */
+    public List<String> getFiles(Pattern namePattern) {
+        String regex = namePattern.pattern();
+        List<String> retVal = null;
+        for (FileType type : FileType.values()) {
+            if (type.pattern.pattern().equals(regex))
+                retVal = this.typeMap.get(type);
+        }
+        if (retVal == null) {
+            retVal = this.patternMap.computeIfAbsent(regex, x -> {
+                List<String> matches = new ArrayList<String>();
+                for (String name : this.files) {
+                    if (namePattern.matcher(name).matches())
+                        matches.add(name);
+                }
+                return Collections.unmodifiableList(matches);
+            });
+        }
+        return retVal;
+    }
+
+}
@@ -9,6 +9,11 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -20,11 +25,173 @@ public class SearchTest {
     @Test
     public void testSearch() throws IOException {
         FeatureSearch searcher = new FeatureSearch(new File("data"));
-        Map<String, String> found = searcher.findFeatures("\\bcysteine\\b");
-        for (Map.Entry<String, String> foundEntry : found.entrySet()) {
-            String function = foundEntry.getValue();
-            String fid = foundEntry.getKey();
-            assertThat(fid, function.toLowerCase(), containsString("cysteine"));
+        try {
+            Map<String, String> found = searcher.findFeatures("\\bcysteine\\b");
+            for (Map.Entry<String, String> foundEntry : found.entrySet()) {
+                String function = foundEntry.getValue();
+                String fid = foundEntry.getKey();
+                assertThat(fid, function.toLowerCase(), containsString("cysteine"));
+            }
+        } finally {
+            new File("data", FunctionIndex.FILE_NAME).delete();
         }
     }
+
+    @Test
+    public void testParallelSearch() throws IOException {
+        try {
+            checkParallelSearch("\\bcysteine\\b");
+            // This pattern has no index terms, so it scans every genome.
+            checkParallelSearch("(cysteine)");
+        } finally {
+            new File("data", FunctionIndex.FILE_NAME).delete();
+        }
+    }
+
+    /**
+     * Verify the parallel, limited, and cancellable forms of a search.
+     *
+     * @param regex		search pattern to use; it must match at least three features
+     *
+     * @throws IOException
+     */
+    private static void checkParallelSearch(String regex) throws IOException {
+        FeatureSearch searcher = new FeatureSearch(new File("data"));
+        Map<String, String> expected = searcher.findFeatures(regex);
+        Map<String, String> found = searcher.findFeatures(regex, 4, 0, true);
+        assertThat(found, equalTo(expected));
+        assertThat(new ArrayList<String>(found.keySet()), contains(expected.keySet().toArray()));
+        Map<String, String> unsorted = searcher.findFeatures(regex, 4, 0, false);
+        assertThat(unsorted, equalTo(expected));
+        // Test the limit.
+        List<String> fids = new ArrayList<String>();
+        FeatureSearch.SearchHandle handle = new FeatureSearch.SearchHandle();
+        int count = searcher.findFeatures(regex, 4, 3, (fid, function) -> fids.add(fid), handle);
+        assertThat(count, equalTo(3));
+        assertThat(fids.size(), equalTo(3));
+        assertThat(handle.isLimitReached(), equalTo(true));
+        assertThat(handle.isCancelled(), equalTo(false));
+        for (String fid : fids)
+            assertThat(fid, expected.containsKey(fid), equalTo(true));
+        // A search with no limit that runs to completion is neither cancelled nor limited.
+        handle = new FeatureSearch.SearchHandle();
+        count = searcher.findFeatures(regex, 4, 0, (fid, function) -> { }, handle);
+        assertThat(count, equalTo(expected.size()));
+        assertThat(handle.isLimitReached(), equalTo(false));
+        assertThat(handle.isCancelled(), equalTo(false));
+        // A cancellation before the search starts must not be lost.
+        handle = new FeatureSearch.SearchHandle();
+        handle.cancel();
+        count = searcher.findFeatures(regex, 4, 0, (fid, function) -> fids.add(fid), handle);
+        assertThat(count, equalTo(0));
+        assertThat(handle.isCancelled(), equalTo(true));
+        // Cancelling one search must not affect another running on the same object.
+        FeatureSearch.SearchHandle handle1 = new FeatureSearch.SearchHandle();
+        FeatureSearch.SearchHandle handle2 = new FeatureSearch.SearchHandle();
+        List<String> fids2 = new ArrayList<String>();
+        searcher.findFeatures(regex, 1, 0, (fid, function) -> handle1.cancel(), handle1);
+        count = searcher.findFeatures(regex, 1, 0, (fid, function) -> fids2.add(fid), handle2);
+        assertThat(handle1.isCancelled(), equalTo(true));
+        assertThat(handle2.isCancelled(), equalTo(false));
+        assertThat(count, equalTo(expected.size()));
+    }
+
+
+    @Test
+    public void testIndexTerms() throws IOException {
+        assertThat(FeatureSearch.indexTerms("\\bcysteine\\b"), contains("cysteine"));
+        assertThat(FeatureSearch.indexTerms("cysteine.+synthase"), contains("*cysteine*", "*synthase*"));
+        assertThat(FeatureSearch.indexTerms("^Cystein"), contains("cystein*"));
+        assertThat(FeatureSearch.indexTerms("Cysteine synthase"), contains("*cysteine", "synthase*"));
+        assertThat(FeatureSearch.indexTerms("cysteines?"), contains("*cysteine*"));
+        assertThat(FeatureSearch.indexTerms("cys+teine{1,2}"), contains("*cys*", "*teine*"));
+        assertThat(FeatureSearch.indexTerms("[abc]serine\\b"), contains("*serine"));
+        assertThat(FeatureSearch.indexTerms("\\x41BCdef \\(EC 2"), contains("*bcdef", "ec"));
+        assertThat(FeatureSearch.indexTerms("\\bab\\b"), contains("ab"));
+        // Short fragments, alternations, groups, and inline flags yield no terms.
+        assertThat(FeatureSearch.indexTerms("\\bab"), empty());
+        assertThat(FeatureSearch.indexTerms("cysteine|serine"), empty());
+        assertThat(FeatureSearch.indexTerms("(cysteine)"), empty());
+        assertThat(FeatureSearch.indexTerms("(?x)cysteine"), empty());
+        assertThat(FeatureSearch.indexTerms("\\Qcysteine\\E"), empty());
+        // An indexed search must find the same features as a full scan.
+        File coreDir = new File("data");
+        try {
+            FeatureSearch searcher = new FeatureSearch(coreDir);
+            for (String regex : new String[] { "\\bcysteine\\b", "cysteine.+synthase", "\\bcystein", "Cysteine synthase",
+                    "ase\\b", "\\btRNA-", "synthase \\(EC", "2\\.7\\.7\\.", "rRNA$" }) {
+                assertThat(regex, FeatureSearch.indexTerms(regex), not(empty()));
+                Map<String, String> expected = searcher.findFeatures("(?:" + regex + ")");
+                assertThat(regex, expected.size(), greaterThan(0));
+                assertThat(regex, searcher.findFeatures(regex), equalTo(expected));
+            }
+        } finally {
+            new File(coreDir, FunctionIndex.FILE_NAME).delete();
+        }
+    }
+
+    @Test
+    public void testFunctionIndex() throws IOException {
+        File coreDir = new File("data");
+        File indexFile = new File(coreDir, FunctionIndex.FILE_NAME);
+        indexFile.delete();
+        try {
+            FeatureSearch searcher = new FeatureSearch(coreDir);
+            Map<String, String> expected = searcher.findFeatures("\\bcysteine\\b");
+            Map<String, String> found = searcher.findWords("cysteine", null);
+            assertThat(found, equalTo(expected));
+            assertThat(new ArrayList<String>(found.keySet()), contains(expected.keySet().toArray()));
+            assertThat(indexFile.exists(), equalTo(true));
+            // Test a conjunction with a confirming pattern.
+            expected = searcher.findFeatures("cysteine.+synthase");
+            found = searcher.findWords("Cysteine synthase", "cysteine.+synthase");
+            assertThat(found, equalTo(expected));
+            // Test a prefix search.
+            expected = searcher.findFeatures("\\bcystein");
+            found = searcher.findWords("cystein*", null);
+            assertThat(found, equalTo(expected));
+            // Test a role search.
+            String function = expected.values().iterator().next();
+            String role = Feature.rolesOfFunction(function)[0];
+            found = searcher.findRole(role);
+            assertThat(found.size(), greaterThan(0));
+            for (Map.Entry<String, String> foundEntry : found.entrySet())
+                assertThat(foundEntry.getKey(), Arrays.asList(Feature.rolesOfFunction(foundEntry.getValue())), hasItem(role));
+            // Reload the index from the file.
+            FunctionIndex index = FunctionIndex.load(coreDir);
+            assertThat(index.getGenomeCount(), equalTo(4));
+            assertThat(index.update(), equalTo(false));
+            assertThat(index.findRole(role), equalTo(found));
+            assertThat(index.findWords(List.of("CYSTEINE"), null), equalTo(searcher.findFeatures("\\bcysteine\\b")));
+            // Force a genome to be re-indexed and verify the reverse table is rebuilt correctly.
+            File funFile = new File(coreDir, "Organisms/83333.1/assigned_functions");
+            long oldModified = funFile.lastModified();
+            try {
+                funFile.setLastModified(oldModified + 60000);
+                assertThat(index.update(), equalTo(true));
+                assertThat(index.findRole(role), equalTo(found));
+                assertThat(index.findWords(List.of("cysteine"), null), equalTo(searcher.findFeatures("\\bcysteine\\b")));
+            } finally {
+                funFile.setLastModified(oldModified);
+            }
+            // A corrupt index is rebuilt.  The function count follows the two-int header.
+            index.save(indexFile);
+            byte[] good = Files.readAllBytes(indexFile.toPath());
+            for (int count : new int[] { -1, Integer.MAX_VALUE, 1 }) {
+                byte[] bad = Arrays.copyOf(good, good.length);
+                ByteBuffer.wrap(bad).putInt(8, count);
+                Files.write(indexFile.toPath(), bad);
+                index = FunctionIndex.load(coreDir);
+                assertThat(Integer.toString(count), index.getGenomeCount(), equalTo(4));
+                assertThat(Integer.toString(count), index.findRole(role), equalTo(found));
+                assertThat(Integer.toString(count), Files.readAllBytes(indexFile.toPath()), not(equalTo(bad)));
+            }
+            Files.write(indexFile.toPath(), Arrays.copyOf(good, good.length / 2));
+            index = FunctionIndex.load(coreDir);
+            assertThat(index.findRole(role), equalTo(found));
+        } finally {
+            indexFile.delete();
+        }
+    }
+
 }
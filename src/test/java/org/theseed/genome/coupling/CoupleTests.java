@@ -8,6 +8,9 @@ import java.io.IOException;
 import java.util.Iterator;
 
 import org.junit.jupiter.api.Test;
+import org.theseed.io.TabbedLineReader;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
@@ -61,4 +64,41 @@ public class CoupleTests {
         assertThat(iter.hasNext(), equalTo(false));
     }
 
+    @Test
+    public void testCoupleFileIndex() throws IOException {
+        File coupleFile = new File("data", "couples.tbl");
+        File indexFile = CoupleFileIndex.indexFile(coupleFile);
+        indexFile.delete();
+        CoupleFileIndex.clearCache();
+        try {
+            CoupleFileIndex index = CoupleFileIndex.load(coupleFile);
+            assertThat(indexFile.exists(), equalTo(true));
+            assertThat(index.size(), equalTo(8));
+            String[] fields = index.findLine("PGF_00006351", "PGF_00884706");
+            assertThat(fields[0], equalTo("PGF_00006351"));
+            assertThat(fields[1], equalTo("Efflux ABC transporter, permease protein"));
+            assertThat(fields[2], equalTo("PGF_00884706"));
+            assertThat(fields[3], equalTo("Efflux ABC transporter, ATP-binding protein"));
+            assertThat(index.findLine("PGF_00884706", "PGF_00006351"), nullValue());
+            // Reload from the sidecar file.
+            CoupleFileIndex.clearCache();
+            CoupleFileIndex index2 = CoupleFileIndex.load(coupleFile);
+            assertThat(index2.isCurrent(), equalTo(true));
+            assertThat(index2.size(), equalTo(8));
+            assertThat(index2.findLine("PGF_00006351", "PGF_00884706"), equalTo(fields));
+            // Verify that every line in the file is found.
+            try (TabbedLineReader coupleStream = new TabbedLineReader(coupleFile)) {
+                for (TabbedLineReader.Line line : coupleStream) {
+                    CouplingSet couples = new CouplingSet(coupleFile, line.get(0), line.get(2));
+                    assertThat(couples.getFunction(0), equalTo(line.get(1)));
+                    assertThat(couples.getFunction(1), equalTo(line.get(3)));
+                }
+            }
+            assertThrows(IOException.class, () -> new CouplingSet(coupleFile, "PGF_00884706", "PGF_00006351"));
+        } finally {
+            indexFile.delete();
+            CoupleFileIndex.clearCache();
+        }
+    }
+
 }
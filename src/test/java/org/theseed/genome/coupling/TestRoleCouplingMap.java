@@ -6,16 +6,31 @@ package org.theseed.genome.coupling;
 import org.junit.jupiter.api.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.stream.Collectors;
 
 import org.theseed.genome.Coupling;
+import org.theseed.genome.Feature;
+import org.theseed.genome.Genome;
 import org.theseed.io.TabbedLineReader;
+import org.theseed.locations.Location;
+import org.theseed.proteins.Role;
+import org.theseed.proteins.RoleMap;
 
 /**
  * @author Bruce Parrello
@@ -82,4 +97,138 @@ public class TestRoleCouplingMap  {
             assertThat(role, oldCouplings.equals(newCouplings), equalTo(true));
         }
     }
+
+    @Test
+    public void testPackedMap() throws IOException {
+        File origFile = new File("data", "roles.coupling.tbl");
+        RoleCouplingMap map1 = new RoleCouplingMap(origFile);
+        PackedCouplingMap packed = PackedCouplingMap.of(map1);
+        checkPackedMap(map1, packed);
+        PackedCouplingMap built = PackedCouplingMap.fromReport(origFile);
+        checkPackedMap(map1, built);
+        PackedCouplingMap.Builder builder = new PackedCouplingMap.Builder();
+        builder.couple("A", "B", 10, 5.0).couple("A", "C", 20, 8.0).couple("B", "C", 5, 1.0).couple("A", "B", 10, 5.0);
+        PackedCouplingMap small = builder.freeze();
+        assertThat(small.getCouplings("A").size(), equalTo(2));
+        assertThat(small.getCouplings("A").get(0).getTarget(), equalTo("C"));
+        assertThat(small.getCouplings("B").size(), equalTo(2));
+        assertThat(small.size(), equalTo(6));
+        assertThrows(IllegalStateException.class, () -> builder.couple("A", "D", 1, 1.0));
+        File saveFile = new File("data", "map.pack");
+        try {
+            packed.save(saveFile);
+            PackedCouplingMap loaded = PackedCouplingMap.load(saveFile);
+            checkPackedMap(map1, loaded);
+            // Corrupt files must be rejected with an IOException.  The role count follows the two-int header.
+            byte[] good = Files.readAllBytes(saveFile.toPath());
+            for (int count : new int[] { -1, Integer.MAX_VALUE, 1 }) {
+                byte[] bad = Arrays.copyOf(good, good.length);
+                ByteBuffer.wrap(bad).putInt(8, count);
+                Files.write(saveFile.toPath(), bad);
+                assertThrows(IOException.class, () -> PackedCouplingMap.load(saveFile), Integer.toString(count));
+            }
+            Files.write(saveFile.toPath(), Arrays.copyOf(good, good.length - 8));
+            assertThrows(IOException.class, () -> PackedCouplingMap.load(saveFile));
+            // The two-file load rebuilds a corrupt map from the report.
+            saveFile.setLastModified(origFile.lastModified() + 60000);
+            loaded = PackedCouplingMap.load(saveFile, origFile);
+            checkPackedMap(map1, loaded);
+            checkPackedMap(map1, PackedCouplingMap.load(saveFile));
+            saveFile.delete();
+            checkPackedMap(map1, PackedCouplingMap.load(saveFile, origFile));
+            assertThat(saveFile.exists(), equalTo(true));
+        } finally {
+            saveFile.delete();
+        }
+    }
+
+    @Test
+    public void testGenomeResolver() throws IOException {
+        Genome genome = new Genome(new File("data", "1262806.3.gto"));
+        // Build a coupling map that connects the roles of some nearby features.
+        RoleMap roleMap = new RoleMap();
+        PackedCouplingMap.Builder builder = new PackedCouplingMap.Builder(roleMap);
+        List<Feature> feats = genome.getFeatures().stream().filter(f -> Feature.rolesOfFunction(f.getFunction()).length > 0)
+                .sorted(Comparator.comparing(Feature::getLocation)).collect(Collectors.toList());
+        for (int i = 1; i < feats.size(); i += 2) {
+            for (String role1 : Feature.rolesOfFunction(feats.get(i - 1).getFunction())) {
+                for (String role2 : Feature.rolesOfFunction(feats.get(i).getFunction())) {
+                    String id1 = roleMap.findOrInsert(role1).getId();
+                    String id2 = roleMap.findOrInsert(role2).getId();
+                    builder.couple(id1, id2, i % 7 + 1, (i * 37) % 101 + 0.5);
+                }
+            }
+        }
+        PackedCouplingMap packed = builder.freeze();
+        final int gap = 200;
+        GenomeCouplingResolver resolver = new GenomeCouplingResolver(packed, gap);
+        GenomeCouplingResolver.Table table = resolver.resolve(genome);
+        Map<String, Double> found = new HashMap<String, Double>();
+        for (int i = 0; i < table.size(); i++) {
+            found.put(table.getFid1(i) + ":" + table.getFid2(i), table.getStrength(i));
+            assertThat(table.getCoupling(i).getTarget(), equalTo(table.getRole2(i)));
+        }
+        assertThat(table.size(), greaterThan(0));
+        // Compare to the brute-force method.
+        Map<String, Double> expected = new HashMap<String, Double>();
+        for (int i = 0; i < feats.size(); i++) {
+            Feature feat1 = feats.get(i);
+            Location loc1 = feat1.getLocation();
+            for (int j = i + 1; j < feats.size(); j++) {
+                Feature feat2 = feats.get(j);
+                Location loc2 = feat2.getLocation();
+                if (loc1.getContigId().equals(loc2.getContigId()) && loc2.getLeft() <= loc1.getRight() + gap) {
+                    Coupling best = null;
+                    for (Role role : feat1.getUsefulRoles(packed.getMap())) {
+                        List<Coupling> couplings = packed.getCouplings(role.getId());
+                        Coupling couple = packed.getBestCoupling(couplings, feat2);
+                        // A plain copy of the list must give the same answer.
+                        Coupling plain = packed.getBestCoupling(new ArrayList<Coupling>(couplings), feat2);
+                        if (couple == null)
+                            assertThat(plain, nullValue());
+                        else {
+                            assertThat(plain.getTarget(), equalTo(couple.getTarget()));
+                            assertThat(plain.getStrength(), equalTo(couple.getStrength()));
+                        }
+                        if (couple != null && (best == null || couple.getStrength() > best.getStrength()))
+                            best = couple;
+                    }
+                    if (best != null)
+                        expected.put(feat1.getId() + ":" + feat2.getId(), best.getStrength());
+                }
+            }
+        }
+        assertThat(found, equalTo(expected));
+    }
+
+    /**
+     * Verify that a packed coupling map matches the original.
+     *
+     * @param map1		original coupling map
+     * @param packed	packed coupling map
+     */
+    private void checkPackedMap(RoleCouplingMap map1, PackedCouplingMap packed) {
+        Set<String> roleSet = map1.getRoles();
+        assertThat(packed.getRoles(), equalTo(roleSet));
+        int total = 0;
+        for (String role : roleSet) {
+            List<Coupling> expected = new ArrayList<Coupling>(map1.getCouplings(role));
+            List<Coupling> actual = packed.getCouplings(role);
+            assertThat(role, actual.size(), equalTo(expected.size()));
+            for (int i = 0; i < expected.size(); i++) {
+                Coupling oldCouple = expected.get(i);
+                Coupling newCouple = actual.get(i);
+                assertThat(role, newCouple.getTarget(), equalTo(oldCouple.getTarget()));
+                assertThat(role, newCouple.getSize(), equalTo(oldCouple.getSize()));
+                assertThat(role, newCouple.getStrength(), equalTo(oldCouple.getStrength()));
+            }
+            String name = map1.getName(role);
+            assertThat(packed.getName(role), equalTo(name));
+            assertThat(packed.getRole(name), equalTo(role));
+            total += expected.size();
+        }
+        assertThat(packed.size(), equalTo(total));
+        assertThat(packed.getCouplings("NotARealRole").isEmpty(), equalTo(true));
+    }
+
 }
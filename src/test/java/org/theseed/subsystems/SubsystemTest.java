@@ -5,19 +5,28 @@ package org.theseed.subsystems;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
@@ -25,8 +34,11 @@ import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.Matchers.stringContainsInOrder;
 import org.junit.jupiter.api.Test;
+import org.theseed.genome.Feature;
 import org.theseed.io.LineReader;
 import org.theseed.io.MarkerFile;
+import org.theseed.metrics.Metrics;
+import org.theseed.metrics.SummaryMetricsRecorder;
 
 /**
  * Test subsystem classes
@@ -62,6 +74,28 @@ public class SubsystemTest {
         assertThat(cell.contains("fig|123.4.peg.6"), equalTo(false));
         assertThat(cell.size(), equalTo(1));
         assertThat(row.getTypes(), containsInAnyOrder("rna", "peg"));
+        // Features must be in ID order, and status views must survive the addition of new features.
+        cell = new CellData(row, "rna.7,9,10");
+        FeatureStatus status9 = cell.getStatus("fig|123.4.peg.9");
+        cell.setState("fig|123.4.peg.2", "some function", true);
+        cell.setState("fig|123.4.peg.9", "wrong function", false);
+        cell.setState("fig|123.4.peg.10", "right function", true);
+        cell.setState("fig|999.4.peg.10", "other genome", false);
+        List<String> fids = new ArrayList<>();
+        for (Map.Entry<String, FeatureStatus> feature : cell.getFeatures())
+            fids.add(feature.getKey());
+        assertThat(fids, contains("fig|123.4.peg.10", "fig|123.4.peg.2", "fig|123.4.peg.9", "fig|123.4.rna.7"));
+        assertThat(cell.getStatus("fig|123.4.peg.9"), sameInstance(status9));
+        assertThat(status9.getState(), equalTo(PegState.BAD_ROLE));
+        assertThat(status9.getFunction(), equalTo("wrong function"));
+        assertThat(cell.getStatus("fig|123.4.peg.2").getState(), equalTo(PegState.DISCONNECTED));
+        assertThat(cell.getStatus("fig|123.4.peg.10").getState(), equalTo(PegState.GOOD));
+        assertThat(cell.getStatus("fig|123.4.rna.7").getState(), equalTo(PegState.MISSING));
+        assertThat(cell.getStatus("fig|123.4.peg.7"), nullValue());
+        status9.setState(PegState.GOOD, null);
+        assertThat(cell.getState(2), equalTo(PegState.GOOD));
+        assertThat(cell.getFunction(2), nullValue());
+        assertThat(cell.size(), equalTo(4));
     }
 
     @Test
@@ -108,6 +142,228 @@ public class SubsystemTest {
             assertThat(fid, containsString("peg"));
             assertThat(fid, deleted.contains(fid), equalTo(false));
         }
+        // The public function map is a private copy, so changing it must not affect the shared cache.
+        funs.put("fig|83333.1.peg.4135", "changed function");
+        assertThat(row2.getFunctions().get("fig|83333.1.peg.4135"), equalTo("Programmed cell death toxin PemK"));
+    }
+
+    @Test
+    public void testFunctionCache() throws IOException {
+        File genomeDir = new File("data", "Organisms/83333.1");
+        Set<String> types = Set.of("peg");
+        Map<String, String> funs = RowData.readFunctions(genomeDir, "83333.1", types);
+        GenomeFunctionCache.clear();
+        Map<String, String> cached = GenomeFunctionCache.getFunctions(genomeDir, "83333.1", types);
+        assertThat(cached, equalTo(funs));
+        long hits = GenomeFunctionCache.getHits();
+        Map<String, String> cached2 = GenomeFunctionCache.getFunctions(genomeDir, "83333.1", types);
+        assertThat(GenomeFunctionCache.getHits(), equalTo(hits + 1));
+        assertThat(cached2, equalTo(funs));
+        Map<String, String> rnaFuns = RowData.readFunctions(genomeDir, "83333.1", Set.of("rna"));
+        assertThat(GenomeFunctionCache.getFunctions(genomeDir, "83333.1", Set.of("rna")), equalTo(rnaFuns));
+        Map<String, String> allFuns = RowData.readFunctions(genomeDir, "83333.1", Set.of("peg", "rna"));
+        assertThat(GenomeFunctionCache.getFunctions(genomeDir, "83333.1", Set.of("peg", "rna")), equalTo(allFuns));
+        GenomeFunctionCache.setMaxGenomes(1);
+        GenomeFunctionCache.getFunctions(new File("data", "Organisms/99287.1"), "99287.1", types);
+        assertThat(GenomeFunctionCache.size(), equalTo(1));
+        GenomeFunctionCache.setMaxGenomes(200);
+        // A scan uses the cached genomes, but does not add new ones.
+        GenomeFunctionCache.clear();
+        GenomeFunctionCache.getFunctions(genomeDir, "83333.1", types);
+        hits = GenomeFunctionCache.getHits();
+        assertThat(GenomeFunctionCache.scanGenome(genomeDir, "83333.1").getFunctions("peg"), equalTo(funs));
+        assertThat(GenomeFunctionCache.getHits(), equalTo(hits + 1));
+        File otherDir = new File("data", "Organisms/99287.1");
+        assertThat(GenomeFunctionCache.scanGenome(otherDir, "99287.1").getFunctions("peg"),
+                equalTo(RowData.readFunctions(otherDir, "99287.1", types)));
+        assertThat(GenomeFunctionCache.size(), equalTo(1));
+    }
+
+    @Test
+    public void testFunctionSnapshot() throws IOException {
+        File genomeDir = new File("data", "Organisms/83333.1");
+        Map<String, String> funs = RowData.readFunctions(genomeDir, "83333.1", Set.of("peg"));
+        // With no cache directory, nothing is written.
+        assertThat(FunctionSnapshot.getCacheDir(), nullValue());
+        assertThat(FunctionSnapshot.snapshotFile("83333.1"), nullValue());
+        List<String> genomeFiles = Arrays.asList(genomeDir.list());
+        assertThat(FunctionSnapshot.load(genomeDir, "83333.1").getFunctions("peg"), equalTo(funs));
+        assertThat(Arrays.asList(genomeDir.list()), containsInAnyOrder(genomeFiles.toArray()));
+        File cacheDir = Files.createTempDirectory("funcache").toFile();
+        FunctionSnapshot.setCacheDir(new File(cacheDir, "functions"));
+        File snapFile = FunctionSnapshot.snapshotFile("83333.1");
+        FunctionSnapshot snap = FunctionSnapshot.load(genomeDir, "83333.1");
+        assertThat(snapFile.exists(), equalTo(true));
+        assertThat(Arrays.asList(genomeDir.list()), containsInAnyOrder(genomeFiles.toArray()));
+        Map<String, String> pegs = snap.getFunctions("peg");
+        assertThat(pegs, equalTo(funs));
+        assertThat(pegs.get("fig|83333.1.peg.0" + StringUtils.substringAfterLast(pegs.keySet().iterator().next(), ".")),
+                nullValue());
+        assertThat(snap.getFunctions("xyz").isEmpty(), equalTo(true));
+        // Reload from the compiled file.
+        FunctionSnapshot snap2 = FunctionSnapshot.load(genomeDir, "83333.1");
+        assertThat(snap2.isCurrent(genomeDir), equalTo(true));
+        assertThat(snap2.getFunctions("peg"), equalTo(funs));
+        assertThat(snap2.getTypes(), equalTo(snap.getTypes()));
+        // Make the compiled file stale.
+        File funFile = new File(genomeDir, "assigned_functions");
+        long oldModified = funFile.lastModified();
+        try {
+            funFile.setLastModified(oldModified + 2000);
+            assertThat(snap2.isCurrent(genomeDir), equalTo(false));
+            FunctionSnapshot snap3 = FunctionSnapshot.load(genomeDir, "83333.1");
+            assertThat(snap3.isCurrent(genomeDir), equalTo(true));
+            assertThat(snap3.getFunctions("peg"), equalTo(funs));
+            // A truncated compiled file must be rebuilt.
+            byte[] snapBytes = Files.readAllBytes(snapFile.toPath());
+            Files.write(snapFile.toPath(), Arrays.copyOf(snapBytes, snapBytes.length / 2));
+            FunctionSnapshot snap4 = FunctionSnapshot.load(genomeDir, "83333.1");
+            assertThat(snap4.getFunctions("peg"), equalTo(funs));
+            assertThat(snapFile.length(), equalTo((long) snapBytes.length));
+            // A compiled file for a different copy of the genome is not used.
+            File otherDir = new File(cacheDir, "83333.1");
+            FileUtils.copyDirectory(genomeDir, otherDir, true);
+            FunctionSnapshot snap5 = FunctionSnapshot.load(otherDir, "83333.1");
+            assertThat(snap5.getFunctions("peg"), equalTo(funs));
+            assertThat(snap5.isCurrent(otherDir), equalTo(true));
+            assertThat(FunctionSnapshot.load(genomeDir, "83333.1").isCurrent(genomeDir), equalTo(true));
+        } finally {
+            funFile.setLastModified(oldModified);
+            FunctionSnapshot.setCacheDir(null);
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testGenomeCatalog() throws IOException {
+        File coreDir = new File("data");
+        GenomeCatalog.clear();
+        GenomeCatalog catalog = GenomeCatalog.get(coreDir);
+        assertThat(GenomeCatalog.get(new File("data")), sameInstance(catalog));
+        assertThat(catalog.size(), equalTo(4));
+        assertThat(catalog.getLiveGenomes(), containsInAnyOrder("209261.1", "439843.6", "83333.1", "99287.1"));
+        assertThat(catalog.exists("83333.1"), equalTo(true));
+        assertThat(catalog.isLive("83333.1"), equalTo(true));
+        assertThat(catalog.getName("83333.1"), equalTo(MarkerFile.read(new File(coreDir, "Organisms/83333.1/GENOME"))));
+        assertThat(catalog.exists("100226.1"), equalTo(false));
+        assertThat(catalog.isLive("100226.1"), equalTo(false));
+        assertThat(catalog.getName("100226.1"), equalTo(""));
+        // Add a deleted genome.  The organism directory changes, so the catalog must be rebuilt.
+        File fakeDir = new File(coreDir, "Organisms/100226.1");
+        File fakeFile = new File(coreDir, "Organisms/100227.1");
+        try {
+            fakeDir.mkdir();
+            MarkerFile.write(new File(fakeDir, "GENOME"), "Fake genome");
+            MarkerFile.write(new File(fakeDir, "DELETED"), "1");
+            // Insure the directory time changes even on a coarse-grained filesystem.
+            File orgRoot = new File(coreDir, "Organisms");
+            orgRoot.setLastModified(orgRoot.lastModified() + 2000);
+            GenomeCatalog catalog2 = GenomeCatalog.get(coreDir);
+            assertThat(catalog2, not(sameInstance(catalog)));
+            assertThat(catalog2.exists("100226.1"), equalTo(true));
+            assertThat(catalog2.isLive("100226.1"), equalTo(false));
+            assertThat(catalog2.getName("100226.1"), equalTo(""));
+            RowData row = RowData.load(coreDir, "100226.1\tactive\t104", 1);
+            assertThat(row.isMissing(), equalTo(true));
+            assertThat(catalog2.getLiveGenomes().size(), equalTo(4));
+            // Undelete the genome.  Only the genome directory changes, but the catalog must notice.
+            new File(fakeDir, "DELETED").delete();
+            fakeDir.setLastModified(fakeDir.lastModified() + 2000);
+            assertThat(GenomeCatalog.get(coreDir), sameInstance(catalog2));
+            assertThat(catalog2.isLive("100226.1"), equalTo(true));
+            assertThat(catalog2.getName("100226.1"), equalTo("Fake genome"));
+            assertThat(RowData.load(coreDir, "100226.1\tactive\t104", 1).isMissing(), equalTo(false));
+            // A plain file with a genome-like name is not a genome.
+            MarkerFile.write(fakeFile, "not a genome");
+            orgRoot.setLastModified(orgRoot.lastModified() + 2000);
+            GenomeCatalog catalog3 = GenomeCatalog.get(coreDir);
+            assertThat(catalog3.exists("100227.1"), equalTo(false));
+            assertThat(catalog3.size(), equalTo(5));
+        } finally {
+            FileUtils.deleteDirectory(fakeDir);
+            fakeFile.delete();
+            GenomeCatalog.clear();
+        }
+    }
+
+    @Test
+    public void testSurvey() throws IOException {
+        File coreDir = new File("data");
+        SubsystemSurvey survey = SubsystemSurvey.get(coreDir);
+        assertThat(SubsystemSurvey.get(new File("data")), sameInstance(survey));
+        List<SubsystemSurvey.Entry> entries = survey.refresh(4);
+        assertThat(entries.size(), equalTo(4));
+        for (SubsystemSurvey.Entry entry : entries) {
+            String ssId = entry.getId();
+            SubsystemData subsystem = SubsystemData.survey(coreDir, ssId);
+            assertThat(ssId, entry.getErrorCount(), equalTo(subsystem.getErrorCount()));
+            assertThat(ssId, entry.isSuspectErrorCount(), equalTo(subsystem.checkExact()));
+            assertThat(ssId, entry.isPrivate(), equalTo(subsystem.isPrivate()));
+            assertThat(ssId, entry.getCurator(), equalTo(subsystem.getCurator()));
+            assertThat(ssId, entry.getName(), equalTo(subsystem.getName()));
+            SubsystemData loaded = SubsystemData.load(coreDir, ssId);
+            assertThat(ssId, entry.getWidth(), equalTo(loaded.getWidth()));
+            assertThat(ssId, entry.size(), equalTo(loaded.size()));
+        }
+        // Validate a subsystem and verify the survey picks up the new error count.
+        SubsystemData subsystem = SubsystemData.load(coreDir, "5-oxoprolinase");
+        subsystem.validateRows();
+        entries = survey.refresh(1);
+        SubsystemSurvey.Entry entry = survey.getEntry("5-oxoprolinase");
+        assertThat(entry.getErrorCount(), equalTo(subsystem.getErrorCount()));
+        assertThat(entry.isSuspectErrorCount(), equalTo(false));
+        assertThat(entry.getHealth(), equalTo(subsystem.getHealth()));
+        assertThat(survey.getSnapshot(), sameInstance(entries));
+        // Change the functions of one of the subsystem's genomes.  The entry is not re-surveyed, but the
+        // saved results are checked again after the next refresh.
+        File funFile = new File(coreDir, "Organisms/" + subsystem.getRows().iterator().next().getGenomeId()
+                + "/assigned_functions");
+        long funModified = funFile.lastModified();
+        try {
+            funFile.setLastModified(funModified + 2000);
+            assertThat(entry.isSuspectErrorCount(), equalTo(false));
+            survey.refresh(1);
+            assertThat(survey.getEntry("5-oxoprolinase"), sameInstance(entry));
+            assertThat(entry.isSuspectErrorCount(), equalTo(true));
+        } finally {
+            funFile.setLastModified(funModified);
+        }
+        assertThat(entry.isSuspectErrorCount(), equalTo(true));
+        assertThat(entry.checkExact(), equalTo(false));
+        // Delete a genome.  No subsystem file changes, but the row counts must.  The survey only re-checks
+        // the genomes when the organism directory changes, and the entries are recounted in place.
+        File orgDir = new File(coreDir, "Organisms/83333.1");
+        File orgRoot = new File(coreDir, "Organisms");
+        File deleteFile = new File(orgDir, "DELETED");
+        long orgModified = orgDir.lastModified();
+        long rootModified = orgRoot.lastModified();
+        int[] oldSizes = entries.stream().mapToInt(x -> x.size()).toArray();
+        try {
+            MarkerFile.write(deleteFile, "1");
+            orgDir.setLastModified(orgModified + 2000);
+            orgRoot.setLastModified(rootModified + 2000);
+            List<SubsystemSurvey.Entry> entries2 = survey.refresh(2);
+            boolean changed = false;
+            for (int i = 0; i < entries2.size(); i++) {
+                SubsystemSurvey.Entry entry2 = entries2.get(i);
+                assertThat(entry2.getId(), entry2, sameInstance(entries.get(i)));
+                SubsystemData loaded = SubsystemData.load(coreDir, entry2.getId());
+                assertThat(entry2.getId(), entry2.size(), equalTo(loaded.size()));
+                if (entry2.size() != oldSizes[i])
+                    changed = true;
+            }
+            assertThat(changed, equalTo(true));
+        } finally {
+            deleteFile.delete();
+            orgDir.setLastModified(orgModified);
+            orgRoot.setLastModified(rootModified);
+            survey.refresh(1);
+        }
+        for (SubsystemSurvey.Entry entry2 : survey.getSnapshot()) {
+            SubsystemData loaded = SubsystemData.load(coreDir, entry2.getId());
+            assertThat(entry2.getId(), entry2.size(), equalTo(loaded.size()));
+        }
+        ValidationStore.storeFile(coreDir, "5-oxoprolinase").delete();
     }
 
     /**
@@ -183,6 +439,257 @@ public class SubsystemTest {
         assertThat(badRoles.last().getFids(), contains("fig|83333.1.peg.102"));
     }
 
+    @Test
+    public void testRoleIndex() {
+        ColumnData[] cols = new ColumnData[] { new ColumnData(0, "R1", "fake role / other role"),
+                new ColumnData(1, "R2", "bonus role"), new ColumnData(2, "R3", "other role") };
+        RoleIndex index = new RoleIndex(cols);
+        assertThat(index.size(), equalTo(3));
+        String[] functions = new String[] { "fake role / other role # comment", "bonus role @ fake role / other role",
+                "fake role / other role", "fake role", "other role", "bonus role ! comment", "bonus role",
+                "bonus role @ other role", "unrelated role" };
+        // The index must agree with a brute-force match of every column.
+        for (String function : functions) {
+            int[] found = index.findColumns(function);
+            List<Integer> expected = new ArrayList<>();
+            for (ColumnData col : cols) {
+                if (col.matches(function))
+                    expected.add(col.getColIdx());
+            }
+            assertThat(function, Arrays.stream(found).boxed().toList(), equalTo(expected));
+        }
+        assertThat(index.findColumns("bonus role @ fake role / other role").length, equalTo(3));
+        assertThat(index.findColumns("unrelated role").length, equalTo(0));
+    }
+
+    @Test
+    public void testSubsystemRoleIndex() throws IOException {
+        File coreDir = new File("data");
+        File indexFile = new File(coreDir, SubsystemRoleIndex.FILE_NAME);
+        String[] ssIds = new File(coreDir, "Subsystems").list();
+        File ssFile = SubsystemData.getSpreadsheet(coreDir, "5-oxoprolinase");
+        long ssModified = ssFile.lastModified();
+        File testDir = new File(coreDir, "Subsystems/Test_multi_role");
+        File badDir = new File(coreDir, "Subsystems/Test_malformed");
+        File lostDir = new File(coreDir, "Subsystems/Test_unreadable");
+        try {
+            indexFile.delete();
+            SubsystemRoleIndex index = SubsystemRoleIndex.load(coreDir);
+            assertThat(indexFile.exists(), equalTo(true));
+            assertThat(index.size(), equalTo(ssIds.length));
+            // Get all the columns the brute-force way.
+            List<ColumnData> allCols = new ArrayList<ColumnData>();
+            Map<ColumnData, String> colSubs = new HashMap<ColumnData, String>();
+            for (String ssId : ssIds) {
+                SubsystemData subsystem = SubsystemData.load(coreDir, ssId);
+                List<SubsystemRoleIndex.ColumnRef> refs = index.getColumns(ssId);
+                assertThat(ssId, refs.size(), equalTo(subsystem.getWidth()));
+                for (ColumnData col : subsystem.getColumns()) {
+                    SubsystemRoleIndex.ColumnRef ref = refs.get(col.getColIdx());
+                    assertThat(ssId, ref.getFunction(), equalTo(col.getFunction()));
+                    assertThat(ssId, ref.isAux(), equalTo(col.isAux()));
+                    allCols.add(col);
+                    colSubs.put(col, ssId);
+                }
+            }
+            // The index must agree with a brute-force match of every column.
+            List<String> functions = new ArrayList<String>();
+            for (ColumnData col : allCols)
+                functions.add(col.getFunction());
+            functions.add("unrelated role");
+            functions.add(allCols.get(0).getFunction() + " / " + allCols.get(1).getFunction());
+            for (String function : functions) {
+                List<String> expected = new ArrayList<String>();
+                for (ColumnData col : allCols) {
+                    if (col.matches(function))
+                        expected.add(colSubs.get(col) + "[" + col.getColIdx() + "]");
+                }
+                List<String> found = index.findFunction(function).stream().map(x -> x.toString()).sorted().toList();
+                Collections.sort(expected);
+                assertThat(function, found, equalTo(expected));
+            }
+            for (SubsystemRoleIndex.ColumnRef ref : index.getColumns("5-oxoprolinase"))
+                assertThat(ref.toString(), index.findRole(ref.getFunction()), hasItem(ref));
+            assertThat(index.findRole("unrelated role").size(), equalTo(0));
+            // Nothing has changed, so there should be no update.
+            assertThat(index.update(), equalTo(false));
+            // Reload the index from the file and verify it is the same.
+            SubsystemRoleIndex index2 = SubsystemRoleIndex.load(coreDir);
+            assertThat(index2.getRoleCount(), equalTo(index.getRoleCount()));
+            for (String function : functions)
+                assertThat(function, index2.findFunction(function).toString(),
+                        equalTo(index.findFunction(function).toString()));
+            // Touch a spreadsheet to force an update.
+            ssFile.setLastModified(ssModified + 60000);
+            assertThat(index2.update(), equalTo(true));
+            assertThat(index2.update(), equalTo(false));
+            assertThat(index2.size(), equalTo(ssIds.length));
+            // Add a subsystem with a multi-role column.  The function must contain the column's text as well
+            // as its roles, the same as in ColumnData.
+            FileUtils.writeStringToFile(new File(testDir, "spreadsheet"), "AB\tRole alpha / Role beta\n//\n//\n",
+                    StandardCharsets.UTF_8);
+            // Add a malformed subsystem and an unreadable one.  These should be skipped.
+            FileUtils.writeStringToFile(new File(badDir, "spreadsheet"), "XY\tRole gamma\n//\nAUX\tx\n//\n",
+                    StandardCharsets.UTF_8);
+            new File(lostDir, "spreadsheet").mkdirs();
+            assertThat(index2.update(), equalTo(true));
+            assertThat(index2.size(), equalTo(ssIds.length + 1));
+            assertThat(index2.getColumns(badDir.getName()), nullValue());
+            assertThat(index2.getColumns(lostDir.getName()), nullValue());
+            ColumnData multiCol = new ColumnData(0, "AB", "Role alpha / Role beta");
+            for (String function : List.of("Role alpha / Role beta", "Role beta / Role alpha",
+                    "Role alpha / Role beta / Role gamma", "Role alpha")) {
+                List<String> expected = (multiCol.matches(function) ? List.of(testDir.getName() + "[0]") : List.of());
+                assertThat(function, index2.findFunction(function).stream().map(x -> x.toString()).toList(),
+                        equalTo(expected));
+            }
+            assertThat(index2.findFunction("Role beta / Role alpha").size(), equalTo(0));
+            // The unreadable subsystems are retried on each update.
+            assertThat(index2.update(), equalTo(false));
+            assertThat(index2.size(), equalTo(ssIds.length + 1));
+        } finally {
+            ssFile.setLastModified(ssModified);
+            indexFile.delete();
+            FileUtils.deleteQuietly(testDir);
+            FileUtils.deleteQuietly(badDir);
+            FileUtils.deleteQuietly(lostDir);
+        }
+    }
+
+    @Test
+    public void testMembershipIndex() throws IOException {
+        File coreDir = new File("data");
+        File indexFile = new File(coreDir, FeatureMembershipIndex.FILE_NAME);
+        String[] ssIds = new File(coreDir, "Subsystems").list();
+        File ssFile = SubsystemData.getSpreadsheet(coreDir, "2-nitroimidazole_resistance");
+        long ssModified = ssFile.lastModified();
+        try {
+            indexFile.delete();
+            FeatureMembershipIndex index = FeatureMembershipIndex.load(coreDir);
+            assertThat(indexFile.exists(), equalTo(true));
+            assertThat(index.size(), equalTo(ssIds.length));
+            // Compute the memberships the brute-force way.
+            Map<String, List<String>> expected = new HashMap<String, List<String>>();
+            for (String ssId : ssIds) {
+                SubsystemData subsystem = SubsystemData.load(coreDir, ssId);
+                for (RowData row : subsystem.getRows()) {
+                    for (int i = 0; i < subsystem.getWidth(); i++) {
+                        for (Map.Entry<String, FeatureStatus> feat : row.getCell(i).getFeatures()) {
+                            List<String> members = expected.computeIfAbsent(feat.getKey(), x -> new ArrayList<String>());
+                            String member = ssId + "[" + i + "]";
+                            if (! members.contains(member))
+                                members.add(member);
+                        }
+                    }
+                }
+            }
+            assertThat(expected.isEmpty(), equalTo(false));
+            for (Map.Entry<String, List<String>> expEntry : expected.entrySet()) {
+                String fid = expEntry.getKey();
+                List<String> found = index.getMemberships(fid).stream().map(x -> x.toString()).toList();
+                Collections.sort(expEntry.getValue());
+                assertThat(fid, found, equalTo(expEntry.getValue()));
+                assertThat(fid, index.isInSubsystem(fid), equalTo(true));
+            }
+            assertThat(index.getMemberships("fig|83333.1.peg.99999").size(), equalTo(0));
+            assertThat(index.isInSubsystem("fig|83333.1.peg.99999"), equalTo(false));
+            String fid = expected.keySet().stream().filter(x -> x.contains(".peg.")).findFirst().orElseThrow();
+            String genomeId = StringUtils.substringBetween(fid, "|", ".peg.");
+            int number = Integer.parseInt(StringUtils.substringAfterLast(fid, "."));
+            assertThat(index.getMemberships(genomeId, "peg", number), equalTo(index.getMemberships(fid)));
+            Map<String, List<FeatureMembershipIndex.Membership>> genomeMap = index.getGenomeMemberships(genomeId);
+            assertThat(genomeMap.get(fid), equalTo(index.getMemberships(fid)));
+            for (String fid2 : genomeMap.keySet())
+                assertThat(fid2, expected.containsKey(fid2), equalTo(true));
+            // Nothing has changed, so there should be no update.
+            assertThat(index.update(), equalTo(false));
+            // Reload the index from the file and verify it is the same.
+            FeatureMembershipIndex index2 = FeatureMembershipIndex.load(coreDir);
+            for (String fid2 : expected.keySet())
+                assertThat(fid2, index2.getMemberships(fid2), equalTo(index.getMemberships(fid2)));
+            // Touch a spreadsheet to force an update.  The memberships should not change.
+            ssFile.setLastModified(ssModified + 60000);
+            assertThat(index2.update(), equalTo(true));
+            assertThat(index2.update(), equalTo(false));
+            for (String fid2 : expected.keySet())
+                assertThat(fid2, index2.getMemberships(fid2), equalTo(index.getMemberships(fid2)));
+            // Delete the genome.  No spreadsheet changes, but its memberships must disappear.
+            File orgDir = new File(coreDir, "Organisms/" + genomeId);
+            long orgModified = orgDir.lastModified();
+            try {
+                MarkerFile.write(new File(orgDir, "DELETED"), "1");
+                orgDir.setLastModified(orgModified + 2000);
+                assertThat(index2.update(), equalTo(false));
+                assertThat(index2.getMemberships(fid).size(), equalTo(0));
+                assertThat(index2.getMemberships(genomeId, "peg", number).size(), equalTo(0));
+                assertThat(index2.isInSubsystem(fid), equalTo(false));
+                assertThat(index2.getGenomeMemberships(genomeId).size(), equalTo(0));
+                // The other genomes are not affected.
+                for (String fid2 : expected.keySet()) {
+                    if (! Feature.genomeOf(fid2).equals(genomeId))
+                        assertThat(fid2, index2.getMemberships(fid2), equalTo(index.getMemberships(fid2)));
+                }
+                // A reloaded index must agree.
+                FeatureMembershipIndex index3 = FeatureMembershipIndex.load(coreDir);
+                assertThat(index3.isInSubsystem(fid), equalTo(false));
+            } finally {
+                new File(orgDir, "DELETED").delete();
+                orgDir.setLastModified(orgModified);
+            }
+            // Restore the genome.  The memberships come back without an update.
+            assertThat(index2.getMemberships(fid), equalTo(index.getMemberships(fid)));
+            assertThat(index2.getGenomeMemberships(genomeId), equalTo(genomeMap));
+        } finally {
+            ssFile.setLastModified(ssModified);
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        File coreDir = new File("data");
+        String ssId = "2-nitroimidazole_resistance";
+        assertThat(Metrics.get().isEnabled(), equalTo(false));
+        SummaryMetricsRecorder recorder = new SummaryMetricsRecorder();
+        Metrics.set(recorder);
+        try {
+            GenomeFunctionCache.clear();
+            SubsystemData subsystem = SubsystemData.load(coreDir, ssId);
+            assertThat(recorder.getTimerCount("subsystem.load"), equalTo(1L));
+            assertThat(recorder.getCount("subsystem.load.bytes"), equalTo(SubsystemData.getSpreadsheet(coreDir, ssId).length()));
+            assertThat(recorder.getCount("subsystem.load.rows"), equalTo(4L));
+            subsystem.validateRows();
+            assertThat(recorder.getTimerCount("subsystem.validate"), equalTo(1L));
+            assertThat(recorder.getTimerCount("subsystem.validate.read"), equalTo(4L));
+            assertThat(recorder.getTimerCount("subsystem.validate.match"), equalTo(4L));
+            assertThat(recorder.getCount("subsystem.validate.rows"), equalTo(4L));
+            assertThat(recorder.getCount("functions.cache.misses"), equalTo(4L));
+            assertThat(recorder.getTimerCount("functions.load"), equalTo(4L));
+            assertThat(recorder.getCount("functions.load.bytes") > 0, equalTo(true));
+            assertThat(recorder.getCount("subsystem.validate.matched") > 0, equalTo(true));
+            // A second validation should be served from the cache.
+            subsystem = SubsystemData.load(coreDir, ssId);
+            subsystem.validateRows();
+            assertThat(recorder.getCount("functions.cache.hits"), equalTo(4L));
+            assertThat(recorder.getTimerCount("functions.load"), equalTo(4L));
+            // Read the functions directly.
+            Map<String, String> funMap = RowData.readFunctions(new File(coreDir, "Organisms/83333.1"), "83333.1", Set.of("peg"));
+            assertThat(recorder.getTimerCount("functions.read"), equalTo(1L));
+            assertThat(recorder.getCount("functions.read.features"), equalTo((long) funMap.size()));
+            String summary = recorder.summary();
+            assertThat(summary, stringContainsInOrder("timer", "subsystem.load", "subsystem.validate", "counter",
+                    "functions.cache.hits", "subsystem.load.rows"));
+            recorder.clear();
+            assertThat(recorder.summary(), equalTo(""));
+        } finally {
+            Metrics.reset();
+            ValidationStore.storeFile(coreDir, ssId).delete();
+        }
+        // Verify the default recorder discards metrics.
+        SubsystemData.load(coreDir, ssId);
+        assertThat(recorder.getTimerCount("subsystem.load"), equalTo(0L));
+    }
+
     @Test
     public void testSubsystem() throws IOException {
         File coreDir = new File("data");
@@ -263,8 +770,311 @@ public class SubsystemTest {
         assertThat(subsystem.getErrorCount(), equalTo(0));
         assertThat(subsystem.getHealth(), equalTo(1.0));
         assertThat(subsystem.getCurator(), equalTo("gjo"));
+        ValidationStore.storeFile(coreDir, subsystem.getId()).delete();
+        // Verify that parallel validation produces the same tallies.
+        subsystem = SubsystemData.load(coreDir, "2-nitroimidazole_resistance");
+        subsystem.validateRows(4);
+        assertThat(subsystem.getErrorCount(), equalTo(11));
+        col = subsystem.getColumns()[2];
+        assertThat(col.getCount(PegState.MISSING), equalTo(1));
+        assertThat(col.getCount(PegState.BAD_ROLE), equalTo(2));
         subsystem = SubsystemData.load(coreDir, "ZZ_gjo_need_homes");
         assertThat(subsystem.isPrivate(), equalTo(true));
     }
 
+    @Test
+    public void testParallelValidation() throws IOException {
+        File coreDir = new File("data");
+        for (String ssId : new String[] { "2-nitroimidazole_resistance", "5-oxoprolinase",
+                "Phenylalanine_and_Tyrosine_synthesis" }) {
+            File storeFile = ValidationStore.storeFile(coreDir, ssId);
+            try {
+                SubsystemData serial = SubsystemData.load(coreDir, ssId);
+                serial.validateRows(1);
+                int errorCount = MarkerFile.readInt(SubsystemData.errorCountFile(coreDir, ssId));
+                assertThat(ssId, errorCount, equalTo(serial.getErrorCount()));
+                for (int threads : new int[] { 2, 4, 8 }) {
+                    SubsystemData parallel = SubsystemData.load(coreDir, ssId);
+                    parallel.validateRows(threads);
+                    checkSameResults(parallel, serial);
+                    assertThat(ssId, MarkerFile.readInt(SubsystemData.errorCountFile(coreDir, ssId)),
+                            equalTo(errorCount));
+                }
+            } finally {
+                storeFile.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testRevalidation() throws IOException {
+        File coreDir = new File("data");
+        String ssId = "2-nitroimidazole_resistance";
+        File storeFile = ValidationStore.storeFile(coreDir, ssId);
+        File funFile = new File(coreDir, "Organisms/99287.1/assigned_functions");
+        long funModified = funFile.lastModified();
+        try {
+            storeFile.delete();
+            assertThat(ValidationStore.isCurrent(coreDir, ssId), equalTo(false));
+            // With no saved results, everything is validated.
+            SubsystemData full = SubsystemData.load(coreDir, ssId);
+            assertThat(full.revalidateRows(1), equalTo(4));
+            assertThat(storeFile.exists(), equalTo(true));
+            assertThat(ValidationStore.isCurrent(coreDir, ssId), equalTo(true));
+            assertThat(SubsystemData.survey(coreDir, ssId).checkExact(), equalTo(false));
+            SubsystemSurvey.Entry entry = SubsystemSurvey.get(coreDir).refresh(1).stream()
+                    .filter(x -> x.getId().equals(ssId)).findFirst().get();
+            assertThat(entry.isSuspectErrorCount(), equalTo(false));
+            // Nothing has changed, so all the rows should be restored.
+            SubsystemData subsystem = SubsystemData.load(coreDir, ssId);
+            assertThat(subsystem.revalidateRows(2), equalTo(0));
+            checkSameResults(subsystem, full);
+            // Now change a genome.  Only its row should be revalidated.
+            funFile.setLastModified(funModified + 60000);
+            assertThat(ValidationStore.isCurrent(coreDir, ssId), equalTo(false));
+            assertThat(SubsystemData.survey(coreDir, ssId).checkExact(), equalTo(true));
+            // The survey entry keeps its answer until asked for an exact check.
+            assertThat(entry.isSuspectErrorCount(), equalTo(false));
+            assertThat(entry.checkExact(), equalTo(true));
+            assertThat(entry.isSuspectErrorCount(), equalTo(true));
+            subsystem = SubsystemData.load(coreDir, ssId);
+            assertThat(subsystem.revalidateRows(1), equalTo(1));
+            checkSameResults(subsystem, full);
+            assertThat(ValidationStore.isCurrent(coreDir, ssId), equalTo(true));
+            assertThat(MarkerFile.readInt(SubsystemData.errorCountFile(coreDir, ssId)), equalTo(11));
+            // Verify that missing genomes are handled.
+            String ssId2 = "5-oxoprolinase";
+            full = SubsystemData.load(coreDir, ssId2);
+            full.validateRows();
+            assertThat(ValidationStore.isCurrent(coreDir, ssId2), equalTo(true));
+            subsystem = SubsystemData.load(coreDir, ssId2);
+            assertThat(subsystem.revalidateRows(1), equalTo(0));
+            checkSameResults(subsystem, full);
+        } finally {
+            funFile.setLastModified(funModified);
+            storeFile.delete();
+        }
+    }
+
+    @Test
+    public void testUnsavedValidation() throws IOException {
+        File coreDir = new File("data");
+        String ssId = "5-oxoprolinase";
+        File storeFile = ValidationStore.storeFile(coreDir, ssId);
+        File errorCountFile = SubsystemData.errorCountFile(coreDir, ssId);
+        String oldCount = (errorCountFile.exists() ? MarkerFile.read(errorCountFile) : null);
+        long errorModified = errorCountFile.lastModified();
+        try {
+            storeFile.delete();
+            SubsystemData expected = SubsystemData.load(coreDir, ssId);
+            expected.setSaveResults(false);
+            expected.validateRows();
+            assertThat(expected.isSuspectErrorCount(), equalTo(false));
+            assertThat(storeFile.exists(), equalTo(false));
+            assertThat(errorCountFile.lastModified(), equalTo(errorModified));
+            // The results must be the same as a saved validation.
+            SubsystemData saved = SubsystemData.load(coreDir, ssId);
+            saved.validateRows();
+            assertThat(storeFile.exists(), equalTo(true));
+            checkSameResults(expected, saved);
+        } finally {
+            storeFile.delete();
+            if (oldCount != null) {
+                MarkerFile.write(errorCountFile, oldCount);
+                errorCountFile.setLastModified(errorModified);
+            } else
+                errorCountFile.delete();
+        }
+    }
+
+    @Test
+    public void testLoadResults() throws IOException {
+        File coreDir = new File("data");
+        for (String ssId : new String[] { "2-nitroimidazole_resistance", "5-oxoprolinase" }) {
+            File storeFile = ValidationStore.storeFile(coreDir, ssId);
+            try {
+                storeFile.delete();
+                assertThat(SubsystemData.loadResults(coreDir, ssId), nullValue());
+                SubsystemData full = SubsystemData.load(coreDir, ssId);
+                full.validateRows();
+                SubsystemData loaded = SubsystemData.loadResults(coreDir, ssId);
+                assertThat(ssId, loaded.getId(), equalTo(ssId));
+                assertThat(ssId, loaded.getName(), equalTo(full.getName()));
+                assertThat(ssId, loaded.getWidth(), equalTo(full.getWidth()));
+                assertThat(ssId, loaded.size(), equalTo(full.size()));
+                assertThat(ssId, loaded.getMissingGenomes(), equalTo(full.getMissingGenomes()));
+                assertThat(ssId, loaded.getHealth(), equalTo(full.getHealth()));
+                for (int i = 0; i < full.getWidth(); i++) {
+                    ColumnData col = loaded.getColumns()[i];
+                    ColumnData expected = full.getColumns()[i];
+                    assertThat(ssId, col.getFunction(), equalTo(expected.getFunction()));
+                    assertThat(ssId, col.isAux(), equalTo(expected.isAux()));
+                }
+                for (RowData row : full.getRows()) {
+                    RowData other = loaded.getRows().stream().filter(x -> x.equals(row)).findFirst().orElseThrow();
+                    assertThat(ssId, other.getGenomeName(), equalTo(row.getGenomeName()));
+                    assertThat(ssId, other.getVariant(), equalTo(row.getVariant()));
+                    assertThat(ssId, other.getTypes(), equalTo(row.getTypes()));
+                }
+                checkSameResults(loaded, full);
+                assertThat(ssId, loaded.isSuspectErrorCount(), equalTo(false));
+                // A genome change is only seen by the exact check.
+                File funFile = new File(coreDir, "Organisms/" + full.getRows().iterator().next().getGenomeId()
+                        + "/assigned_functions");
+                long funModified = funFile.lastModified();
+                try {
+                    funFile.setLastModified(funModified + 60000);
+                    assertThat(ssId, SubsystemData.loadResults(coreDir, ssId).isSuspectErrorCount(), equalTo(false));
+                    assertThat(ssId, SubsystemData.loadResults(coreDir, ssId, true).isSuspectErrorCount(), equalTo(true));
+                    assertThat(ssId, SubsystemData.loadResults(coreDir, ssId).checkExact(), equalTo(true));
+                } finally {
+                    funFile.setLastModified(funModified);
+                }
+            } finally {
+                storeFile.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptValidation() throws IOException {
+        File coreDir = new File("data");
+        String ssId = "5-oxoprolinase";
+        File storeFile = ValidationStore.storeFile(coreDir, ssId);
+        try {
+            storeFile.delete();
+            SubsystemData full = SubsystemData.load(coreDir, ssId);
+            full.validateRows();
+            byte[] good = Files.readAllBytes(storeFile.toPath());
+            assertThat(ValidationStore.load(coreDir, ssId), notNullValue());
+            // The column count follows the two-int header and two longs.  Try a negative, a huge, and a truncated file.
+            for (int count : new int[] { -1, Integer.MAX_VALUE, 100000 }) {
+                byte[] bad = Arrays.copyOf(good, good.length);
+                ByteBuffer.wrap(bad).putInt(24, count);
+                Files.write(storeFile.toPath(), bad);
+                assertThat(Integer.toString(count), ValidationStore.load(coreDir, ssId), nullValue());
+                assertThat(Integer.toString(count), ValidationStore.isCurrent(coreDir, ssId), equalTo(false));
+            }
+            Files.write(storeFile.toPath(), Arrays.copyOf(good, good.length / 2));
+            assertThat(ValidationStore.load(coreDir, ssId), nullValue());
+            assertThat(SubsystemData.loadResults(coreDir, ssId), nullValue());
+            // A corrupt file is simply replaced by the next validation.
+            SubsystemData subsystem = SubsystemData.load(coreDir, ssId);
+            assertThat(subsystem.revalidateRows(1), equalTo(subsystem.size()));
+            checkSameResults(subsystem, full);
+            assertThat(ValidationStore.isCurrent(coreDir, ssId), equalTo(true));
+        } finally {
+            storeFile.delete();
+        }
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        File coreDir = new File("data");
+        // Build a subsystem with duplicate rows.  The last one for each genome must win.
+        String ssId = "Streaming_test";
+        File ssDir = new File(coreDir, "Subsystems/" + ssId);
+        File source = SubsystemData.getSpreadsheet(coreDir, "2-nitroimidazole_resistance");
+        try {
+            ssDir.mkdir();
+            List<String> lines = new ArrayList<>(Files.readAllLines(source.toPath()));
+            lines.add(lines.size() - 3, "209261.1\tinactive\t1085");
+            lines.add("99287.1\tactive.1.1\t1237\t1236\t3176");
+            lines.add("439843.6\t-1");
+            Files.write(SubsystemData.getSpreadsheet(coreDir, ssId).toPath(), lines);
+            checkStreaming(coreDir, ssId);
+            checkStreaming(coreDir, "5-oxoprolinase");
+            checkStreaming(coreDir, "ZZ_gjo_need_homes");
+        } finally {
+            FileUtils.deleteDirectory(ssDir);
+        }
+    }
+
+    /**
+     * Verify that streaming a subsystem produces the same results as loading it.
+     *
+     * @param coreDir	coreSEED data directory
+     * @param ssId		ID of the subsystem to check
+     *
+     * @throws IOException
+     */
+    private static void checkStreaming(File coreDir, String ssId) throws IOException {
+        SubsystemData full = SubsystemData.load(coreDir, ssId);
+        Map<String, RowData> streamed = new HashMap<>();
+        SubsystemData subsystem = SubsystemData.stream(coreDir, ssId, x -> streamed.put(x.getGenomeId(), x));
+        assertThat(ssId, subsystem.getRows().size(), equalTo(0));
+        assertThat(ssId, subsystem.size(), equalTo(full.size()));
+        assertThat(ssId, streamed.size(), equalTo(full.size()));
+        assertThat(ssId, subsystem.getMissingGenomes(), equalTo(full.getMissingGenomes()));
+        assertThat(ssId, subsystem.isSuspectErrorCount(), equalTo(true));
+        for (RowData row : full.getRows()) {
+            RowData other = streamed.get(row.getGenomeId());
+            assertThat(ssId, other.getVariant(), equalTo(row.getVariant()));
+            for (int i = 0; i < full.getWidth(); i++) {
+                Set<String> fids = new HashSet<>();
+                row.getCell(i).getFeatures().forEach(x -> fids.add(x.getKey()));
+                Set<String> otherFids = new HashSet<>();
+                other.getCell(i).getFeatures().forEach(x -> otherFids.add(x.getKey()));
+                assertThat(ssId, otherFids, equalTo(fids));
+            }
+        }
+        // Now validate both ways.
+        full.validateRows();
+        streamed.clear();
+        subsystem = SubsystemData.streamValidated(coreDir, ssId, 2, x -> streamed.put(x.getGenomeId(), x));
+        assertThat(ssId, subsystem.getErrorCount(), equalTo(full.getErrorCount()));
+        assertThat(ssId, subsystem.isSuspectErrorCount(), equalTo(false));
+        assertThat(ssId, subsystem.getHealth(), equalTo(full.getHealth()));
+        for (int i = 0; i < full.getWidth(); i++) {
+            ColumnData col = subsystem.getColumns()[i];
+            for (PegState state : PegState.values())
+                assertThat(ssId, col.getCount(state), equalTo(full.getColumns()[i].getCount(state)));
+        }
+        for (RowData row : full.getRows()) {
+            RowData other = streamed.get(row.getGenomeId());
+            for (int i = 0; i < full.getWidth(); i++) {
+                for (Map.Entry<String, FeatureStatus> feature : row.getCell(i).getFeatures()) {
+                    FeatureStatus status = other.getCell(i).getStatus(feature.getKey());
+                    assertThat(ssId, status.getState(), equalTo(feature.getValue().getState()));
+                }
+            }
+        }
+        // The saved results must match as well.
+        SubsystemData loaded = SubsystemData.loadResults(coreDir, ssId);
+        checkSameResults(loaded, full);
+        ValidationStore.storeFile(coreDir, ssId).delete();
+    }
+
+    /**
+     * Verify that two validated copies of a subsystem have the same results.
+     *
+     * @param subsystem		subsystem to check
+     * @param expected		subsystem with the expected results
+     */
+    private static void checkSameResults(SubsystemData subsystem, SubsystemData expected) {
+        assertThat(subsystem.getErrorCount(), equalTo(expected.getErrorCount()));
+        assertThat(subsystem.isSuspectErrorCount(), equalTo(false));
+        final int width = expected.getWidth();
+        for (int i = 0; i < width; i++) {
+            ColumnData col = subsystem.getColumns()[i];
+            ColumnData expectedCol = expected.getColumns()[i];
+            for (PegState state : PegState.values())
+                assertThat(col.getAbbr() + " " + state, col.getCount(state), equalTo(expectedCol.getCount(state)));
+            assertThat(col.getAbbr(), col.getBadRoles(), equalTo(expectedCol.getBadRoles()));
+        }
+        for (RowData expectedRow : expected.getRows()) {
+            RowData row = subsystem.getRows().stream().filter(x -> x.equals(expectedRow)).findFirst().orElseThrow();
+            for (int i = 0; i < width; i++) {
+                CellData cell = row.getCell(i);
+                CellData expectedCell = expectedRow.getCell(i);
+                assertThat(cell.size(), equalTo(expectedCell.size()));
+                for (Map.Entry<String, FeatureStatus> feature : expectedCell.getFeatures()) {
+                    FeatureStatus status = cell.getStatus(feature.getKey());
+                    assertThat(feature.getKey(), status.getState(), equalTo(feature.getValue().getState()));
+                    assertThat(feature.getKey(), status.getFunction(), equalTo(feature.getValue().getFunction()));
+                }
+            }
+        }
+    }
+
 }
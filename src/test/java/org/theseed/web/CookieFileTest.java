@@ -9,6 +9,7 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import org.apache.commons.io.FileUtils;
 
@@ -77,5 +78,67 @@ public class CookieFileTest {
             assertThat(cookies.get("tTest", true), equalTo(false));
             assertThat(cookies.get("fTest", false), equalTo(true));
         }
+        FileUtils.forceDelete(cookieFileName);
+        FileUtils.deleteQuietly(new File(wsDir, cookieFileName.getName() + ".lock"));
     }
+
+    @Test
+    public void testCookieMerge() throws IOException {
+        File wsDir = new File("data", "Workspace");
+        File cookieFileName = new File(wsDir, "_mergeCookies.cookie.tbl");
+        if (cookieFileName.exists())
+            FileUtils.forceDelete(cookieFileName);
+        try (CookieFile cookies = new CookieFile(wsDir, "mergeCookies")) {
+            cookies.put("a", 1).put("b", 2).put("c", 3);
+        }
+        // Simulate two requests in the same workspace with overlapping lifetimes.
+        CookieFile cookies1 = new CookieFile(wsDir, "mergeCookies");
+        CookieFile cookies2 = new CookieFile(wsDir, "mergeCookies");
+        cookies1.put("a", 10);
+        cookies1.delete("c");
+        assertThat(cookies1.get("d", 40), equalTo(40));
+        cookies2.put("b", 20);
+        cookies2.put("d", 400);
+        cookies2.close();
+        cookies1.close();
+        try (CookieFile cookies = new CookieFile(wsDir, "mergeCookies")) {
+            assertThat(cookies.getKeys(), arrayContaining("a", "b", "d"));
+            assertThat(cookies.get("a", 0), equalTo(10));
+            assertThat(cookies.get("b", 0), equalTo(20));
+            assertThat(cookies.get("d", 0), equalTo(400));
+        }
+        // The first object should now hold the merged values.
+        assertThat(cookies1.get("b", 0), equalTo(20));
+        // Verify no temporary files were left behind.
+        String[] tempFiles = wsDir.list((d, n) -> n.startsWith("_mergeCookies") && n.endsWith(".tmp"));
+        assertThat(tempFiles, emptyArray());
+        // Verify that an outside change to the file is noticed.
+        FileUtils.writeStringToFile(cookieFileName, "a 100\nz changed value\n", "UTF-8");
+        try (CookieFile cookies = new CookieFile(wsDir, "mergeCookies")) {
+            assertThat(cookies.get("a", 0), equalTo(100));
+            assertThat(cookies.getString("z"), equalTo("changed value"));
+            assertThat(cookies.getString("b"), nullValue());
+        }
+        // Rewrite the file with the same length and time.  The cache cannot see this, but a flush must.
+        long modified = cookieFileName.lastModified();
+        CookieFile cookies3 = new CookieFile(wsDir, "mergeCookies");
+        FileUtils.writeStringToFile(cookieFileName, "a 200\nz changed VALUE\n", "UTF-8");
+        cookieFileName.setLastModified(modified);
+        cookies3.put("y", "new");
+        cookies3.close();
+        try (CookieFile cookies = new CookieFile(wsDir, "mergeCookies")) {
+            assertThat(cookies.get("a", 0), equalTo(200));
+            assertThat(cookies.getString("z"), equalTo("changed VALUE"));
+            assertThat(cookies.getString("y"), equalTo("new"));
+        }
+        // Insure the rewritten file has the normal permissions for a new file, not the private temp-file ones.
+        File plainFile = new File(wsDir, "_plain.tmp");
+        FileUtils.writeStringToFile(plainFile, "", "UTF-8");
+        assertThat(Files.getPosixFilePermissions(cookieFileName.toPath()),
+                equalTo(Files.getPosixFilePermissions(plainFile.toPath())));
+        FileUtils.forceDelete(plainFile);
+        FileUtils.forceDelete(cookieFileName);
+        FileUtils.deleteQuietly(new File(wsDir, cookieFileName.getName() + ".lock"));
+    }
+
 }
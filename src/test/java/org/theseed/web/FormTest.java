@@ -7,22 +7,42 @@ import org.junit.jupiter.api.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Option;
+import org.theseed.basic.ParseFailureException;
 import org.theseed.io.LineReader;
 import org.theseed.reports.PageWriter;
 import org.theseed.sequence.blast.BlastDB;
 import org.theseed.sequence.blast.Source;
+import org.theseed.web.forms.FormBlastElement;
+import org.theseed.web.forms.FormElement;
+import org.theseed.web.forms.FormIntElement;
+
+import static j2html.TagCreator.h1;
+import static j2html.TagCreator.p;
 
 /**
  * @author Bruce Parrello
@@ -51,6 +71,7 @@ public class FormTest {
         formHtml = buildTestForm(writer, wsDir).output().render();
         // Verify that the form has the new defaults.
         assertThat(formHtml, equalTo("<form method=\"POST\" action=\"/SEEDtk/test.cgi/run\" class=\"web\" enctype=\"multipart/form-data\"><input type=\"hidden\" name=\"workspace\" value=\"parrello\"/><table><tr><th>Parameter</th><th>Value</th></tr><tr><td>Query Sequences</td><td><select name=\"qtype\"><option value=\"db\">Existing Blast Database</option><option value=\"dna\" selected>DNA FASTA file</option><option value=\"prot\">Protein FASTA file</option><option value=\"contigs\">Contigs in a GTO</option><option value=\"pegs\">Proteins in a GTO</option><option value=\"features\">Feature DNA in a GTO</option><option value=\"pegs_dna\">DNA of PEGs in a GTO</option><option value=\"rna\">RNA features in a GTO</option></select> <input type=\"checkbox\" onChange=\"configureFiles(this, 'qfile_local', 'qfile_work');\" id=\"qfile\" class=\"fileChecker\"/> Local <input type=\"file\" id=\"qfile_local\" style=\"display: none;\" class=\"file\"/> <input type=\"text\" name=\"qfile\" id=\"qfile_work\" list=\"_data_list_0000\" class=\"file\" style=\"display: inline-block;\"/></td></tr><tr><td>Show more detailed log messages</td><td><input type=\"checkbox\" name=\"debug\" checked/></td></tr><tr><td>Output Sort Type</td><td><select name=\"sort\"><option value=\"QUERY\">Sort by Query Sequence</option><option value=\"SUBJECT\" selected>Sort by Subject Sequence</option></select></td></tr><tr><td>Table file</td><td><input type=\"checkbox\" onChange=\"configureFiles(this, 'tabFile_local', 'tabFile_work');\" id=\"tabFile\" class=\"fileChecker\"/> Local <input type=\"file\" id=\"tabFile_local\" style=\"display: none;\" class=\"file\"/> <input type=\"text\" name=\"tabFile\" id=\"tabFile_work\" list=\"_data_list_0001\" class=\"file\" style=\"display: inline-block;\" value=\"frog.prince.tbl\"/></td></tr><tr><td>Percent Identity</td><td><input type=\"number\" name=\"pctIdent\" value=\"0\" min=\"0\" max=\"100\"/></td></tr><tr><td>Maximum E-value</td><td><input type=\"text\" name=\"maxE\" value=\"1e-10\"/></td></tr><tr><td>Sample ID filtering</td><td><table class=\"filterBox\" id=\"sampleFilter\"><tr><th><a href=\"javascript:toggleFilter('sampleFilter','host');\">host</a></th><th><a href=\"javascript:toggleFilter('sampleFilter','del');\">del</a></th><th><a href=\"javascript:toggleFilter('sampleFilter','operon');\">operon</a></th><th><a href=\"javascript:toggleFilter('sampleFilter','loc');\">loc</a></th><th><a href=\"javascript:toggleFilter('sampleFilter','asd');\">asd</a></th><th><a href=\"javascript:toggleFilter('sampleFilter','insert');\">insert</a></th><th><a href=\"javascript:toggleFilter('sampleFilter','delete');\">delete</a></th></tr><tr><td><input type=\"checkbox\" name=\"f1\" value=\"7\" checked/>7</td><td><input type=\"checkbox\" name=\"f2\" value=\"0\"/>0</td><td><input type=\"checkbox\" name=\"f3\" value=\"0\"/>0</td><td><input type=\"checkbox\" name=\"f4\" value=\"0\" checked/>0</td><td><input type=\"checkbox\" name=\"f5\" value=\"asdD\"/>asdD</td><td><input type=\"checkbox\" name=\"f6\" value=\"000\" checked/>000</td><td><input type=\"checkbox\" name=\"f7\" value=\"dapA\" checked/>dapA</td></tr><tr><td><input type=\"checkbox\" name=\"f1\" value=\"M\" checked/>M</td><td><input type=\"checkbox\" name=\"f2\" value=\"D\"/>D</td><td><input type=\"checkbox\" name=\"f3\" value=\"Tasd\" checked/>Tasd</td><td><input type=\"checkbox\" name=\"f4\" value=\"A\" checked/>A</td><td><input type=\"checkbox\" name=\"f5\" value=\"asdO\"/>asdO</td><td><input type=\"checkbox\" name=\"f6\" value=\"aceBA\" checked/>aceBA</td><td><input type=\"checkbox\" name=\"f7\" value=\"dhaM\"/>dhaM</td></tr><tr><td>&nbsp;</td><td>&nbsp;</td><td><input type=\"checkbox\" name=\"f3\" value=\"TasdA\"/>TasdA</td><td><input type=\"checkbox\" name=\"f4\" value=\"P\" checked/>P</td><td>&nbsp;</td><td><input type=\"checkbox\" name=\"f6\" value=\"aspC\" checked/>aspC</td><td><input type=\"checkbox\" name=\"f7\" value=\"lysA\"/>lysA</td></tr><tr><td>&nbsp;</td><td>&nbsp;</td><td><input type=\"checkbox\" name=\"f3\" value=\"TasdA1\" checked/>TasdA1</td><td>&nbsp;</td><td>&nbsp;</td><td><input type=\"checkbox\" name=\"f6\" value=\"pntAB\" checked/>pntAB</td><td><input type=\"checkbox\" name=\"f7\" value=\"lysC\" checked/>lysC</td></tr><tr><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td><input type=\"checkbox\" name=\"f6\" value=\"ppc\" checked/>ppc</td><td><input type=\"checkbox\" name=\"f7\" value=\"metL\"/>metL</td></tr><tr><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td><input type=\"checkbox\" name=\"f6\" value=\"pyc\" checked/>pyc</td><td><input type=\"checkbox\" name=\"f7\" value=\"ptsG\"/>ptsG</td></tr><tr><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td><input type=\"checkbox\" name=\"f6\" value=\"rhtA\" checked/>rhtA</td><td><input type=\"checkbox\" name=\"f7\" value=\"rhtA\" checked/>rhtA</td></tr><tr><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td>&nbsp;</td><td><input type=\"checkbox\" name=\"f6\" value=\"zwf\" checked/>zwf</td><td><input type=\"checkbox\" name=\"f7\" value=\"tdh\"/>tdh</td></tr><tr><td colspan=\"7\" class=\"flag\"><input type=\"button\" onclick=\"resetFilter('sampleFilter');\" value=\"Clear Filters\"/></td></tr></table></td></tr></table><p><input type=\"submit\" class=\"submit\"/></p></form>"));
+        FileUtils.deleteQuietly(new File(wsDir, cookieFileName.getName() + ".lock"));
     }
 
     /**
@@ -93,4 +114,319 @@ public class FormTest {
         return retVal;
     }
 
+    /**
+     * This is a simple web command for testing the web server.  It greets a name and counts its calls in
+     * the cookie file.
+     */
+    public static class HelloProcessor extends WebProcessor {
+
+        @FormElement
+        @Option(name = "--name", usage = "name to greet")
+        protected String name;
+
+        @FormElement
+        @Option(name = "--loud", usage = "greet loudly")
+        protected boolean loud;
+
+        @FormIntElement(min = 1, max = 10)
+        @Option(name = "--repeat", usage = "number of greetings")
+        protected int repeat;
+
+        @FormBlastElement(id = "qtype")
+        @Option(name = "--qfile", usage = "query file")
+        protected String qfile;
+
+        @Option(name = "--qtype", usage = "query type")
+        protected Source qtype;
+
+        @Override
+        protected void setWebDefaults() {
+            this.name = "world";
+            this.loud = false;
+            this.repeat = 1;
+            this.qfile = "query.fa";
+            this.qtype = Source.dna;
+        }
+
+        @Override
+        protected void validateWebParms() throws IOException, ParseFailureException {
+        }
+
+        @Override
+        protected String getCookieName() {
+            return "test.hello";
+        }
+
+        @Override
+        protected void runWebCommand(CookieFile cookies) throws Exception {
+            int count = cookies.get("count", 0) + 1;
+            cookies.put("count", count);
+            String greeting = "Hello " + (this.loud ? this.name.toUpperCase() : this.name);
+            this.getPageWriter().writePage("Hello", h1(greeting), p("call " + count), p("file " + this.qfile));
+        }
+
+    }
+
+    @Test
+    public void testWebServer() throws Exception {
+        File coreDir = new File("data", "Temp_server");
+        File wsDir = new File(coreDir, "Workspaces/tester");
+        FileUtils.forceMkdir(wsDir);
+        WebServer server = new WebServer(coreDir, 0, 4);
+        server.register("test", "hello", () -> new HelloProcessor());
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            String base = "http://localhost:" + server.getPort();
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                    URI.create(base + "/test.cgi/hello?workspace=tester;name=Bruce")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode(), equalTo(200));
+            assertThat(response.body(), equalTo(helloPage("Hello Bruce", 1, "query.fa")));
+            // The cookie file persists between requests, and boolean options are flags.
+            response = client.send(HttpRequest.newBuilder(URI.create(base + "/test.cgi/hello"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString("workspace=tester&name=Bruce&loud=on")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode(), equalTo(200));
+            assertThat(response.body(), stringContainsInOrder("Hello BRUCE", "call 2"));
+            // Run a batch of requests at once to verify the output and the cookie file are isolated.
+            List<CompletableFuture<HttpResponse<String>>> futures = new ArrayList<CompletableFuture<HttpResponse<String>>>();
+            for (int i = 0; i < 8; i++)
+                futures.add(client.sendAsync(HttpRequest.newBuilder(
+                        URI.create(base + "/test.cgi/hello?workspace=tester;name=n" + i)).build(),
+                        HttpResponse.BodyHandlers.ofString()));
+            Set<String> calls = new TreeSet<String>();
+            for (int i = 0; i < 8; i++) {
+                String body = futures.get(i).get().body();
+                assertThat(body, containsString("Hello n" + i + "<"));
+                calls.add(StringUtils.substringBetween(body, "call ", "<"));
+            }
+            assertThat(calls.size(), equalTo(8));
+            try (CookieFile cookies = new CookieFile(wsDir, "test.hello")) {
+                assertThat(cookies.get("count", 0), equalTo(10));
+            }
+            // Verify the error cases.
+            response = client.send(HttpRequest.newBuilder(URI.create(base + "/test.cgi/goodbye?workspace=tester")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode(), equalTo(404));
+            response = client.send(HttpRequest.newBuilder(URI.create(base + "/test.cgi/hello?workspace=nobody")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode(), equalTo(400));
+            // Upload a file.  The data contains bytes that are not valid UTF-8 and a near-miss of the boundary.
+            byte[] data = new byte[] { 'A', 0, (byte) 0xFF, '\r', '\n', '-', '-', 'X', '\r', '\n', (byte) 0x80 };
+            response = client.send(uploadRequest(base, "tester", "C:\\local\\up.fa", data),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode(), equalTo(200));
+            assertThat(response.body(), equalTo(helloPage("Hello Up", 11, "up.fa")));
+            assertThat(Files.readAllBytes(new File(wsDir, "up.fa").toPath()), equalTo(data));
+            File plainFile = new File(wsDir, "_plain.tmp");
+            plainFile.createNewFile();
+            assertThat(Files.getPosixFilePermissions(new File(wsDir, "up.fa").toPath()),
+                    equalTo(Files.getPosixFilePermissions(plainFile.toPath())));
+            plainFile.delete();
+            // Uploads with a bad name or no workspace are rejected.
+            response = client.send(uploadRequest(base, "tester", "_hidden.fa", data),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode(), equalTo(400));
+            assertThat(new File(wsDir, "_hidden.fa").exists(), equalTo(false));
+            response = client.send(uploadRequest(base, null, "up2.fa", data), HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode(), equalTo(400));
+        } finally {
+            server.stop(0);
+            FileUtils.deleteDirectory(coreDir);
+        }
+    }
+
+    /**
+     * @return the exact page produced by the hello command
+     *
+     * @param greeting	greeting on the page
+     * @param count		call count on the page
+     * @param qfile		query file name on the page
+     */
+    private static String helloPage(String greeting, int count, String qfile) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PageWriter writer = PageWriter.Type.SEEDTK.create();
+        writer.setOutput(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+        writer.writePage("Hello", h1(greeting), p("call " + count), p("file " + qfile));
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a multipart request that uploads a query file to the hello command
+     *
+     * @param base			base URL of the server
+     * @param workspace		workspace name, or NULL to omit it
+     * @param fileName		name of the uploaded file
+     * @param data			content of the uploaded file
+     */
+    private static HttpRequest uploadRequest(String base, String workspace, String fileName, byte[] data) {
+        String boundary = "XyZzY";
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        StringBuilder text = new StringBuilder();
+        if (workspace != null)
+            text.append("--" + boundary + "\r\nContent-Disposition: form-data; name=\"workspace\"\r\n\r\n"
+                    + workspace + "\r\n");
+        text.append("--" + boundary + "\r\nContent-Disposition: form-data; name=\"name\"\r\n\r\nUp\r\n");
+        text.append("--" + boundary + "\r\nContent-Disposition: form-data; name=\"qfile\"; filename=\""
+                + fileName + "\"\r\nContent-Type: application/octet-stream\r\n\r\n");
+        body.writeBytes(text.toString().getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(data);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return HttpRequest.newBuilder(URI.create(base + "/test.cgi/hello"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray())).build();
+    }
+
+    @Test
+    public void testFormDescriptor() throws Exception {
+        FormDescriptor descriptor = FormDescriptor.of(HelloProcessor.class);
+        assertThat(FormDescriptor.of(HelloProcessor.class), sameInstance(descriptor));
+        List<String> names = new ArrayList<String>();
+        for (FormDescriptor.FormField formField : descriptor.getFields()) {
+            names.add(formField.getName());
+            assertThat(formField.getName(), formField.isAccessible(), equalTo(true));
+        }
+        assertThat(names, contains("name", "loud", "repeat", "qfile"));
+        FormDescriptor.FormField qfileField = descriptor.getFields().get(3);
+        assertThat(qfileField.getTypeField().getName(), equalTo("qtype"));
+        assertThat(descriptor.getFields().get(0).getTypeField(), nullValue());
+        // Verify the accessors.
+        HelloProcessor processor = new HelloProcessor();
+        processor.setDefaults();
+        assertThat(descriptor.getFields().get(2).getValue(processor), equalTo(1));
+        descriptor.getFields().get(2).setValue(processor, 5);
+        assertThat(processor.repeat, equalTo(5));
+        assertThat(qfileField.getTypeField().getValue(processor), equalTo(Source.dna));
+        // Save and build a form.
+        File coreDir = new File("data", "Temp_form");
+        File wsDir = new File(coreDir, "Workspaces/tester");
+        FileUtils.forceMkdir(wsDir);
+        try {
+            processor = new HelloProcessor();
+            assertThat(processor.parseCommand(new String[] { "--name", "Bruce", "--loud", "--repeat", "3",
+                    "--qtype", "prot", coreDir.getPath(), "tester" }), equalTo(true));
+            try (CookieFile cookies = new CookieFile(wsDir, "test.form")) {
+                processor.saveForm(cookies);
+                assertThat(cookies.get("name", ""), equalTo("Bruce"));
+                assertThat(cookies.get("loud", false), equalTo(true));
+                assertThat(cookies.get("repeat", 0), equalTo(3));
+                assertThat(cookies.get("qfile", ""), equalTo("query.fa"));
+                assertThat(cookies.get("qtype", ""), equalTo("prot"));
+            }
+            String formHtml = processor.buildForm(HelloProcessor.class, "test", "hello").output().render();
+            assertThat(formHtml, stringContainsInOrder("name=\"name\"", "name=\"loud\"", "name=\"repeat\"",
+                    "name=\"qtype\"", "name=\"qfile\""));
+        } finally {
+            FileUtils.deleteDirectory(coreDir);
+        }
+    }
+
+    @Test
+    public void testWorkspaceCatalog() throws IOException {
+        WorkspaceCatalog catalog = WorkspaceCatalog.of(new File("data", "Workspace"));
+        assertThat(catalog.getFiles(WorkspaceCatalog.FileType.GTO), contains("12022.4.gto", "39803.5.gto",
+                "546.156.gto", "562.11147.gto"));
+        assertThat(catalog.getFiles(WorkspaceCatalog.FileType.FASTA), contains("attempt_1_small.fasta"));
+        assertThat(catalog.getFiles(WorkspaceCatalog.FileType.READS), empty());
+        assertThat(catalog.getFiles(HtmlForm.BLAST_FILE_PATTERN), sameInstance(catalog.getFiles(WorkspaceCatalog.FileType.BLAST)));
+        assertThat(catalog.getFiles(HtmlForm.BLAST_FILE_PATTERN), hasSize(5));
+        assertThat(catalog.getFiles(Pattern.compile("ecoli\\..+")), contains("ecoli.aln.tbl", "ecoli.dna.tbl"));
+        for (String name : catalog.getFiles())
+            assertThat(name, not(startsWith("_")));
+        // Verify that a new file shows up.
+        File wsDir = new File("data", "Temp_catalog");
+        FileUtils.forceMkdir(wsDir);
+        try {
+            FileUtils.writeStringToFile(new File(wsDir, "b.fq"), "", "UTF-8");
+            FileUtils.writeStringToFile(new File(wsDir, "_hidden.tbl"), "", "UTF-8");
+            catalog = WorkspaceCatalog.of(wsDir);
+            assertThat(catalog.getFiles(), contains("b.fq"));
+            FileUtils.writeStringToFile(new File(wsDir, "a.fastq"), "", "UTF-8");
+            catalog = WorkspaceCatalog.of(wsDir);
+            assertThat(catalog.getFiles(WorkspaceCatalog.FileType.READS), contains("a.fastq", "b.fq"));
+        } finally {
+            FileUtils.deleteDirectory(wsDir);
+        }
+    }
+
+    @Test
+    public void testMapChoices() throws IOException {
+        File wsDir = new File("data", "Temp_map");
+        FileUtils.forceMkdir(wsDir);
+        try {
+            File mapFile = new File(wsDir, "choices.tbl");
+            FileUtils.writeStringToFile(mapFile, "description\tvalue\nFirst <choice>\tA\nSecond\tB\nThird\tC\nAlias\tB\n",
+                    "UTF-8");
+            MapChoices choices = MapChoices.get(mapFile);
+            assertThat(MapChoices.get(mapFile), sameInstance(choices));
+            assertThat(choices.size(), equalTo(4));
+            assertThat(choices.getDefault(), equalTo("A"));
+            // Compare the cached map box to one built directly from the map.
+            Map<String, String> map = new LinkedHashMap<String, String>();
+            map.put("First <choice>", "A");
+            map.put("Second", "B");
+            map.put("Third", "C");
+            map.put("Alias", "B");
+            PageWriter writer = PageWriter.Type.SEEDTK.create();
+            HtmlForm form = new HtmlForm("test", "map", "tester", wsDir, writer);
+            form.addMapRow("pick", "Pick one", mapFile);
+            form.addMapRow("pick", "Pick one", map, "A");
+            try (CookieFile cookies = new CookieFile(wsDir, HtmlForm.formCookieName("test", "map"))) {
+                cookies.put("pick", "B");
+            }
+            HtmlForm form2 = new HtmlForm("test", "map", "tester", wsDir, writer);
+            form2.addMapRow("pick", "Pick one", mapFile);
+            form2.addMapRow("pick", "Pick one", map, "A");
+            for (HtmlForm testForm : List.of(form, form2)) {
+                String html = testForm.output().render();
+                String[] rows = StringUtils.substringsBetween(html, "<select", "</select>");
+                assertThat(rows.length, equalTo(2));
+                assertThat(rows[0], equalTo(rows[1]));
+            }
+            assertThat(form.output().render(), containsString("<option value=\"A\" selected>First &lt;choice&gt;</option>"));
+            String html2 = form2.output().render();
+            assertThat(html2, containsString("<option value=\"B\" selected>Second</option>"));
+            assertThat(html2, containsString("<option value=\"B\" selected>Alias</option>"));
+            assertThat(html2, containsString("<option value=\"A\">First &lt;choice&gt;</option>"));
+            // Verify that a changed file is reloaded.
+            FileUtils.writeStringToFile(mapFile, "description\tvalue\nOnly\tZ\n", "UTF-8");
+            mapFile.setLastModified(mapFile.lastModified() + 5000);
+            MapChoices choices2 = MapChoices.get(mapFile);
+            assertThat(choices2, not(sameInstance(choices)));
+            assertThat(choices2.getDefault(), equalTo("Z"));
+        } finally {
+            FileUtils.deleteDirectory(wsDir);
+        }
+    }
+
+    @Test
+    public void testSharedFileCache() throws IOException {
+        File testFile = new File("data", "choices.tbl");
+        int[] loads = new int[] { 0 };
+        SharedFileCache.Loader<List<String>> loader = x -> {
+            loads[0]++;
+            return Files.readAllLines(x.toPath());
+        };
+        SharedFileCache.clear();
+        @SuppressWarnings("unchecked")
+        List<String> lines = SharedFileCache.get(testFile, List.class, loader);
+        @SuppressWarnings("unchecked")
+        List<String> lines2 = SharedFileCache.get(testFile, List.class, loader);
+        assertThat(lines2, sameInstance(lines));
+        assertThat(loads[0], equalTo(1));
+        long modified = testFile.lastModified();
+        try {
+            testFile.setLastModified(modified + 60000);
+            @SuppressWarnings("unchecked")
+            List<String> lines3 = SharedFileCache.get(testFile, List.class, loader);
+            assertThat(lines3, equalTo(lines));
+            assertThat(loads[0], equalTo(2));
+        } finally {
+            testFile.setLastModified(modified);
+            SharedFileCache.clear();
+        }
+    }
+
 }